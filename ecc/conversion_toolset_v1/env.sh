@@ -17,6 +17,7 @@ set -o errexit
 
 INPUT_DATA="${INPUT_DIR}/eccdata.txt"
 OUTPUT_DATA="${OUTPUT_DIR}/eccdata"
+OUTPUT_INDEX="${OUTPUT_DIR}/eccdata.idx"
 PROTOBUF_DIR="${LOCAL_TOOLSET_DIR}/proto"
 PROTOBUF_FILE="${PROTOBUF_DIR}/protobuf_ecc_data.proto"
 RAW_DATA="${INTERMEDIATE_DIR}/eccdata.raw"
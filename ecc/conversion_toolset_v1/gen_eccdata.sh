@@ -22,6 +22,9 @@ echo "Converting eccdata..."
 aprotoc --encode=ecc.AllInfo proto/protobuf_ecc_data.proto \
   < "${INPUT_DATA}" > "${RAW_DATA}"
 
+echo "Validating and indexing eccdata..."
+eccdata-tool "${RAW_DATA}" "${OUTPUT_INDEX}"
+
 echo "Compressing eccdata..."
 gzip -c < "${RAW_DATA}" > "${OUTPUT_DATA}"
 
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.ecc.tool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Reads and writes the indexed eccdata, which lets a single country be read without decoding
+ * the data of the other countries.
+ *
+ * <p>The file holds the serialized {@code CountryInfo} messages of {@code AllInfo}, preceded by
+ * a table of their offsets sorted by ISO country code:
+ * <pre>
+ *   int     magic
+ *   int     format version
+ *   int     revision of AllInfo
+ *   int     number of countries
+ *   for each country, sorted by ISO code:
+ *     byte[4] ISO code in ASCII, padded with zeros
+ *     int     offset of the CountryInfo from the start of the file
+ *     int     length of the CountryInfo
+ *   byte[]  the CountryInfo messages
+ * </pre>
+ * All integers are big-endian.
+ */
+public final class EccDataIndex {
+    private static final int MAGIC = 0x45434349; // "ECCI"
+    private static final int FORMAT_VERSION = 1;
+
+    /** Maximum length of an ISO country code in the table. */
+    public static final int MAX_ISO_CODE_LENGTH = 4;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = MAX_ISO_CODE_LENGTH + 8;
+
+    private final ByteBuffer mBuffer;
+    private final int mRevision;
+    private final int mCountryCount;
+
+    /**
+     * Opens an index. The buffer is not copied and must not be modified while the index is used.
+     *
+     * @throws IOException if the buffer does not hold a valid index.
+     */
+    public EccDataIndex(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer.duplicate();
+        try {
+            if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Unknown eccdata index format");
+            }
+            mRevision = mBuffer.getInt(8);
+            mCountryCount = mBuffer.getInt(12);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated eccdata index", e);
+        }
+        if (mCountryCount < 0
+                || HEADER_SIZE + (long) mCountryCount * ENTRY_SIZE > mBuffer.limit()) {
+            throw new IOException("Malformed eccdata index");
+        }
+    }
+
+    /** Returns the revision of the data. */
+    public int getRevision() {
+        return mRevision;
+    }
+
+    /** Returns the number of countries in the index. */
+    public int getCountryCount() {
+        return mCountryCount;
+    }
+
+    /** Returns the ISO code of the country at the given position of the table. */
+    public String getIsoCode(int position) {
+        byte[] isoCode = new byte[MAX_ISO_CODE_LENGTH];
+        int entry = HEADER_SIZE + position * ENTRY_SIZE;
+        int length = 0;
+        while (length < MAX_ISO_CODE_LENGTH && mBuffer.get(entry + length) != 0) {
+            isoCode[length] = mBuffer.get(entry + length);
+            length++;
+        }
+        return new String(isoCode, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the serialized CountryInfo of a country, or {@code null} if there is no such
+     * country. Only the table is searched, the other countries are not read.
+     *
+     * @throws IOException if the entry of the country is out of the bounds of the file.
+     */
+    public ByteBuffer findCountry(String isoCode) throws IOException {
+        byte[] key = toTableKey(isoCode);
+        if (key == null) {
+            return null;
+        }
+        int low = 0;
+        int high = mCountryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = HEADER_SIZE + mid * ENTRY_SIZE;
+            int cmp = compareKey(entry, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                int offset = mBuffer.getInt(entry + MAX_ISO_CODE_LENGTH);
+                int length = mBuffer.getInt(entry + MAX_ISO_CODE_LENGTH + 4);
+                if (offset < 0 || length < 0 || (long) offset + length > mBuffer.limit()) {
+                    throw new IOException("Malformed eccdata index entry: " + isoCode);
+                }
+                ByteBuffer country = mBuffer.duplicate();
+                country.position(offset).limit(offset + length);
+                return country.slice();
+            }
+        }
+        return null;
+    }
+
+    private int compareKey(int entry, byte[] key) {
+        for (int i = 0; i < MAX_ISO_CODE_LENGTH; i++) {
+            int cmp = Integer.compare(mBuffer.get(entry + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the padded ISO code, or {@code null} if it cannot be in the table. */
+    private static byte[] toTableKey(String isoCode) {
+        byte[] bytes = isoCode.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length == 0 || bytes.length > MAX_ISO_CODE_LENGTH) {
+            return null;
+        }
+        return Arrays.copyOf(bytes, MAX_ISO_CODE_LENGTH);
+    }
+
+    /**
+     * Writes an index.
+     *
+     * @param revision The revision of AllInfo.
+     * @param countries The serialized CountryInfo messages by ISO code.
+     */
+    public static byte[] write(int revision, SortedMap<String, byte[]> countries)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(revision);
+        out.writeInt(countries.size());
+        int offset = HEADER_SIZE + countries.size() * ENTRY_SIZE;
+        for (Map.Entry<String, byte[]> country : countries.entrySet()) {
+            byte[] key = toTableKey(country.getKey());
+            if (key == null) {
+                throw new IOException("ISO code cannot be indexed: " + country.getKey());
+            }
+            out.write(key);
+            out.writeInt(offset);
+            out.writeInt(country.getValue().length);
+            offset += country.getValue().length;
+        }
+        for (byte[] country : countries.values()) {
+            out.write(country);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.ecc.tool;
+
+import com.android.phone.ecc.nano.ProtobufEccData;
+
+import com.google.protobuf.nano.MessageNano;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Validates the encoded eccdata against the rules of protobuf_ecc_data.proto and writes the
+ * indexed eccdata, see {@link EccDataIndex}.
+ *
+ * <p>Usage: eccdata-tool &lt;encoded AllInfo&gt; &lt;indexed output&gt;
+ */
+public final class EccDataTool {
+    private static final String FALLBACK_112 = "112";
+    private static final String FALLBACK_911 = "911";
+
+    private EccDataTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: eccdata-tool <encoded AllInfo> <indexed output>");
+            System.exit(2);
+        }
+        ProtobufEccData.AllInfo allInfo =
+                ProtobufEccData.AllInfo.parseFrom(Files.readAllBytes(Paths.get(args[0])));
+
+        List<String> errors = validate(allInfo);
+        if (!errors.isEmpty()) {
+            for (String error : errors) {
+                System.err.println(error);
+            }
+            System.err.println(errors.size() + " error(s) found in eccdata");
+            System.exit(1);
+        }
+
+        SortedMap<String, byte[]> countries = new TreeMap<>();
+        for (ProtobufEccData.CountryInfo countryInfo : allInfo.countries) {
+            countries.put(countryInfo.isoCode, MessageNano.toByteArray(countryInfo));
+        }
+        Files.write(Paths.get(args[1]), EccDataIndex.write(allInfo.revision, countries));
+        System.out.println("Indexed " + countries.size() + " countries");
+    }
+
+    /** Returns the violations of the rules of protobuf_ecc_data.proto, empty if there is none. */
+    static List<String> validate(ProtobufEccData.AllInfo allInfo) {
+        List<String> errors = new ArrayList<>();
+        if (allInfo.countries.length == 0) {
+            errors.add("No CountryInfo");
+        }
+
+        Set<String> isoCodes = new HashSet<>();
+        for (ProtobufEccData.CountryInfo countryInfo : allInfo.countries) {
+            String isoCode = countryInfo.isoCode;
+            if (isoCode.isEmpty()) {
+                errors.add("CountryInfo without iso_code");
+            } else if (!isoCode.equals(isoCode.trim().toUpperCase(Locale.ROOT))) {
+                errors.add(isoCode + ": iso_code is not trimmed upper case");
+            } else if (isoCode.length() > EccDataIndex.MAX_ISO_CODE_LENGTH) {
+                errors.add(isoCode + ": iso_code is too long");
+            } else if (!isoCodes.add(isoCode)) {
+                errors.add(isoCode + ": duplicate CountryInfo");
+            }
+
+            if (!FALLBACK_112.equals(countryInfo.eccFallback)
+                    && !FALLBACK_911.equals(countryInfo.eccFallback)) {
+                errors.add(isoCode + ": ecc_fallback shall be 112 or 911, is \""
+                        + countryInfo.eccFallback + "\"");
+            }
+            if (countryInfo.eccs.length == 0) {
+                errors.add(isoCode + ": no EccInfo");
+            }
+            validateEccs(isoCode, countryInfo.eccs, errors);
+        }
+        return errors;
+    }
+
+    private static void validateEccs(String isoCode, ProtobufEccData.EccInfo[] eccs,
+            List<String> errors) {
+        Set<String> phoneNumbers = new HashSet<>();
+        for (ProtobufEccData.EccInfo eccInfo : eccs) {
+            String phoneNumber = eccInfo.phoneNumber;
+            if (phoneNumber.isEmpty()) {
+                errors.add(isoCode + ": EccInfo without phone_number");
+                continue;
+            }
+            String prefix = isoCode + " " + phoneNumber + ": ";
+            if (!phoneNumber.equals(phoneNumber.trim())) {
+                errors.add(prefix + "phone_number is not trimmed");
+            }
+            if (!phoneNumbers.add(phoneNumber)) {
+                errors.add(prefix + "duplicate EccInfo");
+            }
+            if (eccInfo.types.length == 0) {
+                errors.add(prefix + "no type");
+            }
+
+            if (eccInfo.routing != ProtobufEccData.EccInfo.Routing.NORMAL) {
+                if (eccInfo.normalRoutingMncs.length > 0) {
+                    errors.add(prefix + "normal_routing_mncs without NORMAL routing");
+                }
+                continue;
+            }
+            Set<String> mncs = new HashSet<>();
+            for (String mnc : eccInfo.normalRoutingMncs) {
+                if (mnc.length() < 2 || mnc.length() > 3 || !mnc.chars().allMatch(
+                        c -> c >= '0' && c <= '9')) {
+                    errors.add(prefix + "invalid MNC \"" + mnc + "\"");
+                } else if (!mncs.add(mnc)) {
+                    errors.add(prefix + "duplicate MNC " + mnc);
+                }
+            }
+        }
+    }
+}
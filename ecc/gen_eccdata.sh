@@ -25,6 +25,11 @@ if ! [ -x "$(which aprotoc)" ] ; then
   exit 1
 fi
 
+if ! [ -x "$(which eccdata-tool)" ] ; then
+  echo "Missing eccdata-tool, build it with 'm eccdata-tool'." 1>&2
+  exit 1
+fi
+
 ECC_ROOT=`realpath \`dirname $0\``
 TOOLSET_DIR="${ECC_ROOT}/conversion_toolset_v1"
 INPUT_DIR="${ECC_ROOT}/input"
@@ -41,4 +46,4 @@ echo "To verify data compatibility:"
 echo "  1. make TeleService"
 echo "  2. push TeleService.apk to system/priv-app/TeleService"
 echo "  3. reboot device"
-echo "  4. run 'atest TeleServiceTests:EccDataTest#testEccDataContent'"
+echo "  4. run 'atest TeleServiceTests:EccDataTest'"
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.PersistableBundle;
+import android.util.AtomicFile;
+import android.util.Xml;
+
+import com.android.modules.utils.TypedXmlPullParser;
+import com.android.modules.utils.TypedXmlSerializer;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads and writes the carrier config cache files of {@link CarrierConfigLoader}.
+ *
+ * <p>A file starts with a header identifying the config, followed by the bundle in binary XML:
+ * <pre>
+ *   int     magic
+ *   int     format version
+ *   int     length of the package version, followed by its UTF-8 bytes
+ *   int     hash of the ICCID, or 0 for the no SIM config
+ *   int     specific carrier id
+ *   byte[]  the bundle, as written by {@link PersistableBundle#saveToXml}
+ * </pre>
+ * Files are replaced atomically through {@link AtomicFile}, so a crash while writing leaves the
+ * previous version in place, and are memory-mapped for reading.
+ */
+/* package */ final class CarrierConfigCacheFile {
+    /** Extension of cache files, files with the legacy ".xml" extension hold text XML. */
+    static final String FILE_EXTENSION = ".bin";
+
+    private static final int MAGIC = 0x43434647; // "CCFG"
+    private static final int FORMAT_VERSION = 1;
+    private static final String TAG_BUNDLE = "pbundle_as_map";
+
+    /** Contents of a cache file. */
+    static final class Contents {
+        @NonNull final String packageVersion;
+        final int iccidHash;
+        final int carrierId;
+        @NonNull final PersistableBundle config;
+
+        Contents(@NonNull String packageVersion, int iccidHash, int carrierId,
+                @NonNull PersistableBundle config) {
+            this.packageVersion = packageVersion;
+            this.iccidHash = iccidHash;
+            this.carrierId = carrierId;
+            this.config = config;
+        }
+
+        /** Whether the file was written for the given package version, SIM and carrier. */
+        boolean matches(@NonNull String version, @Nullable String iccid, int cid) {
+            return packageVersion.equals(version) && iccidHash == hashIccid(iccid)
+                    && carrierId == cid;
+        }
+    }
+
+    private CarrierConfigCacheFile() {
+    }
+
+    static int hashIccid(@Nullable String iccid) {
+        return iccid != null ? iccid.hashCode() : 0;
+    }
+
+    /** Atomically replaces {@code file} with the given contents. */
+    static void write(@NonNull File file, @NonNull Contents contents) throws IOException {
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fileOut = atomicFile.startWrite();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            byte[] version = contents.packageVersion.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(version.length);
+            out.write(version);
+            out.writeInt(contents.iccidHash);
+            out.writeInt(contents.carrierId);
+
+            TypedXmlSerializer serializer = Xml.newBinarySerializer();
+            serializer.setOutput(out, StandardCharsets.UTF_8.name());
+            serializer.startDocument(null, true);
+            serializer.startTag(null, TAG_BUNDLE);
+            contents.config.saveToXml(serializer);
+            serializer.endTag(null, TAG_BUNDLE);
+            serializer.endDocument();
+            out.flush();
+            atomicFile.finishWrite(fileOut);
+        } catch (IOException | XmlPullParserException | RuntimeException e) {
+            atomicFile.failWrite(fileOut);
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /**
+     * Reads a cache file.
+     *
+     * @throws java.io.FileNotFoundException if there is no such file.
+     * @throws IOException if the file cannot be read or is malformed.
+     */
+    @NonNull
+    static Contents read(@NonNull File file) throws IOException {
+        try (FileInputStream in = new AtomicFile(file).openRead();
+                FileChannel channel = in.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown cache file format: " + file.getName());
+            }
+            byte[] version = new byte[buffer.getInt()];
+            buffer.get(version);
+            int iccidHash = buffer.getInt();
+            int carrierId = buffer.getInt();
+
+            TypedXmlPullParser parser = Xml.newBinaryPullParser();
+            parser.setInput(new ByteBufferInputStream(buffer), StandardCharsets.UTF_8.name());
+            int event;
+            while ((event = parser.next()) != XmlPullParser.START_TAG) {
+                if (event == XmlPullParser.END_DOCUMENT) {
+                    throw new IOException("No config in cache file: " + file.getName());
+                }
+            }
+            if (!TAG_BUNDLE.equals(parser.getName())) {
+                throw new IOException("Unexpected tag in cache file: " + parser.getName());
+            }
+            PersistableBundle config = PersistableBundle.restoreFromXml(parser);
+            return new Contents(new String(version, StandardCharsets.UTF_8), iccidHash,
+                    carrierId, config);
+        } catch (BufferUnderflowException | NegativeArraySizeException
+                | XmlPullParserException e) {
+            throw new IOException("Malformed cache file: " + file.getName(), e);
+        }
+    }
+
+    /** Deletes the file along with any leftovers of an interrupted write. */
+    static void delete(@NonNull File file) {
+        new AtomicFile(file).delete();
+    }
+
+    /** Streams the remaining bytes of a buffer without copying them. */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+}
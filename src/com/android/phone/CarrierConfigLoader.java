@@ -82,7 +82,6 @@ import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -93,11 +92,16 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -130,6 +134,22 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
     @NonNull private PersistableBundle[] mOverrideConfigs;
     // Carrier configs to override code default when there is no SIM inserted
     @NonNull private PersistableBundle mNoSimConfig;
+    // Merged view of all config layers, indexed by phoneID. Rebuilt lazily once a layer changes.
+    @NonNull private MergedConfig[] mMergedConfigs;
+    // Merged view of the code defaults and mNoSimConfig.
+    @Nullable private MergedConfig mMergedNoSimConfig;
+    // Source of MergedConfig generation numbers, incremented on each rebuild.
+    @NonNull private final AtomicLong mMergedConfigGeneration = new AtomicLong();
+    // Read-only copy of the code defaults, the bottom layer of key-wise lookups.
+    @Nullable private volatile PersistableBundle mPlatformDefaultConfig;
+    // Writes cache files off the handler thread.
+    @NonNull private final Executor mCacheFileExecutor = Executors.newSingleThreadExecutor();
+    // Cache file contents queued on mCacheFileExecutor, by file name. Restores are served from
+    // here first, so they never see a file older than the last save.
+    @NonNull private final Map<String, CarrierConfigCacheFile.Contents> mPendingCacheFileWrites =
+            new HashMap<>();
+    // Held while writing or deleting cache files, so deleted files cannot be written again.
+    @NonNull private final Object mCacheFileLock = new Object();
     // Service connection for binding to config app.
     @NonNull private CarrierServiceConnection[] mServiceConnection;
     // Service connection for binding to carrier config app for no SIM config.
@@ -138,6 +158,12 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
     @NonNull private boolean[] mServiceBound;
     // Whether we are bound to a service for no SIM config
     @NonNull private boolean[] mServiceBoundForNoSimConfig;
+    // Service connection for binding to carrier app, concurrent with mServiceConnection.
+    @NonNull private CarrierServiceConnection[] mServiceConnectionForCarrier;
+    // Whether we are bound to a carrier app service for each phone
+    @NonNull private boolean[] mServiceBoundForCarrier;
+    // Fetches (FETCH_DEFAULT, FETCH_CARRIER) still in progress for each phone.
+    @NonNull private int[] mPendingFetches;
     // Whether we have sent config change broadcast for each phone id.
     @NonNull private boolean[] mHasSentConfigChange;
     // Whether the broadcast was sent from EVENT_SYSTEM_UNLOCKED, to track rebroadcasts
@@ -203,8 +229,14 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
 
     private static final int BIND_TIMEOUT_MILLIS = 30000;
 
+    // Bits of mPendingFetches.
+    private static final int FETCH_DEFAULT = 1 << 0;
+    private static final int FETCH_CARRIER = 1 << 1;
+
     // Keys used for saving and restoring config bundle from file.
     private static final String KEY_VERSION = "__carrier_config_package_version__";
+    // Extension of cache files written by earlier releases, as text XML.
+    private static final String LEGACY_FILE_EXTENSION = ".xml";
 
     private static final String OVERRIDE_PACKAGE_ADDITION = "-override";
 
@@ -296,12 +328,20 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                 }
 
                 case EVENT_DO_FETCH_DEFAULT: {
+                    final String carrierPackageName = getCarrierPackageForPhoneId(phoneId);
                     // Clear in-memory cache for carrier app config, so when carrier app gets
                     // uninstalled, no stale config is left.
-                    if (mConfigFromCarrierApp[phoneId] != null
-                            && getCarrierPackageForPhoneId(phoneId) == null) {
+                    if (mConfigFromCarrierApp[phoneId] != null && carrierPackageName == null) {
                         mConfigFromCarrierApp[phoneId] = null;
                     }
+                    // The default app and carrier app configs are fetched concurrently. The
+                    // subscription database is updated once both fetches have finished.
+                    mPendingFetches[phoneId] = FETCH_DEFAULT;
+                    if (carrierPackageName != null) {
+                        logd("Found carrier config app: " + carrierPackageName);
+                        mPendingFetches[phoneId] |= FETCH_CARRIER;
+                        sendMessage(obtainMessage(EVENT_DO_FETCH_CARRIER, phoneId, -1));
+                    }
                     // Restore persistent override values.
                     PersistableBundle config = restoreConfigFromXml(
                             mPlatformCarrierConfigPackage, OVERRIDE_PACKAGE_ADDITION, phoneId);
@@ -330,7 +370,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                             // smoothly.
                             mConfigFromDefaultApp[phoneId] = new PersistableBundle();
                             // Send broadcast if bind fails.
-                            updateSubscriptionDatabase(phoneId);
+                            onFetchFinished(phoneId, FETCH_DEFAULT);
                             // TODO: We *must* call unbindService even if bindService returns false.
                             // (And possibly if SecurityException was thrown.)
                             loge("binding to default app: "
@@ -365,7 +405,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                                     if (resultCode == RESULT_ERROR || resultData == null) {
                                         // On error, abort config fetching.
                                         loge("Failed to get carrier config");
-                                        updateSubscriptionDatabase(phoneId);
+                                        onFetchFinished(phoneId, FETCH_DEFAULT);
                                         return;
                                     }
                                     PersistableBundle config =
@@ -410,11 +450,10 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                         // If a ResponseReceiver callback is in the queue when this happens, we will
                         // unbind twice and throw an exception.
                         unbindIfBound(mContext, mServiceConnection[phoneId], phoneId);
-                        broadcastConfigChangedIntent(phoneId);
                     }
                     // Put a stub bundle in place so that the rest of the logic continues smoothly.
                     mConfigFromDefaultApp[phoneId] = new PersistableBundle();
-                    updateSubscriptionDatabase(phoneId);
+                    onFetchFinished(phoneId, FETCH_DEFAULT);
                     break;
                 }
 
@@ -425,13 +464,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                             && mServiceConnection[phoneId] == null) {
                         break;
                     }
-                    final String carrierPackageName = getCarrierPackageForPhoneId(phoneId);
-                    if (carrierPackageName != null) {
-                        logd("Found carrier config app: " + carrierPackageName);
-                        sendMessage(obtainMessage(EVENT_DO_FETCH_CARRIER, phoneId, -1));
-                    } else {
-                        updateSubscriptionDatabase(phoneId);
-                    }
+                    onFetchFinished(phoneId, FETCH_DEFAULT);
                     break;
                 }
 
@@ -456,10 +489,9 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                             // Put a stub bundle in place so that the rest of the logic continues
                             // smoothly.
                             mConfigFromCarrierApp[phoneId] = new PersistableBundle();
-                            // Send broadcast if bind fails.
-                            broadcastConfigChangedIntent(phoneId);
+                            // The broadcast is sent once the default app fetch has finished too.
                             loge("Bind to carrier app: " + carrierPackageName + " fails");
-                            updateSubscriptionDatabase(phoneId);
+                            onFetchFinished(phoneId, FETCH_CARRIER);
                         }
                     }
                     break;
@@ -469,8 +501,8 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                     removeMessages(EVENT_BIND_CARRIER_TIMEOUT, getMessageToken(phoneId));
                     final CarrierServiceConnection conn = (CarrierServiceConnection) msg.obj;
                     // If new service connection has been created, unbind.
-                    if (mServiceConnection[phoneId] != conn || conn.service == null) {
-                        unbindIfBound(mContext, conn, phoneId);
+                    if (mServiceConnectionForCarrier[phoneId] != conn || conn.service == null) {
+                        unbindIfBoundForCarrier(mContext, conn, phoneId);
                         break;
                     }
                     final CarrierIdentifier carrierId = getCarrierIdentifierForPhoneId(phoneId);
@@ -479,11 +511,11 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                             new ResultReceiver(this) {
                                 @Override
                                 public void onReceiveResult(int resultCode, Bundle resultData) {
-                                    unbindIfBound(mContext, conn, phoneId);
+                                    unbindIfBoundForCarrier(mContext, conn, phoneId);
                                     removeMessages(EVENT_FETCH_CARRIER_TIMEOUT,
                                             getMessageToken(phoneId));
                                     // If new service connection has been created, this is stale.
-                                    if (mServiceConnection[phoneId] != conn) {
+                                    if (mServiceConnectionForCarrier[phoneId] != conn) {
                                         loge("Received response for stale request.");
                                         return;
                                     }
@@ -491,8 +523,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                                         // On error, abort config fetching.
                                         loge("Failed to get carrier config from carrier app: "
                                                 + getCarrierPackageForPhoneId(phoneId));
-                                        broadcastConfigChangedIntent(phoneId);
-                                        updateSubscriptionDatabase(phoneId);
+                                        onFetchFinished(phoneId, FETCH_CARRIER);
                                         return;
                                     }
                                     PersistableBundle config =
@@ -523,7 +554,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                                 + ", carrierId=" + carrierId.getSpecificCarrierId());
                     } catch (RemoteException e) {
                         loge("Failed to get carrier config: " + e);
-                        unbindIfBound(mContext, conn, phoneId);
+                        unbindIfBoundForCarrier(mContext, conn, phoneId);
                         break; // So we don't set a timeout.
                     }
                     sendMessageDelayed(
@@ -541,25 +572,25 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                     // If we attempted to bind to the app, but the service connection is null due to
                     // the race condition that clear config event happens before bind/fetch complete
                     // then config was cleared while we were waiting and we should not continue.
-                    if (mServiceConnection[phoneId] != null) {
+                    if (mServiceConnectionForCarrier[phoneId] != null) {
                         // If a ResponseReceiver callback is in the queue when this happens, we will
                         // unbind twice and throw an exception.
-                        unbindIfBound(mContext, mServiceConnection[phoneId], phoneId);
-                        broadcastConfigChangedIntent(phoneId);
+                        unbindIfBoundForCarrier(mContext, mServiceConnectionForCarrier[phoneId],
+                                phoneId);
                     }
                     // Put a stub bundle in place so that the rest of the logic continues smoothly.
                     mConfigFromCarrierApp[phoneId] = new PersistableBundle();
-                    updateSubscriptionDatabase(phoneId);
+                    onFetchFinished(phoneId, FETCH_CARRIER);
                     break;
                 }
                 case EVENT_FETCH_CARRIER_DONE: {
                     // If we attempted to bind to the app, but the service connection is null, then
                     // config was cleared while we were waiting and we should not continue.
                     if (!msg.getData().getBoolean("loaded_from_xml", false)
-                            && mServiceConnection[phoneId] == null) {
+                            && mServiceConnectionForCarrier[phoneId] == null) {
                         break;
                     }
-                    updateSubscriptionDatabase(phoneId);
+                    onFetchFinished(phoneId, FETCH_CARRIER);
                     break;
                 }
 
@@ -732,6 +763,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         mPersistentOverrideConfigs = new PersistableBundle[mNumPhones];
         mOverrideConfigs = new PersistableBundle[mNumPhones];
         mNoSimConfig = new PersistableBundle();
+        mMergedConfigs = new MergedConfig[mNumPhones];
         mServiceConnection = new CarrierServiceConnection[mNumPhones];
         mServiceBound = new boolean[mNumPhones];
         mHasSentConfigChange = new boolean[mNumPhones];
@@ -739,6 +771,9 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         mNeedNotifyCallback = new boolean[mNumPhones];
         mServiceConnectionForNoSimConfig = new CarrierServiceConnection[mNumPhones];
         mServiceBoundForNoSimConfig = new boolean[mNumPhones];
+        mServiceConnectionForCarrier = new CarrierServiceConnection[mNumPhones];
+        mServiceBoundForCarrier = new boolean[mNumPhones];
+        mPendingFetches = new int[mNumPhones];
         mCarrierServiceChangeCallbacks = new CarrierServiceChangeCallback[mNumPhones];
         for (int phoneId = 0; phoneId < mNumPhones; phoneId++) {
             mCarrierServiceChangeCallbacks[phoneId] = new CarrierServiceChangeCallback(phoneId);
@@ -796,6 +831,8 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         mConfigFromDefaultApp[phoneId] = null;
         mConfigFromCarrierApp[phoneId] = null;
         mServiceConnection[phoneId] = null;
+        mServiceConnectionForCarrier[phoneId] = null;
+        mPendingFetches[phoneId] = 0;
         mHasSentConfigChange[phoneId] = false;
 
         if (fetchNoSimConfig) {
@@ -843,6 +880,18 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                         .sendToTarget());
     }
 
+    /**
+     * Marks a config fetch of the phone as finished, and updates the subscription database once
+     * no fetch is left. This is the only place the config change is broadcast from while
+     * fetching, so listeners never see a config that is only partly merged.
+     */
+    private void onFetchFinished(int phoneId, int fetch) {
+        mPendingFetches[phoneId] &= ~fetch;
+        if (mPendingFetches[phoneId] == 0) {
+            updateSubscriptionDatabase(phoneId);
+        }
+    }
+
     private void broadcastConfigChangedIntent(int phoneId) {
         broadcastConfigChangedIntent(phoneId, true);
     }
@@ -916,6 +965,8 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                 phoneId, pkgName, eventId);
         if (eventId == EVENT_CONNECTED_TO_DEFAULT_FOR_NO_SIM_CONFIG) {
             mServiceConnectionForNoSimConfig[phoneId] = serviceConnection;
+        } else if (eventId == EVENT_CONNECTED_TO_CARRIER) {
+            mServiceConnectionForCarrier[phoneId] = serviceConnection;
         } else {
             mServiceConnection[phoneId] = serviceConnection;
         }
@@ -924,6 +975,8 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                     Context.BIND_AUTO_CREATE, UserHandle.of(ActivityManager.getCurrentUser()))) {
                 if (eventId == EVENT_CONNECTED_TO_DEFAULT_FOR_NO_SIM_CONFIG) {
                     mServiceBoundForNoSimConfig[phoneId] = true;
+                } else if (eventId == EVENT_CONNECTED_TO_CARRIER) {
+                    mServiceBoundForCarrier[phoneId] = true;
                 } else {
                     mServiceBound[phoneId] = true;
                 }
@@ -1017,7 +1070,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
     }
 
     /**
-     * Writes a bundle to an XML file.
+     * Writes a bundle to a cache file.
      *
      * The bundle will be written to a file named after the package name, ICCID and
      * specific carrier id {@link TelephonyManager#getSimSpecificCarrierId()}. the same carrier
@@ -1026,8 +1079,10 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
      * the canonical file name. carrierid can also handle the cases SIM OTA resolves to different
      * carrier while iccid remains the same.
      *
-     * The file can be restored later with {@link @restoreConfigFromXml}. The XML output will
-     * include the bundle and the current version of the specified package.
+     * The file can be restored later with {@link @restoreConfigFromXml}. The file holds the
+     * bundle and the current version of the specified package, see
+     * {@link CarrierConfigCacheFile}. It is written on a background thread; restores issued in the
+     * meantime are served the pending config.
      *
      * In case of errors or invalid input, no file will be written.
      *
@@ -1047,6 +1102,8 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         }
 
         String fileName;
+        String iccid = null;
+        int cid = TelephonyManager.UNKNOWN_CARRIER_ID;
         if (isNoSimConfig) {
             fileName = getFilenameForNoSimConfig(packageName);
         } else {
@@ -1056,8 +1113,8 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                 return;
             }
 
-            final String iccid = getIccIdForPhoneId(phoneId);
-            final int cid = carrierId != null ? carrierId.getSpecificCarrierId()
+            iccid = getIccIdForPhoneId(phoneId);
+            cid = carrierId != null ? carrierId.getSpecificCarrierId()
                     : TelephonyManager.UNKNOWN_CARRIER_ID;
             if (iccid == null) {
                 loge("Cannot save config with null iccid. phoneId=" + phoneId);
@@ -1082,18 +1139,39 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         }
 
         logl("Save carrier config to cache. phoneId=" + phoneId
-                        + ", xml=" + getFilePathForLogging(fileName) + ", version=" + version);
+                        + ", file=" + getFilePathForLogging(fileName) + ", version=" + version);
 
-        FileOutputStream outFile = null;
-        try {
-            outFile = new FileOutputStream(new File(mContext.getFilesDir(), fileName));
-            config.putString(KEY_VERSION, version);
-            config.writeToStream(outFile);
-            outFile.flush();
-            outFile.close();
-        } catch (IOException e) {
-            loge(e.toString());
-        }
+        scheduleCacheFileWrite(fileName, new CarrierConfigCacheFile.Contents(version,
+                CarrierConfigCacheFile.hashIccid(iccid), cid, config));
+    }
+
+    /**
+     * Queues a cache file write, replacing any write of the same file that has not started yet.
+     */
+    private void scheduleCacheFileWrite(@NonNull String fileName,
+            @NonNull CarrierConfigCacheFile.Contents contents) {
+        synchronized (mPendingCacheFileWrites) {
+            mPendingCacheFileWrites.put(fileName, contents);
+        }
+        mCacheFileExecutor.execute(() -> {
+            synchronized (mCacheFileLock) {
+                synchronized (mPendingCacheFileWrites) {
+                    // Skip writes that were superseded or dropped by clearing the cache.
+                    if (mPendingCacheFileWrites.get(fileName) != contents) {
+                        return;
+                    }
+                }
+                try {
+                    CarrierConfigCacheFile.write(
+                            new File(mContext.getFilesDir(), fileName), contents);
+                } catch (IOException e) {
+                    loge("Failed to write " + getFilePathForLogging(fileName) + ": " + e);
+                }
+                synchronized (mPendingCacheFileWrites) {
+                    mPendingCacheFileWrites.remove(fileName, contents);
+                }
+            }
+        });
     }
 
     @VisibleForTesting
@@ -1109,10 +1187,11 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
     }
 
     /**
-     * Reads a bundle from an XML file.
+     * Reads a bundle from a cache file.
      *
      * This restores a bundle that was written with {@link #saveConfigToXml}. This returns the saved
-     * config bundle for the given package and phone ID.
+     * config bundle for the given package and phone ID. A file in the legacy XML format is
+     * converted to the current format on the way.
      *
      * In case of errors, or if the saved config is from a different package version than the
      * current version, then null will be returned.
@@ -1121,7 +1200,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
      * @param extraString    An extra string to be used in the XML file name.
      * @param phoneId        the phone ID.
      * @param isNoSimConfig  whether this is invoked for noSimConfig or not.
-     * @return the bundle from the XML file. Returns null if there is no saved config, the saved
+     * @return the bundle from the cache file. Returns null if there is no saved config, the saved
      * version does not match, or reading config fails.
      */
     @Nullable
@@ -1138,6 +1217,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
 
         String fileName;
         String iccid = null;
+        int cid = TelephonyManager.UNKNOWN_CARRIER_ID;
         if (isNoSimConfig) {
             fileName = getFilenameForNoSimConfig(packageName);
         } else {
@@ -1148,7 +1228,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
             }
 
             iccid = getIccIdForPhoneId(phoneId);
-            final int cid = getSpecificCarrierIdForPhoneId(phoneId);
+            cid = getSpecificCarrierIdForPhoneId(phoneId);
             if (iccid == null) {
                 loge("Cannot restore config with null iccid. phoneId=" + phoneId);
                 return null;
@@ -1156,40 +1236,81 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
             fileName = getFilenameForConfig(packageName, extraString, iccid, cid);
         }
 
-        PersistableBundle restoredBundle = null;
+        CarrierConfigCacheFile.Contents contents;
+        synchronized (mPendingCacheFileWrites) {
+            contents = mPendingCacheFileWrites.get(fileName);
+        }
         File file = new File(mContext.getFilesDir(), fileName);
         String filePath = file.getPath();
-        String savedVersion = null;
-        try (FileInputStream inFile = new FileInputStream(file)) {
+        if (contents == null) {
+            try {
+                contents = CarrierConfigCacheFile.read(file);
+            } catch (FileNotFoundException e) {
+                contents = restoreLegacyXmlFile(fileName, iccid, cid);
+                if (contents == null) {
+                    // Missing file is normal occurrence that might occur with a new sim or when
+                    // restoring an override file during boot and should not be treated as an
+                    // error.
+                    if (isNoSimConfig) {
+                        logd("File not found: " + filePath + ", phoneId=" + phoneId);
+                    } else {
+                        logd("File not found : " + getFilePathForLogging(filePath, iccid)
+                                + ", phoneId=" + phoneId);
+                    }
+                }
+            } catch (IOException e) {
+                loge(e.toString());
+            }
+        }
+        if (contents == null) {
+            return null;
+        }
 
-            restoredBundle = PersistableBundle.readFromStream(inFile);
-            savedVersion = restoredBundle.getString(KEY_VERSION);
-            restoredBundle.remove(KEY_VERSION);
+        if (!version.equals(contents.packageVersion)) {
+            loge("Saved version mismatch: " + version + " vs " + contents.packageVersion
+                    + ", phoneId=" + phoneId);
+            return null;
+        }
+        if (!contents.matches(version, iccid, cid)) {
+            loge("Saved config is for a different SIM or carrier, phoneId=" + phoneId);
+            return null;
+        }
 
-            if (!version.equals(savedVersion)) {
-                loge("Saved version mismatch: " + version + " vs " + savedVersion
-                        + ", phoneId=" + phoneId);
-                restoredBundle = null;
-            }
+        logl("Restored carrier config from cache. phoneId=" + phoneId + ", file="
+                + getFilePathForLogging(fileName) + ", version=" + contents.packageVersion
+                + ", modified time=" + getFileTime(filePath));
+        return contents.config;
+    }
+
+    /**
+     * Reads a config cached in the text XML format used by earlier releases and queues its
+     * conversion to the current format, or returns null if there is no such file.
+     */
+    @Nullable
+    private CarrierConfigCacheFile.Contents restoreLegacyXmlFile(@NonNull String fileName,
+            @Nullable String iccid, int cid) {
+        File legacyFile = getLegacyXmlFile(fileName);
+        PersistableBundle restoredBundle;
+        try (FileInputStream inFile = new FileInputStream(legacyFile)) {
+            restoredBundle = PersistableBundle.readFromStream(inFile);
         } catch (FileNotFoundException e) {
-            // Missing file is normal occurrence that might occur with a new sim or when restoring
-            // an override file during boot and should not be treated as an error.
-            if (isNoSimConfig) {
-                logd("File not found: " + file.getPath() + ", phoneId=" + phoneId);
-            } else {
-                logd("File not found : " + getFilePathForLogging(filePath, iccid)
-                        + ", phoneId=" + phoneId);
-            }
+            return null;
         } catch (IOException e) {
             loge(e.toString());
+            legacyFile.delete();
+            return null;
         }
+        legacyFile.delete();
 
-        if (restoredBundle != null) {
-            logl("Restored carrier config from cache. phoneId=" + phoneId + ", xml="
-                    + getFilePathForLogging(fileName) + ", version=" + savedVersion
-                    + ", modified time=" + getFileTime(filePath));
+        String savedVersion = restoredBundle.getString(KEY_VERSION);
+        restoredBundle.remove(KEY_VERSION);
+        if (savedVersion == null) {
+            return null;
         }
-        return restoredBundle;
+        CarrierConfigCacheFile.Contents contents = new CarrierConfigCacheFile.Contents(
+                savedVersion, CarrierConfigCacheFile.hashIccid(iccid), cid, restoredBundle);
+        scheduleCacheFileWrite(fileName, contents);
+        return contents;
     }
 
     /**
@@ -1230,22 +1351,43 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
      * @return true iff one or more files were deleted.
      */
     private boolean clearCachedConfigForPackage(@Nullable final String packageName) {
-        File dir = mContext.getFilesDir();
-        File[] packageFiles = dir.listFiles(new FilenameFilter() {
-            public boolean accept(File dir, String filename) {
-                if (packageName != null) {
-                    return filename.startsWith("carrierconfig-" + packageName + "-");
-                } else {
-                    return filename.startsWith("carrierconfig-");
+        final String prefix = packageName != null
+                ? "carrierconfig-" + packageName + "-" : "carrierconfig-";
+        synchronized (mCacheFileLock) {
+            synchronized (mPendingCacheFileWrites) {
+                mPendingCacheFileWrites.keySet().removeIf(name -> name.startsWith(prefix));
+            }
+            File dir = mContext.getFilesDir();
+            File[] packageFiles = dir.listFiles(new FilenameFilter() {
+                public boolean accept(File dir, String filename) {
+                    return filename.startsWith(prefix);
                 }
+            });
+            if (packageFiles == null || packageFiles.length < 1) return false;
+            for (File f : packageFiles) {
+                logl("Deleting " + getFilePathForLogging(f.getName()));
+                f.delete();
             }
-        });
-        if (packageFiles == null || packageFiles.length < 1) return false;
-        for (File f : packageFiles) {
-            logl("Deleting " + getFilePathForLogging(f.getName()));
-            f.delete();
+            return true;
+        }
+    }
+
+    @NonNull
+    private File getLegacyXmlFile(@NonNull String fileName) {
+        return new File(mContext.getFilesDir(), fileName.substring(0,
+                fileName.length() - CarrierConfigCacheFile.FILE_EXTENSION.length())
+                + LEGACY_FILE_EXTENSION);
+    }
+
+    /** Deletes a cache file, including a write of it that may still be pending. */
+    private void deleteCacheFile(@NonNull String fileName) {
+        synchronized (mCacheFileLock) {
+            synchronized (mPendingCacheFileWrites) {
+                mPendingCacheFileWrites.remove(fileName);
+            }
+            CarrierConfigCacheFile.delete(new File(mContext.getFilesDir(), fileName));
+            getLegacyXmlFile(fileName).delete();
         }
-        return true;
     }
 
     private String getFilePathForLogging(String filePath) {
@@ -1269,13 +1411,15 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         // However, it's still possible that platform doesn't recognize the current sim carrier,
         // we will use iccid + carrierid as the canonical file name. carrierid can also handle the
         // cases SIM OTA resolves to different carrier while iccid remains the same.
-        return "carrierconfig-" + packageName + extraString + "-" + iccid + "-" + cid + ".xml";
+        return "carrierconfig-" + packageName + extraString + "-" + iccid + "-" + cid
+                + CarrierConfigCacheFile.FILE_EXTENSION;
     }
 
     /** Builds a canonical file name for no SIM config file. */
     @NonNull
     private String getFilenameForNoSimConfig(@NonNull String packageName) {
-        return "carrierconfig-" + packageName + "-" + "nosim" + ".xml";
+        return "carrierconfig-" + packageName + "-" + "nosim"
+                + CarrierConfigCacheFile.FILE_EXTENSION;
     }
 
     /** Return the current version code of a package, or null if the name is not found. */
@@ -1318,6 +1462,9 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                 unbindIfBoundForNoSimConfig(mContext, mServiceConnectionForNoSimConfig[phoneId],
                         phoneId);
             }
+            if (mServiceConnectionForCarrier[phoneId] != null) {
+                unbindIfBoundForCarrier(mContext, mServiceConnectionForCarrier[phoneId], phoneId);
+            }
         }
 
         // The phone to slot mapping may change, unregister here and re-register callbacks later
@@ -1333,11 +1480,15 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         mConfigFromCarrierApp = Arrays.copyOf(mConfigFromCarrierApp, mNumPhones);
         mPersistentOverrideConfigs = Arrays.copyOf(mPersistentOverrideConfigs, mNumPhones);
         mOverrideConfigs = Arrays.copyOf(mOverrideConfigs, mNumPhones);
+        mMergedConfigs = Arrays.copyOf(mMergedConfigs, mNumPhones);
         mServiceConnection = Arrays.copyOf(mServiceConnection, mNumPhones);
         mServiceConnectionForNoSimConfig =
                 Arrays.copyOf(mServiceConnectionForNoSimConfig, mNumPhones);
         mServiceBound = Arrays.copyOf(mServiceBound, mNumPhones);
         mServiceBoundForNoSimConfig = Arrays.copyOf(mServiceBoundForNoSimConfig, mNumPhones);
+        mServiceConnectionForCarrier = Arrays.copyOf(mServiceConnectionForCarrier, mNumPhones);
+        mServiceBoundForCarrier = Arrays.copyOf(mServiceBoundForCarrier, mNumPhones);
+        mPendingFetches = Arrays.copyOf(mPendingFetches, mNumPhones);
         mHasSentConfigChange = Arrays.copyOf(mHasSentConfigChange, mNumPhones);
         mFromSystemUnlocked = Arrays.copyOf(mFromSystemUnlocked, mNumPhones);
         mNeedNotifyCallback = Arrays.copyOf(mNeedNotifyCallback, mNumPhones);
@@ -1374,40 +1525,104 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         }
 
         int phoneId = SubscriptionManager.getPhoneId(subscriptionId);
-        PersistableBundle retConfig = CarrierConfigManager.getDefaultConfig();
-        if (SubscriptionManager.isValidPhoneId(phoneId)) {
-            PersistableBundle config = mConfigFromDefaultApp[phoneId];
-            if (config != null) {
-                retConfig.putAll(config);
-            }
-            config = mConfigFromCarrierApp[phoneId];
-            if (config != null) {
-                retConfig.putAll(config);
-            }
-            config = mPersistentOverrideConfigs[phoneId];
-            if (config != null) {
-                retConfig.putAll(config);
-            }
-            config = mOverrideConfigs[phoneId];
-            if (config != null) {
-                retConfig.putAll(config);
-            }
-            // Ignore the theoretical case of the default app not being present since that won't
-            // work in CarrierConfigLoader today.
-            final boolean allConfigsApplied =
-                    (mConfigFromCarrierApp[phoneId] != null
-                        || getCarrierPackageForPhoneId(phoneId) == null)
-                    && mConfigFromDefaultApp[phoneId] != null;
-            retConfig.putBoolean(
-                    CarrierConfigManager.KEY_CARRIER_CONFIG_APPLIED_BOOL, allConfigsApplied);
+        PersistableBundle retConfig;
+        if (isPhoneIdWithConfig(phoneId)) {
+            // Hand out a copy, the snapshot itself is shared by all callers.
+            retConfig = new PersistableBundle(getMergedConfigForPhoneId(phoneId).config);
+            retConfig.putBoolean(CarrierConfigManager.KEY_CARRIER_CONFIG_APPLIED_BOOL,
+                    areAllConfigsApplied(phoneId));
         } else {
-            if (mNoSimConfig != null) {
-                retConfig.putAll(mNoSimConfig);
-            }
+            retConfig = new PersistableBundle(getMergedNoSimConfig().config);
         }
         return retConfig;
     }
 
+    /** Whether the phone has its own configs, otherwise the no SIM config applies. */
+    private boolean isPhoneIdWithConfig(int phoneId) {
+        return SubscriptionManager.isValidPhoneId(phoneId) && phoneId < mMergedConfigs.length;
+    }
+
+    private boolean areAllConfigsApplied(int phoneId) {
+        // Ignore the theoretical case of the default app not being present since that won't
+        // work in CarrierConfigLoader today.
+        return (mConfigFromCarrierApp[phoneId] != null
+                    || getCarrierPackageForPhoneId(phoneId) == null)
+                && mConfigFromDefaultApp[phoneId] != null;
+    }
+
+    /**
+     * Returns the config layers of the phone, highest precedence first, not including the code
+     * defaults. Layers that are not loaded yet are null.
+     */
+    @NonNull
+    private PersistableBundle[] getConfigLayers(int phoneId) {
+        if (!isPhoneIdWithConfig(phoneId)) {
+            return new PersistableBundle[] {mNoSimConfig};
+        }
+        return new PersistableBundle[] {mOverrideConfigs[phoneId],
+                mPersistentOverrideConfigs[phoneId], mConfigFromCarrierApp[phoneId],
+                mConfigFromDefaultApp[phoneId]};
+    }
+
+    /**
+     * Resolves a single key through the given layers and then the code defaults, which yields the
+     * same value as the merged config without building it.
+     */
+    @Nullable
+    private Object lookUpConfigValue(@NonNull PersistableBundle[] layers, @NonNull String key) {
+        for (PersistableBundle layer : layers) {
+            // A layer may map a key to null explicitly, which masks the lower layers as well.
+            if (layer != null && layer.containsKey(key)) {
+                return layer.get(key);
+            }
+        }
+        return getPlatformDefaultConfig().get(key);
+    }
+
+    @NonNull
+    private PersistableBundle getPlatformDefaultConfig() {
+        PersistableBundle defaults = mPlatformDefaultConfig;
+        if (defaults == null) {
+            // The code defaults are fixed for the lifetime of the process.
+            defaults = CarrierConfigManager.getDefaultConfig();
+            mPlatformDefaultConfig = defaults;
+        }
+        return defaults;
+    }
+
+    /**
+     * Returns the merged config of the phone, rebuilding it if any layer has been replaced since
+     * the last build.
+     */
+    @NonNull
+    private MergedConfig getMergedConfigForPhoneId(int phoneId) {
+        // Layers are replaced on the handler thread, so read each reference once.
+        PersistableBundle defaultAppConfig = mConfigFromDefaultApp[phoneId];
+        PersistableBundle carrierAppConfig = mConfigFromCarrierApp[phoneId];
+        PersistableBundle persistentOverrideConfig = mPersistentOverrideConfigs[phoneId];
+        PersistableBundle overrideConfig = mOverrideConfigs[phoneId];
+        MergedConfig merged = mMergedConfigs[phoneId];
+        if (merged == null || !merged.isBuiltFrom(defaultAppConfig, carrierAppConfig,
+                persistentOverrideConfig, overrideConfig)) {
+            merged = new MergedConfig(mMergedConfigGeneration.incrementAndGet(),
+                    defaultAppConfig, carrierAppConfig, persistentOverrideConfig, overrideConfig);
+            mMergedConfigs[phoneId] = merged;
+        }
+        return merged;
+    }
+
+    @NonNull
+    private MergedConfig getMergedNoSimConfig() {
+        PersistableBundle noSimConfig = mNoSimConfig;
+        MergedConfig merged = mMergedNoSimConfig;
+        if (merged == null || !merged.isBuiltFrom(noSimConfig, null, null, null)) {
+            merged = new MergedConfig(mMergedConfigGeneration.incrementAndGet(),
+                    noSimConfig, null, null, null);
+            mMergedNoSimConfig = merged;
+        }
+        return merged;
+    }
+
     @Override
     @NonNull
     public PersistableBundle getConfigSubsetForSubIdWithFeature(int subscriptionId,
@@ -1420,31 +1635,35 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         enforceTelephonyFeatureWithException(callingPackage,
                 "getConfigSubsetForSubIdWithFeature");
 
-        // Permission check is performed inside and an empty bundle will return on failure.
+        // An empty bundle will return on permission failure.
         // No SecurityException thrown here since most clients expect to retrieve the overridden
         // value if present or use default one if not
-        PersistableBundle allConfigs = getConfigForSubIdWithFeature(subscriptionId, callingPackage,
-                callingFeatureId);
-        if (allConfigs.isEmpty()) {
-            return allConfigs;
+        if (!TelephonyPermissions.checkCallingOrSelfReadPhoneState(mContext, subscriptionId,
+                callingPackage, callingFeatureId, "getCarrierConfig")) {
+            return new PersistableBundle();
         }
         for (String key : keys) {
             Objects.requireNonNull(key, "Config key must be non-null");
         }
 
+        // Resolve each requested key through the layers instead of merging the full config.
+        int phoneId = SubscriptionManager.getPhoneId(subscriptionId);
+        PersistableBundle[] layers = getConfigLayers(phoneId);
         PersistableBundle configSubset = new PersistableBundle(
                 keys.length + CONFIG_SUBSET_METADATA_KEYS.length);
         for (String carrierConfigKey : keys) {
-            Object value = allConfigs.get(carrierConfigKey);
+            Object value = lookUpConfigValue(layers, carrierConfigKey);
             if (value == null) {
                 // Filter out keys without values.
                 // In history, many AOSP or OEMs/carriers private configs didn't provide default
                 // values. We have to continue supporting them for now. See b/261776046 for details.
                 continue;
             }
-            // Config value itself could be PersistableBundle which requires different API to put
+            // Config value itself could be PersistableBundle which requires different API to put.
+            // Copy it, since it belongs to a layer or to the shared code defaults.
             if (value instanceof PersistableBundle) {
-                configSubset.putPersistableBundle(carrierConfigKey, (PersistableBundle) value);
+                configSubset.putPersistableBundle(carrierConfigKey,
+                        new PersistableBundle((PersistableBundle) value));
             } else {
                 configSubset.putObject(carrierConfigKey, value);
             }
@@ -1452,7 +1671,11 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
 
         // Configs in CONFIG_SUBSET_ALWAYS_INCLUDED_KEYS should always be included
         for (String generalKey : CONFIG_SUBSET_METADATA_KEYS) {
-            configSubset.putObject(generalKey, allConfigs.get(generalKey));
+            configSubset.putObject(generalKey, lookUpConfigValue(layers, generalKey));
+        }
+        if (isPhoneIdWithConfig(phoneId)) {
+            configSubset.putBoolean(CarrierConfigManager.KEY_CARRIER_CONFIG_APPLIED_BOOL,
+                    areAllConfigsApplied(phoneId));
         }
 
         return configSubset;
@@ -1502,8 +1725,7 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
                     final int cid = getSpecificCarrierIdForPhoneId(phoneId);
                     String fileName = getFilenameForConfig(mPlatformCarrierConfigPackage,
                             OVERRIDE_PACKAGE_ADDITION, iccid, cid);
-                    File fileToDelete = new File(mContext.getFilesDir(), fileName);
-                    fileToDelete.delete();
+                    deleteCacheFile(fileName);
                 }
             }
             logl("overrideConfig: subId=" + subscriptionId + ", persistent="
@@ -1538,7 +1760,10 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         } else if (currentOverrides[phoneId] == null) {
             currentOverrides[phoneId] = overrides;
         } else {
-            currentOverrides[phoneId].putAll(overrides);
+            // Replace rather than modify the layer, merged configs track layers by identity.
+            PersistableBundle merged = new PersistableBundle(currentOverrides[phoneId]);
+            merged.putAll(overrides);
+            currentOverrides[phoneId] = merged;
         }
     }
 
@@ -1660,6 +1885,20 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         }
     }
 
+    private void unbindIfBoundForCarrier(@NonNull Context context,
+            @NonNull CarrierServiceConnection conn, int phoneId) {
+        try {
+            if (mServiceBoundForCarrier[phoneId]) {
+                mServiceBoundForCarrier[phoneId] = false;
+                context.unbindService(conn);
+            }
+        } catch (IllegalArgumentException e) {
+            loge("unbindIfBoundForCarrier : CarrierServiceConnection not registered when "
+                    + "trying to unbind for phoneId: "
+                    + phoneId);
+        }
+    }
+
     private void unbindIfBoundForNoSimConfig(@NonNull Context context,
             @NonNull CarrierServiceConnection conn, int phoneId) {
         try {
@@ -1749,6 +1988,9 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
             printConfig(mConfigFromCarrierApp[i], indentPW, "mConfigFromCarrierApp");
             printConfig(mPersistentOverrideConfigs[i], indentPW, "mPersistentOverrideConfigs");
             printConfig(mOverrideConfigs[i], indentPW, "mOverrideConfigs");
+            MergedConfig merged = mMergedConfigs[i];
+            indentPW.println("mMergedConfigs generation="
+                    + (merged != null ? merged.generation : "none"));
         }
 
         printConfig(mNoSimConfig, indentPW, "mNoSimConfig");
@@ -1869,7 +2111,10 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         indentPW.increaseIndent();
         indentPW.println(prefix + " : " + targetPkgName);
         Set<String> dumpedPkgNames = new ArraySet<>(mServiceConnection.length);
-        for (CarrierServiceConnection connection : mServiceConnection) {
+        List<CarrierServiceConnection> connections = new ArrayList<>();
+        Collections.addAll(connections, mServiceConnection);
+        Collections.addAll(connections, mServiceConnectionForCarrier);
+        for (CarrierServiceConnection connection : connections) {
             if (connection == null || !SubscriptionManager.isValidPhoneId(connection.phoneId)
                     || TextUtils.isEmpty(connection.pkgName)) {
                 continue;
@@ -1978,6 +2223,57 @@ public class CarrierConfigLoader extends ICarrierConfigLoader.Stub {
         }
     }
 
+    /**
+     * Immutable result of merging the code defaults with the config layers of a phone. Layers are
+     * never modified in place, so a snapshot stays valid as long as it was built from the layer
+     * instances currently in use.
+     */
+    private static final class MergedConfig {
+        // Increases with every rebuild, to tell snapshots apart in dumps.
+        final long generation;
+        @NonNull final PersistableBundle config;
+        @Nullable private final PersistableBundle mDefaultAppConfig;
+        @Nullable private final PersistableBundle mCarrierAppConfig;
+        @Nullable private final PersistableBundle mPersistentOverrideConfig;
+        @Nullable private final PersistableBundle mOverrideConfig;
+
+        MergedConfig(long generation, @Nullable PersistableBundle defaultAppConfig,
+                @Nullable PersistableBundle carrierAppConfig,
+                @Nullable PersistableBundle persistentOverrideConfig,
+                @Nullable PersistableBundle overrideConfig) {
+            this.generation = generation;
+            mDefaultAppConfig = defaultAppConfig;
+            mCarrierAppConfig = carrierAppConfig;
+            mPersistentOverrideConfig = persistentOverrideConfig;
+            mOverrideConfig = overrideConfig;
+
+            PersistableBundle merged = CarrierConfigManager.getDefaultConfig();
+            if (defaultAppConfig != null) {
+                merged.putAll(defaultAppConfig);
+            }
+            if (carrierAppConfig != null) {
+                merged.putAll(carrierAppConfig);
+            }
+            if (persistentOverrideConfig != null) {
+                merged.putAll(persistentOverrideConfig);
+            }
+            if (overrideConfig != null) {
+                merged.putAll(overrideConfig);
+            }
+            config = merged;
+        }
+
+        boolean isBuiltFrom(@Nullable PersistableBundle defaultAppConfig,
+                @Nullable PersistableBundle carrierAppConfig,
+                @Nullable PersistableBundle persistentOverrideConfig,
+                @Nullable PersistableBundle overrideConfig) {
+            return mDefaultAppConfig == defaultAppConfig
+                    && mCarrierAppConfig == carrierAppConfig
+                    && mPersistentOverrideConfig == persistentOverrideConfig
+                    && mOverrideConfig == overrideConfig;
+        }
+    }
+
     private class CarrierServiceConnection implements ServiceConnection {
         final int phoneId;
         @NonNull final String pkgName;
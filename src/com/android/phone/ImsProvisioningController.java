@@ -953,6 +953,8 @@ public class ImsProvisioningController {
         for (int i = 0; i < mProvisioningCallbackManagersSlotMap.size(); i++) {
             mProvisioningCallbackManagersSlotMap.get(i).clear();
         }
+
+        mImsProvisioningLoader.destroy();
     }
 
     /**
@@ -24,8 +24,11 @@ import android.telephony.ims.ProvisioningManager;
 import android.telephony.ims.feature.ImsFeature;
 import android.telephony.ims.feature.MmTelFeature;
 import android.telephony.ims.stub.ImsRegistrationImplBase;
+import android.util.ArraySet;
+import android.util.AtomicFile;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -34,9 +37,16 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides a function to set/get Ims feature provisioning status in storage.
+ *
+ * <p>The provisioning status of a subscription is kept in memory, indexed by ImsFeature,
+ * registration tech and capability. Changes are written behind to the subscription's file, so a
+ * burst of changes results in a single atomic write of the file.
  */
 public class ImsProvisioningLoader {
     private static final String LOG_TAG = ImsProvisioningLoader.class.getSimpleName();
@@ -53,11 +63,98 @@ public class ImsProvisioningLoader {
     private static final String PROVISIONING_FILE_NAME_PREF = "imsprovisioningstatus_";
     private static final String PREF_PROVISION_IMS_MMTEL_PREFIX = "provision_ims_mmtel_";
 
+    // Delay before changes are written to storage, changes within it are written together.
+    private static final long WRITE_DELAY_MS = 200;
+
+    /**
+     * Provisioning status of a subscription, ImsFeature -> registration tech -> capability ->
+     * status.
+     */
+    private static final class ProvisioningTable {
+        private final SparseArray<SparseArray<SparseIntArray>> mFeatures = new SparseArray<>();
+
+        int get(int imsFeature, int tech, int capability) {
+            SparseArray<SparseIntArray> techs = mFeatures.get(imsFeature);
+            if (techs == null) return STATUS_NOT_SET;
+            SparseIntArray capabilities = techs.get(tech);
+            if (capabilities == null) return STATUS_NOT_SET;
+            return capabilities.get(capability, STATUS_NOT_SET);
+        }
+
+        void put(int imsFeature, int tech, int capability, int status) {
+            SparseArray<SparseIntArray> techs = mFeatures.get(imsFeature);
+            if (techs == null) {
+                techs = new SparseArray<>();
+                mFeatures.put(imsFeature, techs);
+            }
+            SparseIntArray capabilities = techs.get(tech);
+            if (capabilities == null) {
+                capabilities = new SparseIntArray();
+                techs.put(tech, capabilities);
+            }
+            capabilities.put(capability, status);
+        }
+
+        /** Converts to the bundle layout of the provisioning files. */
+        PersistableBundle toBundle() {
+            PersistableBundle subIdBundle = new PersistableBundle();
+            for (int i = 0; i < mFeatures.size(); i++) {
+                SparseArray<SparseIntArray> techs = mFeatures.valueAt(i);
+                PersistableBundle regTechBundle = new PersistableBundle();
+                for (int j = 0; j < techs.size(); j++) {
+                    SparseIntArray capabilities = techs.valueAt(j);
+                    PersistableBundle capabilityBundle = new PersistableBundle();
+                    for (int k = 0; k < capabilities.size(); k++) {
+                        capabilityBundle.putInt(String.valueOf(capabilities.keyAt(k)),
+                                capabilities.valueAt(k));
+                    }
+                    regTechBundle.putPersistableBundle(String.valueOf(techs.keyAt(j)),
+                            capabilityBundle);
+                }
+                subIdBundle.putPersistableBundle(String.valueOf(mFeatures.keyAt(i)),
+                        regTechBundle);
+            }
+            return subIdBundle;
+        }
+
+        /** Reads the bundle layout of the provisioning files, skipping malformed entries. */
+        static ProvisioningTable fromBundle(PersistableBundle subIdBundle) {
+            ProvisioningTable table = new ProvisioningTable();
+            for (String feature : subIdBundle.keySet()) {
+                PersistableBundle regTechBundle = subIdBundle.getPersistableBundle(feature);
+                if (regTechBundle == null) continue;
+                for (String tech : regTechBundle.keySet()) {
+                    PersistableBundle capabilityBundle = regTechBundle.getPersistableBundle(tech);
+                    if (capabilityBundle == null) continue;
+                    for (String capability : capabilityBundle.keySet()) {
+                        try {
+                            table.put(Integer.parseInt(feature), Integer.parseInt(tech),
+                                    Integer.parseInt(capability),
+                                    capabilityBundle.getInt(capability, STATUS_NOT_SET));
+                        } catch (NumberFormatException e) {
+                            Log.e(LOG_TAG, "Malformed provisioning entry " + feature + "/" + tech
+                                    + "/" + capability);
+                        }
+                    }
+                }
+            }
+            return table;
+        }
+    }
+
     private Context mContext;
     private SharedPreferences mTelephonySharedPreferences;
     // key : sub Id, value : read from sub Id's xml and it's in-memory cache
-    private SparseArray<PersistableBundle> mSubIdBundleArray = new SparseArray<>();
+    private final SparseArray<ProvisioningTable> mSubIdTables = new SparseArray<>();
+    // Sub Ids with changes that have not been written yet.
+    private final ArraySet<Integer> mPendingWrites = new ArraySet<>();
+    private final ScheduledExecutorService mWriteExecutor =
+            Executors.newSingleThreadScheduledExecutor();
     private final Object mLock = new Object();
+    // Set once destroy() has written the pending changes and stopped mWriteExecutor.
+    private boolean mDestroyed;
+    // Serializes the writes of the files.
+    private final Object mFileLock = new Object();
 
     public ImsProvisioningLoader(Context context) {
         mContext = context;
@@ -70,9 +167,9 @@ public class ImsProvisioningLoader {
      */
     public int getProvisioningStatus(int subId, @ImsFeature.FeatureType int imsFeature,
             int capability, @ImsRegistrationImplBase.ImsRegistrationTech int tech) {
-        initCache(subId);
-        return getImsProvisioningStatus(subId, imsFeature, tech,
-                capability);
+        synchronized (mLock) {
+            return getTable(subId).get(imsFeature, tech, capability);
+        }
     }
 
     /**
@@ -81,179 +178,115 @@ public class ImsProvisioningLoader {
     public boolean setProvisioningStatus(int subId, @ImsFeature.FeatureType int imsFeature,
             int capability, @ImsRegistrationImplBase.ImsRegistrationTech int tech,
             boolean isProvisioned) {
-        initCache(subId);
-        return setImsFeatureProvisioning(subId, imsFeature, tech, capability,
-                isProvisioned);
-    }
-
-    private boolean isFileExist(int subId) {
-        File file = new File(mContext.getFilesDir(), getFileName(subId));
-        return file.exists();
-    }
-
-    private void initCache(int subId) {
-        synchronized (mLock) {
-            PersistableBundle subIdBundle = mSubIdBundleArray.get(subId, null);
-            if (subIdBundle != null) {
-                // initCache() has already been called for the subId
-                return;
-            }
-            if (isFileExist(subId)) {
-                subIdBundle = readSubIdBundleFromXml(subId);
-            } else {
-                // It should read the MMTEL capability cache as part of shared prefs and migrate
-                // over any configs for UT.
-                final int[] regTech = {ImsRegistrationImplBase.REGISTRATION_TECH_LTE,
-                        ImsRegistrationImplBase.REGISTRATION_TECH_IWLAN,
-                        ImsRegistrationImplBase.REGISTRATION_TECH_CROSS_SIM,
-                        ImsRegistrationImplBase.REGISTRATION_TECH_NR};
-                subIdBundle = new PersistableBundle();
-                for (int tech : regTech) {
-                    int UtProvisioningStatus = getUTProvisioningStatus(subId, tech);
-                    logd("check UT provisioning status " + UtProvisioningStatus);
-
-                    if (STATUS_PROVISIONED == UtProvisioningStatus) {
-                        setProvisioningStatusToSubIdBundle(subId, ImsFeature.FEATURE_MMTEL, tech,
-                                MmTelFeature.MmTelCapabilities.CAPABILITY_TYPE_UT, subIdBundle,
-                                UtProvisioningStatus);
-                    }
-                }
-                saveSubIdBundleToXml(subId, subIdBundle);
-            }
-            mSubIdBundleArray.put(subId, subIdBundle);
-        }
-    }
-
-    private int getImsProvisioningStatus(int subId, int imsFeature, int tech, int capability) {
-        PersistableBundle subIdBundle = null;
-        synchronized (mLock) {
-            subIdBundle = mSubIdBundleArray.get(subId, null);
-        }
-
-        return getProvisioningStatusFromSubIdBundle(subId, imsFeature, tech,
-                capability, subIdBundle);
-    }
-
-    private boolean setImsFeatureProvisioning(int subId, int imsFeature, int tech, int capability,
-            boolean isProvisioned) {
         synchronized (mLock) {
-            int preValue = getImsProvisioningStatus(subId, imsFeature, tech, capability);
+            ProvisioningTable table = getTable(subId);
             int newValue = isProvisioned ? STATUS_PROVISIONED : STATUS_NOT_PROVISIONED;
-            if (preValue == newValue) {
+            if (table.get(imsFeature, tech, capability) == newValue) {
                 logd("already stored provisioning status " + isProvisioned + " ImsFeature "
                         + imsFeature + " tech " + tech + " capa " + capability);
                 return false;
             }
-
-            PersistableBundle subIdBundle = mSubIdBundleArray.get(subId, null);
-            setProvisioningStatusToSubIdBundle(subId, imsFeature, tech, capability, subIdBundle,
-                    newValue);
-            saveSubIdBundleToXml(subId, subIdBundle);
+            logd("setProvisioningStatus", subId, "set provisioning status " + newValue
+                    + " ImsFeature " + imsFeature + " tech " + tech + " capa " + capability);
+            table.put(imsFeature, tech, capability, newValue);
+            scheduleWrite(subId);
         }
         return true;
     }
 
-    private int getProvisioningStatusFromSubIdBundle(int subId, int imsFeature, int tech,
-            int capability, PersistableBundle subIdBundle) {
-        // If it doesn't exist in xml, return STATUS_NOT_SET
-        if (subIdBundle == null || subIdBundle.isEmpty()) {
-            logd("getProvisioningStatusFromSubIdBundle", subId, "xml is empty");
-            return STATUS_NOT_SET;
+    /** Returns the table of the subscription, loading it on first use. */
+    private ProvisioningTable getTable(int subId) {
+        ProvisioningTable table = mSubIdTables.get(subId);
+        if (table != null) {
+            return table;
         }
-
-        PersistableBundle regTechBundle = subIdBundle.getPersistableBundle(
-                String.valueOf(imsFeature));
-        if (regTechBundle == null) {
-            logd("getProvisioningStatusFromSubIdBundle", subId,
-                    "ImsFeature " + imsFeature + " does not exist in xml");
-            return STATUS_NOT_SET;
-        }
-
-        PersistableBundle capabilityBundle = regTechBundle.getPersistableBundle(
-                String.valueOf(tech));
-        if (capabilityBundle == null) {
-            logd("getProvisioningStatusFromSubIdBundle", subId,
-                    "RegistrationTech " + tech + " does not exist in xml");
-            return STATUS_NOT_SET;
+        File file = getFile(subId);
+        if (file.exists()) {
+            table = ProvisioningTable.fromBundle(readSubIdBundleFromXml(file));
+        } else {
+            // It should read the MMTEL capability cache as part of shared prefs and migrate
+            // over any configs for UT. The migrated table is written even if it is empty, so
+            // the shared prefs are only read once per subscription.
+            final int[] regTech = {ImsRegistrationImplBase.REGISTRATION_TECH_LTE,
+                    ImsRegistrationImplBase.REGISTRATION_TECH_IWLAN,
+                    ImsRegistrationImplBase.REGISTRATION_TECH_CROSS_SIM,
+                    ImsRegistrationImplBase.REGISTRATION_TECH_NR};
+            table = new ProvisioningTable();
+            for (int tech : regTech) {
+                int UtProvisioningStatus = getUTProvisioningStatus(subId, tech);
+                logd("check UT provisioning status " + UtProvisioningStatus);
+
+                if (STATUS_PROVISIONED == UtProvisioningStatus) {
+                    table.put(ImsFeature.FEATURE_MMTEL, tech,
+                            MmTelFeature.MmTelCapabilities.CAPABILITY_TYPE_UT,
+                            UtProvisioningStatus);
+                }
+            }
+            scheduleWrite(subId);
         }
-
-        return getIntValueFromBundle(subId, tech, String.valueOf(capability), capabilityBundle);
+        mSubIdTables.put(subId, table);
+        return table;
     }
 
-    private void setProvisioningStatusToSubIdBundle(int subId, int imsFeature, int tech,
-            int capability, PersistableBundle subIdBundle, int newStatus) {
-        logd("setProvisioningStatusToSubIdBundle", subId, "set provisioning status " + newStatus
-                + " ImsFeature " + imsFeature + " tech " + tech + " capa " + capability);
-
-        PersistableBundle regTechBundle = subIdBundle.getPersistableBundle(
-                String.valueOf(imsFeature));
-        if (regTechBundle == null) {
-            regTechBundle = new PersistableBundle();
-            subIdBundle.putPersistableBundle(String.valueOf(imsFeature), regTechBundle);
+    private void scheduleWrite(int subId) {
+        if (mDestroyed) {
+            loge("scheduleWrite: destroyed, subId " + subId + " is not written");
+            return;
         }
-
-        PersistableBundle capabilityBundle = regTechBundle.getPersistableBundle(
-                String.valueOf(tech));
-        if (capabilityBundle == null) {
-            capabilityBundle = new PersistableBundle();
-            regTechBundle.putPersistableBundle(String.valueOf(tech), capabilityBundle);
+        if (mPendingWrites.isEmpty()) {
+            mWriteExecutor.schedule(this::writePendingTables, WRITE_DELAY_MS,
+                    TimeUnit.MILLISECONDS);
         }
-
-        capabilityBundle.putInt(String.valueOf(capability), newStatus);
+        mPendingWrites.add(subId);
     }
 
-    // Default value is STATUS_NOT_SET
-    private int getIntValueFromBundle(int subId, int tech, String key, PersistableBundle bundle) {
-        int value = bundle.getInt(key, STATUS_NOT_SET);
-        logd("getIntValueFromBundle", subId,
-                "Cache hit, tech=" + tech + " capability=" + key + ": returning " + value);
-        return value;
+    private void writePendingTables() {
+        synchronized (mFileLock) {
+            SparseArray<PersistableBundle> bundles = new SparseArray<>();
+            synchronized (mLock) {
+                for (int subId : mPendingWrites) {
+                    ProvisioningTable table = mSubIdTables.get(subId);
+                    if (table != null) {
+                        bundles.put(subId, table.toBundle());
+                    }
+                }
+                mPendingWrites.clear();
+            }
+            for (int i = 0; i < bundles.size(); i++) {
+                saveSubIdBundleToXml(bundles.keyAt(i), bundles.valueAt(i));
+            }
+        }
     }
 
     // Return subIdBundle from imsprovisioningstatus_{subId}.xml
-    private PersistableBundle readSubIdBundleFromXml(int subId) {
-        String fileName = getFileName(subId);
-
+    private PersistableBundle readSubIdBundleFromXml(File file) {
         PersistableBundle subIdBundles = new PersistableBundle();
-        File file = null;
-        FileInputStream inFile = null;
-        synchronized (mLock) {
-            try {
-                file = new File(mContext.getFilesDir(), fileName);
-                inFile = new FileInputStream(file);
-                subIdBundles = PersistableBundle.readFromStream(inFile);
-                inFile.close();
-            } catch (FileNotFoundException e) {
-                logd(e.toString());
-            } catch (IOException e) {
-                loge(e.toString());
-            } catch (RuntimeException e) {
-                loge(e.toString());
-            }
+        try (FileInputStream inFile = new AtomicFile(file).openRead()) {
+            subIdBundles = PersistableBundle.readFromStream(inFile);
+        } catch (FileNotFoundException e) {
+            logd(e.toString());
+        } catch (IOException e) {
+            loge(e.toString());
+        } catch (RuntimeException e) {
+            loge(e.toString());
         }
 
         return subIdBundles;
     }
 
     private void saveSubIdBundleToXml(int subId, PersistableBundle subIdBundle) {
-        String fileName = getFileName(subId);
-
-        if (subIdBundle == null || subIdBundle.isEmpty()) {
-            logd("subIdBundle is empty");
-            return;
-        }
-
+        AtomicFile file = new AtomicFile(getFile(subId));
         FileOutputStream outFile = null;
-        synchronized (mLock) {
+        synchronized (mFileLock) {
             try {
-                outFile = new FileOutputStream(new File(mContext.getFilesDir(), fileName));
+                outFile = file.startWrite();
                 subIdBundle.writeToStream(outFile);
-                outFile.flush();
-                outFile.close();
-            } catch (IOException e) {
-                loge(e.toString());
-            } catch (RuntimeException e) {
+                file.finishWrite(outFile);
+            } catch (IOException | RuntimeException e) {
                 loge(e.toString());
+                if (outFile != null) {
+                    file.failWrite(outFile);
+                }
             }
         }
     }
@@ -284,23 +317,57 @@ public class ImsProvisioningLoader {
         return PROVISIONING_FILE_NAME_PREF + subId + ".xml";
     }
 
+    private File getFile(int subId) {
+        return new File(mContext.getFilesDir(), getFileName(subId));
+    }
+
+    /**
+     * Writes the pending changes and stops the write executor. Changes made afterwards are only
+     * kept in memory.
+     */
+    public void destroy() {
+        synchronized (mLock) {
+            if (mDestroyed) {
+                return;
+            }
+            mDestroyed = true;
+        }
+        // Cancels the delayed write, the pending changes are written here instead.
+        mWriteExecutor.shutdownNow();
+        writePendingTables();
+    }
+
+    /**
+     * Drops the in-memory tables along with any pending writes, and waits for a write in
+     * progress to finish.
+     */
     @VisibleForTesting
     void clear() {
         synchronized (mLock) {
-            mSubIdBundleArray.clear();
+            mSubIdTables.clear();
+            mPendingWrites.clear();
+        }
+        synchronized (mFileLock) {
+            // Nothing to do, a write in progress has finished once the lock is acquired.
         }
     }
 
+    /** Writes the pending changes now instead of after the write delay. */
+    @VisibleForTesting
+    void flush() {
+        writePendingTables();
+    }
+
     @VisibleForTesting
     void setProvisioningToXml(int subId, PersistableBundle subIdBundle,
             String[] infoArray) {
+        ProvisioningTable table = ProvisioningTable.fromBundle(subIdBundle);
         for (String info : infoArray) {
             String[] paramArray = info.split(",");
-            setProvisioningStatusToSubIdBundle(subId, Integer.valueOf(paramArray[0]),
-                    Integer.valueOf(paramArray[1]), Integer.valueOf(paramArray[2]),
-                    subIdBundle, Integer.valueOf(paramArray[3]));
+            table.put(Integer.valueOf(paramArray[0]), Integer.valueOf(paramArray[1]),
+                    Integer.valueOf(paramArray[2]), Integer.valueOf(paramArray[3]));
         }
-        saveSubIdBundleToXml(subId, subIdBundle);
+        saveSubIdBundleToXml(subId, table.toBundle());
     }
 
     private void loge(String contents) {
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.android.internal.util.IndentingPrintWriter;
+
+/**
+ * Queue depth and wait time of the requests {@link PhoneInterfaceManager} posts to the main
+ * thread, per lane. A lane is the phone a request targets, or {@link #LANE_DEFAULT} for requests
+ * that are not bound to a phone.
+ *
+ * <p>Also keeps latency histograms per command, split into the time a request is queued before
+ * the main thread dispatches it, the time the main thread spends executing it, and the time until
+ * the modem response completes it, along with the number of requests per calling uid. Recording
+ * only updates preallocated counters once a command and uid have been seen.
+ */
+/* package */ final class MainThreadRequestStats {
+    /** Lane of requests that are not bound to a phone. */
+    static final int LANE_DEFAULT = -1;
+
+    // Upper bounds of the histogram buckets, the last bucket counts everything above.
+    private static final long[] BUCKET_BOUNDS_MILLIS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+    private static final int MAX_DUMPED_UIDS = 5;
+
+    private static final class Lane {
+        // Posted, but not yet dispatched by the main thread.
+        int queued;
+        int maxQueued;
+        // Binder threads blocked on a result.
+        int waiting;
+        int maxWaiting;
+        long dispatched;
+        long totalQueueMillis;
+        long maxQueueMillis;
+        long completed;
+        long totalWaitMillis;
+        long maxWaitMillis;
+        long timedOut;
+        // Requests answered by an identical request in flight or recently completed.
+        long shared;
+    }
+
+    private static final class Command {
+        final int[] queueHistogram = new int[BUCKET_BOUNDS_MILLIS.length + 1];
+        final int[] executeHistogram = new int[BUCKET_BOUNDS_MILLIS.length + 1];
+        final int[] responseHistogram = new int[BUCKET_BOUNDS_MILLIS.length + 1];
+        // Number of requests per calling uid.
+        final SparseIntArray uids = new SparseIntArray();
+    }
+
+    private final SparseArray<Lane> mLanes = new SparseArray<>();
+    private final SparseArray<Command> mCommands = new SparseArray<>();
+    // Names of the commands for dumps, commands without a name are dumped as numbers.
+    private final SparseArray<String> mCommandNames;
+
+    MainThreadRequestStats(SparseArray<String> commandNames) {
+        mCommandNames = commandNames;
+    }
+
+    private Lane getLane(int lane) {
+        Lane stats = mLanes.get(lane);
+        if (stats == null) {
+            stats = new Lane();
+            mLanes.put(lane, stats);
+        }
+        return stats;
+    }
+
+    private Command getCommand(int command) {
+        Command stats = mCommands.get(command);
+        if (stats == null) {
+            stats = new Command();
+            mCommands.put(command, stats);
+        }
+        return stats;
+    }
+
+    /** A request was posted to the main thread by {@code uid}. */
+    synchronized void onEnqueued(int lane, int command, int uid) {
+        Lane stats = getLane(lane);
+        stats.queued++;
+        stats.maxQueued = Math.max(stats.maxQueued, stats.queued);
+        SparseIntArray uids = getCommand(command).uids;
+        uids.put(uid, uids.get(uid) + 1);
+    }
+
+    /** The main thread started handling a request, {@code queueMillis} after it was posted. */
+    synchronized void onDispatched(int lane, int command, long queueMillis) {
+        Lane stats = getLane(lane);
+        stats.queued--;
+        stats.dispatched++;
+        stats.totalQueueMillis += queueMillis;
+        stats.maxQueueMillis = Math.max(stats.maxQueueMillis, queueMillis);
+        record(getCommand(command).queueHistogram, queueMillis);
+    }
+
+    /** The main thread finished handling a request, after {@code executeMillis}. */
+    synchronized void onExecuted(int command, long executeMillis) {
+        record(getCommand(command).executeHistogram, executeMillis);
+    }
+
+    /**
+     * A request was completed {@code responseMillis} after the main thread handled it, that is
+     * the time spent waiting for the modem.
+     */
+    synchronized void onResponded(int command, long responseMillis) {
+        record(getCommand(command).responseHistogram, responseMillis);
+    }
+
+    /** A binder thread started blocking on the result of a request. */
+    synchronized void onWaitStarted(int lane) {
+        Lane stats = getLane(lane);
+        stats.waiting++;
+        stats.maxWaiting = Math.max(stats.maxWaiting, stats.waiting);
+    }
+
+    /** A binder thread stopped blocking, after {@code waitMillis}. */
+    synchronized void onWaitFinished(int lane, long waitMillis, boolean timedOut) {
+        Lane stats = getLane(lane);
+        stats.waiting--;
+        stats.completed++;
+        stats.totalWaitMillis += waitMillis;
+        stats.maxWaitMillis = Math.max(stats.maxWaitMillis, waitMillis);
+        if (timedOut) {
+            stats.timedOut++;
+        }
+    }
+
+    /** A request was answered by sharing an identical request instead of being posted. */
+    synchronized void onShared(int lane) {
+        getLane(lane).shared++;
+    }
+
+    /** Returns the number of requests of the lane that have not been dispatched yet. */
+    synchronized int getQueueDepth(int lane) {
+        Lane stats = mLanes.get(lane);
+        return stats != null ? stats.queued : 0;
+    }
+
+    /** Returns the number of binder threads blocked on requests of the lane. */
+    synchronized int getWaitingCount(int lane) {
+        Lane stats = mLanes.get(lane);
+        return stats != null ? stats.waiting : 0;
+    }
+
+    /** Returns the number of requests of the command posted by {@code uid}. */
+    synchronized int getRequestCount(int command, int uid) {
+        Command stats = mCommands.get(command);
+        return stats != null ? stats.uids.get(uid) : 0;
+    }
+
+    /**
+     * Clears the per-command histograms. Lane counters are kept, since requests in flight are
+     * still accounted for in them.
+     */
+    synchronized void resetCommandStats() {
+        mCommands.clear();
+    }
+
+    synchronized void dump(IndentingPrintWriter pw) {
+        for (int i = 0; i < mLanes.size(); i++) {
+            int lane = mLanes.keyAt(i);
+            Lane stats = mLanes.valueAt(i);
+            pw.println((lane == LANE_DEFAULT ? "Default" : "Phone " + lane) + " lane:");
+            pw.increaseIndent();
+            pw.println("queued=" + stats.queued + " (max " + stats.maxQueued + ")"
+                    + " waiting=" + stats.waiting + " (max " + stats.maxWaiting + ")");
+            pw.println("dispatched=" + stats.dispatched
+                    + " avgQueueMs=" + average(stats.totalQueueMillis, stats.dispatched)
+                    + " maxQueueMs=" + stats.maxQueueMillis);
+            pw.println("completed=" + stats.completed
+                    + " avgWaitMs=" + average(stats.totalWaitMillis, stats.completed)
+                    + " maxWaitMs=" + stats.maxWaitMillis
+                    + " timedOut=" + stats.timedOut
+                    + " shared=" + stats.shared);
+            pw.decreaseIndent();
+        }
+    }
+
+    /** Dumps the per-command histograms and the uids sending the most requests. */
+    synchronized void dumpCommands(IndentingPrintWriter pw) {
+        pw.print("Buckets (ms):");
+        for (long bound : BUCKET_BOUNDS_MILLIS) {
+            pw.print(" <" + bound);
+        }
+        pw.println(" >=" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1]);
+        for (int i = 0; i < mCommands.size(); i++) {
+            Command stats = mCommands.valueAt(i);
+            int command = mCommands.keyAt(i);
+            pw.println(mCommandNames.get(command, "Command " + command) + ":");
+            pw.increaseIndent();
+            dumpHistogram(pw, "queue", stats.queueHistogram);
+            dumpHistogram(pw, "execute", stats.executeHistogram);
+            dumpHistogram(pw, "response", stats.responseHistogram);
+            dumpTopUids(pw, stats.uids);
+            pw.decreaseIndent();
+        }
+    }
+
+    private static void dumpHistogram(IndentingPrintWriter pw, String name, int[] histogram) {
+        pw.print(name + ":");
+        for (int count : histogram) {
+            pw.print(" " + count);
+        }
+        pw.println();
+    }
+
+    private static void dumpTopUids(IndentingPrintWriter pw, SparseIntArray uids) {
+        // Selection of the largest counts, the number of uids is small.
+        boolean[] dumped = new boolean[uids.size()];
+        pw.print("uids:");
+        for (int n = 0; n < Math.min(MAX_DUMPED_UIDS, uids.size()); n++) {
+            int top = -1;
+            for (int i = 0; i < uids.size(); i++) {
+                if (!dumped[i] && (top < 0 || uids.valueAt(i) > uids.valueAt(top))) {
+                    top = i;
+                }
+            }
+            dumped[top] = true;
+            pw.print(" " + uids.keyAt(top) + "=" + uids.valueAt(top));
+        }
+        pw.println();
+    }
+
+    private static void record(int[] histogram, long millis) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MILLIS.length && millis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        histogram[bucket]++;
+    }
+
+    private static long average(long total, long count) {
+        return count > 0 ? total / count : 0;
+    }
+}
@@ -84,6 +84,7 @@ import com.android.internal.telephony.uicc.UiccProfile;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.phone.settings.SettingsConstants;
 import com.android.phone.vvm.CarrierVvmPackageInstalledReceiver;
+import com.android.services.telephony.EmergencyNumberIndex;
 import com.android.services.telephony.domainselection.DynamicRoutingController;
 import com.android.services.telephony.rcs.TelephonyRcsService;
 
@@ -524,6 +525,7 @@ public class PhoneGlobals extends ContextWrapper {
 
             // Initialize the telephony framework
             PhoneFactory.makeDefaultPhones(this, mFeatureFlags);
+            EmergencyNumberIndex.getInstance().initialize(this);
 
             // Initialize the DomainSelectionResolver after creating the Phone instance
             // to check the Radio HAL version.
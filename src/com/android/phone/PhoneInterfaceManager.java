@@ -70,6 +70,7 @@ import android.os.LocaleList;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Parcel;
 import android.os.ParcelFileDescriptor;
 import android.os.ParcelUuid;
 import android.os.PersistableBundle;
@@ -181,6 +182,7 @@ import android.util.ArraySet;
 import android.util.EventLog;
 import android.util.Log;
 import android.util.Pair;
+import android.util.SparseArray;
 
 import com.android.ims.ImsManager;
 import com.android.ims.internal.IImsServiceFeatureCallback;
@@ -254,7 +256,10 @@ import com.android.internal.telephony.util.LocaleUtils;
 import com.android.internal.telephony.util.TelephonyUtils;
 import com.android.internal.telephony.util.VoicemailNotificationSettingsUtil;
 import com.android.internal.util.FunctionalUtils;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.internal.util.MessageUtils;
 import com.android.phone.callcomposer.CallComposerPictureManager;
+import com.android.phone.callcomposer.CallComposerPictureStore;
 import com.android.phone.callcomposer.CallComposerPictureTransfer;
 import com.android.phone.callcomposer.ImageData;
 import com.android.phone.satellite.accesscontrol.SatelliteAccessController;
@@ -272,10 +277,12 @@ import com.android.services.telephony.TelephonyConnectionService;
 import com.android.services.telephony.domainselection.TelephonyDomainSelectionService;
 import com.android.telephony.Rlog;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -290,8 +297,12 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
@@ -397,6 +408,10 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     private static final int CMD_PURCHASE_PREMIUM_CAPABILITY = 117;
     private static final int EVENT_PURCHASE_PREMIUM_CAPABILITY_DONE = 118;
 
+    // Names of the CMD_* constants, for the dumps of MainThreadRequestStats.
+    private static final SparseArray<String> sCommandNames = MessageUtils.findMessageNames(
+            new Class[] {PhoneInterfaceManager.class}, new String[] {"CMD_"});
+
     // Parameters of select command.
     private static final int SELECT_COMMAND = 0xA4;
     private static final int SELECT_P1 = 0x04;
@@ -425,6 +440,13 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     private final SatelliteEntitlementController mSatelliteEntitlementController;
     private final UserManager mUserManager;
     private final MainThreadHandler mMainThreadHandler;
+    private final MainThreadRequestStats mRequestStats =
+            new MainThreadRequestStats(sCommandNames);
+    // Calling uid of the binder transaction being handled by each thread, see onTransact.
+    private static final ThreadLocal<int[]> sTransactionUid =
+            ThreadLocal.withInitial(() -> new int[] {Process.INVALID_UID});
+    // Last request for each query shared through postSharedRequest.
+    private final Map<SharedRequestKey, MainThreadRequest> mSharedRequests = new HashMap<>();
     private final SharedPreferences mTelephonySharedPreferences;
     private final PhoneConfigurationManager mPhoneConfigurationManager;
     private final RadioInterfaceCapabilityController mRadioInterfaceCapabilities;
@@ -467,7 +489,23 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     public static final String RESET_NETWORK_ERASE_MODEM_CONFIG_ENABLED =
             "reset_network_erase_modem_config_enabled";
 
+    /**
+     * For how long concurrent callers share the last cell info result, in milliseconds.
+     */
+    public static final String CELL_INFO_REQUEST_FRESHNESS_MILLIS =
+            "cell_info_request_freshness_millis";
+
+    /**
+     * For how long concurrent callers share the last network selection mode, in milliseconds.
+     */
+    public static final String NETWORK_SELECTION_MODE_REQUEST_FRESHNESS_MILLIS =
+            "network_selection_mode_request_freshness_millis";
+
+    private static final long CELL_INFO_REQUEST_FRESHNESS_DEFAULT_MS = 1000;
+    private static final long NETWORK_SELECTION_MODE_REQUEST_FRESHNESS_DEFAULT_MS = 1000;
+
     private static final int BLOCKING_REQUEST_DEFAULT_TIMEOUT_MS = 2000; // 2 seconds
+    private static final int QUERY_REQUEST_DEFAULT_TIMEOUT_MS = 10000; // 10 seconds
 
     private static final int MODEM_ACTIVITY_TIME_OFFSET_CORRECTION_MS = 50;
 
@@ -557,6 +595,21 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
 
         public WorkSource workSource;
 
+        // The command, lane and calling uid of the request, and when it was posted, dispatched
+        // and executed by the main thread, for MainThreadRequestStats.
+        public int command;
+        public int lane = MainThreadRequestStats.LANE_DEFAULT;
+        public int uid;
+        public long postTimeMillis;
+        public long dispatchTimeMillis;
+        public long executeTimeMillis;
+        public boolean dispatched;
+        // When the result was set, for requests shared through postSharedRequest.
+        public long completionTimeMillis;
+
+        /** Completed with the non-null result once the main thread notifies the request. */
+        public final CompletableFuture<Object> future = new CompletableFuture<>();
+
         MainThreadRequest(Object argument, Phone phone, WorkSource workSource) {
             this.argument = argument;
             if (phone != null) {
@@ -587,6 +640,23 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
      * unblock.
      */
     private final class MainThreadHandler extends Handler {
+        @Override
+        public void dispatchMessage(Message msg) {
+            MainThreadRequest request = msg.obj instanceof MainThreadRequest
+                    ? (MainThreadRequest) msg.obj : null;
+            // Requests may be reposted to the handler while they are processed.
+            if (request != null && request.dispatched) {
+                request = null;
+            }
+            if (request != null) {
+                onRequestDispatched(request);
+            }
+            super.dispatchMessage(msg);
+            if (request != null) {
+                onRequestExecuted(request);
+            }
+        }
+
         @Override
         public void handleMessage(Message msg) {
             MainThreadRequest request;
@@ -1638,9 +1708,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                     // If a timeout occurs, the response will be null
                     request.result = (ar.exception == null && ar.result != null)
                             ? ar.result : new ArrayList<CellInfo>();
-                    synchronized (request) {
-                        request.notifyAll();
-                    }
+                    notifyRequester(request);
                     break;
                 case CMD_REQUEST_CELL_INFO_UPDATE:
                     request = (MainThreadRequest) msg.obj;
@@ -1650,24 +1718,9 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                 case EVENT_REQUEST_CELL_INFO_UPDATE_DONE:
                     ar = (AsyncResult) msg.obj;
                     request = (MainThreadRequest) ar.userObj;
-                    ICellInfoCallback cb = (ICellInfoCallback) request.argument;
-                    try {
-                        if (ar.exception != null) {
-                            Log.e(LOG_TAG, "Exception retrieving CellInfo=" + ar.exception);
-                            cb.onError(
-                                    TelephonyManager.CellInfoCallback.ERROR_MODEM_ERROR,
-                                    ar.exception.getClass().getName(),
-                                    ar.exception.toString());
-                        } else if (ar.result == null) {
-                            Log.w(LOG_TAG, "Timeout Waiting for CellInfo!");
-                            cb.onError(TelephonyManager.CellInfoCallback.ERROR_TIMEOUT, null, null);
-                        } else {
-                            // use the result as returned
-                            cb.onCellInfo((List<CellInfo>) ar.result);
-                        }
-                    } catch (RemoteException re) {
-                        Log.w(LOG_TAG, "Discarded CellInfo due to Callback RemoteException");
-                    }
+                    // Delivered to the callbacks of all requesters sharing the request.
+                    request.result = ar;
+                    notifyRequester(request);
                     break;
                 case CMD_GET_CELL_LOCATION: {
                     request = (MainThreadRequest) msg.obj;
@@ -1688,9 +1741,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                                 ? new CellIdentityCdma() : new CellIdentityGsm();
                     }
 
-                    synchronized (request) {
-                        request.notifyAll();
-                    }
+                    notifyRequester(request);
                     break;
                 }
                 case CMD_MODEM_REBOOT:
@@ -2152,6 +2203,14 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
             synchronized (request) {
                 request.notifyAll();
             }
+            if (request.result != null && !request.future.isDone()) {
+                request.completionTimeMillis = SystemClock.elapsedRealtime();
+                if (request.executeTimeMillis != 0) {
+                    mRequestStats.onResponded(request.command,
+                            request.completionTimeMillis - request.executeTimeMillis);
+                }
+                request.future.complete(request.result);
+            }
         }
 
         private void handleNullReturnEvent(Message msg, String command) {
@@ -2232,8 +2291,9 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
 
     /**
      * Posts the specified command to be executed on the main thread. If {@code timeoutInMs} is
-     * negative, waits for the request to complete, and returns the result. Otherwise, wait for
-     * maximum of {@code timeoutInMs} milliseconds, interrupt and return null.
+     * negative, waits for at most the default timeout of the command, see
+     * {@link #getDefaultTimeoutMillis}. Otherwise, wait for maximum of {@code timeoutInMs}
+     * milliseconds. Returns the result, or null on timeout.
      * @see #sendRequestAsync
      */
     private @Nullable Object sendRequest(int command, Object argument, Integer subId, Phone phone,
@@ -2241,50 +2301,269 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         if (Looper.myLooper() == mMainThreadHandler.getLooper()) {
             throw new RuntimeException("This method will deadlock if called from the main thread.");
         }
+        final boolean isDefaultTimeout = timeoutInMs < 0;
+        if (isDefaultTimeout) {
+            timeoutInMs = getDefaultTimeoutMillis(command);
+        }
+
+        return waitForRequest(command,
+                postRequest(command, argument, subId, phone, workSource), timeoutInMs,
+                isDefaultTimeout);
+    }
 
+    /**
+     * Same as {@link #sendRequest(int, Object, Integer, Phone, WorkSource, long)} with the
+     * default timeout of the command, except that the result of an identical request which is in
+     * flight or completed within the freshness window of the command is shared.
+     * @see #postSharedRequest
+     */
+    private @Nullable Object sendSharedRequest(int command, Integer subId, Phone phone,
+            WorkSource workSource) {
+        if (Looper.myLooper() == mMainThreadHandler.getLooper()) {
+            throw new RuntimeException("This method will deadlock if called from the main thread.");
+        }
+        return waitForRequest(command, postSharedRequest(command, subId, phone, workSource),
+                getDefaultTimeoutMillis(command), true /* isDefaultTimeout */);
+    }
+
+    private @Nullable Object waitForRequest(int command, MainThreadRequest request,
+            long timeoutInMs, boolean isDefaultTimeout) {
+        final long start = SystemClock.elapsedRealtime();
+        mRequestStats.onWaitStarted(request.lane);
+        Object result = null;
+        try {
+            result = waitForResult(request.future, timeoutInMs);
+        } finally {
+            mRequestStats.onWaitFinished(request.lane, SystemClock.elapsedRealtime() - start,
+                    result == null);
+        }
+        if (result == null) {
+            if (isDefaultTimeout && timeoutInMs >= 0) {
+                loge("sendRequest: command " + command + " timed out after " + timeoutInMs
+                        + "ms");
+            } else {
+                Log.wtf(LOG_TAG, "sendRequest: Blocking command timed out. Something has gone "
+                        + "terribly wrong.");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Posts the specified command to be executed on the main thread without waiting for it. The
+     * future of the returned request completes with the result, if the command notifies it.
+     */
+    private MainThreadRequest postRequest(int command, Object argument, Integer subId,
+            Phone phone, WorkSource workSource) {
         MainThreadRequest request = null;
         if (subId != SubscriptionManager.INVALID_SUBSCRIPTION_ID && phone != null) {
             throw new IllegalArgumentException("subId and phone cannot both be specified!");
         } else if (phone != null) {
             request = new MainThreadRequest(argument, phone, workSource);
+            request.lane = phone.getPhoneId();
         } else {
             request = new MainThreadRequest(argument, subId, workSource);
+            if (SubscriptionManager.isValidSubscriptionId(request.subId)) {
+                int phoneId = SubscriptionManager.getPhoneId(request.subId);
+                if (SubscriptionManager.isValidPhoneId(phoneId)) {
+                    request.lane = phoneId;
+                }
+            }
         }
+        request.command = command;
+        request.uid = getCallingUidForRequest();
+        request.postTimeMillis = SystemClock.elapsedRealtime();
+        mRequestStats.onEnqueued(request.lane, command, request.uid);
 
         Message msg = mMainThreadHandler.obtainMessage(command, request);
         msg.sendToTarget();
+        return request;
+    }
+
+    /**
+     * Posts a request for a query without arguments, unless an identical request is in flight or
+     * completed within the freshness window of the command, in which case that one is returned.
+     * Concurrent callers polling the same query thus share a single modem round trip. The
+     * request is attributed to the work source of the caller which posted it.
+     */
+    private MainThreadRequest postSharedRequest(int command, Integer subId, Phone phone,
+            WorkSource workSource) {
+        SharedRequestKey key = new SharedRequestKey(command, subId,
+                phone != null ? phone.getPhoneId() : SubscriptionManager.INVALID_PHONE_INDEX);
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (mSharedRequests) {
+            MainThreadRequest shared = mSharedRequests.get(key);
+            if (shared != null && (shared.future.isDone()
+                    ? now - shared.completionTimeMillis < getRequestFreshnessMillis(command)
+                    : !isTimedOut(command, shared, now))) {
+                mRequestStats.onShared(shared.lane);
+                return shared;
+            }
+            MainThreadRequest request = postRequest(command, null, subId, phone, workSource);
+            mSharedRequests.put(key, request);
+            return request;
+        }
+    }
 
+    /**
+     * Posts a request which changes the result of the shared query {@code sharedCommand} of the
+     * subscription. The shared query is dropped in the same critical section, so no request
+     * posted before this one is shared afterwards, while those posted after it are handled after
+     * it by the main thread.
+     */
+    private MainThreadRequest postRequestInvalidatingShared(int command, Object argument,
+            int subId, int sharedCommand) {
+        synchronized (mSharedRequests) {
+            mSharedRequests.remove(new SharedRequestKey(sharedCommand, subId,
+                    SubscriptionManager.INVALID_PHONE_INDEX));
+            return postRequest(command, argument, subId, null, null);
+        }
+    }
 
-        synchronized (request) {
-            if (timeoutInMs >= 0) {
-                // Wait for at least timeoutInMs before returning null request result
-                long now = SystemClock.elapsedRealtime();
-                long deadline = now + timeoutInMs;
-                while (request.result == null && now < deadline) {
-                    try {
-                        request.wait(deadline - now);
-                    } catch (InterruptedException e) {
-                        // Do nothing, go back and check if request is completed or timeout
-                    } finally {
-                        now = SystemClock.elapsedRealtime();
-                    }
+    /** Whether callers would have given up waiting for the request by now. */
+    private static boolean isTimedOut(int command, MainThreadRequest request, long now) {
+        long timeoutInMs = getDefaultTimeoutMillis(command);
+        return timeoutInMs >= 0 && now - request.postTimeMillis >= timeoutInMs;
+    }
+
+    /**
+     * Returns for how long the result of a shared request is reused after it completed, see
+     * {@link #postSharedRequest}.
+     */
+    private static long getRequestFreshnessMillis(int command) {
+        switch (command) {
+            case CMD_GET_ALL_CELL_INFO:
+            case CMD_REQUEST_CELL_INFO_UPDATE:
+                return DeviceConfig.getLong(DeviceConfig.NAMESPACE_TELEPHONY,
+                        CELL_INFO_REQUEST_FRESHNESS_MILLIS, CELL_INFO_REQUEST_FRESHNESS_DEFAULT_MS);
+            case CMD_GET_NETWORK_SELECTION_MODE:
+                return DeviceConfig.getLong(DeviceConfig.NAMESPACE_TELEPHONY,
+                        NETWORK_SELECTION_MODE_REQUEST_FRESHNESS_MILLIS,
+                        NETWORK_SELECTION_MODE_REQUEST_FRESHNESS_DEFAULT_MS);
+            default:
+                return 0;
+        }
+    }
+
+    /** Identifies the requests of {@link #postSharedRequest} which can share a result. */
+    private static final class SharedRequestKey {
+        private final int mCommand;
+        private final int mSubId;
+        private final int mPhoneId;
+
+        SharedRequestKey(int command, int subId, int phoneId) {
+            mCommand = command;
+            mSubId = subId;
+            mPhoneId = phoneId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SharedRequestKey)) return false;
+            SharedRequestKey that = (SharedRequestKey) o;
+            return mCommand == that.mCommand && mSubId == that.mSubId
+                    && mPhoneId == that.mPhoneId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mCommand, mSubId, mPhoneId);
+        }
+    }
+
+    private void onRequestDispatched(MainThreadRequest request) {
+        request.dispatched = true;
+        request.dispatchTimeMillis = SystemClock.elapsedRealtime();
+        mRequestStats.onDispatched(request.lane, request.command,
+                request.dispatchTimeMillis - request.postTimeMillis);
+    }
+
+    private void onRequestExecuted(MainThreadRequest request) {
+        request.executeTimeMillis = SystemClock.elapsedRealtime();
+        mRequestStats.onExecuted(request.command,
+                request.executeTimeMillis - request.dispatchTimeMillis);
+        if (request.future.isDone()) {
+            // Completed while executing, without waiting for the modem.
+            mRequestStats.onResponded(request.command, 0);
+        }
+    }
+
+    /**
+     * Returns the uid of the app on whose behalf the current thread posts a request. Binder
+     * methods usually clear the calling identity before posting, so the uid is taken from the
+     * transaction handled by the thread, see {@link #onTransact}.
+     */
+    private static int getCallingUidForRequest() {
+        int uid = sTransactionUid.get()[0];
+        return uid != Process.INVALID_UID ? uid : Binder.getCallingUid();
+    }
+
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+            throws RemoteException {
+        int[] uid = sTransactionUid.get();
+        int previousUid = uid[0];
+        uid[0] = Binder.getCallingUid();
+        try {
+            return super.onTransact(code, data, reply, flags);
+        } finally {
+            uid[0] = previousUid;
+        }
+    }
+
+    /**
+     * Dumps the latency histograms of the main thread requests, and optionally resets them.
+     * Used by {@link TelephonyShellCommand}.
+     */
+    void dumpRequestStats(PrintWriter writer, boolean reset) {
+        IndentingPrintWriter pw = new IndentingPrintWriter(writer, "  ");
+        mRequestStats.dumpCommands(pw);
+        pw.flush();
+        if (reset) {
+            mRequestStats.resetCommandStats();
+        }
+    }
+
+    /**
+     * Waits for at most {@code timeoutInMs}, or until completion if it is negative, and returns
+     * the result or null on timeout.
+     */
+    private static @Nullable Object waitForResult(CompletableFuture<Object> future,
+            long timeoutInMs) {
+        final long deadline = SystemClock.elapsedRealtime() + timeoutInMs;
+        while (true) {
+            try {
+                if (timeoutInMs < 0) {
+                    return future.get();
                 }
-            } else {
-                // Wait for the request to complete
-                while (request.result == null) {
-                    try {
-                        request.wait();
-                    } catch (InterruptedException e) {
-                        // Do nothing, go back and wait until the request is complete
-                    }
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    return null;
                 }
+                return future.get(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // Do nothing, go back and wait until the request is complete or timeout
+            } catch (TimeoutException | ExecutionException e) {
+                return null;
             }
         }
-        if (request.result == null) {
-            Log.wtf(LOG_TAG,
-                    "sendRequest: Blocking command timed out. Something has gone terribly wrong.");
+    }
+
+    /**
+     * Returns how long a binder thread waits for the command by default, or -1 to wait until it
+     * completes. Only queries whose callers handle a null result can time out, so that a modem
+     * which stops responding does not park binder threads forever.
+     */
+    private static long getDefaultTimeoutMillis(int command) {
+        switch (command) {
+            case CMD_GET_ALL_CELL_INFO:
+            case CMD_GET_CELL_LOCATION:
+            case CMD_GET_ALLOWED_CARRIERS:
+                return QUERY_REQUEST_DEFAULT_TIMEOUT_MS;
+            default:
+                return -1;
         }
-        return request.result;
     }
 
     private void sendRequestAsync(int command, Object argument) {
@@ -2297,9 +2576,8 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
      */
     private void sendRequestAsync(
             int command, Object argument, Phone phone, WorkSource workSource) {
-        MainThreadRequest request = new MainThreadRequest(argument, phone, workSource);
-        Message msg = mMainThreadHandler.obtainMessage(command, request);
-        msg.sendToTarget();
+        postRequest(command, argument, SubscriptionManager.INVALID_SUBSCRIPTION_ID, phone,
+                workSource);
     }
 
     /**
@@ -3103,7 +3381,8 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                 return;
             }
             Pair<String, ResultReceiver> ussdObject = new Pair(ussdRequest, wrappedCallback);
-            sendRequest(CMD_HANDLE_USSD_REQUEST, ussdObject, subId);
+            // The response is delivered through wrappedCallback, don't block the binder thread.
+            postRequest(CMD_HANDLE_USSD_REQUEST, ussdObject, subId, null, null);
         } finally {
             Binder.restoreCallingIdentity(identity);
         }
@@ -3417,8 +3696,9 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         try {
             List<CellInfo> cellInfos = new ArrayList<CellInfo>();
             for (Phone phone : PhoneFactory.getPhones()) {
-                final List<CellInfo> info = (List<CellInfo>) sendRequest(
-                        CMD_GET_ALL_CELL_INFO, null, phone, workSource);
+                final List<CellInfo> info = (List<CellInfo>) sendSharedRequest(
+                        CMD_GET_ALL_CELL_INFO, SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                        phone, workSource);
                 if (info != null) cellInfos.addAll(info);
             }
             return cellInfos;
@@ -3494,7 +3774,29 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         final Phone phone = getPhoneFromSubId(subId);
         if (phone == null) throw new IllegalArgumentException("Invalid Subscription Id: " + subId);
 
-        sendRequestAsync(CMD_REQUEST_CELL_INFO_UPDATE, cb, phone, workSource);
+        postSharedRequest(CMD_REQUEST_CELL_INFO_UPDATE,
+                SubscriptionManager.INVALID_SUBSCRIPTION_ID, phone, workSource)
+                .future.thenAccept(result -> notifyCellInfoCallback(cb, (AsyncResult) result));
+    }
+
+    private static void notifyCellInfoCallback(ICellInfoCallback cb, AsyncResult ar) {
+        try {
+            if (ar.exception != null) {
+                Log.e(LOG_TAG, "Exception retrieving CellInfo=" + ar.exception);
+                cb.onError(
+                        TelephonyManager.CellInfoCallback.ERROR_MODEM_ERROR,
+                        ar.exception.getClass().getName(),
+                        ar.exception.toString());
+            } else if (ar.result == null) {
+                Log.w(LOG_TAG, "Timeout Waiting for CellInfo!");
+                cb.onError(TelephonyManager.CellInfoCallback.ERROR_TIMEOUT, null, null);
+            } else {
+                // use the result as returned
+                cb.onCellInfo((List<CellInfo>) ar.result);
+            }
+        } catch (RemoteException re) {
+            Log.w(LOG_TAG, "Discarded CellInfo due to Callback RemoteException");
+        }
     }
 
     @Override
@@ -4145,7 +4447,8 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
             if (!isActiveSubscription(subId)) {
                 return TelephonyManager.NETWORK_SELECTION_MODE_UNKNOWN;
             }
-            return (int) sendRequest(CMD_GET_NETWORK_SELECTION_MODE, null /* argument */, subId);
+            return (int) sendSharedRequest(CMD_GET_NETWORK_SELECTION_MODE, subId, null /* phone */,
+                    null /* workSource */);
         } finally {
             Binder.restoreCallingIdentity(identity);
         }
@@ -6278,8 +6581,9 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                 return;
             }
             if (DBG) log("setNetworkSelectionModeAutomatic: subId " + subId);
-            sendRequest(CMD_SET_NETWORK_SELECTION_MODE_AUTOMATIC, null, subId,
-                    BLOCKING_REQUEST_DEFAULT_TIMEOUT_MS);
+            // Requests are handled in order, so there is no need to block for the result.
+            postRequestInvalidatingShared(CMD_SET_NETWORK_SELECTION_MODE_AUTOMATIC, null, subId,
+                    CMD_GET_NETWORK_SELECTION_MODE);
         } finally {
             Binder.restoreCallingIdentity(identity);
         }
@@ -6317,7 +6621,11 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                 log("setNetworkSelectionModeManual: subId: " + subId
                         + " operator: " + operatorInfo);
             }
-            return (Boolean) sendRequest(CMD_SET_NETWORK_SELECTION_MODE_MANUAL, arg, subId);
+            return (Boolean) waitForRequest(CMD_SET_NETWORK_SELECTION_MODE_MANUAL,
+                    postRequestInvalidatingShared(CMD_SET_NETWORK_SELECTION_MODE_MANUAL, arg,
+                            subId, CMD_GET_NETWORK_SELECTION_MODE),
+                    getDefaultTimeoutMillis(CMD_SET_NETWORK_SELECTION_MODE_MANUAL),
+                    true /* isDefaultTimeout */);
         } finally {
             Binder.restoreCallingIdentity(identity);
         }
@@ -7680,8 +7988,18 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         }
 
         Executors.newSingleThreadExecutor().execute(() -> {
-            ByteArrayOutputStream output = new ByteArrayOutputStream(
-                    (int) TelephonyManager.getMaximumCallComposerPictureSize());
+            // Stage the picture in a file so that it is streamed rather than held in memory
+            // while the upload and call log insertion are pending.
+            File imageFile;
+            OutputStream output;
+            try {
+                imageFile = CallComposerPictureStore.createImageFile(mApp);
+                output = new FileOutputStream(imageFile);
+            } catch (IOException e) {
+                loge("Could not stage call composer picture: " + e);
+                callback.send(TelephonyManager.CallComposerException.ERROR_UNKNOWN, null);
+                return;
+            }
             InputStream input = new ParcelFileDescriptor.AutoCloseInputStream(fd);
             boolean readUntilEnd = false;
             int totalBytesRead = 0;
@@ -7716,24 +8034,37 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                     }
                     break;
                 }
-                output.write(buffer, 0, numRead);
+                try {
+                    output.write(buffer, 0, numRead);
+                } catch (IOException e) {
+                    loge("Could not stage call composer picture: " + e);
+                    callback.send(TelephonyManager.CallComposerException.ERROR_UNKNOWN, null);
+                    break;
+                }
             }
             // Generally, the remote end will close the file descriptors. The only case where we
             // close is above, where the picture size is too big.
+            try {
+                output.close();
+            } catch (IOException e) {
+                readUntilEnd = false;
+            }
 
             try {
                 fd.checkError();
             } catch (IOException e) {
                 loge("Remote end for call composer closed with an error: " + e);
+                imageFile.delete();
                 return;
             }
 
             if (!readUntilEnd) {
                 loge("Did not finish reading entire image; aborting");
+                imageFile.delete();
                 return;
             }
 
-            ImageData imageData = new ImageData(output.toByteArray(), contentType, null);
+            ImageData imageData = new ImageData(imageFile, contentType, null);
             CallComposerPictureManager.getInstance(mApp, subscriptionId).handleUploadToServer(
                     new CallComposerPictureTransfer.Factory() {},
                     imageData,
@@ -8952,6 +9283,17 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         } catch (Exception e) {
             writer.println("Failed to dump phone information: " + e);
         }
+        IndentingPrintWriter pw = new IndentingPrintWriter(writer, "  ");
+        pw.println();
+        pw.println("Main thread requests:");
+        pw.increaseIndent();
+        mRequestStats.dump(pw);
+        pw.decreaseIndent();
+        pw.println("Main thread request latency:");
+        pw.increaseIndent();
+        mRequestStats.dumpCommands(pw);
+        pw.decreaseIndent();
+        pw.flush();
     }
 
     @Override
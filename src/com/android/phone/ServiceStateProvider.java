@@ -40,21 +40,27 @@ import android.database.MatrixCursor.RowBuilder;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.UserHandle;
 import android.telephony.LocationAccessPolicy;
 import android.telephony.ServiceState;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
+import android.util.ArraySet;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.TelephonyPermissions;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The class to provide base facility to access ServiceState related content,
@@ -243,7 +249,32 @@ public class ServiceStateProvider extends ContentProvider {
     @VisibleForTesting
     /* package */ static final long ENFORCE_LOCATION_PERMISSION_CHECK = 191911306;
 
-    private final HashMap<Integer, ServiceState> mServiceStates = new HashMap<>();
+    /**
+     * The service state of a subscription along with its column values, in the order of
+     * {@link #ALL_COLUMNS}, both unredacted and with location info redacted. Computed once per
+     * insert so queries only copy the requested columns.
+     */
+    private static final class ServiceStateSnapshot {
+        final ServiceState serviceState;
+        final Object[] values;
+        final Object[] redactedValues;
+
+        ServiceStateSnapshot(ServiceState serviceState) {
+            this.serviceState = serviceState;
+            values = getColumnValues(serviceState);
+            redactedValues = getColumnValues(getLocationRedactedServiceState(serviceState));
+        }
+    }
+
+    // Snapshots are immutable and replaced as a whole, so queries need no lock.
+    private final Map<Integer, ServiceStateSnapshot> mServiceStates = new ConcurrentHashMap<>();
+
+    // Delay in which the changes of a burst of inserts are collected into one notification.
+    private static final long NOTIFY_DELAY_MILLIS = 50;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // URIs changed since the last notification, guarded by itself.
+    private final Set<Uri> mPendingNotifyUris = new ArraySet<>();
 
     @VisibleForTesting
     /* package */ static final String[] ALL_COLUMNS = {
@@ -303,6 +334,16 @@ public class ServiceStateProvider extends ContentProvider {
             SYSTEM_ID
     );
 
+    private static final Set<String> PUBLIC_COLUMNS_SET = Set.of(PUBLIC_COLUMNS);
+
+    // Index of each column in ALL_COLUMNS.
+    private static final Map<String, Integer> COLUMN_INDEX = new HashMap<>();
+    static {
+        for (int i = 0; i < ALL_COLUMNS.length; i++) {
+            COLUMN_INDEX.put(ALL_COLUMNS[i], i);
+        }
+    }
+
     @Override
     public boolean onCreate() {
         return true;
@@ -316,9 +357,26 @@ public class ServiceStateProvider extends ContentProvider {
      */
     @VisibleForTesting
     public ServiceState getServiceState(int subId) {
+        ServiceStateSnapshot snapshot = mServiceStates.get(subId);
+        return snapshot != null ? snapshot.serviceState : null;
+    }
+
+    /**
+     * Returns the snapshot of the {@link ServiceState} of the subscription, or {@code null} if
+     * there is no service state for the subscription.
+     */
+    private ServiceStateSnapshot getServiceStateSnapshot(int subId) {
         return mServiceStates.get(subId);
     }
 
+    /**
+     * Sets the {@link ServiceState} of the subscription without notifying the change.
+     */
+    @VisibleForTesting
+    /* package */ void setServiceState(int subId, ServiceState serviceState) {
+        mServiceStates.put(subId, new ServiceStateSnapshot(serviceState));
+    }
+
     /**
      * Returns the system's default subscription id.
      *
@@ -348,21 +406,30 @@ public class ServiceStateProvider extends ContentProvider {
             }
 
             final Parcel p = Parcel.obtain();
-            final byte[] rawBytes = values.getAsByteArray(SERVICE_STATE);
-            p.unmarshall(rawBytes, 0, rawBytes.length);
-            p.setDataPosition(0);
-
-            // create the new service state
-            final ServiceState newSS = ServiceState.CREATOR.createFromParcel(p);
+            final ServiceState newSS;
+            try {
+                final byte[] rawBytes = values.getAsByteArray(SERVICE_STATE);
+                p.unmarshall(rawBytes, 0, rawBytes.length);
+                p.setDataPosition(0);
+
+                // create the new service state
+                newSS = ServiceState.CREATOR.createFromParcel(p);
+            } finally {
+                p.recycle();
+            }
+            final ServiceStateSnapshot snapshot = new ServiceStateSnapshot(newSS);
 
             // notify listeners
             // if ss is null (e.g. first service state update) we will notify for all fields
             ServiceState ss = getServiceState(subId);
-            notifyChangeForSubIdAndField(getContext(), ss, newSS, subId);
-            notifyChangeForSubId(getContext(), ss, newSS, subId);
+            List<Uri> changedUris = getChangedFieldUris(ss, newSS, subId);
+            if (!changedUris.isEmpty()) {
+                changedUris.add(getUriForSubscriptionId(subId));
+                scheduleNotifyChange(changedUris);
+            }
 
             // store the new service state
-            mServiceStates.put(subId, newSS);
+            mServiceStates.put(subId, snapshot);
             return uri;
         }
         return null;
@@ -405,8 +472,8 @@ public class ServiceStateProvider extends ContentProvider {
             }
 
             // Get the service state
-            ServiceState unredactedServiceState = getServiceState(subId);
-            if (unredactedServiceState == null) {
+            ServiceStateSnapshot snapshot = getServiceStateSnapshot(subId);
+            if (snapshot == null) {
                 Log.d(TAG, "returning null");
                 return null;
             }
@@ -418,19 +485,19 @@ public class ServiceStateProvider extends ContentProvider {
             final boolean canReadPrivilegedPhoneState = getContext().checkCallingOrSelfPermission(
                     Manifest.permission.READ_PRIVILEGED_PHONE_STATE) == PERMISSION_GRANTED;
 
-            final String[] availableColumns;
-            final ServiceState ss;
+            final Set<String> availableColumns;
+            final Object[] values;
             if (enforceLocationPermission && targetingAtLeastS && !canReadPrivilegedPhoneState) {
                 // targetSdkVersion S+ without read privileged phone state permission can only
                 // access public columns which have no location sensitive info.
-                availableColumns = PUBLIC_COLUMNS;
-                ss = unredactedServiceState;
+                availableColumns = PUBLIC_COLUMNS_SET;
+                values = snapshot.values;
             } else {
-                availableColumns = ALL_COLUMNS;
+                availableColumns = null;
                 if (!enforceLocationPermission) {
                     // No matter the targetSdkVersion, return unredacted ServiceState if location
                     // permission enforcement is not introduced
-                    ss = unredactedServiceState;
+                    values = snapshot.values;
                 } else {
                     boolean implicitlyQueryLocation = projection == null;
                     boolean explicitlyQueryLocation = false;
@@ -448,7 +515,7 @@ public class ServiceStateProvider extends ContentProvider {
                     // permission when query non sensitive info.
                     if (implicitlyQueryLocation || explicitlyQueryLocation) {
                         if (hasLocationPermission()) {
-                            ss = unredactedServiceState;
+                            values = snapshot.values;
                         } else {
                             if (targetingAtLeastS) {
                                 // Throw SecurityException to fail loudly if caller is targetSDK S+
@@ -457,111 +524,105 @@ public class ServiceStateProvider extends ContentProvider {
                                                 + "permissions");
                             } else {
                                 // For backward compatibility, return redacted value for old SDK
-                                ss = getLocationRedactedServiceState(unredactedServiceState);
+                                values = snapshot.redactedValues;
                             }
                         }
                     } else {
                         // The caller is not interested in location sensitive info, return result
                         // that scrub out all sensitive info. And no permission check is needed.
-                        ss = getLocationRedactedServiceState(unredactedServiceState);
+                        values = snapshot.redactedValues;
                     }
                 }
             }
 
-            // Build the result
-            final int voice_reg_state = ss.getState();
-            final int data_reg_state = ss.getDataRegistrationState();
-            final int voice_roaming_type = ss.getVoiceRoamingType();
-            final int data_roaming_type = ss.getDataRoamingType();
-            final String voice_operator_alpha_long = ss.getOperatorAlphaLong();
-            final String voice_operator_alpha_short = ss.getOperatorAlphaShort();
-            final String voice_operator_numeric = ss.getOperatorNumeric();
-            final String data_operator_alpha_long = ss.getOperatorAlphaLong();
-            final String data_operator_alpha_short = ss.getOperatorAlphaShort();
-            final String data_operator_numeric = ss.getOperatorNumeric();
-            final int is_manual_network_selection = (ss.getIsManualSelection()) ? 1 : 0;
-            final int ril_voice_radio_technology = ss.getRilVoiceRadioTechnology();
-            final int ril_data_radio_technology = ss.getRilDataRadioTechnology();
-            final int css_indicator = ss.getCssIndicator();
-            final int network_id = ss.getCdmaNetworkId();
-            final int system_id = ss.getCdmaSystemId();
-            final int cdma_roaming_indicator = -1;
-            final int cdma_default_roaming_indicator = -1;
-            final int cdma_eri_icon_index = -1;
-            final int cdma_eri_icon_mode = -1;
-            final int is_emergency_only = (ss.isEmergencyOnly()) ? 1 : 0;
-            final int is_using_carrier_aggregation = (ss.isUsingCarrierAggregation()) ? 1 : 0;
-            final String operator_alpha_long_raw = ss.getOperatorAlphaLongRaw();
-            final String operator_alpha_short_raw = ss.getOperatorAlphaShortRaw();
-            final int data_network_type = ss.getDataNetworkType();
-            final int duplex_mode = ss.getDuplexMode();
-
-            Object[] data = availableColumns == ALL_COLUMNS ? new Object[]{
-                    // data for all columns
-                    voice_reg_state,
-                    data_reg_state,
-                    voice_roaming_type,
-                    data_roaming_type,
-                    voice_operator_alpha_long,
-                    voice_operator_alpha_short,
-                    voice_operator_numeric,
-                    data_operator_alpha_long,
-                    data_operator_alpha_short,
-                    data_operator_numeric,
-                    is_manual_network_selection,
-                    ril_voice_radio_technology,
-                    ril_data_radio_technology,
-                    css_indicator,
-                    network_id,
-                    system_id,
-                    cdma_roaming_indicator,
-                    cdma_default_roaming_indicator,
-                    cdma_eri_icon_index,
-                    cdma_eri_icon_mode,
-                    is_emergency_only,
-                    is_using_carrier_aggregation,
-                    operator_alpha_long_raw,
-                    operator_alpha_short_raw,
-                    data_network_type,
-                    duplex_mode,
-            } : new Object[]{
-                    // data for public columns only
-                    voice_reg_state,
-                    data_reg_state,
-                    voice_operator_numeric,
-                    is_manual_network_selection,
-                    data_network_type,
-                    duplex_mode,
-            };
-
-            return buildSingleRowResult(projection, availableColumns, data);
+            return buildSingleRowResult(projection, availableColumns, values);
         }
     }
 
-    private static Cursor buildSingleRowResult(String[] projection, String[] availableColumns,
-            Object[] data) {
+    /**
+     * Builds the result row from the column values of a snapshot.
+     *
+     * @param availableColumns the columns the caller may read, or {@code null} for all columns.
+     * @param values the column values, in the order of {@link #ALL_COLUMNS}.
+     */
+    private static Cursor buildSingleRowResult(String[] projection, Set<String> availableColumns,
+            Object[] values) {
         if (projection == null) {
-            projection = availableColumns;
+            projection = availableColumns == null ? ALL_COLUMNS : PUBLIC_COLUMNS;
         }
         final MatrixCursor c = new MatrixCursor(projection, 1);
         final RowBuilder row = c.newRow();
         for (int i = 0; i < c.getColumnCount(); i++) {
             final String columnName = c.getColumnName(i);
-            boolean found = false;
-            for (int j = 0; j < availableColumns.length; j++) {
-                if (availableColumns[j].equals(columnName)) {
-                    row.add(data[j]);
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
+            final Integer index = COLUMN_INDEX.get(columnName);
+            if (index == null
+                    || (availableColumns != null && !availableColumns.contains(columnName))) {
                 throw new IllegalArgumentException("Invalid column " + projection[i]);
             }
+            row.add(values[index]);
         }
         return c;
     }
 
+    /** Returns the values of {@link #ALL_COLUMNS} for the service state. */
+    private static Object[] getColumnValues(ServiceState ss) {
+        final int voice_reg_state = ss.getState();
+        final int data_reg_state = ss.getDataRegistrationState();
+        final int voice_roaming_type = ss.getVoiceRoamingType();
+        final int data_roaming_type = ss.getDataRoamingType();
+        final String voice_operator_alpha_long = ss.getOperatorAlphaLong();
+        final String voice_operator_alpha_short = ss.getOperatorAlphaShort();
+        final String voice_operator_numeric = ss.getOperatorNumeric();
+        final String data_operator_alpha_long = ss.getOperatorAlphaLong();
+        final String data_operator_alpha_short = ss.getOperatorAlphaShort();
+        final String data_operator_numeric = ss.getOperatorNumeric();
+        final int is_manual_network_selection = (ss.getIsManualSelection()) ? 1 : 0;
+        final int ril_voice_radio_technology = ss.getRilVoiceRadioTechnology();
+        final int ril_data_radio_technology = ss.getRilDataRadioTechnology();
+        final int css_indicator = ss.getCssIndicator();
+        final int network_id = ss.getCdmaNetworkId();
+        final int system_id = ss.getCdmaSystemId();
+        final int cdma_roaming_indicator = -1;
+        final int cdma_default_roaming_indicator = -1;
+        final int cdma_eri_icon_index = -1;
+        final int cdma_eri_icon_mode = -1;
+        final int is_emergency_only = (ss.isEmergencyOnly()) ? 1 : 0;
+        final int is_using_carrier_aggregation = (ss.isUsingCarrierAggregation()) ? 1 : 0;
+        final String operator_alpha_long_raw = ss.getOperatorAlphaLongRaw();
+        final String operator_alpha_short_raw = ss.getOperatorAlphaShortRaw();
+        final int data_network_type = ss.getDataNetworkType();
+        final int duplex_mode = ss.getDuplexMode();
+
+        return new Object[]{
+                voice_reg_state,
+                data_reg_state,
+                voice_roaming_type,
+                data_roaming_type,
+                voice_operator_alpha_long,
+                voice_operator_alpha_short,
+                voice_operator_numeric,
+                data_operator_alpha_long,
+                data_operator_alpha_short,
+                data_operator_numeric,
+                is_manual_network_selection,
+                ril_voice_radio_technology,
+                ril_data_radio_technology,
+                css_indicator,
+                network_id,
+                system_id,
+                cdma_roaming_indicator,
+                cdma_default_roaming_indicator,
+                cdma_eri_icon_index,
+                cdma_eri_icon_mode,
+                is_emergency_only,
+                is_using_carrier_aggregation,
+                operator_alpha_long_raw,
+                operator_alpha_short_raw,
+                data_network_type,
+                duplex_mode,
+        };
+    }
+
     /**
      * Notify interested apps that certain fields of the ServiceState have changed.
      *
@@ -576,33 +637,62 @@ public class ServiceStateProvider extends ContentProvider {
     @VisibleForTesting
     public static void notifyChangeForSubIdAndField(Context context, ServiceState oldSS,
             ServiceState newSS, int subId) {
-        final boolean firstUpdate = (oldSS == null) ? true : false;
-
         // For every field, if the field has changed values, notify via the provider to all users
-        if (firstUpdate || voiceRegStateChanged(oldSS, newSS)) {
-            context.getContentResolver().notifyChange(
-                    getUriForSubscriptionIdAndField(subId, VOICE_REG_STATE),
+        for (Uri uri : getChangedFieldUris(oldSS, newSS, subId)) {
+            context.getContentResolver().notifyChange(uri,
                     /* observer= */ null, /* syncToNetwork= */ false, UserHandle.USER_ALL);
         }
+    }
+
+    /**
+     * Returns the URIs of the fields that differ between the service states, or of all fields if
+     * {@code oldSS} is {@code null}. Each field is compared once.
+     */
+    @VisibleForTesting
+    /* package */ static List<Uri> getChangedFieldUris(ServiceState oldSS, ServiceState newSS,
+            int subId) {
+        final boolean firstUpdate = (oldSS == null) ? true : false;
+        final List<Uri> uris = new ArrayList<>();
+        if (firstUpdate || voiceRegStateChanged(oldSS, newSS)) {
+            uris.add(getUriForSubscriptionIdAndField(subId, VOICE_REG_STATE));
+        }
         if (firstUpdate || dataRegStateChanged(oldSS, newSS)) {
-            context.getContentResolver().notifyChange(
-                    getUriForSubscriptionIdAndField(subId, DATA_REG_STATE),
-                    /* observer= */ null, /* syncToNetwork= */ false, UserHandle.USER_ALL);
+            uris.add(getUriForSubscriptionIdAndField(subId, DATA_REG_STATE));
         }
         if (firstUpdate || voiceRoamingTypeChanged(oldSS, newSS)) {
-            context.getContentResolver().notifyChange(
-                    getUriForSubscriptionIdAndField(subId, VOICE_ROAMING_TYPE),
-                    /* observer= */ null, /* syncToNetwork= */ false, UserHandle.USER_ALL);
+            uris.add(getUriForSubscriptionIdAndField(subId, VOICE_ROAMING_TYPE));
         }
         if (firstUpdate || dataRoamingTypeChanged(oldSS, newSS)) {
-            context.getContentResolver().notifyChange(
-                    getUriForSubscriptionIdAndField(subId, DATA_ROAMING_TYPE),
-                    /* observer= */ null, /* syncToNetwork= */ false, UserHandle.USER_ALL);
+            uris.add(getUriForSubscriptionIdAndField(subId, DATA_ROAMING_TYPE));
         }
         if (firstUpdate || dataNetworkTypeChanged(oldSS, newSS)) {
-            context.getContentResolver().notifyChange(
-                    getUriForSubscriptionIdAndField(subId, DATA_NETWORK_TYPE),
-                    /* observer= */ null, /* syncToNetwork= */ false, UserHandle.USER_ALL);
+            uris.add(getUriForSubscriptionIdAndField(subId, DATA_NETWORK_TYPE));
+        }
+        return uris;
+    }
+
+    /**
+     * Notifies the URIs after {@link #NOTIFY_DELAY_MILLIS}, together with the URIs of any other
+     * inserts in the meantime, in a single call to the {@link android.content.ContentResolver}.
+     */
+    private void scheduleNotifyChange(List<Uri> uris) {
+        synchronized (mPendingNotifyUris) {
+            if (mPendingNotifyUris.isEmpty()) {
+                mHandler.postDelayed(this::notifyPendingChanges, NOTIFY_DELAY_MILLIS);
+            }
+            mPendingNotifyUris.addAll(uris);
+        }
+    }
+
+    private void notifyPendingChanges() {
+        final Uri[] uris;
+        synchronized (mPendingNotifyUris) {
+            uris = mPendingNotifyUris.toArray(new Uri[0]);
+            mPendingNotifyUris.clear();
+        }
+        if (uris.length > 0) {
+            getContext().getContentResolver().notifyChange(uris, /* observer= */ null,
+                    /* flags= */ 0, UserHandle.USER_ALL);
         }
     }
 
@@ -644,9 +734,7 @@ public class ServiceStateProvider extends ContentProvider {
         // the provider to all users.
         // If oldSS is null and newSS is not (e.g. first update of service state) this will also
         // notify to all users.
-        if (oldSS == null || voiceRegStateChanged(oldSS, newSS) || dataRegStateChanged(oldSS, newSS)
-                || voiceRoamingTypeChanged(oldSS, newSS) || dataRoamingTypeChanged(oldSS, newSS)
-                || dataNetworkTypeChanged(oldSS, newSS)) {
+        if (!getChangedFieldUris(oldSS, newSS, subId).isEmpty()) {
             context.getContentResolver().notifyChange(getUriForSubscriptionId(subId),
                     /* observer= */ null, /* syncToNetwork= */ false, UserHandle.USER_ALL);
         }
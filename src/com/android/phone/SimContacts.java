@@ -56,9 +56,12 @@ import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.phone.settings.SettingsConstants;
 
 import java.util.ArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
 
 /**
  * SIM Address Book UI for the Phone app.
@@ -70,6 +73,15 @@ public class SimContacts extends ADNList {
 
     private static final int MENU_IMPORT_ONE = 1;
     private static final int MENU_IMPORT_ALL = 2;
+
+    // Number of contacts imported per applyBatch() call when importing all SIM contacts. Keeps a
+    // full SIM to a few transactions while staying well below the binder transaction limit.
+    private static final int IMPORT_BATCH_SIZE = 100;
+    // Cap on the operations of one batch. A batch has no yield point, so that it is committed
+    // all or nothing and can be retried as a whole; ContactsProvider rejects more than 500
+    // operations between yield points.
+    private static final int IMPORT_BATCH_MAX_OPERATIONS = 400;
+
     private ProgressDialog mProgressDialog;
 
     private Account mAccount;
@@ -102,7 +114,7 @@ public class SimContacts extends ADNList {
     private class ImportAllSimContactsThread extends Thread
             implements OnCancelListener, OnClickListener {
 
-        boolean mCanceled = false;
+        volatile boolean mCanceled = false;
 
         public ImportAllSimContactsThread() {
             super("ImportAllSimContactsThread");
@@ -110,13 +122,11 @@ public class SimContacts extends ADNList {
 
         @Override
         public void run() {
-            final ContentValues emptyContentValues = new ContentValues();
-            final ContentResolver resolver = getContentResolver();
-
             mCursor.moveToPosition(-1);
-            while (!mCanceled && mCursor.moveToNext()) {
-                actuallyImportOneSimContact(mCursor, resolver, mAccount);
-                mProgressDialog.incrementProgressBy(1);
+            final int failedCount = importAllSimContacts(getContentResolver(), mCursor, mAccount,
+                    () -> mCanceled, mProgressDialog::incrementProgressBy);
+            if (failedCount > 0) {
+                Log.e(LOG_TAG, "Failed to import " + failedCount + " contacts");
             }
 
             mProgressDialog.dismiss();
@@ -137,8 +147,85 @@ public class SimContacts extends ADNList {
         }
     }
 
+    /**
+     * Imports the contacts after the current position of the cursor, IMPORT_BATCH_SIZE contacts
+     * per applyBatch() call. Each batch is committed as a whole. A batch rejected by the provider is retried one contact at a time,
+     * so that a bad row only loses its own contact. Once {@code isCanceled} returns true, the
+     * contacts already read are imported and no further contact is read.
+     *
+     * @return The number of contacts which could not be imported.
+     */
+    @VisibleForTesting
+    static int importAllSimContacts(final ContentResolver resolver, final Cursor cursor,
+            Account account, BooleanSupplier isCanceled, IntConsumer onProgress) {
+        final ArrayList<ContentProviderOperation> operationList =
+            new ArrayList<ContentProviderOperation>();
+        int batchStart = cursor.getPosition() + 1;
+        int batchCount = 0;
+        int failedCount = 0;
+
+        while (!isCanceled.getAsBoolean() && cursor.moveToNext()) {
+            addImportOperations(cursor, account, operationList);
+            batchCount++;
+            if (batchCount == IMPORT_BATCH_SIZE
+                    || operationList.size() >= IMPORT_BATCH_MAX_OPERATIONS) {
+                failedCount += applyImportBatch(resolver, cursor, account, operationList,
+                        batchStart, batchCount);
+                onProgress.accept(batchCount);
+                operationList.clear();
+                batchStart += batchCount;
+                batchCount = 0;
+            }
+        }
+        if (batchCount > 0) {
+            failedCount += applyImportBatch(resolver, cursor, account, operationList,
+                    batchStart, batchCount);
+            onProgress.accept(batchCount);
+        }
+        return failedCount;
+    }
+
+    /**
+     * Applies the operations of the {@code contactCount} contacts starting at the cursor
+     * position {@code batchStart}, retrying them one at a time if the batch fails. The cursor is
+     * left at the last contact of the batch.
+     *
+     * @return The number of contacts which could not be imported.
+     */
+    private static int applyImportBatch(final ContentResolver resolver, final Cursor cursor,
+            Account account, final ArrayList<ContentProviderOperation> operationList,
+            int batchStart, int contactCount) {
+        if (applyBatch(resolver, operationList)) {
+            return 0;
+        }
+        Log.e(LOG_TAG, "Failed to import a batch of " + contactCount
+                + " contacts, retrying one at a time");
+        int failedCount = 0;
+        for (int position = batchStart; position < batchStart + contactCount; position++) {
+            if (!cursor.moveToPosition(position)
+                    || !actuallyImportOneSimContact(cursor, resolver, account)) {
+                Log.e(LOG_TAG, "Failed to import the contact at position " + position);
+                failedCount++;
+            }
+        }
+        cursor.moveToPosition(batchStart + contactCount - 1);
+        return failedCount;
+    }
+
     private static boolean actuallyImportOneSimContact(
             final Cursor cursor, final ContentResolver resolver, Account account) {
+        final ArrayList<ContentProviderOperation> operationList =
+            new ArrayList<ContentProviderOperation>();
+        addImportOperations(cursor, account, operationList);
+        return applyBatch(resolver, operationList);
+    }
+
+    /**
+     * Appends the operations inserting the contact at the current position of the cursor to
+     * {@code operationList}.
+     */
+    private static void addImportOperations(final Cursor cursor, Account account,
+            final ArrayList<ContentProviderOperation> operationList) {
         final NamePhoneTypePair namePhoneTypePair =
             new NamePhoneTypePair(cursor.getString(NAME_COLUMN));
         final String name = namePhoneTypePair.name;
@@ -152,8 +239,8 @@ public class SimContacts extends ADNList {
             emailAddressArray = null;
         }
 
-        final ArrayList<ContentProviderOperation> operationList =
-            new ArrayList<ContentProviderOperation>();
+        // Back references of the data rows point to the raw contact of this contact.
+        final int rawContactIndex = operationList.size();
         ContentProviderOperation.Builder builder =
             ContentProviderOperation.newInsert(RawContacts.CONTENT_URI);
         String myGroupsId = null;
@@ -166,13 +253,13 @@ public class SimContacts extends ADNList {
         operationList.add(builder.build());
 
         builder = ContentProviderOperation.newInsert(Data.CONTENT_URI);
-        builder.withValueBackReference(StructuredName.RAW_CONTACT_ID, 0);
+        builder.withValueBackReference(StructuredName.RAW_CONTACT_ID, rawContactIndex);
         builder.withValue(Data.MIMETYPE, StructuredName.CONTENT_ITEM_TYPE);
         builder.withValue(StructuredName.DISPLAY_NAME, name);
         operationList.add(builder.build());
 
         builder = ContentProviderOperation.newInsert(Data.CONTENT_URI);
-        builder.withValueBackReference(Phone.RAW_CONTACT_ID, 0);
+        builder.withValueBackReference(Phone.RAW_CONTACT_ID, rawContactIndex);
         builder.withValue(Data.MIMETYPE, Phone.CONTENT_ITEM_TYPE);
         builder.withValue(Phone.TYPE, phoneType);
         builder.withValue(Phone.NUMBER, phoneNumber);
@@ -182,7 +269,7 @@ public class SimContacts extends ADNList {
         if (emailAddressArray != null) {
             for (String emailAddress : emailAddressArray) {
                 builder = ContentProviderOperation.newInsert(Data.CONTENT_URI);
-                builder.withValueBackReference(Email.RAW_CONTACT_ID, 0);
+                builder.withValueBackReference(Email.RAW_CONTACT_ID, rawContactIndex);
                 builder.withValue(Data.MIMETYPE, Email.CONTENT_ITEM_TYPE);
                 builder.withValue(Email.TYPE, Email.TYPE_MOBILE);
                 builder.withValue(Email.DATA, emailAddress);
@@ -192,12 +279,15 @@ public class SimContacts extends ADNList {
 
         if (myGroupsId != null) {
             builder = ContentProviderOperation.newInsert(Data.CONTENT_URI);
-            builder.withValueBackReference(GroupMembership.RAW_CONTACT_ID, 0);
+            builder.withValueBackReference(GroupMembership.RAW_CONTACT_ID, rawContactIndex);
             builder.withValue(Data.MIMETYPE, GroupMembership.CONTENT_ITEM_TYPE);
             builder.withValue(GroupMembership.GROUP_SOURCE_ID, myGroupsId);
             operationList.add(builder.build());
         }
+    }
 
+    private static boolean applyBatch(final ContentResolver resolver,
+            final ArrayList<ContentProviderOperation> operationList) {
         try {
             final ContentProviderResult[] results = resolver.applyBatch(ContactsContract.AUTHORITY,
                     operationList);
@@ -21,9 +21,13 @@ import static com.android.internal.telephony.IccProvider.STR_NEW_TAG;
 
 import android.Manifest;
 import android.annotation.TestApi;
+import android.content.BroadcastReceiver;
 import android.content.ContentProvider;
 import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.UriMatcher;
 import android.content.pm.PackageManager;
 import android.database.ContentObserver;
@@ -44,6 +48,7 @@ import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyFrameworkInitializer;
 import android.telephony.TelephonyManager;
 import android.util.ArraySet;
+import android.util.Pair;
 import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
@@ -51,6 +56,7 @@ import androidx.annotation.Nullable;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.IIccPhoneBook;
+import com.android.internal.telephony.TelephonyIntents;
 import com.android.internal.telephony.flags.Flags;
 import com.android.internal.telephony.uicc.AdnRecord;
 import com.android.internal.telephony.uicc.IccConstants;
@@ -61,14 +67,20 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.MoreExecutors;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Supplier;
 
 /**
@@ -107,6 +119,9 @@ public class SimPhonebookProvider extends ContentProvider {
 
     private static final int WRITE_TIMEOUT_SECONDS = 30;
 
+    // Authority of the legacy provider of SIM contacts, see IccProvider.
+    private static final Uri ICC_PROVIDER_URI = Uri.parse("content://icc");
+
     private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
 
     private static final int ELEMENTARY_FILES = 100;
@@ -135,6 +150,20 @@ public class SimPhonebookProvider extends ContentProvider {
     private Supplier<IIccPhoneBook> mIccPhoneBookSupplier;
     private ContentNotifier mContentNotifier;
 
+    // Guards the cached EFs. Separate from mWriteLock so queries are served from the cache while
+    // a write is waiting on the SIM.
+    private final ReadWriteLock mCacheLock = new ReentrantReadWriteLock();
+    // key : (sub Id, efid), value : the contents of the EF as last read from the SIM
+    private final Map<Pair<Integer, Integer>, CachedEf> mCachedEfs = new HashMap<>();
+    // Incremented on invalidation, so a load racing with it is not cached.
+    private int mCacheGeneration;
+
+    /** The sizes and records of an elementary file, either may not have been loaded yet. */
+    private static final class CachedEf {
+        @Nullable int[] recordsSize;
+        @Nullable List<AdnRecord> records;
+    }
+
     static int efIdForEfType(@ElementaryFiles.EfType int efType) {
         switch (efType) {
             case ElementaryFiles.EF_ADN:
@@ -182,6 +211,24 @@ public class SimPhonebookProvider extends ContentProvider {
         } else if (Flags.workProfileApiSplit()) {
             sm = sm.createForAllUserProfiles();
         }
+        // The cached records are stale once the SIM changes or is refreshed, or when the records
+        // are written through the legacy IccProvider.
+        IntentFilter simStateFilter = new IntentFilter();
+        simStateFilter.addAction(TelephonyManager.ACTION_SIM_CARD_STATE_CHANGED);
+        simStateFilter.addAction(TelephonyManager.ACTION_SIM_APPLICATION_STATE_CHANGED);
+        simStateFilter.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
+        getContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidateCache();
+            }
+        }, simStateFilter);
+        resolver.registerContentObserver(ICC_PROVIDER_URI, true, new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidateCache();
+            }
+        });
         return onCreate(sm,
                 SimPhonebookProvider::getIccPhoneBook,
                 uri -> resolver.notifyChange(uri, null));
@@ -193,6 +240,7 @@ public class SimPhonebookProvider extends ContentProvider {
         mSubscriptionManager = subscriptionManager;
         mIccPhoneBookSupplier = iccPhoneBookSupplier;
         mContentNotifier = notifier;
+        invalidateCache();
 
         mSubscriptionManager.addOnSubscriptionsChangedListener(MoreExecutors.directExecutor(),
                 new SubscriptionManager.OnSubscriptionsChangedListener() {
@@ -201,6 +249,7 @@ public class SimPhonebookProvider extends ContentProvider {
 
                     @Override
                     public void onSubscriptionsChanged() {
+                        invalidateCache();
                         if (mFirstCallback) {
                             mFirstCallback = false;
                             return;
@@ -327,7 +376,7 @@ public class SimPhonebookProvider extends ContentProvider {
 
     private void addEfToCursor(MatrixCursor result, SubscriptionInfo subscriptionInfo,
             int efType) throws RemoteException {
-        int[] recordsSize = mIccPhoneBookSupplier.get().getAdnRecordsSizeForSubscriber(
+        int[] recordsSize = getCachedRecordsSize(
                 subscriptionInfo.getSubscriptionId(), efIdForEfType(efType));
         addEfToCursor(result, subscriptionInfo, efType, recordsSize);
     }
@@ -343,8 +392,8 @@ public class SimPhonebookProvider extends ContentProvider {
         // Have to load the existing records to get the size because there may be more than one
         // phonebook set in which case the total capacity is the sum of the capacity of EF_ADN for
         // all the phonebook sets whereas the recordsSize is just the size for a single EF.
-        List<AdnRecord> existingRecords = mIccPhoneBookSupplier.get()
-                .getAdnRecordsInEfForSubscriber(subscriptionInfo.getSubscriptionId(), efid);
+        List<AdnRecord> existingRecords = getCachedRecords(
+                subscriptionInfo.getSubscriptionId(), efid);
         if (existingRecords == null) {
             existingRecords = ImmutableList.of();
         }
@@ -502,6 +551,8 @@ public class SimPhonebookProvider extends ContentProvider {
 
         acquireWriteLockOrThrow();
         try {
+            // Writes are based on the records on the SIM rather than the cached ones.
+            invalidateCache(args.subscriptionId);
             List<AdnRecord> records = loadRecordsForEf(args);
             if (records == null) {
                 Rlog.e(TAG, "Failed to load existing records for " + args.uri);
@@ -520,6 +571,7 @@ public class SimPhonebookProvider extends ContentProvider {
                         args.uri + " is full. Please delete records to add new ones.");
             }
             boolean success = updateRecord(args, emptyRecord, args.pin2, newName, newPhoneNumber);
+            invalidateCache(args.subscriptionId);
             if (!success) {
                 Rlog.e(TAG, "Insert failed for " + args.uri);
                 // Something didn't work but since we don't have any more specific
@@ -560,11 +612,15 @@ public class SimPhonebookProvider extends ContentProvider {
 
         acquireWriteLockOrThrow();
         try {
+            // Writes are based on the records on the SIM rather than the cached ones.
+            invalidateCache(args.subscriptionId);
             AdnRecord record = loadRecord(args);
             if (record == null || record.isEmpty()) {
                 return 0;
             }
-            if (!updateRecord(args, record, args.pin2, "", "")) {
+            boolean success = updateRecord(args, record, args.pin2, "", "");
+            invalidateCache(args.subscriptionId);
+            if (!success) {
                 Rlog.e(TAG, "Failed to delete " + args.uri);
             }
             notifyChange();
@@ -609,6 +665,8 @@ public class SimPhonebookProvider extends ContentProvider {
         acquireWriteLockOrThrow();
 
         try {
+            // Writes are based on the records on the SIM rather than the cached ones.
+            invalidateCache(args.subscriptionId);
             AdnRecord record = loadRecord(args);
 
             // Note we allow empty records to be updated. This is a bit weird because they are
@@ -618,7 +676,9 @@ public class SimPhonebookProvider extends ContentProvider {
             if (record == null) {
                 return 0;
             }
-            if (!updateRecord(args, record, args.pin2, newName, newPhoneNumber)) {
+            boolean success = updateRecord(args, record, args.pin2, newName, newPhoneNumber);
+            invalidateCache(args.subscriptionId);
+            if (!success) {
                 Rlog.e(TAG, "Failed to update " + args.uri);
                 return 0;
             }
@@ -773,8 +833,7 @@ public class SimPhonebookProvider extends ContentProvider {
 
     private List<AdnRecord> loadRecordsForEf(PhonebookArgs args) {
         try {
-            return mIccPhoneBookSupplier.get().getAdnRecordsInEfForSubscriber(
-                    args.subscriptionId, args.efid);
+            return getCachedRecords(args.subscriptionId, args.efid);
         } catch (RemoteException e) {
             return null;
         }
@@ -790,13 +849,99 @@ public class SimPhonebookProvider extends ContentProvider {
 
     private int[] getRecordsSizeForEf(PhonebookArgs args) {
         try {
-            return mIccPhoneBookSupplier.get().getAdnRecordsSizeForSubscriber(
-                    args.subscriptionId, args.efid);
+            return getCachedRecordsSize(args.subscriptionId, args.efid);
         } catch (RemoteException e) {
             return null;
         }
     }
 
+    /** Returns the records of the EF, loading them from the SIM if they are not cached. */
+    @Nullable
+    private List<AdnRecord> getCachedRecords(int subId, int efid) throws RemoteException {
+        final int generation;
+        mCacheLock.readLock().lock();
+        try {
+            CachedEf cachedEf = mCachedEfs.get(Pair.create(subId, efid));
+            if (cachedEf != null && cachedEf.records != null) {
+                return cachedEf.records;
+            }
+            generation = mCacheGeneration;
+        } finally {
+            mCacheLock.readLock().unlock();
+        }
+        List<AdnRecord> records =
+                mIccPhoneBookSupplier.get().getAdnRecordsInEfForSubscriber(subId, efid);
+        if (records == null) {
+            return null;
+        }
+        records = Collections.unmodifiableList(new ArrayList<>(records));
+        mCacheLock.writeLock().lock();
+        try {
+            if (generation == mCacheGeneration) {
+                getOrCreateCachedEf(subId, efid).records = records;
+            }
+        } finally {
+            mCacheLock.writeLock().unlock();
+        }
+        return records;
+    }
+
+    /** Returns the records size of the EF, loading it from the SIM if it is not cached. */
+    @Nullable
+    private int[] getCachedRecordsSize(int subId, int efid) throws RemoteException {
+        final int generation;
+        mCacheLock.readLock().lock();
+        try {
+            CachedEf cachedEf = mCachedEfs.get(Pair.create(subId, efid));
+            if (cachedEf != null && cachedEf.recordsSize != null) {
+                return cachedEf.recordsSize;
+            }
+            generation = mCacheGeneration;
+        } finally {
+            mCacheLock.readLock().unlock();
+        }
+        int[] recordsSize =
+                mIccPhoneBookSupplier.get().getAdnRecordsSizeForSubscriber(subId, efid);
+        if (recordsSize == null) {
+            return null;
+        }
+        mCacheLock.writeLock().lock();
+        try {
+            if (generation == mCacheGeneration) {
+                getOrCreateCachedEf(subId, efid).recordsSize = recordsSize;
+            }
+        } finally {
+            mCacheLock.writeLock().unlock();
+        }
+        return recordsSize;
+    }
+
+    // Must be called with the write lock of mCacheLock held.
+    private CachedEf getOrCreateCachedEf(int subId, int efid) {
+        return mCachedEfs.computeIfAbsent(Pair.create(subId, efid), key -> new CachedEf());
+    }
+
+    /** Drops the cached EFs of all subscriptions. */
+    void invalidateCache() {
+        mCacheLock.writeLock().lock();
+        try {
+            mCachedEfs.clear();
+            mCacheGeneration++;
+        } finally {
+            mCacheLock.writeLock().unlock();
+        }
+    }
+
+    private void invalidateCache(int subId) {
+        mCacheLock.writeLock().lock();
+        try {
+            mCachedEfs.keySet().removeIf(key -> key.first == subId);
+            mCacheGeneration++;
+        } finally {
+            mCacheLock.writeLock().unlock();
+        }
+    }
+
     void notifyChange() {
         mContentNotifier.notifyChange(SimPhonebookContract.AUTHORITY_URI);
     }
@@ -241,6 +241,8 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
 
     private static final String SET_SIM_COUNT = "set-sim-count";
 
+    private static final String REQUEST_STATS = "request-stats";
+
     private static final String INVALID_ENTRY_ERROR = "An emergency number (only allow '0'-'9', "
             + "'*', '#' or '+') needs to be specified after -a in the command ";
 
@@ -490,6 +492,8 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
                 return handleSetSatelliteIgnorePlmnListFromStorage();
             case SET_SIM_COUNT:
                 return handleSetSimCount();
+            case REQUEST_STATS:
+                return handleRequestStatsCommand();
             default: {
                 Log.d(LOG_TAG, "handleDefaultCommands: cmd=" + cmd);
                 return handleDefaultCommands(cmd);
@@ -548,6 +552,17 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
         onHelpDomainSelection();
         onHelpRilEvent();
         onHelpSimCommands();
+        onHelpRequestStats();
+    }
+
+    private void onHelpRequestStats() {
+        PrintWriter pw = getOutPrintWriter();
+        pw.println("Request Stats Commands:");
+        pw.println("  request-stats [-r]");
+        pw.println("    Print the queue, execution and modem response latency histograms and the");
+        pw.println("    top calling uids of each command sent to the phone main thread.");
+        pw.println("    Options are:");
+        pw.println("      -r: reset the histograms after printing them.");
     }
 
     private void onHelpSimCommands() {
@@ -4766,4 +4781,29 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
         }
         return 0;
     }
+
+    private int handleRequestStatsCommand() {
+        if (!checkShellUid()) {
+            return -1;
+        }
+        if (!(mInterface instanceof PhoneInterfaceManager)) {
+            getErrPrintWriter().println("request-stats: not supported");
+            return -1;
+        }
+        boolean reset = false;
+        String opt;
+        while ((opt = getNextOption()) != null) {
+            switch (opt) {
+                case "-r": {
+                    reset = true;
+                    break;
+                }
+                default:
+                    getErrPrintWriter().println("request-stats: unknown option " + opt);
+                    return -1;
+            }
+        }
+        ((PhoneInterfaceManager) mInterface).dumpRequestStats(getOutPrintWriter(), reset);
+        return 0;
+    }
 }
@@ -36,8 +36,8 @@ import androidx.annotation.NonNull;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.phone.R;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.UUID;
@@ -53,6 +53,8 @@ public class CallComposerPictureManager {
     private static final String TAG = CallComposerPictureManager.class.getSimpleName();
     private static final SparseArray<CallComposerPictureManager> sInstances = new SparseArray<>();
     private static final String THREE_GPP_BOOTSTRAPPING = "3GPP-bootstrapping";
+    // Enough for a handful of pictures that were uploaded but not yet logged.
+    private static final int MAX_CACHED_PICTURES = 4;
 
     public static CallComposerPictureManager getInstance(Context context, int subscriptionId) {
         synchronized (sInstances) {
@@ -104,7 +106,8 @@ public class CallComposerPictureManager {
     private static ScheduledExecutorService sExecutorService = null;
 
     private final HashMap<UUID, String> mCachedServerUrls = new HashMap<>();
-    private final HashMap<UUID, ImageData> mCachedImages = new HashMap<>();
+    private final CallComposerPictureStore mCachedImages = new CallComposerPictureStore(
+            MAX_CACHED_PICTURES * TelephonyManager.getMaximumCallComposerPictureSize());
     private GbaCredentials mCachedCredentials = null;
     private final int mSubscriptionId;
     private final TelephonyManager mTelephonyManager;
@@ -146,6 +149,7 @@ public class CallComposerPictureManager {
         transfer.setCallback(new CallComposerPictureTransfer.PictureCallback() {
             @Override
             public void onError(int error) {
+                imageData.release();
                 callback.accept(Pair.create(null, error));
             }
 
@@ -153,6 +157,7 @@ public class CallComposerPictureManager {
             public void onRetryNeeded(boolean credentialRefresh, long backoffMillis) {
                 if (hasRetried.getAndSet(true)) {
                     Log.e(TAG, "Giving up on image upload after one retry.");
+                    imageData.release();
                     callback.accept(Pair.create(null,
                             TelephonyManager.CallComposerException.ERROR_NETWORK_UNAVAILABLE));
                     return;
@@ -204,6 +209,7 @@ public class CallComposerPictureManager {
             public void onRetryNeeded(boolean credentialRefresh, long backoffMillis) {
                 if (hasRetried.getAndSet(true)) {
                     Log.e(TAG, "Giving up on image download after one retry.");
+                    transfer.discardPartialDownload();
                     callback.accept(Pair.create(null,
                             TelephonyManager.CallComposerException.ERROR_NETWORK_UNAVAILABLE));
                     return;
@@ -218,20 +224,32 @@ public class CallComposerPictureManager {
 
             @Override
             public void onDownloadSuccessful(ImageData data) {
-                ByteArrayInputStream imageDataInput =
-                        new ByteArrayInputStream(data.getImageBytes());
+                InputStream imageDataInput;
+                try {
+                    imageDataInput = data.openInputStream();
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not open downloaded picture: " + e);
+                    data.release();
+                    callback.accept(Pair.create(null,
+                            TelephonyManager.CallComposerException.ERROR_UNKNOWN));
+                    return;
+                }
                 mCallLogProxy.storeCallComposerPictureAsUser(
                         mContext, UserHandle.CURRENT, imageDataInput,
                         sExecutorService,
                         new OutcomeReceiver<Uri, CallLog.CallComposerLoggingException>() {
                             @Override
                             public void onResult(@NonNull Uri result) {
+                                closeQuietly(imageDataInput);
+                                data.release();
                                 callback.accept(Pair.create(
                                         result, TelephonyManager.CallComposerException.SUCCESS));
                             }
 
                             @Override
                             public void onError(CallLog.CallComposerLoggingException e) {
+                                closeQuietly(imageDataInput);
+                                data.release();
                                 // Just report an error to the client for now.
                                 callback.accept(Pair.create(null,
                                         TelephonyManager.CallComposerException.ERROR_UNKNOWN));
@@ -251,19 +269,28 @@ public class CallComposerPictureManager {
             callback.accept(null);
             return;
         }
-        ByteArrayInputStream imageDataInput =
-                new ByteArrayInputStream(data.getImageBytes());
+        InputStream imageDataInput;
+        try {
+            imageDataInput = data.openInputStream();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open cached picture " + id + ": " + e);
+            callback.accept(null);
+            clearCachedData();
+            return;
+        }
         mCallLogProxy.storeCallComposerPictureAsUser(mContext, UserHandle.CURRENT, imageDataInput,
                 sExecutorService,
                 new OutcomeReceiver<Uri, CallLog.CallComposerLoggingException>() {
                     @Override
                     public void onResult(@NonNull Uri result) {
+                        closeQuietly(imageDataInput);
                         callback.accept(result);
                         clearCachedData();
                     }
 
                     @Override
                     public void onError(CallLog.CallComposerLoggingException e) {
+                        closeQuietly(imageDataInput);
                         // Just report an error to the client for now.
                         Log.e(TAG, "Error logging uploaded image: " + e.getErrorCode());
                         callback.accept(null);
@@ -281,6 +308,14 @@ public class CallComposerPictureManager {
         mCachedImages.clear();
     }
 
+    private static void closeQuietly(InputStream input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
     private byte[] getPlaceholderPictureAsBytes() {
         InputStream resourceInput = mContext.getResources().openRawResource(R.drawable.cupcake);
         try {
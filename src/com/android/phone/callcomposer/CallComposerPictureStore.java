@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.callcomposer;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Size-bounded cache of call composer pictures, evicting the least recently used entries once the
+ * total size exceeds the budget. Evicted and cleared images release their backing files.
+ */
+public class CallComposerPictureStore {
+    private static final String TAG = CallComposerPictureStore.class.getSimpleName();
+    private static final String DIRECTORY_NAME = "call_composer";
+
+    private final long mMaxBytes;
+    // Access-ordered, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<UUID, ImageData> mImages = new LinkedHashMap<>(8, 0.75f, true);
+    private long mTotalBytes = 0;
+
+    public CallComposerPictureStore(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /** Creates an empty file in the call composer cache directory to stream a picture into. */
+    public static File createImageFile(Context context) throws IOException {
+        File directory = new File(context.getCacheDir(), DIRECTORY_NAME);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        return File.createTempFile("picture", null, directory);
+    }
+
+    public synchronized void put(UUID id, ImageData image) {
+        ImageData previous = mImages.put(id, image);
+        if (previous != null && previous != image) {
+            mTotalBytes -= previous.getLength();
+            previous.release();
+        }
+        mTotalBytes += image.getLength();
+        trimToSize();
+    }
+
+    public synchronized ImageData get(UUID id) {
+        return mImages.get(id);
+    }
+
+    /** Drops all cached pictures and deletes their files. */
+    public synchronized void clear() {
+        for (ImageData image : mImages.values()) {
+            image.release();
+        }
+        mImages.clear();
+        mTotalBytes = 0;
+    }
+
+    @VisibleForTesting
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<UUID, ImageData>> iterator = mImages.entrySet().iterator();
+        // Always keep the most recent entry, even if it alone exceeds the budget.
+        while (mTotalBytes > mMaxBytes && mImages.size() > 1) {
+            Map.Entry<UUID, ImageData> eldest = iterator.next();
+            Log.i(TAG, "Evicting cached picture " + eldest.getKey());
+            mTotalBytes -= eldest.getValue().getLength();
+            eldest.getValue().release();
+            iterator.remove();
+        }
+    }
+}
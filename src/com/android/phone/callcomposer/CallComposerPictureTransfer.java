@@ -17,15 +17,11 @@
 package com.android.phone.callcomposer;
 
 import android.content.Context;
-import android.net.ConnectivityManager;
 import android.net.Network;
-import android.net.NetworkCapabilities;
-import android.net.NetworkRequest;
 import android.os.Build;
 import android.telephony.TelephonyManager;
 import android.util.Log;
-
-import androidx.annotation.NonNull;
+import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.http.multipart.MultipartEntity;
@@ -38,7 +34,8 @@ import gov.nist.javax.sip.header.WWWAuthenticate;
 import org.xml.sax.InputSource;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -67,6 +64,8 @@ public class CallComposerPictureTransfer {
     private static final String TAG = CallComposerPictureTransfer.class.getSimpleName();
     private static final int HTTP_TIMEOUT_MILLIS = 20000;
     private static final int DEFAULT_BACKOFF_MILLIS = 1000;
+    private static final int TRANSFER_BUFFER_SIZE = 16 * 1024;
+    private static final int HTTP_PARTIAL_CONTENT = 206;
     private static final String THREE_GPP_GBA = "3gpp-gba";
 
     private static final int ERROR_UNKNOWN = 0;
@@ -100,15 +99,21 @@ public class CallComposerPictureTransfer {
     private final int mSubscriptionId;
     private final String mUrl;
     private final ExecutorService mExecutorService;
+    private final CallComposerTransferCache mTransferCache;
 
     private PictureCallback mCallback;
 
+    // Bytes received by an interrupted download, resumed with a range request on retry.
+    private File mPartialDownload;
+    private String mPartialDownloadEtag;
+
     private CallComposerPictureTransfer(Context context, int subscriptionId, String url,
             ExecutorService executorService) {
         mContext = context;
         mSubscriptionId = subscriptionId;
         mExecutorService = executorService;
         mUrl = url;
+        mTransferCache = CallComposerTransferCache.getInstance(context, subscriptionId);
     }
 
     @VisibleForTesting
@@ -118,11 +123,27 @@ public class CallComposerPictureTransfer {
 
     public void uploadPicture(ImageData image,
             GbaCredentialsSupplier credentialsSupplier) {
-        CompletableFuture<Network> networkFuture = getNetworkForCallComposer();
-        CompletableFuture<WWWAuthenticate> authorizationHeaderFuture = networkFuture
-                .thenApplyAsync((network) -> prepareInitialPost(network, mUrl), mExecutorService)
-                .thenComposeAsync(this::obtainAuthenticateHeader, mExecutorService)
-                .thenApplyAsync(DigestAuthUtils::parseAuthenticateHeader);
+        CompletableFuture<Network> networkFuture = mTransferCache.getNetwork();
+        String server = getServer();
+        // With a challenge from an earlier transfer, authenticate preemptively with the next
+        // nonce-count instead of collecting a fresh 401 with an empty POST first.
+        Pair<WWWAuthenticate, Integer> cachedChallenge = mTransferCache.nextChallengeUse(server);
+        boolean preemptive = cachedChallenge != null;
+        int nonceCount = preemptive ? cachedChallenge.second : 1;
+        CompletableFuture<WWWAuthenticate> authorizationHeaderFuture;
+        if (preemptive) {
+            authorizationHeaderFuture = CompletableFuture.completedFuture(cachedChallenge.first);
+        } else {
+            authorizationHeaderFuture = networkFuture
+                    .thenApplyAsync((network) -> prepareInitialPost(network, mUrl),
+                            mExecutorService)
+                    .thenComposeAsync(this::obtainAuthenticateHeader, mExecutorService)
+                    .thenApplyAsync(DigestAuthUtils::parseAuthenticateHeader)
+                    .thenApply((header) -> {
+                        mTransferCache.putChallenge(server, header);
+                        return header;
+                    });
+        }
         CompletableFuture<GbaCredentials> credsFuture = authorizationHeaderFuture
                 .thenComposeAsync((header) ->
                         credentialsSupplier.getCredentials(header.getRealm(), mExecutorService),
@@ -132,7 +153,7 @@ public class CallComposerPictureTransfer {
                 authorizationHeaderFuture.thenCombineAsync(credsFuture,
                         (authHeader, credentials) ->
                                 DigestAuthUtils.generateAuthorizationHeader(
-                                        authHeader, credentials, "POST", mUrl),
+                                        authHeader, credentials, "POST", mUrl, nonceCount),
                         mExecutorService)
                         .whenCompleteAsync(
                                 (authorization, error) -> handleExceptionalCompletion(error),
@@ -140,7 +161,8 @@ public class CallComposerPictureTransfer {
 
         CompletableFuture<String> networkUrlFuture =
                 networkFuture.thenCombineAsync(authorizationFuture,
-                        (network, auth) -> sendActualImageUpload(network, auth, image),
+                        (network, auth) -> sendActualImageUpload(network, auth, image,
+                                preemptive, credentialsSupplier),
                         mExecutorService);
         networkUrlFuture.thenAcceptAsync((result) -> {
             if (result != null) mCallback.onUploadSuccessful(result);
@@ -151,15 +173,34 @@ public class CallComposerPictureTransfer {
     }
 
     public void downloadPicture(GbaCredentialsSupplier credentialsSupplier) {
-        CompletableFuture<Network> networkFuture = getNetworkForCallComposer();
-        CompletableFuture<HttpURLConnection> getConnectionFuture =
-                networkFuture.thenApplyAsync((network) ->
-                        prepareImageDownloadRequest(network, mUrl), mExecutorService);
+        CompletableFuture<Network> networkFuture = mTransferCache.getNetwork();
+        String server = getServer();
+        // Send the first GET with credentials if an earlier transfer left a challenge behind. If
+        // the server rejects it, its 401 carries a fresh challenge and the flow below continues
+        // as if no authorization had been sent.
+        Pair<WWWAuthenticate, Integer> cachedChallenge = mTransferCache.nextChallengeUse(server);
+        CompletableFuture<HttpURLConnection> getConnectionFuture;
+        if (cachedChallenge != null) {
+            getConnectionFuture = networkFuture.thenCombineAsync(
+                    credentialsSupplier.getCredentials(cachedChallenge.first.getRealm(),
+                            mExecutorService),
+                    (network, credentials) -> {
+                        HttpURLConnection conn = prepareImageDownloadRequest(network, mUrl);
+                        conn.addRequestProperty("Authorization",
+                                DigestAuthUtils.generateAuthorizationHeader(
+                                        cachedChallenge.first, credentials, "GET", mUrl,
+                                        cachedChallenge.second));
+                        return conn;
+                    }, mExecutorService);
+        } else {
+            getConnectionFuture = networkFuture.thenApplyAsync((network) ->
+                    prepareImageDownloadRequest(network, mUrl), mExecutorService);
+        }
 
         CompletableFuture<ImageData> immediatelyDownloadableImage = getConnectionFuture
                 .thenComposeAsync((conn) -> {
                     try {
-                        if (conn.getResponseCode() != 200) {
+                        if (!isDownloadResponse(conn.getResponseCode())) {
                             return CompletableFuture.completedFuture(null);
                         }
                     } catch (IOException e) {
@@ -172,7 +213,7 @@ public class CallComposerPictureTransfer {
         CompletableFuture<ImageData> authRequiredImage = getConnectionFuture
                 .thenComposeAsync((conn) -> {
                     try {
-                        if (conn.getResponseCode() == 200) {
+                        if (isDownloadResponse(conn.getResponseCode())) {
                             // handled by above case
                             return CompletableFuture.completedFuture(null);
                         }
@@ -182,7 +223,11 @@ public class CallComposerPictureTransfer {
                     }
                     CompletableFuture<WWWAuthenticate> authenticateHeaderFuture =
                             obtainAuthenticateHeader(conn)
-                                    .thenApply(DigestAuthUtils::parseAuthenticateHeader);
+                                    .thenApply(DigestAuthUtils::parseAuthenticateHeader)
+                                    .thenApply((header) -> {
+                                        mTransferCache.putChallenge(server, header);
+                                        return header;
+                                    });
                     CompletableFuture<GbaCredentials> credsFuture = authenticateHeaderFuture
                             .thenComposeAsync((header) ->
                                     credentialsSupplier.getCredentials(header.getRealm(),
@@ -208,29 +253,24 @@ public class CallComposerPictureTransfer {
             if (fromAuth == null && fromImmediate == null) {
                 Log.w(TAG, "No result from download -- error happened sometime earlier");
             }
-            if (fromAuth != null) mCallback.onDownloadSuccessful(fromAuth);
-            mCallback.onDownloadSuccessful(fromImmediate);
+            if (fromAuth != null) {
+                mCallback.onDownloadSuccessful(fromAuth);
+            } else if (fromImmediate != null) {
+                mCallback.onDownloadSuccessful(fromImmediate);
+            }
         }).exceptionally((ex) -> {
             logException("Exception downloading image" , ex);
             return null;
         });
     }
 
-    private CompletableFuture<Network> getNetworkForCallComposer() {
-        ConnectivityManager connectivityManager =
-                mContext.getSystemService(ConnectivityManager.class);
-        NetworkRequest pictureNetworkRequest = new NetworkRequest.Builder()
-                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
-                .build();
-        CompletableFuture<Network> resultFuture = new CompletableFuture<>();
-        connectivityManager.requestNetwork(pictureNetworkRequest,
-                new ConnectivityManager.NetworkCallback() {
-                    @Override
-                    public void onAvailable(@NonNull Network network) {
-                        resultFuture.complete(network);
-                    }
-                });
-        return resultFuture;
+    // Digest challenges are cached per server, since a nonce is only valid within its origin.
+    private String getServer() {
+        try {
+            return new URL(mUrl).getAuthority();
+        } catch (MalformedURLException e) {
+            return mUrl;
+        }
     }
 
     private HttpURLConnection prepareInitialPost(Network network, String uploadUrl) {
@@ -260,6 +300,13 @@ public class CallComposerPictureTransfer {
             connection.setConnectTimeout(HTTP_TIMEOUT_MILLIS);
             connection.setReadTimeout(HTTP_TIMEOUT_MILLIS);
             connection.setRequestProperty("User-Agent", getUserAgent());
+            if (mPartialDownload != null && mPartialDownload.length() > 0) {
+                connection.setRequestProperty("Range",
+                        "bytes=" + mPartialDownload.length() + "-");
+                if (mPartialDownloadEtag != null) {
+                    connection.setRequestProperty("If-Range", mPartialDownloadEtag);
+                }
+            }
             return connection;
         } catch (MalformedURLException e) {
             Log.e(TAG, "Malformed URL: " + imageUrl);
@@ -294,7 +341,9 @@ public class CallComposerPictureTransfer {
                 throw new NetworkAccessException(ERROR_UNKNOWN);
             }
 
-            return connection.getHeaderField(DigestAuthUtils.WWW_AUTHENTICATE);
+            String header = connection.getHeaderField(DigestAuthUtils.WWW_AUTHENTICATE);
+            drainAndClose(connection.getErrorStream());
+            return header;
         }, mExecutorService);
     }
 
@@ -305,14 +354,18 @@ public class CallComposerPictureTransfer {
     }
 
     private ImageData downloadImageFromConnection(HttpURLConnection conn) {
+        int responseCode;
         try {
-            if (conn.getResponseCode() != 200) {
-                Log.w(TAG, "Got response code " + conn.getResponseCode() + " when trying"
+            responseCode = conn.getResponseCode();
+            if (!isDownloadResponse(responseCode)) {
+                Log.w(TAG, "Got response code " + responseCode + " when trying"
                         + " to download image");
-                if (conn.getResponseCode() == 401) {
+                if (responseCode == 401) {
                     Log.i(TAG, "Got 401 even with auth -- key refresh needed?");
+                    mTransferCache.invalidateChallenge(getServer());
                     mCallback.onRetryNeeded(true, 0);
                 }
+                drainAndClose(conn.getErrorStream());
                 return null;
             }
         } catch (IOException e) {
@@ -320,23 +373,59 @@ public class CallComposerPictureTransfer {
             throw new NetworkAccessException(ERROR_HTTP_TIMEOUT);
         }
 
+        // Append to the partial file only if the server honored the range request, otherwise
+        // it is sending the whole image again.
+        boolean resume = responseCode == HTTP_PARTIAL_CONTENT && mPartialDownload != null;
+        if (!resume) {
+            discardPartialDownload();
+            try {
+                mPartialDownload = CallComposerPictureStore.createImageFile(mContext);
+            } catch (IOException e) {
+                logException("IOException creating image file: ", e);
+                deliverFailure(TelephonyManager.CallComposerException.ERROR_UNKNOWN);
+                return null;
+            }
+            mPartialDownloadEtag = conn.getHeaderField("ETag");
+        }
+
         String contentType = conn.getContentType();
-        ByteArrayOutputStream imageDataOut = new ByteArrayOutputStream();
-        byte[] buffer = new byte[4096];
+        byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
         int numRead;
-        try {
-            InputStream is = conn.getInputStream();
+        try (InputStream is = conn.getInputStream();
+                OutputStream os = new FileOutputStream(mPartialDownload, resume)) {
             while (true) {
                 numRead = is.read(buffer);
                 if (numRead < 0) break;
-                imageDataOut.write(buffer, 0, numRead);
+                os.write(buffer, 0, numRead);
             }
         } catch (IOException e) {
+            // Keep what was received so that the retry only fetches the remainder.
             logException("IOException reading from image body: ", e);
+            scheduleRetry();
             return null;
         }
 
-        return new ImageData(imageDataOut.toByteArray(), contentType, null);
+        File imageFile = mPartialDownload;
+        mPartialDownload = null;
+        mPartialDownloadEtag = null;
+        return new ImageData(imageFile, contentType, null);
+    }
+
+    // A 206 answers the range request resuming an interrupted download.
+    private static boolean isDownloadResponse(int responseCode) {
+        return responseCode == 200 || responseCode == HTTP_PARTIAL_CONTENT;
+    }
+
+    /**
+     * Deletes the bytes kept from an interrupted download. Called when the download will not be
+     * retried anymore.
+     */
+    public void discardPartialDownload() {
+        if (mPartialDownload != null) {
+            mPartialDownload.delete();
+            mPartialDownload = null;
+        }
+        mPartialDownloadEtag = null;
     }
 
     private void handleExceptionalCompletion(Throwable error) {
@@ -367,11 +456,12 @@ public class CallComposerPictureTransfer {
     }
 
     private void deliverFailure(int code) {
+        discardPartialDownload();
         mCallback.onError(code);
     }
 
     private static Part makeUploadPart(String name, String contentType, String filename,
-            byte[] data) {
+            ImageData image) {
         return new Part() {
             @Override
             public String getName() {
@@ -404,30 +494,43 @@ public class CallComposerPictureTransfer {
 
             @Override
             protected void sendData(OutputStream out) throws IOException {
-                out.write(data);
+                byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+                try (InputStream in = image.openInputStream()) {
+                    int numRead;
+                    while ((numRead = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, numRead);
+                    }
+                }
             }
 
             @Override
             protected long lengthOfData() throws IOException {
-                return data.length;
+                return image.getLength();
             }
         };
     }
 
-    private String sendActualImageUpload(Network network, String authHeader, ImageData image) {
+    private static Part makeUploadPart(String name, String contentType, String filename,
+            byte[] data) {
+        return makeUploadPart(name, contentType, filename,
+                new ImageData(data, contentType, null));
+    }
+
+    private String sendActualImageUpload(Network network, String authHeader, ImageData image,
+            boolean preemptive, GbaCredentialsSupplier credentialsSupplier) {
         Part transactionIdPart = makeUploadPart("tid", "text/plain",
                 null, image.getId().getBytes());
         Part imageDataPart = makeUploadPart("File", image.getMimeType(),
-                image.getId(), image.getImageBytes());
+                image.getId(), image);
 
         MultipartEntity multipartEntity =
                 new MultipartEntity(new Part[] {transactionIdPart, imageDataPart});
 
         HttpURLConnection connection = prepareInitialPost(network, mUrl);
         connection.setDoOutput(true);
+        // Stream the body instead of letting the connection buffer it to compute the length.
+        connection.setFixedLengthStreamingMode(multipartEntity.getContentLength());
         connection.addRequestProperty("Authorization", authHeader);
-        connection.addRequestProperty("Content-Length",
-                String.valueOf(multipartEntity.getContentLength()));
         connection.addRequestProperty("Content-Type", multipartEntity.getContentType().getValue());
         connection.addRequestProperty("Accept-Encoding", "*");
 
@@ -442,7 +545,18 @@ public class CallComposerPictureTransfer {
             int response = connection.getResponseCode();
             Log.i(TAG, "Received response code: " + response
                     + ", message=" + connection.getResponseMessage());
+            if (response != 200) {
+                drainAndClose(connection.getErrorStream());
+            }
+            if (response == 401 && preemptive) {
+                // The cached nonce went stale, go through the full challenge exchange instead.
+                Log.i(TAG, "Cached challenge rejected, restarting upload");
+                mTransferCache.invalidateChallenge(getServer());
+                uploadPicture(image, credentialsSupplier);
+                return null;
+            }
             if (response == 401 || response == 403) {
+                mTransferCache.invalidateChallenge(getServer());
                 deliverFailure(TelephonyManager.CallComposerException.ERROR_AUTHENTICATION_FAILED);
                 return null;
             }
@@ -466,6 +580,22 @@ public class CallComposerPictureTransfer {
         }
     }
 
+    // Reads what is left of an error body, so that the connection goes back to the keep-alive
+    // pool of the network rather than being closed.
+    private static void drainAndClose(InputStream errorStream) {
+        if (errorStream == null) {
+            return;
+        }
+        byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+        try (InputStream is = errorStream) {
+            while (is.read(buffer) >= 0) {
+                // Discard.
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "IOException draining error body: " + e);
+        }
+    }
+
     private static String parseImageUploadResponseXmlForUrl(String xmlData) {
         NamespaceContext ns = new NamespaceContext() {
             public String getNamespaceURI(String prefix) {
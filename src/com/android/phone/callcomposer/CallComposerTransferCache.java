@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.callcomposer;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Pair;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import gov.nist.javax.sip.header.WWWAuthenticate;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Per-subscription state shared by the {@link CallComposerPictureTransfer}s of a subscription.
+ *
+ * <p>Transfers reuse one {@link Network} handle, so HttpURLConnection can pool keep-alive
+ * connections to the content server across transfers, since the pool belongs to the Network
+ * instance. The network request is released after it has been idle for a while. The last digest
+ * challenge from each server is also kept, so a transfer can authenticate preemptively with the
+ * next nonce-count instead of collecting a 401 first.
+ */
+public class CallComposerTransferCache {
+    private static final String TAG = CallComposerTransferCache.class.getSimpleName();
+    private static final long NETWORK_IDLE_TIMEOUT_MILLIS = 60000;
+    private static final SparseArray<CallComposerTransferCache> sInstances = new SparseArray<>();
+
+    public static CallComposerTransferCache getInstance(Context context, int subscriptionId) {
+        synchronized (sInstances) {
+            if (!sInstances.contains(subscriptionId)) {
+                sInstances.put(subscriptionId, new CallComposerTransferCache(context));
+            }
+            return sInstances.get(subscriptionId);
+        }
+    }
+
+    @VisibleForTesting
+    public static void clearInstances() {
+        synchronized (sInstances) {
+            for (int i = 0; i < sInstances.size(); i++) {
+                sInstances.valueAt(i).releaseNetwork();
+            }
+            sInstances.clear();
+        }
+    }
+
+    /** A server challenge and the highest nonce-count used with its nonce so far. */
+    private static class Challenge {
+        final WWWAuthenticate header;
+        int nonceCount;
+
+        Challenge(WWWAuthenticate header, int nonceCount) {
+            this.header = header;
+            this.nonceCount = nonceCount;
+        }
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Runnable mReleaseNetworkRunnable = this::releaseNetwork;
+    // Keyed by the authority of the server URL.
+    private final HashMap<String, Challenge> mChallenges = new HashMap<>();
+    private CompletableFuture<Network> mNetworkFuture;
+    private ConnectivityManager.NetworkCallback mNetworkCallback;
+
+    private CallComposerTransferCache(Context context) {
+        mContext = context;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Returns the network for call composer transfers, requesting it only if no request is
+     * outstanding yet.
+     */
+    public synchronized CompletableFuture<Network> getNetwork() {
+        mHandler.removeCallbacks(mReleaseNetworkRunnable);
+        mHandler.postDelayed(mReleaseNetworkRunnable, NETWORK_IDLE_TIMEOUT_MILLIS);
+        if (mNetworkFuture != null) {
+            return mNetworkFuture;
+        }
+
+        ConnectivityManager connectivityManager =
+                mContext.getSystemService(ConnectivityManager.class);
+        NetworkRequest pictureNetworkRequest = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        CompletableFuture<Network> resultFuture = new CompletableFuture<>();
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull Network network) {
+                synchronized (CallComposerTransferCache.this) {
+                    if (mNetworkCallback == this && resultFuture.isDone()) {
+                        // Switched to a different network, hand that one out from now on.
+                        mNetworkFuture = CompletableFuture.completedFuture(network);
+                    }
+                }
+                resultFuture.complete(network);
+            }
+
+            @Override
+            public void onLost(@NonNull Network network) {
+                synchronized (CallComposerTransferCache.this) {
+                    if (mNetworkCallback == this) {
+                        Log.i(TAG, "Call composer network lost");
+                        releaseNetwork();
+                    }
+                }
+            }
+        };
+        mNetworkFuture = resultFuture;
+        mNetworkCallback = callback;
+        connectivityManager.requestNetwork(pictureNetworkRequest, callback);
+        return resultFuture;
+    }
+
+    /**
+     * Returns the cached challenge for the server along with the nonce-count to use for the next
+     * request, or null if there is none.
+     */
+    public synchronized Pair<WWWAuthenticate, Integer> nextChallengeUse(String server) {
+        Challenge challenge = mChallenges.get(server);
+        if (challenge == null) {
+            return null;
+        }
+        challenge.nonceCount++;
+        return Pair.create(challenge.header, challenge.nonceCount);
+    }
+
+    /** Stores a challenge freshly received from the server, whose first use is nonce-count 1. */
+    public synchronized void putChallenge(String server, WWWAuthenticate header) {
+        if (header == null) {
+            mChallenges.remove(server);
+            return;
+        }
+        mChallenges.put(server, new Challenge(header, 1));
+    }
+
+    /** Drops the challenge for the server, e.g. after it rejected the nonce. */
+    public synchronized void invalidateChallenge(String server) {
+        mChallenges.remove(server);
+    }
+
+    private synchronized void releaseNetwork() {
+        mHandler.removeCallbacks(mReleaseNetworkRunnable);
+        if (mNetworkCallback != null) {
+            try {
+                mContext.getSystemService(ConnectivityManager.class)
+                        .unregisterNetworkCallback(mNetworkCallback);
+            } catch (IllegalArgumentException e) {
+                // Already unregistered.
+            }
+        }
+        mNetworkCallback = null;
+        mNetworkFuture = null;
+    }
+}
@@ -54,6 +54,12 @@ public class DigestAuthUtils {
     // Generates the Authorization header for use in future requests to the call composer server.
     public static String generateAuthorizationHeader(WWWAuthenticate parsedHeader,
             GbaCredentials credentials, String method, String uri) {
+        return generateAuthorizationHeader(parsedHeader, credentials, method, uri, 1);
+    }
+
+    // Same as above, for the nonceCount-th request made with the server nonce in parsedHeader.
+    public static String generateAuthorizationHeader(WWWAuthenticate parsedHeader,
+            GbaCredentials credentials, String method, String uri, int nonceCount) {
         if (!TextUtils.isEmpty(parsedHeader.getAlgorithm())
                 && !MD5_ALGORITHM.equals(parsedHeader.getAlgorithm().toLowerCase(Locale.ROOT))) {
             Log.e(TAG, "This client only supports MD5 auth");
@@ -69,7 +75,7 @@ public class DigestAuthUtils {
 
         String response = computeResponse(parsedHeader.getNonce(), clientNonce, AUTH_QOP,
                 credentials.getTransactionId(), parsedHeader.getRealm(), credentials.getKey(),
-                method, uri);
+                method, uri, nonceCount);
 
         Authorization replyHeader = new Authorization();
         try {
@@ -80,7 +86,7 @@ public class DigestAuthUtils {
             replyHeader.setQop(AUTH_QOP);
             replyHeader.setNonce(parsedHeader.getNonce());
             replyHeader.setCNonce(clientNonce);
-            replyHeader.setNonceCount(1);
+            replyHeader.setNonceCount(nonceCount);
             replyHeader.setResponse(response);
             replyHeader.setOpaque(parsedHeader.getOpaque());
             replyHeader.setAlgorithm(parsedHeader.getAlgorithm());
@@ -95,17 +101,22 @@ public class DigestAuthUtils {
 
     public static String computeResponse(String serverNonce, String clientNonce, String qop,
             String username, String realm, byte[] password, String method, String uri) {
+        return computeResponse(serverNonce, clientNonce, qop, username, realm, password, method,
+                uri, 1);
+    }
+
+    public static String computeResponse(String serverNonce, String clientNonce, String qop,
+            String username, String realm, byte[] password, String method, String uri,
+            int nonceCount) {
         String a1Hash = generateA1Hash(username, realm, password);
         String a2Hash = generateA2Hash(method, uri);
 
-        // this is the nonce-count; since we don't reuse, it's always 1
-        String nonceCount = "00000001";
         MessageDigest md5Digest = getMd5Digest();
 
         String hashInput = String.join(":",
                 a1Hash,
                 serverNonce,
-                nonceCount,
+                String.format(Locale.ROOT, "%08x", nonceCount),
                 clientNonce,
                 qop,
                 a2Hash);
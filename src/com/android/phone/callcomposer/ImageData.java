@@ -16,20 +16,67 @@
 
 package com.android.phone.callcomposer;
 
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * A call composer picture, held either in memory or in a file owned by this object. File-backed
+ * images are streamed through {@link #openInputStream()} so they never have to be fully loaded.
+ */
 public class ImageData {
+    private static final String TAG = ImageData.class.getSimpleName();
+
     private final byte[] mImageBytes;
+    private final File mImageFile;
     private final String mMimeType;
 
     private String mId;
 
     public ImageData(byte[] imageBytes, String mimeType, String id) {
         mImageBytes = imageBytes;
+        mImageFile = null;
+        mMimeType = mimeType;
+        mId = id;
+    }
+
+    public ImageData(File imageFile, String mimeType, String id) {
+        mImageBytes = null;
+        mImageFile = imageFile;
         mMimeType = mimeType;
         mId = id;
     }
 
+    /**
+     * Returns the image contents. For file-backed images this reads the whole file, so prefer
+     * {@link #openInputStream()}.
+     */
     public byte[] getImageBytes() {
-        return mImageBytes;
+        if (mImageBytes != null) {
+            return mImageBytes;
+        }
+        try {
+            return Files.readAllBytes(mImageFile.toPath());
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read image file " + mImageFile + ": " + e);
+            return new byte[0];
+        }
+    }
+
+    public InputStream openInputStream() throws IOException {
+        if (mImageBytes != null) {
+            return new ByteArrayInputStream(mImageBytes);
+        }
+        return new FileInputStream(mImageFile);
+    }
+
+    public long getLength() {
+        return mImageBytes != null ? mImageBytes.length : mImageFile.length();
     }
 
     public String getMimeType() {
@@ -43,4 +90,11 @@ public class ImageData {
     public void setId(String id) {
         mId = id;
     }
+
+    /** Deletes the backing file, if any. The image must not be read afterwards. */
+    public void release() {
+        if (mImageFile != null && !mImageFile.delete() && mImageFile.exists()) {
+            Log.w(TAG, "Could not delete image file " + mImageFile);
+        }
+    }
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.telephony.PhoneNumberUtils;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyCallback;
+import android.telephony.TelephonyManager;
+import android.telephony.emergency.EmergencyNumber;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.Phone;
+import com.android.internal.telephony.PhoneConstants;
+import com.android.internal.telephony.emergency.EmergencyNumberTracker;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the emergency numbers of each {@link Phone}, keyed by the dialed number without
+ * separators.
+ *
+ * The entry of a number is looked up in the {@link EmergencyNumberTracker} of the phone the first
+ * time the number is checked, and is reused until the emergency number list or the network country
+ * of the phone changes, so repeated checks while dialing do not scan the list again. The emergency
+ * number list is listened to for every active subscription, so the entries of each phone of a
+ * multi-SIM device are dropped when the list of that phone changes. A phone without an active
+ * subscription, e.g. when dialing an emergency number without a SIM, has no list to listen to, so
+ * its numbers are always looked up in the tracker.
+ */
+public class EmergencyNumberIndex {
+    private static final String TAG = "EmergencyNumberIndex";
+
+    // Upper bound of the numbers indexed per phone, the index is cleared once it is reached.
+    private static final int MAX_ENTRIES_PER_PHONE = 64;
+
+    private static final EmergencyNumberIndex sInstance = new EmergencyNumberIndex();
+
+    /** The emergency numbers of a phone matching a dialed number. */
+    public static final class Entry {
+        private static final Entry EMPTY = new Entry(Collections.emptyList());
+
+        private final List<EmergencyNumber> mNumbers;
+        // Union of the sources of all matching numbers.
+        private final int mSources;
+        private final boolean mHasNormalRouting;
+
+        private Entry(@NonNull List<EmergencyNumber> numbers) {
+            mNumbers = numbers;
+            int sources = 0;
+            boolean hasNormalRouting = false;
+            for (EmergencyNumber number : numbers) {
+                sources |= number.getEmergencyNumberSourceBitmask();
+                hasNormalRouting |= number.getEmergencyCallRouting()
+                        == EmergencyNumber.EMERGENCY_CALL_ROUTING_NORMAL;
+            }
+            mSources = sources;
+            mHasNormalRouting = hasNormalRouting;
+        }
+
+        /** Returns the matching emergency numbers, empty if it is not an emergency number. */
+        @NonNull
+        public List<EmergencyNumber> getEmergencyNumbers() {
+            return mNumbers;
+        }
+
+        /** Returns whether any matching number is from one of the given sources. */
+        public boolean isFromSources(int sourceBitmask) {
+            return (mSources & sourceBitmask) != 0;
+        }
+
+        /** Returns whether any matching number uses normal routing. */
+        public boolean hasNormalRouting() {
+            return mHasNormalRouting;
+        }
+
+        /**
+         * Returns whether any matching number is for the given country and MNC. An empty MNC
+         * matches any MNC.
+         */
+        public boolean matchesCountryAndMnc(@Nullable String countryIso, @Nullable String mnc) {
+            for (EmergencyNumber number : mNumbers) {
+                if (TextUtils.equals(number.getCountryIso(), countryIso)
+                        && (TextUtils.isEmpty(mnc) || TextUtils.equals(number.getMnc(), mnc))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class PhoneIndex {
+        // The tracker the entries were read from, a new tracker invalidates them.
+        final EmergencyNumberTracker tracker;
+        final ArrayMap<String, Entry> entries = new ArrayMap<>();
+
+        PhoneIndex(EmergencyNumberTracker tracker) {
+            this.tracker = tracker;
+        }
+    }
+
+    private final BroadcastReceiver mCountryChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (TelephonyManager.ACTION_NETWORK_COUNTRY_CHANGED.equals(intent.getAction())) {
+                invalidate(intent.getIntExtra(PhoneConstants.PHONE_KEY, -1));
+            }
+        }
+    };
+
+    private final class EmergencyNumberListListener extends TelephonyCallback
+            implements TelephonyCallback.EmergencyNumberListListener {
+        private final int mSubId;
+
+        EmergencyNumberListListener(int subId) {
+            mSubId = subId;
+        }
+
+        @Override
+        public void onEmergencyNumberListChanged(
+                @NonNull Map<Integer, List<EmergencyNumber>> emergencyNumberList) {
+            int phoneId = SubscriptionManager.getPhoneId(mSubId);
+            if (SubscriptionManager.isValidPhoneId(phoneId)) {
+                invalidate(phoneId);
+            } else {
+                invalidateAll();
+            }
+        }
+    }
+
+    private final SubscriptionManager.OnSubscriptionsChangedListener mSubscriptionsChangedListener =
+            new SubscriptionManager.OnSubscriptionsChangedListener() {
+                @Override
+                public void onSubscriptionsChanged() {
+                    updateEmergencyNumberListListeners();
+                }
+            };
+
+    private final SparseArray<PhoneIndex> mPhoneIndexes = new SparseArray<>();
+    // Map of the subscription id -> listener registered for it, accessed on the main thread.
+    private final SparseArray<EmergencyNumberListListener> mEmergencyNumberListListeners =
+            new SparseArray<>();
+    private Context mContext;
+    private boolean mInitialized;
+
+    /**
+     * Returns the singleton instance of EmergencyNumberIndex.
+     *
+     * @return A {@link EmergencyNumberIndex} instance.
+     */
+    public static EmergencyNumberIndex getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public EmergencyNumberIndex() {
+    }
+
+    /**
+     * Starts listening to the changes invalidating the index.
+     *
+     * @param context The context of the application.
+     */
+    public void initialize(Context context) {
+        synchronized (this) {
+            if (mInitialized) return;
+            mInitialized = true;
+        }
+        mContext = context;
+        context.registerReceiver(mCountryChangedReceiver,
+                new IntentFilter(TelephonyManager.ACTION_NETWORK_COUNTRY_CHANGED));
+        SubscriptionManager sm = context.getSystemService(SubscriptionManager.class);
+        if (sm != null) {
+            // Notified once registered, which registers the listeners of the active subscriptions.
+            sm.addOnSubscriptionsChangedListener(context.getMainExecutor(),
+                    mSubscriptionsChangedListener);
+        }
+    }
+
+    /**
+     * Registers an emergency number list listener for each active subscription, and unregisters
+     * the listeners of the subscriptions which are no longer active.
+     */
+    private void updateEmergencyNumberListListeners() {
+        SubscriptionManager sm = mContext.getSystemService(SubscriptionManager.class);
+        TelephonyManager tm = mContext.getSystemService(TelephonyManager.class);
+        if (sm == null || tm == null) return;
+        int[] subIds = sm.getActiveSubscriptionIdList();
+
+        boolean changed = false;
+        for (int i = mEmergencyNumberListListeners.size() - 1; i >= 0; i--) {
+            int subId = mEmergencyNumberListListeners.keyAt(i);
+            if (!contains(subIds, subId)) {
+                tm.unregisterTelephonyCallback(mEmergencyNumberListListeners.valueAt(i));
+                mEmergencyNumberListListeners.removeAt(i);
+                changed = true;
+            }
+        }
+        for (int subId : subIds) {
+            if (mEmergencyNumberListListeners.contains(subId)) continue;
+            EmergencyNumberListListener listener = new EmergencyNumberListListener(subId);
+            tm.createForSubscriptionId(subId).registerTelephonyCallback(
+                    mContext.getMainExecutor(), listener);
+            mEmergencyNumberListListeners.put(subId, listener);
+            changed = true;
+        }
+        if (changed) {
+            Log.i(TAG, "listening to the emergency number list of subIds="
+                    + Arrays.toString(subIds));
+            // The subscription of a phone may have changed while it was not listened to.
+            invalidateAll();
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the emergency numbers of the phone matching the dialed number.
+     *
+     * @param phone The phone to look the number up on.
+     * @param number The dialed number, separators are ignored.
+     */
+    @NonNull
+    public Entry get(@Nullable Phone phone, @Nullable String number) {
+        if (phone == null || TextUtils.isEmpty(number)) return Entry.EMPTY;
+        EmergencyNumberTracker tracker = phone.getEmergencyNumberTracker();
+        if (tracker == null) return Entry.EMPTY;
+        number = PhoneNumberUtils.stripSeparators(number);
+        if (!SubscriptionManager.isValidSubscriptionId(phone.getSubId())) {
+            // Changes of the list would go unnoticed, see updateEmergencyNumberListListeners().
+            return newEntry(tracker.getEmergencyNumbers(number));
+        }
+
+        synchronized (this) {
+            PhoneIndex index = mPhoneIndexes.get(phone.getPhoneId());
+            if (index == null || index.tracker != tracker) {
+                index = new PhoneIndex(tracker);
+                mPhoneIndexes.put(phone.getPhoneId(), index);
+            }
+            Entry entry = index.entries.get(number);
+            if (entry == null) {
+                entry = newEntry(tracker.getEmergencyNumbers(number));
+                if (index.entries.size() >= MAX_ENTRIES_PER_PHONE) {
+                    index.entries.clear();
+                }
+                index.entries.put(number, entry);
+            }
+            return entry;
+        }
+    }
+
+    @NonNull
+    private static Entry newEntry(@Nullable List<EmergencyNumber> numbers) {
+        return (numbers == null || numbers.isEmpty())
+                ? Entry.EMPTY : new Entry(List.copyOf(numbers));
+    }
+
+    /** Drops the entries of the given phone. */
+    public synchronized void invalidate(int phoneId) {
+        Log.i(TAG, "invalidate phoneId=" + phoneId);
+        mPhoneIndexes.remove(phoneId);
+    }
+
+    /** Drops the entries of all phones. */
+    public synchronized void invalidateAll() {
+        Log.i(TAG, "invalidateAll");
+        mPhoneIndexes.clear();
+    }
+}
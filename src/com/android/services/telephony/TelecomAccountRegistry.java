@@ -76,8 +76,10 @@ import com.android.phone.PhoneUtils;
 import com.android.phone.R;
 import com.android.telephony.Rlog;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -86,6 +88,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -111,6 +114,8 @@ public class TelecomAccountRegistry {
     private static final int REGISTER_MAXIMUM_DELAY_MS = 60 * 1000; // 1 minute
     private static final int TELECOM_CONNECT_START_DELAY_MS = 250; // 250 milliseconds
     private static final int TELECOM_CONNECT_MAX_DELAY_MS = 4 * 1000; // 4 second
+    // Window in which capability changes of all accounts are collected into one registration pass.
+    private static final int REGISTRATION_BATCH_DELAY_MS = 200; // 200 milliseconds
 
     /**
      * Indicates the {@link SubscriptionManager.OnSubscriptionsChangedListener} has not yet been
@@ -138,6 +143,82 @@ public class TelecomAccountRegistry {
 
     private Handler mHandler;
 
+    /**
+     * The carrier config inputs of a PSTN phone account, read once per subscription and carrier
+     * config change instead of fetching the carrier config for every capability check.
+     */
+    private static final class CarrierConfigSnapshot {
+        final int subId;
+        final int generation;
+        final boolean hasConfig;
+        final boolean isVideoPauseSupported;
+        final boolean isPresenceCapabilityExchangeEnabled;
+        final boolean isRcsPresenceUsed;
+        final boolean isInstantLetteringSupported;
+        final int instantLetteringMaxLength;
+        final String instantLetteringEncoding;
+        final boolean isAdhocConferenceCallSupported;
+        final boolean isMergeCallSupported;
+        final boolean isMergeImsCallSupported;
+        final boolean isEmergencyVideoCallsAllowed;
+        final boolean isVideoConferencingSupported;
+        final boolean isMergeOfWifiCallsAllowedWhenVoWifiOff;
+        final boolean isManageImsConferenceCallSupported;
+        final boolean isUsingSimCallManager;
+        final boolean isShowPreciseFailedCause;
+        final boolean isUseCallRecordingTone;
+        final boolean isAllowRttWhenRoaming;
+        final boolean isVoiceCapable;
+
+        CarrierConfigSnapshot(int subId, int generation, PersistableBundle b) {
+            this.subId = subId;
+            this.generation = generation;
+            hasConfig = b != null;
+            if (b == null) {
+                b = PersistableBundle.EMPTY;
+            }
+            isVideoPauseSupported =
+                    b.getBoolean(CarrierConfigManager.KEY_SUPPORT_PAUSE_IMS_VIDEO_CALLS_BOOL);
+            isPresenceCapabilityExchangeEnabled = b.getBoolean(
+                    CarrierConfigManager.Ims.KEY_ENABLE_PRESENCE_CAPABILITY_EXCHANGE_BOOL);
+            isRcsPresenceUsed = b.getBoolean(CarrierConfigManager.KEY_USE_RCS_PRESENCE_BOOL);
+            isInstantLetteringSupported = b.getBoolean(
+                    CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_AVAILABLE_BOOL);
+            instantLetteringMaxLength = b.getInt(
+                    CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_LENGTH_LIMIT_INT);
+            instantLetteringEncoding = b.getString(
+                    CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_ENCODING_STRING);
+            isAdhocConferenceCallSupported =
+                    b.getBoolean(CarrierConfigManager.KEY_SUPPORT_ADHOC_CONFERENCE_CALLS_BOOL);
+            isMergeCallSupported =
+                    b.getBoolean(CarrierConfigManager.KEY_SUPPORT_CONFERENCE_CALL_BOOL);
+            isMergeImsCallSupported =
+                    b.getBoolean(CarrierConfigManager.KEY_SUPPORT_IMS_CONFERENCE_CALL_BOOL);
+            isEmergencyVideoCallsAllowed =
+                    b.getBoolean(CarrierConfigManager.KEY_ALLOW_EMERGENCY_VIDEO_CALLS_BOOL);
+            isVideoConferencingSupported =
+                    b.getBoolean(CarrierConfigManager.KEY_SUPPORT_VIDEO_CONFERENCE_CALL_BOOL);
+            isMergeOfWifiCallsAllowedWhenVoWifiOff = b.getBoolean(
+                    CarrierConfigManager.KEY_ALLOW_MERGE_WIFI_CALLS_WHEN_VOWIFI_OFF_BOOL);
+            isManageImsConferenceCallSupported = b.getBoolean(
+                    CarrierConfigManager.KEY_SUPPORT_MANAGE_IMS_CONFERENCE_CALL_BOOL);
+            isUsingSimCallManager = !TextUtils.isEmpty(
+                    b.getString(CarrierConfigManager.KEY_DEFAULT_SIM_CALL_MANAGER_STRING));
+            isShowPreciseFailedCause =
+                    b.getBoolean(CarrierConfigManager.KEY_SHOW_PRECISE_FAILED_CAUSE_BOOL);
+            isUseCallRecordingTone =
+                    b.getBoolean(CarrierConfigManager.KEY_PLAY_CALL_RECORDING_TONE_BOOL);
+            isAllowRttWhenRoaming =
+                    b.getBoolean(CarrierConfigManager.KEY_RTT_SUPPORTED_WHILE_ROAMING_BOOL);
+            // For any abnormal case, we assume subscription is voice capable
+            final int[] serviceCapabilities = b.getIntArray(
+                    CarrierConfigManager.KEY_CELLULAR_SERVICE_CAPABILITIES_INT_ARRAY);
+            isVoiceCapable = serviceCapabilities == null
+                    || Arrays.stream(serviceCapabilities).anyMatch(
+                            i -> i == SubscriptionManager.SERVICE_CAPABILITY_VOICE);
+        }
+    }
+
     final class AccountEntry implements PstnPhoneCapabilitiesNotifier.Listener {
         private final Phone mPhone;
         private PhoneAccount mAccount;
@@ -166,6 +247,7 @@ public class TelecomAccountRegistry {
         private boolean mIsUsingSimCallManager;
         private boolean mIsShowPreciseFailedCause;
         private Set<Integer> mSimultaneousCallSupportedSubIds;
+        private volatile CarrierConfigSnapshot mCarrierConfigSnapshot;
 
         AccountEntry(Phone phone, boolean isEmergency, boolean isTest) {
             mPhone = phone;
@@ -328,8 +410,25 @@ public class TelecomAccountRegistry {
             }
         }
 
+        /**
+         * Marks this account for re-registration with Telecom. Changes of all accounts arriving
+         * within REGISTRATION_BATCH_DELAY_MS are registered in a single pass.
+         * Must be called with {@code mAccountsLock} held.
+         */
+        private void scheduleRegistration() {
+            if (mDirtyAccounts.isEmpty()) {
+                mHandler.postDelayed(mRegisterDirtyAccountsRunnable, REGISTRATION_BATCH_DELAY_MS);
+            }
+            mDirtyAccounts.add(this);
+        }
+
         private PhoneAccount registerPstnPhoneAccount(boolean isEmergency, boolean isTestAccount) {
             PhoneAccount account = buildPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+            if (account.equals(mAccount)) {
+                // Telecom already has this account, skip the binder call.
+                Log.i(this, "registerPstnPhoneAccount: subId=%d - no change", getSubId());
+                return mAccount;
+            }
             Log.i(this, "registerPstnPhoneAccount: Registering account=%s with "
                     + "Telecom. subId=%d", account, getSubId());
             // Register with Telecom and put into the account entry.
@@ -674,11 +773,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if pausing IMS video calls is supported.
          */
         private boolean isCarrierVideoPauseSupported() {
-            // Check if IMS video pause is supported.
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(CarrierConfigManager.KEY_SUPPORT_PAUSE_IMS_VIDEO_CALLS_BOOL);
+            return getCarrierConfigSnapshot().isVideoPauseSupported;
         }
 
         /**
@@ -688,17 +783,13 @@ public class TelecomAccountRegistry {
          * @return {@code true} if RCS presence indication for video calls is supported.
          */
         private boolean isCarrierVideoPresenceSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
+            CarrierConfigSnapshot snapshot = getCarrierConfigSnapshot();
 
             // If using the new RcsUceAdapter API, this should be true if
             // KEY_ENABLE_PRESENCE_CAPABILITY_EXCHANGE_BOOL is set. If using the old
             // KEY_USE_RCS_PRESENCE_BOOL key, we have to also check the user setting.
-            return b.getBoolean(
-                    CarrierConfigManager.Ims.KEY_ENABLE_PRESENCE_CAPABILITY_EXCHANGE_BOOL)
-                    || (b.getBoolean(CarrierConfigManager.KEY_USE_RCS_PRESENCE_BOOL)
-                    && isUserContactDiscoverySettingEnabled());
+            return snapshot.isPresenceCapabilityExchangeEnabled
+                    || (snapshot.isRcsPresenceUsed && isUserContactDiscoverySettingEnabled());
         }
 
         /**
@@ -721,10 +812,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if instant lettering is supported, {@code false} otherwise.
          */
         private boolean isCarrierInstantLetteringSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_AVAILABLE_BOOL);
+            return getCarrierConfigSnapshot().isInstantLetteringSupported;
         }
 
         /**
@@ -733,10 +821,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if adhoc conference calling is supported, {@code false} otherwise.
          */
         private boolean isCarrierAdhocConferenceCallSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(CarrierConfigManager.KEY_SUPPORT_ADHOC_CONFERENCE_CALLS_BOOL);
+            return getCarrierConfigSnapshot().isAdhocConferenceCallSupported;
         }
 
 
@@ -746,10 +831,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if merging calls is supported, {@code false} otherwise.
          */
         private boolean isCarrierMergeCallSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(CarrierConfigManager.KEY_SUPPORT_CONFERENCE_CALL_BOOL);
+            return getCarrierConfigSnapshot().isMergeCallSupported;
         }
 
         /**
@@ -758,10 +840,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if merging IMS calls is supported, {@code false} otherwise.
          */
         private boolean isCarrierMergeImsCallSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(CarrierConfigManager.KEY_SUPPORT_IMS_CONFERENCE_CALL_BOOL);
+            return getCarrierConfigSnapshot().isMergeImsCallSupported;
         }
 
         /**
@@ -770,10 +849,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if emergency video calls are allowed, {@code false} otherwise.
          */
         private boolean isCarrierEmergencyVideoCallsAllowed() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(CarrierConfigManager.KEY_ALLOW_EMERGENCY_VIDEO_CALLS_BOOL);
+            return getCarrierConfigSnapshot().isEmergencyVideoCallsAllowed;
         }
 
         /**
@@ -782,10 +858,7 @@ public class TelecomAccountRegistry {
          * @return {@code true} if video conferencing is supported, {@code false} otherwise.
          */
         private boolean isCarrierVideoConferencingSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(CarrierConfigManager.KEY_SUPPORT_VIDEO_CONFERENCE_CALL_BOOL);
+            return getCarrierConfigSnapshot().isVideoConferencingSupported;
         }
 
         /**
@@ -796,11 +869,7 @@ public class TelecomAccountRegistry {
          *      {@code false} otherwise.
          */
         private boolean isCarrierMergeOfWifiCallsAllowedWhenVoWifiOff() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(
-                    CarrierConfigManager.KEY_ALLOW_MERGE_WIFI_CALLS_WHEN_VOWIFI_OFF_BOOL);
+            return getCarrierConfigSnapshot().isMergeOfWifiCallsAllowedWhenVoWifiOff;
         }
 
         /**
@@ -810,10 +879,7 @@ public class TelecomAccountRegistry {
          *         {@code false} otherwise.
          */
         private boolean isCarrierManageImsConferenceCallSupported() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(CarrierConfigManager.KEY_SUPPORT_MANAGE_IMS_CONFERENCE_CALL_BOOL);
+            return getCarrierConfigSnapshot().isManageImsConferenceCallSupported;
         }
 
         /**
@@ -823,11 +889,7 @@ public class TelecomAccountRegistry {
          *         {@code false} otherwise.
          */
         private boolean isCarrierUsingSimCallManager() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return !TextUtils.isEmpty(
-                    b.getString(CarrierConfigManager.KEY_DEFAULT_SIM_CALL_MANAGER_STRING));
+            return getCarrierConfigSnapshot().isUsingSimCallManager;
         }
 
         /**
@@ -838,10 +900,7 @@ public class TelecomAccountRegistry {
          *         {@code false} otherwise.
          */
         private boolean isCarrierShowPreciseFailedCause() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(CarrierConfigManager.KEY_SHOW_PRECISE_FAILED_CAUSE_BOOL);
+            return getCarrierConfigSnapshot().isShowPreciseFailedCause;
         }
 
         /**
@@ -851,20 +910,14 @@ public class TelecomAccountRegistry {
          * @return {@code true} if a call recording tone should be used, {@code false} otherwise.
          */
         private boolean isCarrierUseCallRecordingTone() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(CarrierConfigManager.KEY_PLAY_CALL_RECORDING_TONE_BOOL);
+            return getCarrierConfigSnapshot().isUseCallRecordingTone;
         }
 
         /**
          * Determines from carrier config whether to always allow RTT while roaming.
          */
         private boolean isCarrierAllowRttWhenRoaming() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return false;
-            return b.getBoolean(CarrierConfigManager.KEY_RTT_SUPPORTED_WHILE_ROAMING_BOOL);
+            return getCarrierConfigSnapshot().isAllowRttWhenRoaming;
         }
 
         /**
@@ -874,19 +927,14 @@ public class TelecomAccountRegistry {
          * @return The {@link PhoneAccount} extras associated with the current subscription.
          */
         private Bundle getPhoneAccountExtras() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) return new Bundle();
+            CarrierConfigSnapshot snapshot = getCarrierConfigSnapshot();
+            if (!snapshot.hasConfig) return new Bundle();
 
-            int instantLetteringMaxLength = b.getInt(
-                    CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_LENGTH_LIMIT_INT);
-            String instantLetteringEncoding = b.getString(
-                    CarrierConfigManager.KEY_CARRIER_INSTANT_LETTERING_ENCODING_STRING);
             Bundle phoneAccountExtras = new Bundle();
             phoneAccountExtras.putInt(PhoneAccount.EXTRA_CALL_SUBJECT_MAX_LENGTH,
-                    instantLetteringMaxLength);
+                    snapshot.instantLetteringMaxLength);
             phoneAccountExtras.putString(PhoneAccount.EXTRA_CALL_SUBJECT_CHARACTER_ENCODING,
-                    instantLetteringEncoding);
+                    snapshot.instantLetteringEncoding);
             return phoneAccountExtras;
         }
 
@@ -894,15 +942,24 @@ public class TelecomAccountRegistry {
          * @return true if the subscription is voice capable by the carrier config.
          */
         private boolean isSubscriptionVoiceCapableByCarrierConfig() {
-            PersistableBundle b =
-                    PhoneGlobals.getInstance().getCarrierConfigForSubId(mPhone.getSubId());
-            if (b == null) {
-                return true; // For any abnormal case, we assume subscription is voice capable
+            return getCarrierConfigSnapshot().isVoiceCapable;
+        }
+
+        /**
+         * Returns the carrier config inputs of the account, reading the carrier config only if
+         * the subscription or the carrier config changed since the last call.
+         */
+        private CarrierConfigSnapshot getCarrierConfigSnapshot() {
+            int subId = mPhone.getSubId();
+            int generation = mCarrierConfigGeneration.get();
+            CarrierConfigSnapshot snapshot = mCarrierConfigSnapshot;
+            if (snapshot == null || snapshot.subId != subId
+                    || snapshot.generation != generation) {
+                snapshot = new CarrierConfigSnapshot(subId, generation,
+                        PhoneGlobals.getInstance().getCarrierConfigForSubId(subId));
+                mCarrierConfigSnapshot = snapshot;
             }
-            final int[] serviceCapabilities = b.getIntArray(
-                    CarrierConfigManager.KEY_CELLULAR_SERVICE_CAPABILITIES_INT_ARRAY);
-            return Arrays.stream(serviceCapabilities).anyMatch(
-                    i -> i == SubscriptionManager.SERVICE_CAPABILITY_VOICE);
+            return snapshot;
         }
 
         /**
@@ -922,7 +979,7 @@ public class TelecomAccountRegistry {
                     // time we get here, the original phone account could have been torn down.
                     return;
                 }
-                mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                scheduleRegistration();
             }
         }
 
@@ -945,7 +1002,7 @@ public class TelecomAccountRegistry {
                         // phone account could have been torn down.
                         return;
                     }
-                    mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                    scheduleRegistration();
                 }
             }
         }
@@ -965,7 +1022,7 @@ public class TelecomAccountRegistry {
                     Log.i(this, "updateAdhocConfCapability - changed, new value: "
                             + isAdhocConfCapable);
                     mIsAdhocConfCapable = isAdhocConfCapable;
-                    mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                    scheduleRegistration();
                 }
             }
         }
@@ -985,7 +1042,7 @@ public class TelecomAccountRegistry {
                 if (mIsVideoPresenceSupported != isVideoPresenceSupported) {
                     Log.i(this, "updateVideoPresenceCapability for subId=" + mPhone.getSubId()
                             + ", new value= " + isVideoPresenceSupported);
-                    mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                    scheduleRegistration();
                 }
             }
         }
@@ -1004,7 +1061,7 @@ public class TelecomAccountRegistry {
                 boolean isRttEnabled = isRttCurrentlySupported();
                 if (isRttEnabled != mIsRttCapable) {
                     Log.i(this, "updateRttCapability - changed, new value: " + isRttEnabled);
-                    mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                    scheduleRegistration();
                 }
             }
         }
@@ -1026,7 +1083,7 @@ public class TelecomAccountRegistry {
                     mIsCallComposerCapable = isCallComposerCapable;
                     Log.i(this, "updateCallComposerCapability - changed, new value: "
                             + isCallComposerCapable);
-                    mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                    scheduleRegistration();
                 }
             }
         }
@@ -1047,7 +1104,7 @@ public class TelecomAccountRegistry {
                 if (isEmergencyPreferred != mIsEmergencyPreferred) {
                     Log.i(this,
                             "updateDefaultDataSubId - changed, new value: " + isEmergencyPreferred);
-                    mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                    scheduleRegistration();
                 }
             }
         }
@@ -1261,6 +1318,7 @@ public class TelecomAccountRegistry {
                         + "checking for phone account updates.");
                 int subId = intent.getIntExtra(SubscriptionManager.EXTRA_SUBSCRIPTION_INDEX,
                         SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+                mCarrierConfigGeneration.incrementAndGet();
                 handleCarrierConfigChange(subId);
             }
         }
@@ -1320,6 +1378,11 @@ public class TelecomAccountRegistry {
     private final SubscriptionManager mSubscriptionManager;
     private List<AccountEntry> mAccounts = new LinkedList<AccountEntry>();
     private final Object mAccountsLock = new Object();
+    // Incremented on carrier config changes, to invalidate the CarrierConfigSnapshots.
+    private final AtomicInteger mCarrierConfigGeneration = new AtomicInteger();
+    // Accounts waiting for the next batched registration, guarded by mAccountsLock.
+    private final Set<AccountEntry> mDirtyAccounts = new LinkedHashSet<>();
+    private final Runnable mRegisterDirtyAccountsRunnable = this::registerDirtyAccounts;
     private int mSubscriptionListenerState = LISTENER_STATE_UNREGISTERED;
     private int mServiceState = ServiceState.STATE_POWER_OFF;
     private int mActiveDataSubscriptionId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
@@ -1926,12 +1989,35 @@ public class TelecomAccountRegistry {
                 entry.teardown();
             }
             mAccounts.clear();
+            mDirtyAccounts.clear();
+            mHandler.removeCallbacks(mRegisterDirtyAccountsRunnable);
         }
         // Invalidate the TelephonyManager cache which maps phone account handles to sub ids since
         // all the phone account handles are being recreated at this point.
         PropertyInvalidatedCache.invalidateCache(TelephonyManager.CACHE_KEY_PHONE_ACCOUNT_TO_SUBID);
     }
 
+    /**
+     * Registers the accounts whose capabilities changed since the last pass, so that a burst of
+     * IMS, RTT or video capability changes across subscriptions results in at most one Telecom
+     * registration per account.
+     */
+    private void registerDirtyAccounts() {
+        synchronized (mAccountsLock) {
+            List<AccountEntry> dirtyAccounts = new ArrayList<>(mDirtyAccounts);
+            mDirtyAccounts.clear();
+            Log.i(this, "registerDirtyAccounts: %d accounts", dirtyAccounts.size());
+            for (AccountEntry entry : dirtyAccounts) {
+                if (!mAccounts.contains(entry)) {
+                    // Account has been torn down since it was marked.
+                    continue;
+                }
+                entry.mAccount = entry.registerPstnPhoneAccount(entry.mIsEmergency,
+                        entry.mIsTestAccount);
+            }
+        }
+    }
+
     /**
      * Handles changes to the carrier configuration which may impact a phone account.  There are
      * some extras defined in the {@link PhoneAccount} which are based on carrier config options.
@@ -116,10 +116,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
@@ -339,7 +337,6 @@ public class TelephonyConnectionService extends ConnectionService {
     public interface TelephonyManagerProxy {
         int getPhoneCount();
         boolean isCurrentEmergencyNumber(String number);
-        Map<Integer, List<EmergencyNumber>> getCurrentEmergencyNumberList();
 
         /**
          * Determines whether concurrent IMS calls across both SIMs are possible, based on whether
@@ -378,15 +375,6 @@ public class TelephonyConnectionService extends ConnectionService {
             }
         }
 
-        @Override
-        public Map<Integer, List<EmergencyNumber>> getCurrentEmergencyNumberList() {
-            try {
-                return mTelephonyManager.getEmergencyNumberList();
-            } catch (IllegalStateException ise) {
-                return new HashMap<>();
-            }
-        }
-
         @Override
         public int getMaxNumberOfSimultaneouslyActiveSims() {
             try {
@@ -1462,12 +1450,11 @@ public class TelephonyConnectionService extends ConnectionService {
 
     private boolean isEmergencyNumberTestNumber(String number) {
         number = PhoneNumberUtils.stripSeparators(number);
-        Map<Integer, List<EmergencyNumber>> list =
-                mTelephonyManagerProxy.getCurrentEmergencyNumberList();
         // Do not worry about which subscription the test emergency call is on yet, only detect that
         // it is an emergency.
-        for (Integer sub : list.keySet()) {
-            for (EmergencyNumber eNumber : list.get(sub)) {
+        for (Phone phone : mPhoneFactoryProxy.getPhones()) {
+            for (EmergencyNumber eNumber : EmergencyNumberIndex.getInstance().get(phone, number)
+                    .getEmergencyNumbers()) {
                 if (number.equals(eNumber.getNumber())
                         && eNumber.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_TEST)) {
                     Log.i(this, "isEmergencyNumberTestNumber: " + number + " has been detected as "
@@ -3205,15 +3192,9 @@ public class TelephonyConnectionService extends ConnectionService {
     }
 
     private boolean isNormalRoutingNumber(Phone phone, String number) {
-        if (phone.getEmergencyNumberTracker() != null) {
-            // Note: There can potentially be multiple instances of EmergencyNumber found; if any of
-            // them have normal routing, then use normal routing.
-            List<EmergencyNumber> nums = phone.getEmergencyNumberTracker().getEmergencyNumbers(
-                    number);
-            return nums.stream().anyMatch(n ->
-                    n.getEmergencyCallRouting() == EmergencyNumber.EMERGENCY_CALL_ROUTING_NORMAL);
-        }
-        return false;
+        // Note: There can potentially be multiple instances of EmergencyNumber found; if any of
+        // them have normal routing, then use normal routing.
+        return EmergencyNumberIndex.getInstance().get(phone, number).hasNormalRouting();
     }
 
     /**
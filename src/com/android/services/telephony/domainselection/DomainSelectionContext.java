@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PersistableBundle;
+import android.telephony.CarrierConfigManager;
+import android.telephony.ServiceState;
+import android.telephony.SubscriptionManager;
+import android.util.ArrayMap;
+import android.util.IndentingPrintWriter;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * The state of a slot shared by the domain selectors created for the slot.
+ *
+ * The IMS registration, MMTEL capabilities and {@link ServiceState} are tracked by
+ * {@link ImsStateTracker}. This class keeps the last {@link ServiceState} notified by it and the
+ * carrier configuration the domain selectors read, so the domain selectors created for a burst
+ * of calls or SMS do not query {@link CarrierConfigManager} for each selection. The carrier
+ * configuration is kept until the carrier configuration of the slot or the subscription changes.
+ *
+ * The returned {@link PersistableBundle}s are shared and shall not be modified. This class is
+ * accessed on the looper of the domain selection service.
+ */
+public class DomainSelectionContext implements ImsStateTracker.ServiceStateListener {
+    private static final String TAG = DomainSelectionContext.class.getSimpleName();
+
+    private final Context mContext;
+    private final int mSlotId;
+    private final ImsStateTracker mImsStateTracker;
+    private final Handler mHandler;
+    // Map of the requested keys -> carrier configuration of mCarrierConfigSubId
+    private final ArrayMap<List<String>, PersistableBundle> mCarrierConfigs = new ArrayMap<>();
+    private final CarrierConfigManager.CarrierConfigChangeListener mCarrierConfigChangeListener =
+            (slotIndex, subId, carrierId, specificCarrierId) -> onCarrierConfigChanged(slotIndex);
+
+    private int mCarrierConfigSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+    private CarrierConfigManager mConfigManager;
+    private boolean mStarted;
+    private ServiceState mServiceState;
+    private int mCarrierConfigHits;
+    private int mCarrierConfigMisses;
+
+    public DomainSelectionContext(@NonNull Context context, int slotId,
+            @NonNull ImsStateTracker imsStateTracker, @NonNull Looper looper) {
+        mContext = context;
+        mSlotId = slotId;
+        mImsStateTracker = imsStateTracker;
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Starts listening to the changes of the slot. Until then, the carrier configuration is only
+     * refreshed when the subscription changes, which suits a context used by a single selection.
+     */
+    public void start() {
+        if (mStarted) return;
+        mStarted = true;
+        mConfigManager = mContext.getSystemService(CarrierConfigManager.class);
+        if (mConfigManager != null) {
+            mConfigManager.registerCarrierConfigChangeListener(mHandler::post,
+                    mCarrierConfigChangeListener);
+        } else {
+            loge("CarrierConfigManager is null");
+        }
+        mImsStateTracker.addServiceStateListener(this);
+    }
+
+    /**
+     * Stops listening to the changes of the slot and drops the cached state.
+     */
+    public void destroy() {
+        mHandler.removeCallbacksAndMessages(null);
+        if (!mStarted) return;
+        mStarted = false;
+        if (mConfigManager != null) {
+            mConfigManager.unregisterCarrierConfigChangeListener(mCarrierConfigChangeListener);
+            mConfigManager = null;
+        }
+        mImsStateTracker.removeServiceStateListener(this);
+        mCarrierConfigs.clear();
+        mServiceState = null;
+    }
+
+    /**
+     * Returns the carrier configuration of the subscription for the given keys, or all keys if
+     * none is given.
+     *
+     * @return The shared {@link PersistableBundle}, or {@code null} if it is not available.
+     */
+    public @Nullable PersistableBundle getCarrierConfig(int subId, @NonNull String... keys) {
+        if (subId != mCarrierConfigSubId) {
+            mCarrierConfigs.clear();
+            mCarrierConfigSubId = subId;
+        }
+
+        List<String> cacheKey = List.of(keys);
+        PersistableBundle config = mCarrierConfigs.get(cacheKey);
+        if (config != null) {
+            mCarrierConfigHits++;
+            return config;
+        }
+
+        CarrierConfigManager ccm = mContext.getSystemService(CarrierConfigManager.class);
+        if (ccm == null) {
+            loge("getCarrierConfig: CarrierConfigManager is null");
+            return null;
+        }
+        mCarrierConfigMisses++;
+        config = (keys.length == 0)
+                ? ccm.getConfigForSubId(subId) : ccm.getConfigForSubId(subId, keys);
+        if (config != null) {
+            mCarrierConfigs.put(cacheKey, config);
+        }
+        return config;
+    }
+
+    /**
+     * Returns the boolean carrier configuration of the subscription, {@code false} if the
+     * carrier configuration is not available.
+     */
+    public boolean getCarrierConfigBoolean(int subId, @NonNull String key) {
+        PersistableBundle config = getCarrierConfig(subId, key);
+        return (config != null) && config.getBoolean(key);
+    }
+
+    /**
+     * Returns the last {@link ServiceState} of the slot, or {@code null} if it has not been
+     * notified yet.
+     */
+    public @Nullable ServiceState getServiceState() {
+        return mServiceState;
+    }
+
+    @Override
+    public void onServiceStateUpdated(ServiceState serviceState) {
+        mServiceState = serviceState;
+    }
+
+    private void onCarrierConfigChanged(int slotIndex) {
+        if (slotIndex != mSlotId) return;
+        logi("onCarrierConfigChanged: dropping " + mCarrierConfigs.size() + " cached configs");
+        mCarrierConfigs.clear();
+    }
+
+    /**
+     * Dumps this instance into a readable format for dumpsys usage.
+     */
+    public void dump(@NonNull IndentingPrintWriter ipw) {
+        ipw.println("DomainSelectionContext:");
+        ipw.increaseIndent();
+        ipw.println("SlotId: " + mSlotId);
+        ipw.println("CarrierConfigSubId: " + mCarrierConfigSubId);
+        ipw.println("CachedCarrierConfigs: " + mCarrierConfigs.size());
+        ipw.println("CarrierConfigHits: " + mCarrierConfigHits);
+        ipw.println("CarrierConfigMisses: " + mCarrierConfigMisses);
+        ipw.println("ServiceState: " + (mServiceState != null ? mServiceState.getState() : null));
+        ipw.decreaseIndent();
+    }
+
+    private void logi(String s) {
+        Log.i(TAG, "[" + mSlotId + "] " + s);
+    }
+
+    private void loge(String s) {
+        Log.e(TAG, "[" + mSlotId + "] " + s);
+    }
+}
@@ -48,12 +48,19 @@ public abstract class DomainSelectorBase extends Handler implements DomainSelect
          * {@link DomainSelector#finishSelection} called.
          */
         void onDomainSelectorDestroyed(DomainSelectorBase selector);
+
+        /**
+         * Called when the specified pooled domain selector has finished the selection and
+         * can be reused through {@link DomainSelectorBase#reset}.
+         */
+        void onDomainSelectorReleased(DomainSelectorBase selector);
     }
 
     // Persistent Logging
     protected final LocalLog mEventLog = new LocalLog(30);
     protected final Context mContext;
     protected final ImsStateTracker mImsStateTracker;
+    protected final DomainSelectionContext mSelectionContext;
     protected SelectionAttributes mSelectionAttributes;
     protected TransportSelectorCallback mTransportSelectorCallback;
     protected WwanSelectorCallback mWwanSelectorCallback;
@@ -61,13 +68,28 @@ public abstract class DomainSelectorBase extends Handler implements DomainSelect
     private final int mSubId;
     private final DestroyListener mDestroyListener;
     private final String mLogTag;
+    private boolean mPooled;
+    // Incremented each time a pooled domain selector is reused for a new selection.
+    private int mSelectionGeneration;
+    // Whether this pooled domain selector is released and kept idle in the pool.
+    private boolean mReleased;
 
     public DomainSelectorBase(Context context, int slotId, int subId, @NonNull Looper looper,
             @NonNull ImsStateTracker imsStateTracker, @NonNull DestroyListener destroyListener,
             String logTag) {
+        this(context, slotId, subId, looper, imsStateTracker,
+                new DomainSelectionContext(context, slotId, imsStateTracker, looper),
+                destroyListener, logTag);
+    }
+
+    public DomainSelectorBase(Context context, int slotId, int subId, @NonNull Looper looper,
+            @NonNull ImsStateTracker imsStateTracker,
+            @NonNull DomainSelectionContext selectionContext,
+            @NonNull DestroyListener destroyListener, String logTag) {
         super(looper);
         mContext = context;
         mImsStateTracker = imsStateTracker;
+        mSelectionContext = selectionContext;
         mSlotId = slotId;
         mSubId = subId;
         mDestroyListener = destroyListener;
@@ -82,6 +104,128 @@ public abstract class DomainSelectorBase extends Handler implements DomainSelect
      */
     public abstract void selectDomain(SelectionAttributes attr, TransportSelectorCallback callback);
 
+    /**
+     * Returns whether this domain selector can be kept in a pool and reused for another
+     * selection of the same subscription after {@link DomainSelector#finishSelection}.
+     */
+    public boolean isReusable() {
+        return false;
+    }
+
+    /**
+     * Marks this domain selector as pooled. A pooled domain selector keeps its listeners
+     * registered and releases itself instead of being destroyed when the selection is finished.
+     * Only a reusable domain selector can be pooled.
+     */
+    public void setPooled() {
+        if (!isReusable()) {
+            throw new IllegalStateException(mLogTag + " is not reusable");
+        }
+        mPooled = true;
+        onPooled();
+    }
+
+    /**
+     * Returns whether this domain selector is pooled.
+     */
+    protected boolean isPooled() {
+        return mPooled;
+    }
+
+    /**
+     * Called when this domain selector is pooled to register the listeners kept for its reuse.
+     */
+    protected void onPooled() {
+    }
+
+    /**
+     * Clears the state of the previous selection of a released domain selector before it is
+     * reused for a new selection with the given attributes.
+     *
+     * @param attr The attributes of the new selection.
+     */
+    public void reset(@NonNull SelectionAttributes attr) {
+        synchronized (this) {
+            mSelectionGeneration++;
+            mReleased = false;
+        }
+        removeCallbacksAndMessages(null);
+        mSelectionAttributes = attr;
+        mTransportSelectorCallback = null;
+        mWwanSelectorCallback = null;
+    }
+
+    /**
+     * Returns the {@link DomainSelector} given to the owner of the current selection of this
+     * pooled domain selector. Its {@link DomainSelector#reselectDomain} and
+     * {@link DomainSelector#finishSelection} are ignored once this domain selector is released,
+     * so a late call from the previous owner does not act on the selection of the next owner.
+     */
+    public @NonNull DomainSelector newSelection() {
+        synchronized (this) {
+            return new Selection(mSelectionGeneration);
+        }
+    }
+
+    /**
+     * Releases this pooled domain selector to be reused after the selection is finished.
+     * The release of a domain selector which is already released is ignored.
+     */
+    protected void release() {
+        synchronized (this) {
+            if (mReleased) {
+                logi("release: already released");
+                return;
+            }
+            mReleased = true;
+        }
+        removeCallbacksAndMessages(null);
+        if (mDestroyListener != null) {
+            mDestroyListener.onDomainSelectorReleased(this);
+        }
+    }
+
+    /**
+     * Returns whether the selection of the given generation still owns this domain selector.
+     */
+    private synchronized boolean isOwnedBy(int generation) {
+        return generation == mSelectionGeneration && !mReleased;
+    }
+
+    /**
+     * The {@link DomainSelector} of a single selection of a pooled domain selector.
+     */
+    private final class Selection implements DomainSelector {
+        private final int mGeneration;
+
+        Selection(int generation) {
+            mGeneration = generation;
+        }
+
+        @Override
+        public void reselectDomain(@NonNull SelectionAttributes attr) {
+            if (!isOwnedBy(mGeneration)) {
+                logi("reselectDomain: ignored, selection " + mGeneration + " is finished");
+                return;
+            }
+            DomainSelectorBase.this.reselectDomain(attr);
+        }
+
+        @Override
+        public void finishSelection() {
+            if (!isOwnedBy(mGeneration)) {
+                logi("finishSelection: ignored, selection " + mGeneration + " is finished");
+                return;
+            }
+            DomainSelectorBase.this.finishSelection();
+        }
+
+        @Override
+        public String toString() {
+            return DomainSelectorBase.this + "#" + mGeneration;
+        }
+    }
+
     /**
      * Destroys this domain selector.
      */
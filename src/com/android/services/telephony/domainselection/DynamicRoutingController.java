@@ -37,6 +37,7 @@ import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.PhoneFactory;
 import com.android.internal.telephony.ServiceStateTracker;
 import com.android.phone.R;
+import com.android.services.telephony.EmergencyNumberIndex;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -115,8 +116,11 @@ public class DynamicRoutingController {
     }
 
     private final PhoneFactoryProxy mPhoneFactoryProxy;
+    private final EmergencyNumberIndex mEmergencyNumberIndex;
     private final ArrayMap<Integer, String> mNetworkCountries = new ArrayMap<>();
-    private final ArrayMap<Integer, List<EmergencyNumber>> mEmergencyNumbers = new ArrayMap<>();
+    // key : phone id, value : the dynamic emergency numbers of the current country by number
+    private final ArrayMap<Integer, ArrayMap<String, List<EmergencyNumber>>> mEmergencyNumbers =
+            new ArrayMap<>();
 
     private String mLastCountryIso;
     private boolean mEnabled;
@@ -139,7 +143,14 @@ public class DynamicRoutingController {
 
     @VisibleForTesting
     public DynamicRoutingController(PhoneFactoryProxy phoneFactoryProxy) {
+        this(phoneFactoryProxy, EmergencyNumberIndex.getInstance());
+    }
+
+    @VisibleForTesting
+    public DynamicRoutingController(PhoneFactoryProxy phoneFactoryProxy,
+            EmergencyNumberIndex emergencyNumberIndex) {
         mPhoneFactoryProxy = phoneFactoryProxy;
+        mEmergencyNumberIndex = emergencyNumberIndex;
     }
 
     /**
@@ -246,9 +257,8 @@ public class DynamicRoutingController {
     private boolean isFromNetworkOrSim(Phone phone, String number) {
         if (phone == null) return false;
         Log.i(TAG, "isFromNetworkOrSim phoneId=" + phone.getPhoneId());
-        if (phone.getEmergencyNumberTracker() == null) return false;
-        for (EmergencyNumber num : phone.getEmergencyNumberTracker().getEmergencyNumbers(
-                number)) {
+        for (EmergencyNumber num : mEmergencyNumberIndex.get(phone, number)
+                .getEmergencyNumbers()) {
             if (num.getNumber().equals(number)) {
                 if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING)
                         || num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_SIM)) {
@@ -276,7 +286,7 @@ public class DynamicRoutingController {
             return false;
         }
 
-        List<EmergencyNumber> emergencyNumbers =
+        ArrayMap<String, List<EmergencyNumber>> emergencyNumbers =
                 mEmergencyNumbers.get(Integer.valueOf(phone.getPhoneId()));
         if (emergencyNumbers == null) {
             updateDynamicEmergencyNumbers(phone.getPhoneId());
@@ -289,28 +299,26 @@ public class DynamicRoutingController {
             return false;
         }
 
-        // Filter the list with the number.
-        List<EmergencyNumber> dynamicNumbers =
-                getDynamicEmergencyNumbers(emergencyNumbers, number);
+        List<EmergencyNumber> dynamicNumbers = emergencyNumbers.get(number);
+        if (DBG) {
+            Log.i(TAG, "isDynamicNumber dynamicNumbers=" + dynamicNumbers);
+        }
 
         // Compare the dynamicNumbers with the list of EmergencyNumber from EmergencyNumberTracker.
-        emergencyNumbers = phone.getEmergencyNumberTracker().getEmergencyNumbers(number);
+        EmergencyNumberIndex.Entry entry = mEmergencyNumberIndex.get(phone, number);
 
-        if (dynamicNumbers == null || emergencyNumbers == null
-                || dynamicNumbers.isEmpty() || emergencyNumbers.isEmpty()) {
+        if (dynamicNumbers == null || entry.getEmergencyNumbers().isEmpty()) {
             return false;
         }
 
         if (DBG) {
-            Log.i(TAG, "isDynamicNumber " + emergencyNumbers);
+            Log.i(TAG, "isDynamicNumber " + entry.getEmergencyNumbers());
         }
 
         // Compare coutry ISO and MNC. MNC is optional.
         for (EmergencyNumber dynamicNumber: dynamicNumbers) {
-            if (emergencyNumbers.stream().anyMatch(n ->
-                    TextUtils.equals(n.getCountryIso(), dynamicNumber.getCountryIso())
-                    && (TextUtils.equals(n.getMnc(), dynamicNumber.getMnc())
-                    || TextUtils.isEmpty(dynamicNumber.getMnc())))) {
+            if (entry.matchesCountryAndMnc(dynamicNumber.getCountryIso(),
+                    dynamicNumber.getMnc())) {
                 Log.i(TAG, "isDynamicNumber found");
                 return true;
             }
@@ -318,19 +326,6 @@ public class DynamicRoutingController {
         return false;
     }
 
-    /** Filter the list of {@link EmergencyNumber} with given number. */
-    private static List<EmergencyNumber> getDynamicEmergencyNumbers(
-            List<EmergencyNumber> emergencyNumbers, String number) {
-        List<EmergencyNumber> filteredNumbers = emergencyNumbers.stream()
-                .filter(num -> num.getNumber().equals(number))
-                .toList();
-
-        if (DBG) {
-            Log.i(TAG, "getDynamicEmergencyNumbers " + filteredNumbers);
-        }
-        return filteredNumbers;
-    }
-
     /**
      * Generates the lis of {@link EmergencyNumber} for the given phoneId
      * based on the detected country from the resource configuration.
@@ -338,8 +333,7 @@ public class DynamicRoutingController {
     private void updateDynamicEmergencyNumbers(int phoneId) {
         if (mDynamicNumbers == null || mDynamicNumbers.isEmpty()) {
             // No resource configuration.
-            mEmergencyNumbers.put(Integer.valueOf(phoneId),
-                    new ArrayList<EmergencyNumber>());
+            mEmergencyNumbers.put(Integer.valueOf(phoneId), new ArrayMap<>());
             return;
         }
 
@@ -348,10 +342,14 @@ public class DynamicRoutingController {
             // Update again later.
             return;
         }
-        List<EmergencyNumber> emergencyNumbers = new ArrayList<EmergencyNumber>();
+        // Index the numbers, so that dialing only looks up the dialed number.
+        ArrayMap<String, List<EmergencyNumber>> emergencyNumbers = new ArrayMap<>();
         for (String numberInfo : mDynamicNumbers) {
             if (!TextUtils.isEmpty(numberInfo) && numberInfo.startsWith(iso)) {
-                emergencyNumbers.addAll(getEmergencyNumbers(numberInfo));
+                for (EmergencyNumber num : getEmergencyNumbers(numberInfo)) {
+                    emergencyNumbers.computeIfAbsent(num.getNumber(), k -> new ArrayList<>())
+                            .add(num);
+                }
             }
         }
         mEmergencyNumbers.put(Integer.valueOf(phoneId), emergencyNumbers);
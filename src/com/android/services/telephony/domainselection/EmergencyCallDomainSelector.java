@@ -68,6 +68,7 @@ import static android.telephony.TelephonyManager.DATA_DISCONNECTING;
 import static android.telephony.TelephonyManager.DATA_UNKNOWN;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.Context;
 import android.content.res.Resources;
 import android.net.ConnectivityManager;
@@ -215,13 +216,67 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     private CancellationSignal mCancelSignal;
     private EmergencyRegistrationResult mLastRegResult;
 
+    private static final @RadioAccessNetworkType int[] CS_RATS_CDMA_ONLY = { CDMA2000 };
+
+    /**
+     * The RAT and domain preferences of the carrier configuration for either the home or the
+     * roaming network. The arrays are never modified, so they are shared by all selections
+     * instead of being copied into lists.
+     */
+    private static final class RatPreference {
+        final @RadioAccessNetworkType int[] imsRats;
+        final @RadioAccessNetworkType int[] csRats;
+        final @CarrierConfigManager.ImsEmergency.EmergencyDomain int[] domains;
+        // The position of each domain in the preference, or NOT_SUPPORTED.
+        final int psPriority;
+        final int csPriority;
+        final int wlanPriority;
+
+        // Derived when first needed.
+        private @RadioAccessNetworkType int[] mImsRatsNgranLast;
+        private @RadioAccessNetworkType int[] mCsRatsWithoutCdma;
+
+        RatPreference(@Nullable int[] imsRats, @Nullable int[] csRats, @Nullable int[] domains) {
+            this.imsRats = imsRats != null ? imsRats : new int[0];
+            this.csRats = csRats != null ? csRats : new int[0];
+            this.domains = domains != null ? domains : new int[0];
+            psPriority = indexOf(this.domains, DOMAIN_PS_3GPP);
+            csPriority = indexOf(this.domains, DOMAIN_CS);
+            wlanPriority = indexOf(this.domains, DOMAIN_PS_NON_3GPP);
+        }
+
+        /** Returns the IMS RATs with NGRAN moved to the lowest priority. */
+        @RadioAccessNetworkType int[] getImsRatsNgranLast() {
+            if (mImsRatsNgranLast == null) {
+                mImsRatsNgranLast = moveToEnd(imsRats, NGRAN);
+            }
+            return mImsRatsNgranLast;
+        }
+
+        /** Returns the CS RATs without CDMA2000. */
+        @RadioAccessNetworkType int[] getCsRatsWithoutCdma() {
+            if (mCsRatsWithoutCdma == null) {
+                mCsRatsWithoutCdma = Arrays.stream(csRats)
+                        .filter(rat -> rat != CDMA2000).toArray();
+            }
+            return mCsRatsWithoutCdma;
+        }
+
+        private static int[] moveToEnd(int[] rats, int rat) {
+            if (indexOf(rats, rat) == NOT_SUPPORTED) return rats;
+            int[] moved = new int[rats.length];
+            int i = 0;
+            for (int r : rats) {
+                if (r != rat) moved[i++] = r;
+            }
+            while (i < moved.length) moved[i++] = rat;
+            return moved;
+        }
+    }
+
     // Members for carrier configuration
-    private @RadioAccessNetworkType int[] mImsRatsConfig;
-    private @RadioAccessNetworkType int[] mCsRatsConfig;
-    private @RadioAccessNetworkType int[] mImsRoamRatsConfig;
-    private @RadioAccessNetworkType int[] mCsRoamRatsConfig;
-    private @CarrierConfigManager.ImsEmergency.EmergencyDomain int[] mDomainPreference;
-    private @CarrierConfigManager.ImsEmergency.EmergencyDomain int[] mDomainPreferenceRoam;
+    private RatPreference mHomeRatPreference;
+    private RatPreference mRoamingRatPreference;
     private List<String> mCdmaPreferredNumbers;
     private boolean mPreferImsWhenCallsOnCs;
     private int mVoWifiRequiresCondition;
@@ -715,17 +770,16 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
             b = CarrierConfigManager.getDefaultConfig();
         }
 
-        mImsRatsConfig =
-                b.getIntArray(KEY_EMERGENCY_OVER_IMS_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY);
-        mImsRoamRatsConfig = b.getIntArray(
-                KEY_EMERGENCY_OVER_IMS_ROAMING_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY);
-
-        mCsRatsConfig =
-                b.getIntArray(KEY_EMERGENCY_OVER_CS_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY);
-        mCsRoamRatsConfig = b.getIntArray(
-                KEY_EMERGENCY_OVER_CS_ROAMING_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY);
-        mDomainPreference = b.getIntArray(KEY_EMERGENCY_DOMAIN_PREFERENCE_INT_ARRAY);
-        mDomainPreferenceRoam = b.getIntArray(KEY_EMERGENCY_DOMAIN_PREFERENCE_ROAMING_INT_ARRAY);
+        mHomeRatPreference = new RatPreference(
+                b.getIntArray(KEY_EMERGENCY_OVER_IMS_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY),
+                b.getIntArray(KEY_EMERGENCY_OVER_CS_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY),
+                b.getIntArray(KEY_EMERGENCY_DOMAIN_PREFERENCE_INT_ARRAY));
+        mRoamingRatPreference = new RatPreference(
+                b.getIntArray(
+                        KEY_EMERGENCY_OVER_IMS_ROAMING_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY),
+                b.getIntArray(
+                        KEY_EMERGENCY_OVER_CS_ROAMING_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY),
+                b.getIntArray(KEY_EMERGENCY_DOMAIN_PREFERENCE_ROAMING_INT_ARRAY));
         mPreferImsWhenCallsOnCs = b.getBoolean(
                 KEY_PREFER_IMS_EMERGENCY_WHEN_VOICE_CALLS_ON_CS_BOOL);
         mVoWifiRequiresCondition = b.getInt(KEY_EMERGENCY_VOWIFI_REQUIRES_CONDITION_INT);
@@ -748,12 +802,6 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         boolean ttySupported = b.getBoolean(KEY_CARRIER_VOLTE_TTY_SUPPORTED_BOOL);
         mNonTtyOrTtySupported = isNonTtyOrTtySupported(ttySupported);
 
-        if (mImsRatsConfig == null) mImsRatsConfig = new int[0];
-        if (mCsRatsConfig == null) mCsRatsConfig = new int[0];
-        if (mImsRoamRatsConfig == null) mImsRoamRatsConfig = new int[0];
-        if (mCsRoamRatsConfig == null) mCsRoamRatsConfig = new int[0];
-        if (mDomainPreference == null) mDomainPreference = new int[0];
-        if (mDomainPreferenceRoam == null) mDomainPreferenceRoam = new int[0];
         if (numbers == null) numbers = new String[0];
         if (imsReasonCodes == null) imsReasonCodes = new int[0];
 
@@ -761,17 +809,17 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         mRetryReasonCodes.addAll(sDefaultRetryReasonCodes);
 
         logi("updateCarrierConfiguration "
-                + "imsRats=" + arrayToString(mImsRatsConfig,
+                + "imsRats=" + arrayToString(mHomeRatPreference.imsRats,
                         EmergencyCallDomainSelector::accessNetworkTypeToString)
-                + ", csRats=" + arrayToString(mCsRatsConfig,
+                + ", csRats=" + arrayToString(mHomeRatPreference.csRats,
                         EmergencyCallDomainSelector::accessNetworkTypeToString)
-                + ", imsRoamRats=" + arrayToString(mImsRoamRatsConfig,
+                + ", imsRoamRats=" + arrayToString(mRoamingRatPreference.imsRats,
                         EmergencyCallDomainSelector::accessNetworkTypeToString)
-                + ", csRoamRats=" + arrayToString(mCsRoamRatsConfig,
+                + ", csRoamRats=" + arrayToString(mRoamingRatPreference.csRats,
                         EmergencyCallDomainSelector::accessNetworkTypeToString)
-                + ", domainPref=" + arrayToString(mDomainPreference,
+                + ", domainPref=" + arrayToString(mHomeRatPreference.domains,
                         EmergencyCallDomainSelector::domainPreferenceToString)
-                + ", domainPrefRoam=" + arrayToString(mDomainPreferenceRoam,
+                + ", domainPrefRoam=" + arrayToString(mRoamingRatPreference.domains,
                         EmergencyCallDomainSelector::domainPreferenceToString)
                 + ", preferImsOnCs=" + mPreferImsWhenCallsOnCs
                 + ", voWifiRequiresCondition=" + mVoWifiRequiresCondition
@@ -1069,17 +1117,19 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     @VisibleForTesting
     public @RadioAccessNetworkType List<Integer> getNextPreferredNetworks(boolean csPreferred,
             boolean tryEsFallback) {
+        RatPreference ratPreference = getRatPreference();
+        int[] csRats = getCsNetworkTypeConfiguration(ratPreference);
         if (mRequiresVoLteEnabled && !isAdvancedCallingSettingEnabled()) {
             // Emergency call over IMS is not supported.
             logi("getNextPreferredNetworks VoLte setting is not enabled.");
-            return generatePreferredNetworks(getCsNetworkTypeConfiguration());
+            return generatePreferredNetworks(csRats);
         }
 
         List<Integer> preferredNetworks = new ArrayList<>();
 
-        List<Integer> domains = getDomainPreference();
-        int psPriority = domains.indexOf(DOMAIN_PS_3GPP);
-        int csPriority = domains.indexOf(DOMAIN_CS);
+        int[] imsRats = getImsNetworkTypeConfiguration(ratPreference);
+        int psPriority = ratPreference.psPriority;
+        int csPriority = ratPreference.csPriority;
         logi("getNextPreferredNetworks psPriority=" + psPriority + ", csPriority=" + csPriority
                 + ", csPreferred=" + csPreferred + ", esFallback=" + tryEsFallback
                 + ", lastNetworkType=" + accessNetworkTypeToString(mLastNetworkType));
@@ -1100,22 +1150,19 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
 
             if (psPriority == NOT_SUPPORTED && csPriority == NOT_SUPPORTED) {
                 // should not reach here. However, to avoid unexpected problems.
-                preferredNetworks = generatePreferredNetworks(getCsNetworkTypeConfiguration(),
-                        getImsNetworkTypeConfiguration());
+                preferredNetworks = generatePreferredNetworks(csRats, imsRats);
             } else if (psPriority == NOT_SUPPORTED && csPriority > NOT_SUPPORTED) {
                 // CS networks only.
-                preferredNetworks = generatePreferredNetworks(getCsNetworkTypeConfiguration());
+                preferredNetworks = generatePreferredNetworks(csRats);
             } else if (psPriority > NOT_SUPPORTED && csPriority == NOT_SUPPORTED) {
                 // PS networks only.
-                preferredNetworks = generatePreferredNetworks(getImsNetworkTypeConfiguration());
+                preferredNetworks = generatePreferredNetworks(imsRats);
             } else if (psPriority < csPriority) {
                 // PS preferred.
-                preferredNetworks = generatePreferredNetworks(getImsNetworkTypeConfiguration(),
-                        getCsNetworkTypeConfiguration());
+                preferredNetworks = generatePreferredNetworks(imsRats, csRats);
             } else {
                 // CS preferred.
-                preferredNetworks = generatePreferredNetworks(getCsNetworkTypeConfiguration(),
-                        getImsNetworkTypeConfiguration());
+                preferredNetworks = generatePreferredNetworks(csRats, imsRats);
             }
 
             // Make NGRAN have the lowest priority
@@ -1126,8 +1173,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         } else if (csPreferred || mLastNetworkType == EUTRAN || mLastNetworkType == NGRAN) {
             if (!csPreferred && mLastNetworkType == NGRAN && mLtePreferredAfterNrFailure) {
                 // LTE is preferred after dialing over NR failed.
-                preferredNetworks = generatePreferredNetworks(getImsNetworkTypeConfiguration(),
-                        getCsNetworkTypeConfiguration());
+                preferredNetworks = generatePreferredNetworks(imsRats, csRats);
                 // Make NGRAN have the lowest priority
                 if (preferredNetworks.contains(NGRAN)) {
                     preferredNetworks.remove(Integer.valueOf(NGRAN));
@@ -1135,20 +1181,18 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
                 }
             } else  if (csPriority > NOT_SUPPORTED) {
                 // PS tried, generate the list with CS preferred.
-                preferredNetworks = generatePreferredNetworks(getCsNetworkTypeConfiguration(),
-                        getImsNetworkTypeConfiguration());
+                preferredNetworks = generatePreferredNetworks(csRats, imsRats);
             } else {
                 // CS not suppored.
-                preferredNetworks = generatePreferredNetworks(getImsNetworkTypeConfiguration());
+                preferredNetworks = generatePreferredNetworks(imsRats);
             }
         } else {
             // CS tried, generate the list with PS preferred.
             if (psPriority > NOT_SUPPORTED) {
-                preferredNetworks = generatePreferredNetworks(getImsNetworkTypeConfiguration(),
-                        getCsNetworkTypeConfiguration());
+                preferredNetworks = generatePreferredNetworks(imsRats, csRats);
             } else {
                 // PS not suppored.
-                preferredNetworks = generatePreferredNetworks(getCsNetworkTypeConfiguration());
+                preferredNetworks = generatePreferredNetworks(csRats);
             }
         }
 
@@ -1169,10 +1213,12 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         return preferredNetworks;
     }
 
-    private @RadioAccessNetworkType List<Integer> generatePreferredNetworks(List<Integer>...lists) {
+    private @RadioAccessNetworkType List<Integer> generatePreferredNetworks(int[]...lists) {
         List<Integer> preferredNetworks = new ArrayList<>();
-        for (List<Integer> list : lists) {
-            preferredNetworks.addAll(list);
+        for (int[] list : lists) {
+            for (int rat : list) {
+                preferredNetworks.add(rat);
+            }
         }
 
         return preferredNetworks;
@@ -1275,8 +1321,8 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
      * @return The network type of the CS network.
      */
     private @RadioAccessNetworkType int getSelectableCsNetworkType() {
-        List<Integer> domains = getDomainPreference();
-        if (domains.indexOf(DOMAIN_CS) == NOT_SUPPORTED) {
+        RatPreference ratPreference = getRatPreference();
+        if (ratPreference.csPriority == NOT_SUPPORTED) {
             return UNKNOWN;
         }
         EmergencyRegistrationResult regResult =
@@ -1286,14 +1332,14 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
 
         int accessNetwork = regResult.getAccessNetwork();
 
-        List<Integer> ratList = getCsNetworkTypeConfiguration();
-        if (ratList.contains(accessNetwork)) {
+        int[] rats = getCsNetworkTypeConfiguration(ratPreference);
+        if (indexOf(rats, accessNetwork) != NOT_SUPPORTED) {
             return accessNetwork;
         }
 
         if ((regResult.getAccessNetwork() == EUTRAN)
                 && ((regResult.getDomain() & NetworkRegistrationInfo.DOMAIN_CS) > 0)) {
-            if (ratList.contains(UTRAN)) return UTRAN;
+            if (indexOf(rats, UTRAN) != NOT_SUPPORTED) return UTRAN;
         }
 
         return UNKNOWN;
@@ -1327,8 +1373,8 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
      * @return The network type if the network supports emergency services over PS network.
      */
     private @RadioAccessNetworkType int getSelectablePsNetworkType(boolean inService) {
-        List<Integer> domains = getDomainPreference();
-        if ((domains.indexOf(DOMAIN_PS_3GPP) == NOT_SUPPORTED)
+        RatPreference ratPreference = getRatPreference();
+        if ((ratPreference.psPriority == NOT_SUPPORTED)
                 || !mNonTtyOrTtySupported) {
             return UNKNOWN;
         }
@@ -1343,13 +1389,15 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         }
 
         int accessNetwork = regResult.getAccessNetwork();
-        List<Integer> ratList = getImsNetworkTypeConfiguration();
-        if (!inService && !ratList.contains(NGRAN) && !isSimReady()
+        int[] rats = getImsNetworkTypeConfiguration(ratPreference);
+        boolean supported = indexOf(rats, accessNetwork) != NOT_SUPPORTED;
+        if (!supported && accessNetwork == NGRAN && !inService && !isSimReady()
                 && !TextUtils.isEmpty(regResult.getCountryIso())) {
-            ratList.add(NGRAN);
-            logi("getSelectablePsNetworkType ratList=" + ratList);
+            // NGRAN is selectable in limited service without SIM even if not configured.
+            logi("getSelectablePsNetworkType NGRAN added");
+            supported = true;
         }
-        if (ratList.contains(accessNetwork)) {
+        if (supported) {
             if (mIsEmergencyBarred) {
                 logi("getSelectablePsNetworkType barred");
                 return UNKNOWN;
@@ -1374,8 +1422,8 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
                 mSelectionAttributes.getEmergencyRegistrationResult();
         if (regResult == null) return false;
 
-        List<Integer> ratList = getImsNetworkTypeConfiguration();
-        if (ratList.contains(EUTRAN)) {
+        int[] rats = getImsNetworkTypeConfiguration(getRatPreference());
+        if (indexOf(rats, EUTRAN) != NOT_SUPPORTED) {
             return (regResult.getNwProvidedEmf() > 0);
         }
         return false;
@@ -1404,8 +1452,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
      */
     private boolean isEmcOverWifiSupported() {
         if (isSimReady() && mNonTtyOrTtySupported) {
-            List<Integer> domains = getDomainPreference();
-            boolean ret = domains.contains(DOMAIN_PS_NON_3GPP);
+            boolean ret = getRatPreference().wlanPriority != NOT_SUPPORTED;
             logi("isEmcOverWifiSupported " + ret);
             return ret;
         } else {
@@ -1421,8 +1468,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
      */
     private boolean isWifiPreferred() {
         if (SubscriptionManager.isValidSubscriptionId(getSubId())) {
-            List<Integer> domains = getDomainPreference();
-            int priority = domains.indexOf(DOMAIN_PS_NON_3GPP);
+            int priority = getRatPreference().wlanPriority;
             logi("isWifiPreferred priority=" + priority);
 
             if ((priority == 0)
@@ -1486,60 +1532,44 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         return result;
     }
 
-    private @NonNull List<Integer> getImsNetworkTypeConfiguration() {
-        int[] rats = mImsRatsConfig;
-        if (isInRoaming()) rats = mImsRoamRatsConfig;
-
-        List<Integer> ratList = new ArrayList<Integer>();
-        for (int i = 0; i < rats.length; i++) {
-            ratList.add(rats[i]);
-        }
+    private @NonNull RatPreference getRatPreference() {
+        return isInRoaming() ? mRoamingRatPreference : mHomeRatPreference;
+    }
 
+    private @NonNull @RadioAccessNetworkType int[] getImsNetworkTypeConfiguration(
+            @NonNull RatPreference ratPreference) {
         // Prefer LTE if UE is located in non-NR coverage.
-        if (ratList.contains(NGRAN) && mLastRegResult != null
+        if (mLastRegResult != null
                 && mLastRegResult.getAccessNetwork() != UNKNOWN
                 && mLastRegResult.getAccessNetwork() != NGRAN
                 && !TextUtils.isEmpty(mLastRegResult.getCountryIso())) {
-            ratList.remove(Integer.valueOf(NGRAN));
-            ratList.add(NGRAN);
+            return ratPreference.getImsRatsNgranLast();
         }
 
-        return ratList;
+        return ratPreference.imsRats;
     }
 
-    private @NonNull List<Integer> getCsNetworkTypeConfiguration() {
-        int[] rats = mCsRatsConfig;
-        if (isInRoaming()) rats = mCsRoamRatsConfig;
-
-        List<Integer> ratList = new ArrayList<Integer>();
-        for (int i = 0; i < rats.length; i++) {
-            ratList.add(rats[i]);
-        }
-
+    private @NonNull @RadioAccessNetworkType int[] getCsNetworkTypeConfiguration(
+            @NonNull RatPreference ratPreference) {
         if (!mCdmaPreferredNumbers.isEmpty()) {
             String number = mSelectionAttributes.getAddress().getSchemeSpecificPart();
             if (mCdmaPreferredNumbers.contains(number)) {
                 // The number will be dialed over CDMA.
-                ratList.clear();
-                ratList.add(new Integer(CDMA2000));
+                return CS_RATS_CDMA_ONLY;
             } else {
                 // The number will be dialed over UTRAN or GERAN.
-                ratList.remove(new Integer(CDMA2000));
+                return ratPreference.getCsRatsWithoutCdma();
             }
         }
 
-        return ratList;
+        return ratPreference.csRats;
     }
 
-    private @NonNull List<Integer> getDomainPreference() {
-        int[] domains = mDomainPreference;
-        if (isInRoaming()) domains = mDomainPreferenceRoam;
-
-        List<Integer> domainList = new ArrayList<Integer>();
-        for (int i = 0; i < domains.length; i++) {
-            domainList.add(domains[i]);
+    private static int indexOf(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) return i;
         }
-        return domainList;
+        return NOT_SUPPORTED;
     }
 
     private boolean isInRoaming() {
@@ -60,7 +60,15 @@ public class EmergencySmsDomainSelector extends SmsDomainSelector implements
     public EmergencySmsDomainSelector(Context context, int slotId, int subId,
             @NonNull Looper looper, @NonNull ImsStateTracker imsStateTracker,
             @NonNull DestroyListener listener) {
-        super(context, slotId, subId, looper, imsStateTracker, listener,
+        this(context, slotId, subId, looper, imsStateTracker,
+                new DomainSelectionContext(context, slotId, imsStateTracker, looper), listener);
+    }
+
+    public EmergencySmsDomainSelector(Context context, int slotId, int subId,
+            @NonNull Looper looper, @NonNull ImsStateTracker imsStateTracker,
+            @NonNull DomainSelectionContext selectionContext,
+            @NonNull DestroyListener listener) {
+        super(context, slotId, subId, looper, imsStateTracker, selectionContext, listener,
                 "DomainSelector-EmergencySMS");
 
         mImsStateTracker.addServiceStateListener(this);
@@ -77,6 +85,12 @@ public class EmergencySmsDomainSelector extends SmsDomainSelector implements
         super.destroy();
     }
 
+    @Override
+    public boolean isReusable() {
+        // The network scan, ServiceState and BarringInfo are tracked per emergency SMS.
+        return false;
+    }
+
     @Override
     public void handleMessage(@NonNull Message msg) {
         switch (msg.what) {
@@ -294,14 +308,7 @@ public class EmergencySmsDomainSelector extends SmsDomainSelector implements
      */
     private boolean isEmergencySmsOverImsSupportedIfNetworkLimitedOrInService() {
         if (mEmergencySmsOverImsSupportedByConfig == null) {
-            CarrierConfigManager ccm = mContext.getSystemService(CarrierConfigManager.class);
-
-            if (ccm == null) {
-                loge("CarrierConfigManager is null");
-                return false;
-            }
-
-            PersistableBundle b = ccm.getConfigForSubId(getSubId());
+            PersistableBundle b = mSelectionContext.getCarrierConfig(getSubId());
 
             if (b == null) {
                 loge("PersistableBundle is null");
@@ -22,7 +22,6 @@ import android.annotation.NonNull;
 import android.content.Context;
 import android.os.Looper;
 import android.os.Message;
-import android.os.PersistableBundle;
 import android.telecom.TelecomManager;
 import android.telephony.Annotation.DisconnectCauses;
 import android.telephony.CarrierConfigManager;
@@ -69,7 +68,17 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
     public NormalCallDomainSelector(Context context, int slotId, int subId, @NonNull Looper looper,
                                     @NonNull ImsStateTracker imsStateTracker,
                                     @NonNull DestroyListener destroyListener) {
-        super(context, slotId, subId, looper, imsStateTracker, destroyListener, LOG_TAG);
+        this(context, slotId, subId, looper, imsStateTracker,
+                new DomainSelectionContext(context, slotId, imsStateTracker, looper),
+                destroyListener);
+    }
+
+    public NormalCallDomainSelector(Context context, int slotId, int subId, @NonNull Looper looper,
+                                    @NonNull ImsStateTracker imsStateTracker,
+                                    @NonNull DomainSelectionContext selectionContext,
+                                    @NonNull DestroyListener destroyListener) {
+        super(context, slotId, subId, looper, imsStateTracker, selectionContext, destroyListener,
+                LOG_TAG);
 
         if (SubscriptionManager.isValidSubscriptionId(subId)) {
             logd("Subscribing to state callbacks. Subid:" + subId);
@@ -108,6 +117,19 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
         }
     }
 
+    @Override
+    public boolean isReusable() {
+        return SubscriptionManager.isValidSubscriptionId(getSubId())
+                && mSelectorState != SelectorState.DESTROYED;
+    }
+
+    @Override
+    public synchronized void reset(@NonNull SelectionAttributes attributes) {
+        super.reset(attributes);
+        mSelectorState = SelectorState.INACTIVE;
+        mReselectDomain = false;
+    }
+
     @Override
     public void selectDomain(SelectionAttributes attributes, TransportSelectorCallback callback) {
         mSelectionAttributes = attributes;
@@ -140,10 +162,15 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
 
         if (subId == getSubId()) {
             logd("NormalCallDomainSelection triggered. Sub-id:" + subId);
-            if (!mReselectDomain) {
+            // A reused domain selector has kept the IMS state received for the previous selection.
+            if (!mReselectDomain && (!mImsRegStateReceived || !mMmTelCapabilitiesReceived)) {
                 sendEmptyMessageDelayed(MSG_WAIT_FOR_IMS_STATE_TIMEOUT,
                         WAIT_FOR_IMS_STATE_TIMEOUT_MS);
             }
+            if (mServiceState == null) {
+                // Uses the last ServiceState of the slot rather than waiting for the callback.
+                mServiceState = mSelectionContext.getServiceState();
+            }
             post(() -> selectDomain());
         } else {
             mSelectorState = SelectorState.INACTIVE;
@@ -170,10 +197,15 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
         }
 
         if (mSelectorState != SelectorState.DESTROYED) {
-            mImsStateTracker.removeServiceStateListener(this);
-            mImsStateTracker.removeImsStateListener(this);
             mSelectionAttributes = null;
             mTransportSelectorCallback = null;
+            if (isPooled()) {
+                // The listeners are kept, so the next selection uses the IMS state received.
+                release();
+                return;
+            }
+            mImsStateTracker.removeServiceStateListener(this);
+            mImsStateTracker.removeImsStateListener(this);
             destroy();
         }
     }
@@ -184,6 +216,10 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
         switch (mSelectorState) {
             case INACTIVE:
                 mSelectorState = SelectorState.DESTROYED;
+                if (isPooled()) {
+                    mImsStateTracker.removeServiceStateListener(this);
+                    mImsStateTracker.removeImsStateListener(this);
+                }
                 super.destroy();
                 break;
 
@@ -309,16 +345,8 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
     }
 
     private boolean isWpsCallSupportedByIms() {
-        CarrierConfigManager configManager = mContext.getSystemService(CarrierConfigManager.class);
-
-        PersistableBundle config = null;
-        if (configManager != null) {
-            config = configManager.getConfigForSubId(mSelectionAttributes.getSubscriptionId(),
-                    new String[] {CarrierConfigManager.KEY_SUPPORT_WPS_OVER_IMS_BOOL});
-        }
-
-        return (config != null)
-                ? config.getBoolean(CarrierConfigManager.KEY_SUPPORT_WPS_OVER_IMS_BOOL) : false;
+        return mSelectionContext.getCarrierConfigBoolean(mSelectionAttributes.getSubscriptionId(),
+                CarrierConfigManager.KEY_SUPPORT_WPS_OVER_IMS_BOOL);
     }
 
     private void handleWpsCall() {
@@ -370,16 +398,8 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
     }
 
     private boolean isTtySupportedByIms() {
-        CarrierConfigManager configManager = mContext.getSystemService(CarrierConfigManager.class);
-
-        PersistableBundle config = null;
-        if (configManager != null) {
-            config = configManager.getConfigForSubId(mSelectionAttributes.getSubscriptionId(),
-                    new String[] {CarrierConfigManager.KEY_CARRIER_VOLTE_TTY_SUPPORTED_BOOL});
-        }
-
-        return (config != null)
-                && config.getBoolean(CarrierConfigManager.KEY_CARRIER_VOLTE_TTY_SUPPORTED_BOOL);
+        return mSelectionContext.getCarrierConfigBoolean(mSelectionAttributes.getSubscriptionId(),
+                CarrierConfigManager.KEY_CARRIER_VOLTE_TTY_SUPPORTED_BOOL);
     }
 
     private boolean isTtyModeEnabled() {
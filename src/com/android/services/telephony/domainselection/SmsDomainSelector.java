@@ -38,13 +38,24 @@ public class SmsDomainSelector extends DomainSelectorBase implements
 
     public SmsDomainSelector(Context context, int slotId, int subId, @NonNull Looper looper,
             @NonNull ImsStateTracker imsStateTracker, @NonNull DestroyListener listener) {
-        this(context, slotId, subId, looper, imsStateTracker, listener, "DomainSelector-SMS");
+        this(context, slotId, subId, looper, imsStateTracker,
+                new DomainSelectionContext(context, slotId, imsStateTracker, looper), listener);
+    }
+
+    public SmsDomainSelector(Context context, int slotId, int subId, @NonNull Looper looper,
+            @NonNull ImsStateTracker imsStateTracker,
+            @NonNull DomainSelectionContext selectionContext,
+            @NonNull DestroyListener listener) {
+        this(context, slotId, subId, looper, imsStateTracker, selectionContext, listener,
+                "DomainSelector-SMS");
     }
 
     protected SmsDomainSelector(Context context, int slotId, int subId, @NonNull Looper looper,
-            @NonNull ImsStateTracker imsStateTracker, @NonNull DestroyListener listener,
-            String logTag) {
-        super(context, slotId, subId, looper, imsStateTracker, listener, logTag);
+            @NonNull ImsStateTracker imsStateTracker,
+            @NonNull DomainSelectionContext selectionContext,
+            @NonNull DestroyListener listener, String logTag) {
+        super(context, slotId, subId, looper, imsStateTracker, selectionContext, listener,
+                logTag);
     }
 
     @Override
@@ -58,6 +69,22 @@ public class SmsDomainSelector extends DomainSelectorBase implements
         super.destroy();
     }
 
+    @Override
+    public boolean isReusable() {
+        return !mDestroyed;
+    }
+
+    @Override
+    protected void onPooled() {
+        mImsStateTracker.addImsStateListener(this);
+    }
+
+    @Override
+    public void reset(@NonNull SelectionAttributes attr) {
+        super.reset(attr);
+        setDomainSelectionRequested(false);
+    }
+
     @Override
     public void handleMessage(@NonNull Message msg) {
         switch (msg.what) {
@@ -92,7 +119,11 @@ public class SmsDomainSelector extends DomainSelectorBase implements
         mSelectionAttributes = null;
         mTransportSelectorCallback = null;
         mWwanSelectorCallback = null;
-        destroy();
+        if (isPooled()) {
+            release();
+        } else {
+            destroy();
+        }
     }
 
     @Override
@@ -106,7 +137,9 @@ public class SmsDomainSelector extends DomainSelectorBase implements
         mSelectionAttributes = attr;
         mTransportSelectorCallback = callback;
         setDomainSelectionRequested(true);
-        mImsStateTracker.addImsStateListener(this);
+        if (!isPooled()) {
+            mImsStateTracker.addImsStateListener(this);
+        }
         obtainMessage(EVENT_SELECT_DOMAIN).sendToTarget();
     }
 
@@ -25,6 +25,7 @@ import android.os.Looper;
 import android.telephony.BarringInfo;
 import android.telephony.DisconnectCause;
 import android.telephony.DomainSelectionService;
+import android.telephony.DomainSelector;
 import android.telephony.ServiceState;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
@@ -71,6 +72,7 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         DomainSelectorBase create(Context context, int slotId, int subId,
                 @SelectorType int selectorType, boolean isEmergency, @NonNull Looper looper,
                 @NonNull ImsStateTracker imsStateTracker,
+                @NonNull DomainSelectionContext selectionContext,
                 @NonNull DomainSelectorBase.DestroyListener listener,
                 @NonNull CrossSimRedialingController crossSimRedialingController,
                 @NonNull DataConnectionStateHelper dataConnectionStateHelper);
@@ -81,6 +83,7 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         public DomainSelectorBase create(Context context, int slotId, int subId,
                 @SelectorType int selectorType, boolean isEmergency, @NonNull Looper looper,
                 @NonNull ImsStateTracker imsStateTracker,
+                @NonNull DomainSelectionContext selectionContext,
                 @NonNull DomainSelectorBase.DestroyListener listener,
                 @NonNull CrossSimRedialingController crossSimRedialingController,
                 @NonNull DataConnectionStateHelper dataConnectionStateHelper) {
@@ -98,16 +101,16 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
                                 dataConnectionStateHelper);
                     } else {
                         selector = new NormalCallDomainSelector(context, slotId, subId, looper,
-                                imsStateTracker, listener);
+                                imsStateTracker, selectionContext, listener);
                     }
                     break;
                 case SELECTOR_TYPE_SMS:
                     if (isEmergency) {
                         selector = new EmergencySmsDomainSelector(context, slotId, subId, looper,
-                                imsStateTracker, listener);
+                                imsStateTracker, selectionContext, listener);
                     } else {
                         selector = new SmsDomainSelector(context, slotId, subId, looper,
-                                imsStateTracker, listener);
+                                imsStateTracker, selectionContext, listener);
                     }
                     break;
                 default:
@@ -124,7 +127,8 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
      * If the domain selector is not null and reusable, the same domain selector will be used
      * for the specific slot.
      */
-    private static final class DomainSelectorContainer {
+    @VisibleForTesting
+    static final class DomainSelectorContainer {
         private final int mSlotId;
         private final @SelectorType int mSelectorType;
         private final boolean mIsEmergency;
@@ -166,12 +170,135 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         }
     }
 
+    /**
+     * A pool of the released domain selectors of a slot, which are reused for the following
+     * selections of the same selector type and subscription instead of creating new ones.
+     */
+    @VisibleForTesting
+    static final class DomainSelectorPool {
+        private final int mSlotId;
+        private final List<DomainSelectorContainer> mIdleSelectors = new ArrayList<>();
+        private int mCreatedCount;
+        private int mReusedCount;
+        private int mReleasedCount;
+        private int mEvictedCount;
+
+        DomainSelectorPool(int slotId) {
+            mSlotId = slotId;
+        }
+
+        /**
+         * Returns a released domain selector for the specified selection, or {@code null} if
+         * there is none. The released domain selectors of the same selector type but another
+         * subscription, or which cannot be reused, are moved to the given list to be destroyed.
+         * Other released domain selectors of the same subscription stay in the pool.
+         */
+        @Nullable DomainSelectorBase acquire(int subId, @SelectorType int selectorType,
+                boolean isEmergency, @NonNull List<DomainSelectorBase> evicted) {
+            DomainSelectorBase selector = null;
+            for (int i = mIdleSelectors.size() - 1; i >= 0; --i) {
+                DomainSelectorContainer dsc = mIdleSelectors.get(i);
+                if (dsc.getSelectorType() != selectorType || dsc.isEmergency() != isEmergency) {
+                    continue;
+                }
+                DomainSelectorBase idleSelector = dsc.getDomainSelector();
+                if (idleSelector.getSubId() == subId && idleSelector.isReusable()) {
+                    if (selector == null) {
+                        mIdleSelectors.remove(i);
+                        selector = idleSelector;
+                        mReusedCount++;
+                    }
+                } else {
+                    mIdleSelectors.remove(i);
+                    evicted.add(idleSelector);
+                    mEvictedCount++;
+                }
+            }
+            return selector;
+        }
+
+        /**
+         * Keeps the released domain selector for reuse. If the pool is full, the oldest domain
+         * selector is moved to the given list to be destroyed.
+         */
+        void release(@NonNull DomainSelectorContainer dsc,
+                @NonNull List<DomainSelectorBase> evicted) {
+            mReleasedCount++;
+            if (mIdleSelectors.size() >= MAX_POOLED_DOMAIN_SELECTORS_PER_SLOT) {
+                evicted.add(mIdleSelectors.remove(0).getDomainSelector());
+                mEvictedCount++;
+            }
+            mIdleSelectors.add(dsc);
+        }
+
+        /**
+         * Returns whether the domain selector is kept in the pool.
+         */
+        boolean contains(@NonNull DomainSelectorBase selector) {
+            for (DomainSelectorContainer dsc : mIdleSelectors) {
+                if (dsc.getDomainSelector() == selector) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Removes the domain selector from the pool if it is kept in the pool.
+         */
+        void remove(@NonNull DomainSelectorBase selector) {
+            for (int i = 0; i < mIdleSelectors.size(); ++i) {
+                if (mIdleSelectors.get(i).getDomainSelector() == selector) {
+                    mIdleSelectors.remove(i);
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Moves all domain selectors kept in the pool to the given list to be destroyed.
+         */
+        void clear(@NonNull List<DomainSelectorBase> evicted) {
+            for (DomainSelectorContainer dsc : mIdleSelectors) {
+                evicted.add(dsc.getDomainSelector());
+            }
+            mIdleSelectors.clear();
+        }
+
+        void onCreated() {
+            mCreatedCount++;
+        }
+
+        void dump(@NonNull IndentingPrintWriter ipw) {
+            ipw.println("DomainSelectorPool: slotId=" + mSlotId
+                    + ", idle=" + mIdleSelectors.size()
+                    + ", created=" + mCreatedCount
+                    + ", reused=" + mReusedCount
+                    + ", released=" + mReleasedCount
+                    + ", evicted=" + mEvictedCount);
+            ipw.increaseIndent();
+            for (DomainSelectorContainer dsc : mIdleSelectors) {
+                ipw.println("Idle: " + dsc);
+            }
+            ipw.decreaseIndent();
+        }
+    }
+
     private final DomainSelectorBase.DestroyListener mDestroyListener =
             new DomainSelectorBase.DestroyListener() {
         @Override
         public void onDomainSelectorDestroyed(DomainSelectorBase selector) {
             logd("DomainSelector destroyed: " + selector);
             removeDomainSelector(selector);
+            synchronized (mDomainSelectorPools) {
+                for (int i = 0; i < mDomainSelectorPools.size(); ++i) {
+                    mDomainSelectorPools.valueAt(i).remove(selector);
+                }
+            }
+        }
+
+        @Override
+        public void onDomainSelectorReleased(DomainSelectorBase selector) {
+            logd("DomainSelector released: " + selector);
+            releaseDomainSelector(selector);
         }
     };
 
@@ -189,12 +316,19 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
 
     private static final String TAG = TelephonyDomainSelectionService.class.getSimpleName();
 
+    // The maximum number of the released domain selectors kept per slot.
+    private static final int MAX_POOLED_DOMAIN_SELECTORS_PER_SLOT = 2;
+
     // Persistent Logging
     private static final LocalLog sEventLog = new LocalLog(20);
     private Context mContext;
     // Map of slotId -> ImsStateTracker
     private final SparseArray<ImsStateTracker> mImsStateTrackers = new SparseArray<>(2);
+    // Map of slotId -> DomainSelectionContext
+    private final SparseArray<DomainSelectionContext> mSelectionContexts = new SparseArray<>(2);
     private final List<DomainSelectorContainer> mDomainSelectorContainers = new ArrayList<>();
+    // Map of slotId -> DomainSelectorPool
+    private final SparseArray<DomainSelectorPool> mDomainSelectorPools = new SparseArray<>(2);
     private final ImsStateTrackerFactory mImsStateTrackerFactory;
     private final DomainSelectorFactory mDomainSelectorFactory;
     private Handler mServiceHandler;
@@ -264,6 +398,15 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         }
         domainSelectorContainers.clear();
 
+        List<DomainSelectorBase> pooledSelectors = new ArrayList<>();
+        synchronized (mDomainSelectorPools) {
+            for (int i = 0; i < mDomainSelectorPools.size(); ++i) {
+                mDomainSelectorPools.valueAt(i).clear(pooledSelectors);
+            }
+            mDomainSelectorPools.clear();
+        }
+        destroyDomainSelectors(pooledSelectors);
+
         synchronized (mImsStateTrackers) {
             for (int i = 0; i < mImsStateTrackers.size(); ++i) {
                 ImsStateTracker ist = mImsStateTrackers.get(i);
@@ -274,6 +417,13 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
             mImsStateTrackers.clear();
         }
 
+        synchronized (mSelectionContexts) {
+            for (int i = 0; i < mSelectionContexts.size(); ++i) {
+                mSelectionContexts.valueAt(i).destroy();
+            }
+            mSelectionContexts.clear();
+        }
+
         SubscriptionManager sm = mContext.getSystemService(SubscriptionManager.class);
         if (sm != null) {
             sm.removeOnSubscriptionsChangedListener(mSubscriptionsChangedListener);
@@ -309,9 +459,15 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         final int selectorType = attr.getSelectorType();
         final boolean isEmergency = attr.isEmergency();
         ImsStateTracker ist = getImsStateTracker(slotId);
-        DomainSelectorBase selector = mDomainSelectorFactory.create(mContext, slotId, subId,
-                selectorType, isEmergency, getLooper(), ist, mDestroyListener,
-                mCrossSimRedialingController, mDataConnectionStateHelper);
+        DomainSelectorBase selector = acquireDomainSelector(slotId, subId, selectorType,
+                isEmergency);
+        if (selector != null) {
+            logi("DomainSelector reused: slotId=" + slotId + ", subId=" + subId
+                    + ", selectorType=" + selectorTypeToString(selectorType));
+            selector.reset(attr);
+        } else {
+            selector = createDomainSelector(slotId, subId, selectorType, isEmergency, ist);
+        }
 
         if (selector != null) {
             // Ensures that ImsStateTracker is started before selecting the domain if not started
@@ -327,16 +483,108 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
             return;
         }
 
+        // The owner of a pooled domain selector gets a DomainSelector of its own selection, so
+        // its calls after the selection is finished do not act on the next selection.
+        final DomainSelector selection = selector.isPooled() ? selector.newSelection() : selector;
+
         // Executed through the service handler to ensure that the callbacks are not called
         // directly in this execution flow.
+        final DomainSelectorBase domainSelector = selector;
         mServiceHandler.post(() ->  {
             // Notify the caller that the domain selector is created.
-            callback.onCreated(selector);
+            callback.onCreated(selection);
             // Performs the domain selection.
-            selector.selectDomain(attr, callback);
+            domainSelector.selectDomain(attr, callback);
         });
     }
 
+    /**
+     * Creates a new {@link DomainSelectorBase} for the specified selection. If the domain selector
+     * is reusable, it is pooled to be reused after the selection is finished.
+     */
+    private @Nullable DomainSelectorBase createDomainSelector(int slotId, int subId,
+            @SelectorType int selectorType, boolean isEmergency, @NonNull ImsStateTracker ist) {
+        DomainSelectorBase selector = mDomainSelectorFactory.create(mContext, slotId, subId,
+                selectorType, isEmergency, getLooper(), ist, getSelectionContext(slotId, ist),
+                mDestroyListener, mCrossSimRedialingController, mDataConnectionStateHelper);
+
+        if (selector != null && selector.isReusable()) {
+            selector.setPooled();
+            synchronized (mDomainSelectorPools) {
+                getDomainSelectorPool(slotId).onCreated();
+            }
+        }
+        return selector;
+    }
+
+    /**
+     * Returns a released {@link DomainSelectorBase} which can be reused for the specified
+     * selection, or {@code null} if there is none.
+     */
+    private @Nullable DomainSelectorBase acquireDomainSelector(int slotId, int subId,
+            @SelectorType int selectorType, boolean isEmergency) {
+        List<DomainSelectorBase> evicted = new ArrayList<>();
+        DomainSelectorBase selector;
+        synchronized (mDomainSelectorPools) {
+            selector = getDomainSelectorPool(slotId).acquire(subId, selectorType, isEmergency,
+                    evicted);
+        }
+        destroyDomainSelectors(evicted);
+        return selector;
+    }
+
+    /**
+     * Keeps the released {@link DomainSelectorBase} in the pool of its slot to be reused.
+     */
+    private void releaseDomainSelector(@NonNull DomainSelectorBase selector) {
+        synchronized (mDomainSelectorPools) {
+            for (int i = 0; i < mDomainSelectorPools.size(); ++i) {
+                if (mDomainSelectorPools.valueAt(i).contains(selector)) {
+                    logw("DomainSelector already released: " + selector);
+                    return;
+                }
+            }
+        }
+
+        DomainSelectorContainer dsc = removeDomainSelector(selector);
+        if (dsc == null) {
+            // Not managed by this service anymore.
+            selector.destroy();
+            return;
+        }
+
+        List<DomainSelectorBase> evicted = new ArrayList<>();
+        synchronized (mDomainSelectorPools) {
+            getDomainSelectorPool(dsc.getSlotId()).release(dsc, evicted);
+        }
+        destroyDomainSelectors(evicted);
+    }
+
+    /**
+     * Destroys the domain selectors evicted from the pool. This shall not be called while
+     * holding the lock of the pools, as the destroyed domain selectors notify
+     * {@link #mDestroyListener}.
+     */
+    private static void destroyDomainSelectors(@NonNull List<DomainSelectorBase> selectors) {
+        for (DomainSelectorBase selector : selectors) {
+            logi("DomainSelector evicted from pool: " + selector);
+            selector.destroy();
+        }
+    }
+
+    /**
+     * Returns the {@link DomainSelectorPool} of the specified slot. It shall be called while
+     * holding the lock of {@link #mDomainSelectorPools}.
+     */
+    private DomainSelectorPool getDomainSelectorPool(int slotId) {
+        DomainSelectorPool pool = mDomainSelectorPools.get(slotId);
+        if (pool == null) {
+            pool = new DomainSelectorPool(slotId);
+            mDomainSelectorPools.put(slotId, pool);
+        }
+        return pool;
+    }
+
     /**
      * Called when the {@link ServiceState} needs to be updated for the specified slot and
      * subcription index.
@@ -462,8 +710,11 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
     /**
      * Removes the domain selector container that matches with the specified
      * {@link DomainSelectorBase}.
+     *
+     * @return The removed domain selector container, or {@code null} if there is no match.
      */
-    private void removeDomainSelector(@NonNull DomainSelectorBase selector) {
+    private @Nullable DomainSelectorContainer removeDomainSelector(
+            @NonNull DomainSelectorBase selector) {
         synchronized (mDomainSelectorContainers) {
             for (int i = 0; i < mDomainSelectorContainers.size(); ++i) {
                 DomainSelectorContainer dsc = mDomainSelectorContainers.get(i);
@@ -472,10 +723,11 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
                     mDomainSelectorContainers.remove(i);
                     logi("DomainSelector removed: " + dsc
                             + ", count=" + mDomainSelectorContainers.size());
-                    break;
+                    return dsc;
                 }
             }
         }
+        return null;
     }
 
     /**
@@ -496,6 +748,24 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         }
     }
 
+    /**
+     * Returns the {@link DomainSelectionContext} shared by the domain selectors of the specified
+     * slot. If it does not exist for the slot, it creates and starts new instance and returns.
+     */
+    private DomainSelectionContext getSelectionContext(int slotId, ImsStateTracker ist) {
+        synchronized (mSelectionContexts) {
+            DomainSelectionContext selectionContext = mSelectionContexts.get(slotId);
+
+            if (selectionContext == null) {
+                selectionContext = new DomainSelectionContext(mContext, slotId, ist, getLooper());
+                selectionContext.start();
+                mSelectionContexts.put(slotId, selectionContext);
+            }
+
+            return selectionContext;
+        }
+    }
+
     private static String selectorTypeToString(@SelectorType int selectorType) {
         switch (selectorType) {
             case SELECTOR_TYPE_CALLING: return "CALLING";
@@ -539,6 +809,13 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         }
         ipw.decreaseIndent();
         ipw.increaseIndent();
+        synchronized (mSelectionContexts) {
+            for (int i = 0; i < mSelectionContexts.size(); ++i) {
+                mSelectionContexts.valueAt(i).dump(ipw);
+            }
+        }
+        ipw.decreaseIndent();
+        ipw.increaseIndent();
         synchronized (mDomainSelectorContainers) {
             for (int i = 0; i < mDomainSelectorContainers.size(); ++i) {
                 DomainSelectorContainer dsc = mDomainSelectorContainers.get(i);
@@ -551,6 +828,11 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
                 ipw.decreaseIndent();
             }
         }
+        synchronized (mDomainSelectorPools) {
+            for (int i = 0; i < mDomainSelectorPools.size(); ++i) {
+                mDomainSelectorPools.valueAt(i).dump(ipw);
+            }
+        }
         ipw.decreaseIndent();
         ipw.increaseIndent();
         ipw.println("Event Log:");
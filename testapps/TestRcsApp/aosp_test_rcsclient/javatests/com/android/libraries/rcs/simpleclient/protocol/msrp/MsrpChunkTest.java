@@ -27,6 +27,7 @@ import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunk.Continuati
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -91,4 +92,31 @@ public class MsrpChunkTest {
         assertThat(chunk2).isEqualTo(chunk);
     }
 
+    @Test
+    public void whenSerializeIntoSharedBuffer_success() throws IOException {
+        MsrpChunk first = MsrpChunk.newBuilder()
+                .method(MsrpChunk.Method.SEND)
+                .transactionId("first")
+                .addHeader("To-Path", "msrp://123.1.11:9/testreceiver;tcp")
+                .addHeader("Byte-Range", "1-6/12")
+                .content("Hallo ".getBytes(UTF_8))
+                .continuation(Continuation.MORE)
+                .build();
+        MsrpChunk second = MsrpChunk.newBuilder()
+                .method(MsrpChunk.Method.SEND)
+                .transactionId("second")
+                .addHeader("To-Path", "msrp://123.1.11:9/testreceiver;tcp")
+                .addHeader("Byte-Range", "7-12/12")
+                .content("Welt!!".getBytes(UTF_8))
+                .continuation(Continuation.COMPLETE)
+                .build();
+
+        ByteBuffer buffer = MsrpSerializer.serialize(ByteBuffer.allocate(8), first);
+        buffer = MsrpSerializer.serialize(buffer, second);
+
+        MsrpParser parser = new MsrpParser(
+                new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+        assertThat(parser.next()).isEqualTo(first);
+        assertThat(parser.next()).isEqualTo(second);
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libraries.rcs.simpleclient.protocol.msrp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunk.Continuation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class MsrpParserTest {
+
+    private static byte[] serialize(MsrpChunk... chunks) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        for (MsrpChunk chunk : chunks) {
+            MsrpSerializer.serialize(bo, chunk);
+        }
+        return bo.toByteArray();
+    }
+
+    private static MsrpChunk generateRequest(String txId, String byteRange, byte[] content) {
+        return MsrpChunk.newBuilder()
+                .method(MsrpChunk.Method.SEND)
+                .transactionId(txId)
+                .addHeader("To-Path", "msrp://123.1.11:9/testreceiver;tcp")
+                .addHeader("From-Path", "msrp://123.1.11:9/testsender;tcp")
+                .addHeader("Byte-Range", byteRange)
+                .addHeader("Content-Type", "application/octet-stream")
+                .content(content)
+                .continuation(Continuation.COMPLETE)
+                .build();
+    }
+
+    private static MsrpChunk generateResponse(String txId) {
+        return MsrpChunk.newBuilder()
+                .responseCode(200)
+                .responseReason("OK")
+                .transactionId(txId)
+                .addHeader("To-Path", "msrp://123.1.11:9/testsender;tcp")
+                .addHeader("From-Path", "msrp://123.1.11:9/testreceiver;tcp")
+                .continuation(Continuation.COMPLETE)
+                .build();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void whenParseConsecutiveMessages_success() throws IOException {
+        MsrpChunk first = generateRequest("tx1", "1-*/*", "Hallo Welt".getBytes(UTF_8));
+        MsrpChunk second = generateResponse("tx1");
+        MsrpChunk third = generateRequest("tx2", "1-5/5", "Hallo".getBytes(UTF_8));
+
+        MsrpParser parser =
+                new MsrpParser(new ByteArrayInputStream(serialize(first, second, third)));
+
+        assertThat(parser.next()).isEqualTo(first);
+        assertThat(parser.next()).isEqualTo(second);
+        assertThat(parser.next()).isEqualTo(third);
+        assertThat(parser.next()).isNull();
+    }
+
+    @Test
+    public void whenParseLargeBodiesAcrossBuffer_success() throws IOException {
+        byte[] content = randomBytes(100_000);
+        MsrpChunk unknownSize = generateRequest("tx1", "1-*/*", content);
+        MsrpChunk knownSize = generateRequest("tx2", "1-100000/100000", content);
+
+        MsrpParser parser = new MsrpParser(
+                new ByteArrayInputStream(serialize(unknownSize, knownSize)), 64);
+
+        assertThat(parser.next()).isEqualTo(unknownSize);
+        assertThat(parser.next()).isEqualTo(knownSize);
+    }
+
+    @Test
+    public void whenParsePartialReads_success() throws IOException {
+        MsrpChunk request = generateRequest("tx1", "1-*/*", randomBytes(5_000));
+        MsrpChunk response = generateResponse("tx1");
+        InputStream trickle = new FilterInputStream(
+                new ByteArrayInputStream(serialize(request, response))) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+
+        MsrpParser parser = new MsrpParser(trickle, 64);
+
+        assertThat(parser.next()).isEqualTo(request);
+        assertThat(parser.next()).isEqualTo(response);
+    }
+
+    @Test
+    public void whenBodyContainsEndLinePrefix_success() throws IOException {
+        MsrpChunk request = generateRequest("tx1", "1-*/*",
+                "line\r\n-------tx\r\n-------tx1 not the end".getBytes(UTF_8));
+
+        MsrpChunk parsed = MsrpParser.parse(new ByteArrayInputStream(serialize(request)));
+
+        assertThat(parsed).isEqualTo(request);
+    }
+}
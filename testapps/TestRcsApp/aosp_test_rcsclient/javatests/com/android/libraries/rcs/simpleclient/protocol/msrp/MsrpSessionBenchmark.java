@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libraries.rcs.simpleclient.protocol.msrp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assume.assumeTrue;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunk.Continuation;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Load generator for {@link MsrpSession}.
+ *
+ * <p>Connects two sessions over a loopback socket pair and drives SEND traffic from one to the
+ * other for every combination of configured message size and chunk size. Each run reports
+ * messages/s, MB/s and p50/p99 transaction latency.
+ *
+ * <p>{@link #benchmark()} only runs when options are passed as instrumentation arguments, and
+ * logs its results:
+ * <pre>
+ *   atest aosp_test_rcs_client_tests:MsrpSessionBenchmark#benchmark -- \
+ *       --module-arg aosp_test_rcs_client_tests:instrumentation-arg:messages:=2000 \
+ *       --module-arg aosp_test_rcs_client_tests:instrumentation-arg:sizes:=1024,1048576
+ * </pre>
+ * The options are messages, sizes, chunk-sizes, concurrency and window. The {@link #smokeRun()}
+ * test executes a short run so the harness keeps working.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MsrpSessionBenchmark {
+
+    private static final String TAG = "MsrpSessionBenchmark";
+
+    private static final String TO_PATH = "msrp://127.0.0.1:1/receiver;tcp";
+    private static final String FROM_PATH = "msrp://127.0.0.1:1/sender;tcp";
+    private static final long TIMEOUT_SECONDS = 300;
+
+    /** Parameters of a benchmark run. */
+    static final class Config {
+        int messages = 1000;
+        int[] messageSizes = {1024, 64 * 1024, 1024 * 1024};
+        int[] chunkSizes = {MsrpSession.DEFAULT_MAX_CHUNK_SIZE};
+        int concurrency = 4;
+        int window = MsrpSession.DEFAULT_SEND_WINDOW;
+
+        private static final String[] OPTIONS =
+                {"messages", "sizes", "chunk-sizes", "concurrency", "window"};
+
+        /** Returns whether any option is set in the given instrumentation arguments. */
+        static boolean hasOptions(Bundle arguments) {
+            for (String option : OPTIONS) {
+                if (arguments.containsKey(option)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        static Config parse(Bundle arguments) {
+            Config config = new Config();
+            for (String option : OPTIONS) {
+                String value = arguments.getString(option);
+                if (value == null) {
+                    continue;
+                }
+                switch (option) {
+                    case "messages":
+                        config.messages = Integer.parseInt(value);
+                        break;
+                    case "sizes":
+                        config.messageSizes = parseInts(value);
+                        break;
+                    case "chunk-sizes":
+                        config.chunkSizes = parseInts(value);
+                        break;
+                    case "concurrency":
+                        config.concurrency = Integer.parseInt(value);
+                        break;
+                    case "window":
+                        config.window = Integer.parseInt(value);
+                        break;
+                }
+            }
+            return config;
+        }
+
+        private static int[] parseInts(String list) {
+            return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+        }
+    }
+
+    /** Outcome of a single run. */
+    static final class Result {
+        final int messageSize;
+        final int chunkSize;
+        final int messages;
+        final long elapsedNanos;
+        final long[] latenciesNanos;
+        final int failures;
+
+        Result(int messageSize, int chunkSize, int messages, long elapsedNanos,
+                long[] latenciesNanos, int failures) {
+            this.messageSize = messageSize;
+            this.chunkSize = chunkSize;
+            this.messages = messages;
+            this.elapsedNanos = elapsedNanos;
+            this.latenciesNanos = latenciesNanos;
+            this.failures = failures;
+        }
+
+        double seconds() {
+            return elapsedNanos / 1e9;
+        }
+
+        double percentileMillis(double percentile) {
+            if (latenciesNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latenciesNanos.length) - 1;
+            return latenciesNanos[Math.max(0, index)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            double mb = (double) messageSize * messages / (1024 * 1024);
+            return String.format(Locale.US,
+                    "size=%8d chunk=%7d msgs=%6d  %9.1f msg/s  %8.2f MB/s  p50=%7.2fms"
+                            + "  p99=%7.2fms  failures=%d",
+                    messageSize, chunkSize, messages, messages / seconds(), mb / seconds(),
+                    percentileMillis(50), percentileMillis(99), failures);
+        }
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        assumeTrue(Config.hasOptions(arguments));
+
+        for (Result result : run(Config.parse(arguments))) {
+            Log.i(TAG, result.toString());
+            assertThat(result.failures).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void smokeRun() throws Exception {
+        Config config = new Config();
+        config.messages = 50;
+        config.messageSizes = new int[] {100, 200 * 1024};
+        config.chunkSizes = new int[] {16 * 1024};
+        config.concurrency = 2;
+
+        for (Result result : run(config)) {
+            assertThat(result.failures).isEqualTo(0);
+            assertThat(result.latenciesNanos).hasLength(config.messages);
+        }
+    }
+
+    static List<Result> run(Config config) throws Exception {
+        List<Result> results = new ArrayList<>();
+        for (int chunkSize : config.chunkSizes) {
+            for (int messageSize : config.messageSizes) {
+                // Warm up with the same shape so the JIT does not skew the first rows.
+                runOnce(config, messageSize, chunkSize, Math.max(1, config.messages / 10));
+                results.add(runOnce(config, messageSize, chunkSize, config.messages));
+            }
+        }
+        return results;
+    }
+
+    private static Result runOnce(Config config, int messageSize, int chunkSize, int messages)
+            throws Exception {
+        AtomicInteger received = new AtomicInteger();
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Socket senderSocket = new Socket(server.getInetAddress(), server.getLocalPort());
+            Socket receiverSocket = server.accept();
+
+            MsrpSession sender = new MsrpSession(senderSocket, chunk -> { },
+                    config.window, chunkSize);
+            MsrpSession receiver = new MsrpSession(receiverSocket,
+                    chunk -> received.incrementAndGet(), config.window, chunkSize);
+            new Thread(sender::run, "msrp-bench-sender-reader").start();
+            new Thread(receiver::run, "msrp-bench-receiver-reader").start();
+
+            byte[] content = new byte[messageSize];
+            Arrays.fill(content, (byte) 'x');
+            long[] latencies = new long[messages];
+            AtomicInteger completed = new AtomicInteger();
+            AtomicInteger failures = new AtomicInteger();
+            AtomicInteger nextMessage = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(messages);
+            ExecutorService producers = Executors.newFixedThreadPool(config.concurrency);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < config.concurrency; i++) {
+                producers.execute(() -> {
+                    while (nextMessage.getAndIncrement() < messages) {
+                        long sent = System.nanoTime();
+                        ListenableFuture<MsrpChunk> response = sender.send(
+                                newRequest(content));
+                        Futures.addCallback(response, new FutureCallback<MsrpChunk>() {
+                            @Override
+                            public void onSuccess(MsrpChunk result) {
+                                if (result.responseCode() != MsrpConstants.RESPONSE_CODE_OK) {
+                                    failures.incrementAndGet();
+                                }
+                                latencies[completed.getAndIncrement()] =
+                                        System.nanoTime() - sent;
+                                done.countDown();
+                            }
+
+                            @Override
+                            public void onFailure(Throwable t) {
+                                failures.incrementAndGet();
+                                latencies[completed.getAndIncrement()] =
+                                        System.nanoTime() - sent;
+                                done.countDown();
+                            }
+                        }, MoreExecutors.directExecutor());
+                    }
+                });
+            }
+            if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Timed out after " + completed.get()
+                        + " of " + messages + " messages");
+            }
+            long elapsed = System.nanoTime() - start;
+
+            producers.shutdownNow();
+            sender.terminate();
+            receiver.terminate();
+
+            Arrays.sort(latencies);
+            return new Result(messageSize, chunkSize, messages, elapsed, latencies,
+                    failures.get());
+        }
+    }
+
+    private static MsrpChunk newRequest(byte[] content) {
+        return MsrpChunk.newBuilder()
+                .method(MsrpChunk.Method.SEND)
+                .transactionId(MsrpUtils.generateRandomId())
+                .addHeader(MsrpConstants.HEADER_TO_PATH, TO_PATH)
+                .addHeader(MsrpConstants.HEADER_FROM_PATH, FROM_PATH)
+                .addHeader(MsrpConstants.HEADER_MESSAGE_ID, MsrpUtils.generateRandomId())
+                .addHeader(MsrpConstants.HEADER_BYTE_RANGE,
+                        "1-" + content.length + "/" + content.length)
+                .addHeader(MsrpConstants.HEADER_CONTENT_TYPE, "application/octet-stream")
+                .content(content)
+                .continuation(Continuation.COMPLETE)
+                .build();
+    }
+}
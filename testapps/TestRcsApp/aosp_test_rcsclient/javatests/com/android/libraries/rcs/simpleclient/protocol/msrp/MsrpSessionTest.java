@@ -29,9 +29,13 @@ import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Before;
@@ -84,9 +88,34 @@ public class MsrpSessionTest {
         assertThat(response).isEqualTo(generateSuccessResponse());
     }
 
+    @Test
+    public void send_failureReportNo_doesNotHoldSendWindow()
+            throws IOException, ExecutionException, InterruptedException, TimeoutException {
+        final MsrpSession session = new MsrpSession(socket, (m) -> {});
+        Executors.newSingleThreadExecutor().execute(session::run);
+
+        // No response comes back for these, so each one must complete once it is written.
+        List<Future<MsrpChunk>> futures = new ArrayList<>();
+        for (int i = 0; i < 2 * MsrpSession.DEFAULT_SEND_WINDOW; i++) {
+            MsrpChunk request = newRequestBuilder("txid" + i)
+                    .addHeader(MsrpConstants.HEADER_FAILURE_REPORT, "no")
+                    .build();
+            futures.add(session.send(request));
+        }
+
+        for (Future<MsrpChunk> future : futures) {
+            assertThat(future.get(5, TimeUnit.SECONDS).method()).isEqualTo(MsrpChunk.Method.SEND);
+        }
+        session.terminate();
+    }
+
     private MsrpChunk generateRequest() {
+        return newRequestBuilder("txid").build();
+    }
+
+    private MsrpChunk.Builder newRequestBuilder(String transactionId) {
         return MsrpChunk.newBuilder()
-                .transactionId("txid")
+                .transactionId(transactionId)
                 .method(MsrpChunk.Method.SEND)
                 .addHeader(MsrpConstants.HEADER_TO_PATH, "msrp://test:1234/sessionA;tcp")
                 .addHeader(MsrpConstants.HEADER_FROM_PATH, "msrp://test:1234/sessionB;tcp")
@@ -94,8 +123,7 @@ public class MsrpSessionTest {
                 .addHeader(MsrpConstants.HEADER_MESSAGE_ID, "abcde")
                 .addHeader(MsrpConstants.HEADER_CONTENT_TYPE, "text/plain")
                 .content("Hallo Welt\r\n".getBytes(StandardCharsets.UTF_8))
-                .continuation(Continuation.COMPLETE)
-                .build();
+                .continuation(Continuation.COMPLETE);
     }
 
     private MsrpChunk generateSuccessResponse() {
@@ -36,6 +36,8 @@ public class MsrpConstants {
     public static final int FLAG_ABORT_CHUNK = '#';
     public static final byte CHAR_SP = ' ';
     public static final byte CHAR_LF = '\r';
+    public static final byte CHAR_CR = '\r';
+    public static final byte CHAR_NL = '\n';
     public static final byte CHAR_MIN = '-';
     public static final byte CHAR_DOUBLE_POINT = ':';
     public static final String HEADER_BYTE_RANGE = "Byte-Range";
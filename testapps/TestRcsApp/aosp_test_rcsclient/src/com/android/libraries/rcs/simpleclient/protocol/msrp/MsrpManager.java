@@ -31,10 +31,22 @@ import java.net.Socket;
 /** Provides creating and managing {@link MsrpSession} */
 public class MsrpManager {
     private final ImsPdnNetworkFetcher imsPdnNetworkFetcher;
+    private final int sendWindow;
+    private final int maxChunkSize;
     private Context context;
 
     public MsrpManager(Context context) {
+        this(context, MsrpSession.DEFAULT_SEND_WINDOW, MsrpSession.DEFAULT_MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a manager whose sessions allow {@code sendWindow} outstanding SEND transactions
+     * and split contents into chunks of at most {@code maxChunkSize} bytes.
+     */
+    public MsrpManager(Context context, int sendWindow, int maxChunkSize) {
         this.context = context;
+        this.sendWindow = sendWindow;
+        this.maxChunkSize = maxChunkSize;
         imsPdnNetworkFetcher = new ImsPdnNetworkFetcher(context);
     }
 
@@ -44,7 +56,7 @@ public class MsrpManager {
         Socket socket = network.getSocketFactory().createSocket(host, port,
                 InetAddress.getByName(localIp), localPort);
         MsrpSession msrpSession = new MsrpSession(manager, context,
-                network, socket, listener);
+                network, socket, listener, sendWindow, maxChunkSize);
         Thread thread = new Thread(msrpSession::run);
         thread.start();
         return msrpSession;
@@ -16,269 +16,393 @@
 
 package com.android.libraries.rcs.simpleclient.protocol.msrp;
 
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.CHAR_CR;
 import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.CHAR_DOUBLE_POINT;
-import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.CHAR_LF;
-import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.CHAR_MIN;
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.CHAR_NL;
 import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.CHAR_SP;
-import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.END_MSRP_MSG_LENGTH;
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.END_MSRP_MSG_BYTES;
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.FLAG_ABORT_CHUNK;
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.FLAG_LAST_CHUNK;
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.FLAG_MORE_CHUNK;
 import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.HEADER_BYTE_RANGE;
-import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.NEW_LINE_END_MSRP_MSG;
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.MSRP_PROTOCOL_BYTES;
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.NEW_LINE_BYTES;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunk.Continuation;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
- * Simple parser for reading MSRP messages from a stream.
+ * Buffered parser for reading MSRP messages from a stream.
+ *
+ * <p>Bytes are pulled from the stream in bulk into a reusable {@link ByteBuffer}. Start lines,
+ * headers and end-lines are located by scanning the buffer for CRLF and decoded straight out of
+ * the backing array, so a message costs one string per token rather than one call per byte.
+ * Bodies with a known Byte-Range are read directly into the content array without passing through
+ * the buffer. Partial reads are handled transparently: the parser keeps whatever it has already
+ * scanned and only looks at newly received bytes.
+ *
+ * <p>A parser instance may buffer bytes beyond the message it returns, so the same instance must
+ * be used for every message read from a given stream.
  */
 public final class MsrpParser {
 
-    private MsrpParser() {
-    }
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_BUFFER_SIZE = 256 * 1024;
 
-    public static MsrpChunk parse(final InputStream stream) throws IOException {
-        MsrpChunk.Builder transaction = MsrpChunk.newBuilder();
-
-        // Read a chunk (blocking method)
-        int i = stream.read();
+    private final InputStream stream;
+    // Kept in "read mode": [position, limit) holds buffered bytes not yet consumed.
+    private ByteBuffer buffer;
 
-        final StringBuilder value = new StringBuilder();
-        // Read MSRP tag
-        skipWithDelimiter(stream, CHAR_SP);
+    public MsrpParser(InputStream stream) {
+        this(stream, DEFAULT_BUFFER_SIZE);
+    }
 
-        if (i == -1) {
-            // End of stream
-            return null;
-        }
+    MsrpParser(InputStream stream, int bufferSize) {
+        this.stream = stream;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.limit(0);
+    }
 
-        // Read the transaction ID
-        do {
-            i = stream.read();
-            if (i != CHAR_SP) {
-                value.append((char) i);
-            }
-        } while ((i != CHAR_SP) && (i != -1));
+    /**
+     * Parses a single MSRP message from the given stream.
+     *
+     * <p>Bytes following the message may be consumed from the stream and discarded. Use an
+     * instance of this class with {@link #next()} to read several messages from one stream.
+     */
+    public static MsrpChunk parse(final InputStream stream) throws IOException {
+        return new MsrpParser(stream).next();
+    }
 
-        if (i == -1) {
+    /**
+     * Reads the next MSRP message, blocking until it is complete.
+     *
+     * @return the parsed chunk, or {@code null} if the stream ended before a new message started.
+     */
+    public MsrpChunk next() throws IOException {
+        int length = nextLine();
+        // Tolerate empty lines between messages.
+        while (length == 0) {
+            consumeLine(length);
+            length = nextLine();
+        }
+        if (length < 0) {
+            // End of stream
             return null;
         }
 
-        final String txId = value.toString();
-        value.setLength(0);
+        MsrpChunk.Builder transaction = MsrpChunk.newBuilder();
+        final String txId = readStartLine(transaction, length);
 
-        // Read response code or method name
-        MsrpChunk.Method method = MsrpChunk.Method.UNKNOWN;
-        int responseCode = -1;
-        for (i = stream.read(); (i != CHAR_LF) && (i != -1); i = stream.read()) {
-            if (i == CHAR_SP && responseCode == -1) {
-                // There is a space -> it's a response
-                try {
-                    responseCode = Integer.parseInt(value.toString());
-                } catch (NumberFormatException nfe) {
-                    // This is an invalid response.
-                    return null;
-                }
-                value.setLength(0);
-                continue;
+        final byte[] endLine = endLineFor(txId);
+        boolean hasBody = false;
+        while (true) {
+            length = nextLine();
+            if (length < 0) {
+                throw new EOFException("EOS reached in headers");
+            }
+            if (length == 0) {
+                consumeLine(length);
+                hasBody = true;
+                break;
+            }
+            if (startsWith(endLine, length)) {
+                transaction.continuation(readEndLine(endLine, length));
+                break;
             }
-            value.append((char) i);
+            readHeader(transaction, length);
         }
 
-        if (responseCode == -1) {
-            try {
-                responseCode = Integer.parseInt(value.toString());
-                value.setLength(0);
-            } catch (final NumberFormatException e) {
-                method = MsrpChunk.Method.valueOf(value.toString());
-            }
+        if (hasBody) {
+            readChunk(transaction, endLine);
         }
 
-        i = stream.read();
+        return transaction.build();
+    }
 
-        if (i == -1) {
-            // End of stream
-            return null;
+    private String readStartLine(final MsrpChunk.Builder transaction, final int length)
+            throws IOException {
+        final byte[] array = buffer.array();
+        final int start = buffer.position();
+        final int end = start + length;
+
+        final int txStart = start + MSRP_PROTOCOL_BYTES.length + 1;
+        if (!startsWith(MSRP_PROTOCOL_BYTES, length) || txStart > end
+                || array[txStart - 1] != CHAR_SP) {
+            throw new IOException("Invalid MSRP start line");
         }
-
-        final boolean isResponse = responseCode > -1;
-        if (isResponse) {
-            transaction.transactionId(txId).responseCode(responseCode).responseReason(
-                    value.toString());
+        final int txEnd = indexOf(array, txStart, end, CHAR_SP);
+        if (txEnd < 0) {
+            throw new IOException("Invalid MSRP start line");
+        }
+        final String txId = new String(array, txStart, txEnd - txStart, UTF_8);
+        transaction.transactionId(txId);
+
+        // Response code or method name
+        final int tokenStart = txEnd + 1;
+        int tokenEnd = indexOf(array, tokenStart, end, CHAR_SP);
+        if (tokenEnd < 0) {
+            tokenEnd = end;
+        }
+        final int responseCode = parseResponseCode(array, tokenStart, tokenEnd);
+        if (responseCode >= 0) {
+            final String reason = tokenEnd < end
+                    ? new String(array, tokenEnd + 1, end - tokenEnd - 1, UTF_8) : "";
+            transaction.responseCode(responseCode).responseReason(reason);
         } else {
-            transaction.transactionId(txId).method(method);
+            final String method = new String(array, tokenStart, tokenEnd - tokenStart, UTF_8);
+            try {
+                transaction.method(MsrpChunk.Method.valueOf(method));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unsupported MSRP method: " + method, e);
+            }
         }
 
-        value.setLength(0);
-
-        // Read MSRP headers
-        readHeaders(stream, transaction, value);
+        consumeLine(length);
+        return txId;
+    }
 
-        // We already received end of message
-        if (transaction.continuation() != Continuation.UNKNOWN) {
-            return transaction.build();
-        }
+    private void readHeader(final MsrpChunk.Builder transaction, final int length) {
+        final byte[] array = buffer.array();
+        final int start = buffer.position();
+        final int end = start + length;
 
-        i = stream.read();
-        if (i == -1) {
-            // End of stream
-            return null;
+        int nameEnd = indexOf(array, start, end, CHAR_DOUBLE_POINT);
+        if (nameEnd < 0) {
+            nameEnd = end;
         }
-
-        // Process MSRP request
-        if (method == MsrpChunk.Method.SEND) {
-            readChunk(stream, transaction);
+        int valueStart = Math.min(nameEnd + 1, end);
+        if (valueStart < end && array[valueStart] == CHAR_SP) {
+            valueStart++;
         }
 
-        return transaction.build();
+        transaction.addHeader(
+                new String(array, start, nameEnd - start, UTF_8),
+                new String(array, valueStart, end - valueStart, UTF_8));
+        consumeLine(length);
     }
 
-    private static void readHeaders(
-            final InputStream stream, final MsrpChunk.Builder transaction,
-            final StringBuilder value)
-            throws IOException {
-        for (int i = stream.read(); (i != CHAR_LF) && (i != -1); ) {
-
-            for (; (i != CHAR_DOUBLE_POINT) && (i != -1); i = stream.read()) {
-                value.append((char) i);
-            }
-
-            final String headerName = value.toString();
-            value.setLength(0);
-
-            stream.read(); // skip space
-
-            for (i = stream.read(); (i != CHAR_LF) && (i != -1); i = stream.read()) {
-                value.append((char) i);
-            }
-
-            final String headerValue = value.toString();
-            value.setLength(0);
-
-            transaction.addHeader(headerName, headerValue);
-
-            stream.read();
-
-            // It's the end of the header part
-            i = stream.read();
-            if (i == CHAR_MIN) {
-                final int length = END_MSRP_MSG_LENGTH - 1 + transaction.transactionId().length();
-                stream.skip(length);
-                transaction.continuation(Continuation.valueOf(stream.read()));
-
-                // For response
-                for (; (i != CHAR_LF) && (i != -1); i = stream.read()) {
-                }
-                break;
-            }
-        }
+    private Continuation readEndLine(final byte[] endLine, final int length) {
+        final Continuation continuation = length > endLine.length
+                ? Continuation.valueOf(buffer.get(buffer.position() + endLine.length))
+                : Continuation.UNKNOWN;
+        consumeLine(length);
+        return continuation;
     }
 
-    private static void readChunk(final InputStream stream, final MsrpChunk.Builder chunk)
+    private void readChunk(final MsrpChunk.Builder chunk, final byte[] endLine)
             throws IOException {
-        final String byteRange = chunk.header(HEADER_BYTE_RANGE).value();
-
-        if (byteRange == null) {
-            throw new IllegalStateException("expected non-null byteRange");
-        }
-        final int chunkSize = getChunkSize(byteRange);
-        final long totalSize = getTotalSize(byteRange);
-
-        if (totalSize == Integer.MIN_VALUE || chunkSize < -1) {
-            throw new IOException("Invalid byte range: " + byteRange);
+        final MsrpChunkHeader byteRangeHeader = chunk.header(HEADER_BYTE_RANGE);
+        int chunkSize = -1;
+        if (byteRangeHeader != null) {
+            final String byteRange = byteRangeHeader.value();
+            chunkSize = getChunkSize(byteRange);
+            final long totalSize = getTotalSize(byteRange);
+
+            if (totalSize == Integer.MIN_VALUE || chunkSize < -1) {
+                throw new IOException("Invalid byte range: " + byteRange);
+            }
         }
 
         if (chunkSize == -1) {
-            readUnknownChunk(stream, chunk);
+            chunk.content(readUnknownChunk(endLine));
+            chunk.continuation(Continuation.valueOf(buffer.get()));
+            final int length = nextLine();
+            if (length < 0) {
+                throw new EOFException("EOS reached in end-line");
+            }
+            consumeLine(length);
         } else {
-            readKnownChunk(stream, chunk, chunkSize);
-            skipEndLine(stream, chunk);
+            chunk.content(readKnownChunk(chunkSize));
+            // The body is followed by CRLF and the end-line.
+            int length = nextLine();
+            if (length == 0) {
+                consumeLine(length);
+                length = nextLine();
+            }
+            if (length < 0 || !startsWith(endLine, length)) {
+                throw new IOException("Missing MSRP end-line");
+            }
+            chunk.continuation(readEndLine(endLine, length));
         }
-
-        readContinuationFlag(stream, chunk);
     }
 
-    private static void readKnownChunk(
-            final InputStream stream, final MsrpChunk.Builder chunk, final int chunkSize)
-            throws IOException {
-        // Read the data
+    private byte[] readKnownChunk(final int chunkSize) throws IOException {
         final byte[] data = new byte[chunkSize];
-        int nbRead = 0;
-        int nbData = -1;
-        while ((nbRead < chunkSize)
-                && ((nbData = stream.read(data, nbRead, chunkSize - nbRead)) != -1)) {
+        final int buffered = Math.min(buffer.remaining(), chunkSize);
+        buffer.get(data, 0, buffered);
+
+        // Read the remainder straight into the content, bypassing the buffer.
+        int nbRead = buffered;
+        while (nbRead < chunkSize) {
+            final int nbData = stream.read(data, nbRead, chunkSize - nbRead);
+            if (nbData < 0) {
+                throw new EOFException("EOS reached in body");
+            }
             nbRead += nbData;
         }
-
-        chunk.content(data);
-
-        stream.read();
-        stream.read();
+        return data;
     }
 
-    private static void readUnknownChunk(final InputStream stream, final MsrpChunk.Builder chunk)
-            throws IOException {
-
-        final byte[] bufferArray = new byte[4096];
-        final byte[] endOfChunkPattern =
-                (NEW_LINE_END_MSRP_MSG + chunk.transactionId()).getBytes();
-        int pp = 0;
-
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    /**
+     * Reads content up to "CRLF-------txid" followed by a continuation flag and leaves the buffer
+     * positioned on the flag.
+     */
+    private byte[] readUnknownChunk(final byte[] endLine) throws IOException {
+        ByteArrayOutputStream overflow = null;
 
-        final ByteBuffer buffer = ByteBuffer.wrap(bufferArray);
         while (true) {
-            final int i = stream.read();
+            final byte[] array = buffer.array();
+            final int start = buffer.position();
+            final int limit = buffer.limit();
+            // The marker is CRLF + end-line + flag byte.
+            final int lastCandidate = limit - NEW_LINE_BYTES.length - endLine.length - 1;
+
+            for (int i = indexOf(array, start, lastCandidate + 1, CHAR_CR); i >= 0;
+                    i = indexOf(array, i + 1, lastCandidate + 1, CHAR_CR)) {
+                if (array[i + 1] == CHAR_NL
+                        && regionMatches(array, i + NEW_LINE_BYTES.length, endLine)
+                        && isContinuationFlag(
+                                array[i + NEW_LINE_BYTES.length + endLine.length])) {
+                    buffer.position(i + NEW_LINE_BYTES.length + endLine.length);
+                    if (overflow == null) {
+                        return Arrays.copyOfRange(array, start, i);
+                    }
+                    overflow.write(array, start, i - start);
+                    return overflow.toByteArray();
+                }
+            }
 
-            if (i < 0) {
-                throw new IOException("EOS reached");
+            // Everything before the last possible match start is content; keep the tail so a
+            // marker split across reads is still found.
+            final int safeEnd = Math.max(start, lastCandidate + 1);
+            if (safeEnd > start) {
+                if (overflow == null) {
+                    overflow = new ByteArrayOutputStream(Math.max(buffer.capacity(),
+                            safeEnd - start));
+                }
+                overflow.write(array, start, safeEnd - start);
+                buffer.position(safeEnd);
+            }
+            if (!fill()) {
+                throw new EOFException("EOS reached");
             }
+        }
+    }
 
-            if (i == endOfChunkPattern[pp]) {
-                pp++;
-            } else if (i == endOfChunkPattern[0]) {
-                pp = 1;
-            } else {
-                pp = 0;
+    /**
+     * Makes sure the next complete line is buffered.
+     *
+     * @return the length of the line excluding CRLF, or -1 if the stream ended first.
+     */
+    private int nextLine() throws IOException {
+        int scanned = 0;
+        while (true) {
+            final byte[] array = buffer.array();
+            final int start = buffer.position();
+            final int limit = buffer.limit();
+            for (int i = indexOf(array, start + scanned, limit - 1, CHAR_CR); i >= 0;
+                    i = indexOf(array, i + 1, limit - 1, CHAR_CR)) {
+                if (array[i + 1] == CHAR_NL) {
+                    return i - start;
+                }
             }
+            scanned = Math.max(0, limit - start - 1);
+            if (!fill()) {
+                return -1;
+            }
+        }
+    }
 
-            buffer.put((byte) i);
+    private void consumeLine(final int length) {
+        buffer.position(buffer.position() + length + NEW_LINE_BYTES.length);
+    }
 
-            if (pp == endOfChunkPattern.length) {
-                outputStream.write(bufferArray, 0, buffer.position() - endOfChunkPattern.length);
-                break;
+    /**
+     * Compacts the buffer and reads more bytes into it, growing it if a single line does not fit.
+     *
+     * @return false if the end of the stream was reached.
+     */
+    private boolean fill() throws IOException {
+        if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+            if (buffer.capacity() >= MAX_BUFFER_SIZE) {
+                throw new IOException("MSRP line exceeds " + MAX_BUFFER_SIZE + " bytes");
             }
+            final ByteBuffer grown =
+                    ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_BUFFER_SIZE));
+            grown.put(buffer);
+            grown.flip();
+            buffer = grown;
+        }
 
-            if (buffer.remaining() == 0) {
-                if (pp > 0) {
-                    outputStream.write(bufferArray, 0, bufferArray.length - pp);
-                    System.arraycopy(endOfChunkPattern, 0, bufferArray, 0, pp);
-                    buffer.position(pp);
-                } else {
-                    outputStream.write(bufferArray, 0, bufferArray.length);
-                    buffer.rewind();
-                }
+        buffer.compact();
+        final int read = stream.read(buffer.array(), buffer.position(), buffer.remaining());
+        if (read > 0) {
+            buffer.position(buffer.position() + read);
+        }
+        buffer.flip();
+        return read >= 0;
+    }
+
+    private boolean startsWith(final byte[] prefix, final int length) {
+        return length >= prefix.length
+                && regionMatches(buffer.array(), buffer.position(), prefix);
+    }
+
+    private static byte[] endLineFor(final String txId) {
+        final byte[] id = txId.getBytes(UTF_8);
+        final byte[] endLine = Arrays.copyOf(END_MSRP_MSG_BYTES, END_MSRP_MSG_BYTES.length
+                + id.length);
+        System.arraycopy(id, 0, endLine, END_MSRP_MSG_BYTES.length, id.length);
+        return endLine;
+    }
+
+    private static boolean regionMatches(final byte[] array, final int offset,
+            final byte[] pattern) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (array[offset + i] != pattern[i]) {
+                return false;
             }
         }
+        return true;
+    }
 
-        chunk.content(outputStream.toByteArray());
+    private static int indexOf(final byte[] array, final int from, final int to, final byte b) {
+        for (int i = from; i < to; i++) {
+            if (array[i] == b) {
+                return i;
+            }
+        }
+        return -1;
     }
 
-    private static void skipEndLine(final InputStream stream, final MsrpChunk.Builder chunk)
-            throws IOException {
-        // skip the "-------" + txid
-        final int length = END_MSRP_MSG_LENGTH + chunk.transactionId().length();
-        final byte[] endline = new byte[256];
-        readFromStream(stream, endline, 0, length);
+    private static boolean isContinuationFlag(final byte b) {
+        return b == FLAG_LAST_CHUNK || b == FLAG_MORE_CHUNK || b == FLAG_ABORT_CHUNK;
     }
 
-    private static void readContinuationFlag(
-            final InputStream stream, final MsrpChunk.Builder transaction) throws IOException {
-        transaction.continuation(Continuation.valueOf(stream.read()));
-        stream.read();
-        stream.read();
+    /**
+     * Parses a response code, returns -1 if the token is not a number.
+     */
+    private static int parseResponseCode(final byte[] array, final int from, final int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int code = 0;
+        for (int i = from; i < to; i++) {
+            final int digit = array[i] - '0';
+            if (digit < 0 || digit > 9 || code > 99999) {
+                return -1;
+            }
+            code = code * 10 + digit;
+        }
+        return code;
     }
 
     /**
@@ -332,24 +456,4 @@ public final class MsrpParser {
         }
         return Integer.MIN_VALUE;
     }
-
-    private static void readFromStream(
-            InputStream stream, final byte[] buffer, final int offset, final int length)
-            throws IOException {
-        int read = 0;
-        while (read < length) {
-            try {
-                read += stream.read(buffer, offset + read, length - read);
-            } catch (IndexOutOfBoundsException e) {
-                throw new IOException("Invalid ID length", e);
-            }
-        }
-    }
-
-    private static int skipWithDelimiter(InputStream stream, byte delimiter) throws IOException {
-        int i = stream.read();
-        for (; (i != delimiter) && (i != -1); i = stream.read()) {
-        }
-        return i;
-    }
 }
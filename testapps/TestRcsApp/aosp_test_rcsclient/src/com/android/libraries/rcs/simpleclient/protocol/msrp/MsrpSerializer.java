@@ -20,62 +20,129 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Serializer for writing messages
+ *
+ * <p>A message is encoded into a single buffer and handed to the stream with one write, so the
+ * socket sees one segment per message (or per batch of messages) instead of one per token.
  */
 public final class MsrpSerializer {
 
+    // Start line and end-line framing, excluding the transaction id which is counted separately.
+    private static final int FRAMING_SIZE = 64;
+    // Worst case number of UTF-8 bytes per UTF-16 char.
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
     private MsrpSerializer() {
     }
 
     public static void serialize(OutputStream outputStream, MsrpChunk message) throws IOException {
+        ByteBuffer buffer = serialize(ByteBuffer.allocate(maxSerializedSize(message)), message);
+        outputStream.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+    }
+
+    /**
+     * Appends the serialized message at the position of the given buffer.
+     *
+     * @return the buffer holding the result, which is a larger copy of {@code buffer} if it did
+     *         not have enough room left.
+     */
+    public static ByteBuffer serialize(ByteBuffer buffer, MsrpChunk message) {
+        int required = maxSerializedSize(message);
+        if (buffer.remaining() < required) {
+            ByteBuffer grown = ByteBuffer.allocate(
+                    Math.max(buffer.capacity() * 2, buffer.position() + required));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
 
-        writeRequestLine(outputStream, message);
+        writeRequestLine(buffer, message);
         for (MsrpChunkHeader header : message.headers()) {
-            writeHeader(outputStream, header);
+            writeHeader(buffer, header);
         }
 
         if (message.content().length > 0) {
-            outputStream.write(MsrpConstants.NEW_LINE_BYTES);
-            outputStream.write(message.content());
-            outputStream.write(MsrpConstants.NEW_LINE_BYTES);
+            buffer.put(MsrpConstants.NEW_LINE_BYTES);
+            buffer.put(message.content());
+            buffer.put(MsrpConstants.NEW_LINE_BYTES);
         }
 
-        writeEndLine(outputStream, message);
+        writeEndLine(buffer, message);
+        return buffer;
+    }
+
+    /** Returns an upper bound for the number of bytes {@code message} serializes to. */
+    static int maxSerializedSize(MsrpChunk message) {
+        int chars = 2 * message.transactionId().length() + message.responseReason().length();
+        int size = FRAMING_SIZE;
+        for (MsrpChunkHeader header : message.headers()) {
+            chars += header.name().length() + header.value().length();
+            size += MsrpConstants.HEADER_DELIMITER_BYTES.length
+                    + MsrpConstants.NEW_LINE_BYTES.length;
+        }
+        return size + chars * MAX_BYTES_PER_CHAR + message.content().length
+                + 2 * MsrpConstants.NEW_LINE_BYTES.length;
     }
 
-    private static void writeRequestLine(OutputStream outputStream, MsrpChunk chunk)
-            throws IOException {
+    private static void writeRequestLine(ByteBuffer buffer, MsrpChunk chunk) {
 
-        outputStream.write(MsrpConstants.MSRP_PROTOCOL_BYTES);
-        outputStream.write(MsrpConstants.CHAR_SP);
-        outputStream.write(chunk.transactionId().getBytes());
-        outputStream.write(MsrpConstants.CHAR_SP);
+        buffer.put(MsrpConstants.MSRP_PROTOCOL_BYTES);
+        buffer.put(MsrpConstants.CHAR_SP);
+        writeString(buffer, chunk.transactionId());
+        buffer.put(MsrpConstants.CHAR_SP);
 
         if (chunk.method() != MsrpChunk.Method.UNKNOWN) {
-            outputStream.write(chunk.method().name().getBytes(UTF_8));
+            writeString(buffer, chunk.method().name());
         } else {
-            outputStream.write(
-                    (chunk.responseCode() + " " + chunk.responseReason()).getBytes(UTF_8));
+            writeDecimal(buffer, chunk.responseCode());
+            buffer.put(MsrpConstants.CHAR_SP);
+            writeString(buffer, chunk.responseReason());
         }
 
-        outputStream.write(MsrpConstants.NEW_LINE_BYTES);
+        buffer.put(MsrpConstants.NEW_LINE_BYTES);
     }
 
-    private static void writeHeader(OutputStream outputStream, MsrpChunkHeader header)
-            throws IOException {
-        outputStream.write(header.name().getBytes(UTF_8));
-        outputStream.write(MsrpConstants.HEADER_DELIMITER_BYTES);
-        outputStream.write(header.value().getBytes(UTF_8));
-        outputStream.write(MsrpConstants.NEW_LINE_BYTES);
+    private static void writeHeader(ByteBuffer buffer, MsrpChunkHeader header) {
+        writeString(buffer, header.name());
+        buffer.put(MsrpConstants.HEADER_DELIMITER_BYTES);
+        writeString(buffer, header.value());
+        buffer.put(MsrpConstants.NEW_LINE_BYTES);
     }
 
-    private static void writeEndLine(OutputStream outputStream, MsrpChunk chunk)
-            throws IOException {
-        outputStream.write(MsrpConstants.END_MSRP_MSG_BYTES);
-        outputStream.write(chunk.transactionId().getBytes(UTF_8));
-        outputStream.write(chunk.continuation().toByte());
-        outputStream.write(MsrpConstants.NEW_LINE_BYTES);
+    private static void writeEndLine(ByteBuffer buffer, MsrpChunk chunk) {
+        buffer.put(MsrpConstants.END_MSRP_MSG_BYTES);
+        writeString(buffer, chunk.transactionId());
+        buffer.put(chunk.continuation().toByte());
+        buffer.put(MsrpConstants.NEW_LINE_BYTES);
+    }
+
+    /** Writes the string as UTF-8, without allocating for the common all-ASCII case. */
+    private static void writeString(ByteBuffer buffer, String value) {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                buffer.put(value.substring(i).getBytes(UTF_8));
+                return;
+            }
+            buffer.put((byte) c);
+        }
+    }
+
+    private static void writeDecimal(ByteBuffer buffer, int value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+        }
     }
-}
\ No newline at end of file
+}
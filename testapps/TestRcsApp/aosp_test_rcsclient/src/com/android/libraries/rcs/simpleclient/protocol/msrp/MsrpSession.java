@@ -33,29 +33,54 @@ import android.util.Log;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
-import androidx.concurrent.futures.CallbackToFutureAdapter;
-import androidx.concurrent.futures.CallbackToFutureAdapter.Completer;
 
 import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunk.Continuation;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Provides MSRP sending and receiving messages ability.
+ *
+ * <p>SEND requests are pipelined: contents larger than the maximum chunk size are split into
+ * byte-range chunks, up to a window of SEND transactions may be awaiting their response at once,
+ * and chunks that are ready together are gathered into a single socket write. Once the send queue
+ * is full, {@link #send} blocks the caller until the peer has acknowledged earlier chunks.
  */
 public class MsrpSession {
+    /** Default number of SEND transactions that may be awaiting a response. */
+    public static final int DEFAULT_SEND_WINDOW = 8;
+    /** Default maximum content size of a single SEND chunk. */
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 64 * 1024;
+
     private static final String DEDICATED_BEARER_SUCCESS = "Dedicated bearer succeeded";
     private static final String DEDICATED_BEARER_ERROR = "Dedicated bearer error";
     private static final int TOAST_MSG = 1;
+    // Chunks queued behind the window before send() starts blocking, per window slot.
+    private static final int QUEUED_CHUNKS_PER_WINDOW_SLOT = 4;
+    // Stop gathering further chunks into one write past this many bytes.
+    private static final int MAX_GATHER_SIZE = 256 * 1024;
+    // How long terminate() waits for the sender to finish the batch it is writing.
+    private static final long SENDER_JOIN_TIMEOUT_MS = 1000;
     private final Network network;
     private final Socket socket;
     private final InputStream input;
@@ -67,53 +92,99 @@ public class MsrpSession {
     private final ConnectivityManager connectivityManager;
     private final String LOG_TAG = MsrpSession.class.getSimpleName();
     private final Context context;
+    private final int maxChunkSize;
+    private final Semaphore sendWindow;
+    private final LinkedBlockingQueue<MsrpTransaction> sendQueue;
+    private final ExecutorService sender = Executors.newSingleThreadExecutor();
+    // Only touched by the sender thread.
+    private final List<MsrpTransaction> batch = new ArrayList<>();
+    private ByteBuffer sendBuffer = ByteBuffer.allocate(DEFAULT_MAX_CHUNK_SIZE);
     private Handler handler;
+    private QosCallback qosCallback;
 
     /** Creates a new MSRP session on the given listener and the provided streams. */
     MsrpSession(ConnectivityManager connectivityManager, Context context, Network network,
             Socket socket, MsrpSessionListener listener) throws IOException {
+        this(connectivityManager, context, network, socket, listener, DEFAULT_SEND_WINDOW,
+                DEFAULT_MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new MSRP session on a plain socket which is not bound to the IMS PDN, so no
+     * dedicated bearer is requested. Used for loopback sessions in tests and benchmarks.
+     */
+    MsrpSession(Socket socket, MsrpSessionListener listener) throws IOException {
+        this(socket, listener, DEFAULT_SEND_WINDOW, DEFAULT_MAX_CHUNK_SIZE);
+    }
+
+    /** Same as {@link #MsrpSession(Socket, MsrpSessionListener)} with explicit flow control. */
+    MsrpSession(Socket socket, MsrpSessionListener listener, int sendWindow, int maxChunkSize)
+            throws IOException {
+        this(null, null, null, socket, listener, sendWindow, maxChunkSize);
+    }
+
+    /**
+     * Creates a new MSRP session which allows {@code sendWindow} outstanding SEND transactions
+     * and splits contents into chunks of at most {@code maxChunkSize} bytes.
+     */
+    MsrpSession(ConnectivityManager connectivityManager, Context context, Network network,
+            Socket socket, MsrpSessionListener listener, int sendWindow, int maxChunkSize)
+            throws IOException {
+        if (sendWindow < 1 || maxChunkSize < 1) {
+            throw new IllegalArgumentException("Invalid send window or chunk size");
+        }
         this.connectivityManager = connectivityManager;
         this.context = context;
         this.network = network;
         this.socket = socket;
+        // Writes are already gathered per batch; Nagle would only hold back small responses.
+        socket.setTcpNoDelay(true);
         this.input = socket.getInputStream();
         this.output = socket.getOutputStream();
         this.listener = listener;
+        this.maxChunkSize = maxChunkSize;
+        this.sendWindow = new Semaphore(sendWindow);
+        this.sendQueue = new LinkedBlockingQueue<>(sendWindow * QUEUED_CHUNKS_PER_WINDOW_SLOT);
+
+        if (connectivityManager != null) {
+            handler = new Handler(context.getMainLooper()) {
+                @Override
+                public void handleMessage(Message msg) {
+                    Toast.makeText(context, msg.obj.toString(), Toast.LENGTH_SHORT).show();
+                }
+            };
 
+            listenForBearer();
+        }
+        sender.execute(this::drainSendQueue);
+    }
 
-        handler = new Handler(context.getMainLooper()) {
+    private QosCallback createQosCallback() {
+        return new QosCallback() {
             @Override
-            public void handleMessage(Message msg) {
-                Toast.makeText(context, msg.obj.toString(), Toast.LENGTH_SHORT).show();
+            public void onError(@NonNull QosCallbackException exception) {
+                Log.e(LOG_TAG, "onError: " + exception.toString());
+                handler.sendMessage(handler.obtainMessage(TOAST_MSG, DEDICATED_BEARER_ERROR));
             }
-        };
 
-        listenForBearer();
-    }
-
-    private final QosCallback qosCallback = new QosCallback() {
-        @Override
-        public void onError(@NonNull QosCallbackException exception) {
-            Log.e(LOG_TAG, "onError: " + exception.toString());
-            handler.sendMessage(handler.obtainMessage(TOAST_MSG, DEDICATED_BEARER_ERROR));
-        }
-
-        @Override
-        public void onQosSessionAvailable(@NonNull QosSession session,
-                @NonNull QosSessionAttributes sessionAttributes) {
-            Log.d(LOG_TAG, "onQosSessionAvailable: " + session.toString() + ", "
-                    + sessionAttributes.toString());
-            handler.sendMessage(handler.obtainMessage(TOAST_MSG, DEDICATED_BEARER_SUCCESS));
-        }
+            @Override
+            public void onQosSessionAvailable(@NonNull QosSession session,
+                    @NonNull QosSessionAttributes sessionAttributes) {
+                Log.d(LOG_TAG, "onQosSessionAvailable: " + session.toString() + ", "
+                        + sessionAttributes.toString());
+                handler.sendMessage(handler.obtainMessage(TOAST_MSG, DEDICATED_BEARER_SUCCESS));
+            }
 
-        @Override
-        public void onQosSessionLost(@NonNull QosSession session) {
-            Log.e(LOG_TAG, "onQosSessionLost: " + session.toString());
-            handler.sendMessage(handler.obtainMessage(TOAST_MSG, DEDICATED_BEARER_ERROR));
-        }
-    };
+            @Override
+            public void onQosSessionLost(@NonNull QosSession session) {
+                Log.e(LOG_TAG, "onQosSessionLost: " + session.toString());
+                handler.sendMessage(handler.obtainMessage(TOAST_MSG, DEDICATED_BEARER_ERROR));
+            }
+        };
+    }
 
     private void listenForBearer() {
+        qosCallback = createQosCallback();
         try {
             connectivityManager.registerQosCallback(new QosSocketInfo(network, socket),
                     MoreExecutors.directExecutor(), qosCallback);
@@ -124,6 +195,11 @@ public class MsrpSession {
 
     /**
      * Sends the given MSRP chunk.
+     *
+     * <p>A SEND request is queued for the sender thread and may be split into several chunks. The
+     * returned future completes with the response to the last chunk, or with the first error
+     * response. A SEND whose Failure-Report asks for no success response completes with the
+     * request once it is written. This blocks while the send queue is full.
      */
     public ListenableFuture<MsrpChunk> send(MsrpChunk request) {
         if (request.method() == UNKNOWN) {
@@ -139,21 +215,37 @@ public class MsrpSession {
         }
 
         if (request.method() == SEND) {
-            return CallbackToFutureAdapter.getFuture(
-                    completer -> {
-                        final MsrpTransaction transaction = new MsrpTransaction(completer);
-                        transactions.put(request.transactionId(), transaction);
-                        try {
-                            synchronized (output) {
-                                MsrpSerializer.serialize(output, request);
-                            }
-                            output.flush();
-                        } catch (IOException e) {
-                            completer.setException(e);
-                        }
-                        return "MsrpSession.send(" + request.transactionId() + ")";
+            List<MsrpChunk> chunks = split(request);
+            List<ListenableFuture<MsrpChunk>> responses = new ArrayList<>(chunks.size());
+            for (MsrpChunk chunk : chunks) {
+                MsrpTransaction transaction = new MsrpTransaction(chunk);
+                responses.add(transaction.response);
+                try {
+                    // Blocks while the queue is full, which throttles bulk senders.
+                    sendQueue.put(transaction);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    transaction.response.setException(e);
+                    break;
+                }
+                if (!isOpen.get()) {
+                    failPendingTransactions();
+                    break;
+                }
+            }
+            if (responses.size() == 1) {
+                return responses.get(0);
+            }
+            // Report the first failure, or the response to the last chunk.
+            return Futures.transform(Futures.allAsList(responses), results -> {
+                for (MsrpChunk result : results) {
+                    if (result.method() == UNKNOWN
+                            && result.responseCode() != MsrpConstants.RESPONSE_CODE_OK) {
+                        return result;
                     }
-            );
+                }
+                return results.get(results.size() - 1);
+            }, MoreExecutors.directExecutor());
         } else {
             try {
                 synchronized (output) {
@@ -166,6 +258,146 @@ public class MsrpSession {
         }
     }
 
+    /**
+     * Splits a SEND request whose content exceeds the maximum chunk size into byte-range chunks.
+     * The first chunk keeps the request's transaction id, the others get fresh ones.
+     */
+    private List<MsrpChunk> split(MsrpChunk request) {
+        byte[] content = request.content();
+        if (content.length <= maxChunkSize) {
+            return ImmutableList.of(request);
+        }
+
+        // Honour an existing Byte-Range so an already partial message stays consistent.
+        long firstByte = 1;
+        String total = Integer.toString(content.length);
+        MsrpChunkHeader byteRange = request.header(MsrpConstants.HEADER_BYTE_RANGE);
+        if (byteRange != null) {
+            String value = byteRange.value();
+            int dash = value.indexOf('-');
+            int slash = value.indexOf('/');
+            if (dash > 0 && slash > dash) {
+                try {
+                    firstByte = Long.parseLong(value.substring(0, dash));
+                    total = value.substring(slash + 1);
+                } catch (NumberFormatException e) {
+                    firstByte = 1;
+                }
+            }
+        }
+
+        ImmutableList.Builder<MsrpChunk> chunks = ImmutableList.builder();
+        for (int offset = 0; offset < content.length; offset += maxChunkSize) {
+            int end = Math.min(offset + maxChunkSize, content.length);
+            boolean last = end == content.length;
+            String range = (firstByte + offset) + "-" + (firstByte + end - 1) + "/" + total;
+
+            MsrpChunk.Builder chunk = MsrpChunk.newBuilder()
+                    .method(SEND)
+                    .transactionId(offset == 0
+                            ? request.transactionId() : MsrpUtils.generateRandomId())
+                    .content(Arrays.copyOfRange(content, offset, end))
+                    .continuation(last ? request.continuation() : Continuation.MORE);
+            for (MsrpChunkHeader header : request.headers()) {
+                if (header.name().equals(MsrpConstants.HEADER_BYTE_RANGE)) {
+                    chunk.addHeader(MsrpConstants.HEADER_BYTE_RANGE, range);
+                } else {
+                    chunk.addHeader(header);
+                }
+            }
+            if (byteRange == null) {
+                chunk.addHeader(MsrpConstants.HEADER_BYTE_RANGE, range);
+            }
+            chunks.add(chunk.build());
+        }
+        return chunks.build();
+    }
+
+    /**
+     * Sender loop: takes queued chunks as window slots free up and gathers whatever else is ready
+     * into the same socket write. Chunks that get no response never take a window slot.
+     */
+    private void drainSendQueue() {
+        try {
+            while (isOpen.get()) {
+                MsrpTransaction first = sendQueue.take();
+                try {
+                    if (first.expectsResponse) {
+                        sendWindow.acquire();
+                    }
+                } catch (InterruptedException e) {
+                    first.response.setException(new IOException("Session terminated"));
+                    throw e;
+                }
+                batch.add(first);
+                sendBuffer.clear();
+                sendBuffer = MsrpSerializer.serialize(sendBuffer, first.request);
+                while (sendBuffer.position() < MAX_GATHER_SIZE) {
+                    // This is the only consumer, so the peeked transaction is the one polled.
+                    MsrpTransaction next = sendQueue.peek();
+                    if (next == null || (next.expectsResponse && !sendWindow.tryAcquire())) {
+                        break;
+                    }
+                    sendQueue.poll();
+                    batch.add(next);
+                    sendBuffer = MsrpSerializer.serialize(sendBuffer, next.request);
+                }
+                writeBatch();
+            }
+        } catch (InterruptedException e) {
+            // Session terminated, pending transactions are failed by terminate().
+        } finally {
+            // A batch taken off the queue but not written is neither queued nor outstanding,
+            // so terminate() cannot see it.
+            IOException terminated = new IOException("Session terminated");
+            for (MsrpTransaction transaction : batch) {
+                if (!transactions.containsKey(transaction.request.transactionId())) {
+                    transaction.response.setException(terminated);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void writeBatch() {
+        for (MsrpTransaction transaction : batch) {
+            if (transaction.expectsResponse) {
+                transactions.put(transaction.request.transactionId(), transaction);
+            }
+        }
+        try {
+            synchronized (output) {
+                output.write(sendBuffer.array(), sendBuffer.arrayOffset(),
+                        sendBuffer.position());
+                output.flush();
+            }
+            for (MsrpTransaction transaction : batch) {
+                if (!transaction.expectsResponse) {
+                    transaction.complete(transaction.request);
+                }
+            }
+        } catch (IOException e) {
+            for (MsrpTransaction transaction : batch) {
+                transactions.remove(transaction.request.transactionId());
+                transaction.fail(e);
+            }
+        }
+        batch.clear();
+    }
+
+    private void failPendingTransactions() {
+        IOException terminated = new IOException("Session terminated");
+        MsrpTransaction transaction;
+        while ((transaction = sendQueue.poll()) != null) {
+            transaction.response.setException(terminated);
+        }
+        for (MsrpTransaction pending : transactions.values()) {
+            if (transactions.remove(pending.request.transactionId(), pending)) {
+                pending.fail(terminated);
+            }
+        }
+    }
+
     /**
      * Blocking method which reads from the provided InputStream until the session
      * is terminated or the stream read throws an exception.
@@ -178,7 +410,21 @@ public class MsrpSession {
         if (isOpen.getAndSet(false)) {
             output.flush();
         }
-        connectivityManager.unregisterQosCallback(qosCallback);
+        // The reader may already have closed the session on end of stream.
+        sender.shutdownNow();
+        try {
+            // Joins the sender so the batch it holds is either written or failed before the
+            // queued and outstanding transactions are failed.
+            if (!sender.awaitTermination(SENDER_JOIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(LOG_TAG, "Sender did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failPendingTransactions();
+        if (qosCallback != null) {
+            connectivityManager.unregisterQosCallback(qosCallback);
+        }
         socket.close();
     }
 
@@ -188,12 +434,12 @@ public class MsrpSession {
     private static class StreamReader {
 
         private final MsrpSession session;
-        private final InputStream stream;
+        private final MsrpParser parser;
         private final AtomicBoolean active;
 
         StreamReader(MsrpSession session) {
             this.session = session;
-            this.stream = session.input;
+            this.parser = new MsrpParser(session.input);
             this.active = session.isOpen;
         }
 
@@ -201,9 +447,12 @@ public class MsrpSession {
             while (active.get()) {
                 MsrpChunk chunk = null;
                 try {
-                    chunk = MsrpParser.parse(stream);
+                    chunk = parser.next();
 
-                    if (chunk.method() == UNKNOWN) {
+                    if (chunk == null) {
+                        // End of stream
+                        active.compareAndSet(true, false);
+                    } else if (chunk.method() == UNKNOWN) {
                         completeTransaction(chunk);
                     } else {
                         receiveRequest(chunk);
@@ -227,9 +476,7 @@ public class MsrpSession {
         }
 
         private void sendResponse(MsrpChunk chunk) throws IOException {
-            // check if response is required
-            MsrpChunkHeader failureReport = chunk.header(MsrpConstants.HEADER_FAILURE_REPORT);
-            if (failureReport == null || failureReport.value().equals("yes")) {
+            if (expectsResponse(chunk)) {
                 MsrpChunkHeader toPath = chunk.header(MsrpConstants.HEADER_TO_PATH);
                 MsrpChunkHeader fromPath = chunk.header(MsrpConstants.HEADER_FROM_PATH);
 
@@ -251,17 +498,37 @@ public class MsrpSession {
     }
 
     /**
-     * Transaction holder.
+     * Whether a success response is sent for the given request. A Failure-Report of "no" or
+     * "partial" suppresses it.
      */
-    private static class MsrpTransaction {
-        private final Completer<MsrpChunk> completed;
+    private static boolean expectsResponse(MsrpChunk request) {
+        MsrpChunkHeader failureReport = request.header(MsrpConstants.HEADER_FAILURE_REPORT);
+        return failureReport == null || failureReport.value().equals("yes");
+    }
 
-        public MsrpTransaction(Completer<MsrpChunk> chunkCompleter) {
-            this.completed = chunkCompleter;
+    /**
+     * Transaction holder. Only a transaction that expects a response holds a send window slot.
+     */
+    private class MsrpTransaction {
+        private final MsrpChunk request;
+        private final boolean expectsResponse;
+        private final SettableFuture<MsrpChunk> response = SettableFuture.create();
+
+        MsrpTransaction(MsrpChunk request) {
+            this.request = request;
+            this.expectsResponse = expectsResponse(request);
         }
 
-        public void complete(MsrpChunk response) {
-            completed.set(response);
+        void complete(MsrpChunk chunk) {
+            if (response.set(chunk) && expectsResponse) {
+                sendWindow.release();
+            }
+        }
+
+        void fail(Throwable t) {
+            if (response.setException(t) && expectsResponse) {
+                sendWindow.release();
+            }
         }
     }
 }
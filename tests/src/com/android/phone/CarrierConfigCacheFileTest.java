@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.os.PersistableBundle;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+@RunWith(AndroidJUnit4.class)
+public class CarrierConfigCacheFileTest {
+    private static final String VERSION = "1234";
+    private static final String ICCID = "8901260123456789012";
+    private static final int CARRIER_ID = 1839;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "carrierconfig-test" + CarrierConfigCacheFile.FILE_EXTENSION);
+        CarrierConfigCacheFile.delete(mFile);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CarrierConfigCacheFile.delete(mFile);
+    }
+
+    @Test
+    public void testWriteThenRead_roundTrips() throws Exception {
+        PersistableBundle nested = new PersistableBundle();
+        nested.putString("nested_string", "value");
+        PersistableBundle config = new PersistableBundle();
+        config.putInt("int_key", 42);
+        config.putBoolean("bool_key", true);
+        config.putStringArray("string_array_key", new String[] {"a", "b"});
+        config.putPersistableBundle("bundle_key", nested);
+
+        CarrierConfigCacheFile.write(mFile, new CarrierConfigCacheFile.Contents(VERSION,
+                CarrierConfigCacheFile.hashIccid(ICCID), CARRIER_ID, config));
+        CarrierConfigCacheFile.Contents contents = CarrierConfigCacheFile.read(mFile);
+
+        assertThat(contents.matches(VERSION, ICCID, CARRIER_ID)).isTrue();
+        assertThat(contents.config.getInt("int_key")).isEqualTo(42);
+        assertThat(contents.config.getBoolean("bool_key")).isTrue();
+        assertThat(contents.config.getStringArray("string_array_key"))
+                .asList().containsExactly("a", "b").inOrder();
+        assertThat(contents.config.getPersistableBundle("bundle_key").getString("nested_string"))
+                .isEqualTo("value");
+    }
+
+    @Test
+    public void testRead_headerMismatch() throws Exception {
+        CarrierConfigCacheFile.write(mFile, new CarrierConfigCacheFile.Contents(VERSION,
+                CarrierConfigCacheFile.hashIccid(ICCID), CARRIER_ID, new PersistableBundle()));
+
+        CarrierConfigCacheFile.Contents contents = CarrierConfigCacheFile.read(mFile);
+
+        assertThat(contents.matches("5678", ICCID, CARRIER_ID)).isFalse();
+        assertThat(contents.matches(VERSION, "8901260000000000000", CARRIER_ID)).isFalse();
+        assertThat(contents.matches(VERSION, ICCID, CARRIER_ID + 1)).isFalse();
+    }
+
+    @Test
+    public void testRead_missingFile() {
+        assertThrows(FileNotFoundException.class, () -> CarrierConfigCacheFile.read(mFile));
+    }
+
+    @Test
+    public void testRead_malformedFile() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write("<pbundle_as_map/>".getBytes());
+        }
+
+        assertThrows(IOException.class, () -> CarrierConfigCacheFile.read(mFile));
+    }
+}
@@ -16,6 +16,9 @@
 
 package com.android.phone;
 
+import static android.service.carrier.CarrierService.ICarrierServiceWrapper.KEY_CONFIG_BUNDLE;
+import static android.service.carrier.CarrierService.ICarrierServiceWrapper.RESULT_OK;
+
 import static com.android.TestContext.STUB_PERMISSION_ENABLE_ALL;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -25,14 +28,18 @@ import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.compat.testing.PlatformCompatChangeRule;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
@@ -41,12 +48,15 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.PermissionEnforcer;
 import android.os.PersistableBundle;
+import android.os.ResultReceiver;
 import android.os.UserHandle;
 import android.os.test.FakePermissionEnforcer;
 import android.service.carrier.CarrierIdentifier;
+import android.service.carrier.ICarrierService;
 import android.telephony.CarrierConfigManager;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
@@ -76,6 +86,8 @@ import org.mockito.Mockito;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Unit Test for CarrierConfigLoader.
@@ -90,6 +102,7 @@ public class CarrierConfigLoaderTest extends TelephonyTestBase {
     private static final int DEFAULT_SUB_ID = SubscriptionManager.getDefaultSubscriptionId();
     private static final String PLATFORM_CARRIER_CONFIG_PACKAGE = "com.android.carrierconfig";
     private static final String PLATFORM_CARRIER_CONFIG_FEATURE = "com.android.carrierconfig";
+    private static final String CARRIER_CONFIG_PACKAGE = "com.example.carrierconfig";
     private static final long PLATFORM_CARRIER_CONFIG_PACKAGE_VERSION_CODE = 1;
     private static final String CARRIER_CONFIG_EXAMPLE_KEY =
             CarrierConfigManager.KEY_CARRIER_USSD_METHOD_INT;
@@ -331,6 +344,131 @@ public class CarrierConfigLoaderTest extends TelephonyTestBase {
                 any(PersistableBundle.class), any(Runnable.class));
     }
 
+    /**
+     * Verifies that #getConfigForSubIdWithFeature hands out independent copies of the merged
+     * config, and picks up overrides applied after a previous call.
+     */
+    @Test
+    public void testGetConfigForSubIdWithFeature_mergedConfigTracksOverrides() throws Exception {
+        // Bypass case if default subId is not supported by device to reduce flakiness
+        if (!SubscriptionManager.isValidPhoneId(SubscriptionManager.getPhoneId(DEFAULT_SUB_ID))) {
+            return;
+        }
+        mFakePermissionEnforcer.grant(android.Manifest.permission.MODIFY_PHONE_STATE);
+        doNothing().when(mContext).enforcePermission(
+                eq(android.Manifest.permission.READ_PRIVILEGED_PHONE_STATE),
+                anyInt(), anyInt(), anyString());
+
+        PersistableBundle first = mCarrierConfigLoader.getConfigForSubIdWithFeature(
+                DEFAULT_SUB_ID, PLATFORM_CARRIER_CONFIG_PACKAGE, PLATFORM_CARRIER_CONFIG_FEATURE);
+        first.putInt(CARRIER_CONFIG_EXAMPLE_KEY, CARRIER_CONFIG_EXAMPLE_VALUE + 1);
+        PersistableBundle second = mCarrierConfigLoader.getConfigForSubIdWithFeature(
+                DEFAULT_SUB_ID, PLATFORM_CARRIER_CONFIG_PACKAGE, PLATFORM_CARRIER_CONFIG_FEATURE);
+        assertThat(second.getInt(CARRIER_CONFIG_EXAMPLE_KEY, -1))
+                .isNotEqualTo(CARRIER_CONFIG_EXAMPLE_VALUE + 1);
+
+        mCarrierConfigLoader.overrideConfig(DEFAULT_SUB_ID, getTestConfig() /*overrides*/,
+                false/*persistent*/);
+        processOneMessage();
+        processOneMessage();
+
+        PersistableBundle overridden = mCarrierConfigLoader.getConfigForSubIdWithFeature(
+                DEFAULT_SUB_ID, PLATFORM_CARRIER_CONFIG_PACKAGE, PLATFORM_CARRIER_CONFIG_FEATURE);
+        assertThat(overridden.getInt(CARRIER_CONFIG_EXAMPLE_KEY))
+                .isEqualTo(CARRIER_CONFIG_EXAMPLE_VALUE);
+    }
+
+    /**
+     * Verifies that #getConfigSubsetForSubIdWithFeature resolves each key to the value of the
+     * merged config: the highest layer wins, a null override masks the lower layers and keys
+     * only in the code defaults keep the default value.
+     */
+    @Test
+    public void testGetConfigSubsetForSubIdWithFeature_matchesMergedConfig() throws Exception {
+        // Bypass case if default subId is not supported by device to reduce flakiness
+        if (!SubscriptionManager.isValidPhoneId(SubscriptionManager.getPhoneId(DEFAULT_SUB_ID))) {
+            return;
+        }
+        doNothing().when(mContext).enforcePermission(
+                eq(android.Manifest.permission.READ_PRIVILEGED_PHONE_STATE),
+                anyInt(), anyInt(), anyString());
+        PersistableBundle carrierConfig = new PersistableBundle();
+        carrierConfig.putString(CarrierConfigManager.KEY_CARRIER_NAME_STRING, "carrier");
+        carrierConfig.putInt(CARRIER_CONFIG_EXAMPLE_KEY, CARRIER_CONFIG_EXAMPLE_VALUE);
+        carrierConfig.putString(CarrierConfigManager.KEY_DEFAULT_SIM_CALL_MANAGER_STRING,
+                "com.example.callmanager");
+        PersistableBundle overrideConfig = new PersistableBundle();
+        overrideConfig.putString(CarrierConfigManager.KEY_CARRIER_NAME_STRING, "override");
+        overrideConfig.putString(CarrierConfigManager.KEY_DEFAULT_SIM_CALL_MANAGER_STRING, null);
+        replaceInstance(CarrierConfigLoader.class, "mConfigFromCarrierApp", mCarrierConfigLoader,
+                new PersistableBundle[] {carrierConfig});
+        replaceInstance(CarrierConfigLoader.class, "mOverrideConfigs", mCarrierConfigLoader,
+                new PersistableBundle[] {overrideConfig});
+        String[] keys = new String[] {
+                CarrierConfigManager.KEY_CARRIER_NAME_STRING,
+                CARRIER_CONFIG_EXAMPLE_KEY,
+                CarrierConfigManager.KEY_DEFAULT_SIM_CALL_MANAGER_STRING,
+                CarrierConfigManager.KEY_CARRIER_VOLTE_AVAILABLE_BOOL};
+
+        PersistableBundle merged = mCarrierConfigLoader.getConfigForSubIdWithFeature(
+                DEFAULT_SUB_ID, PLATFORM_CARRIER_CONFIG_PACKAGE, PLATFORM_CARRIER_CONFIG_FEATURE);
+        PersistableBundle subset = mCarrierConfigLoader.getConfigSubsetForSubIdWithFeature(
+                DEFAULT_SUB_ID, PLATFORM_CARRIER_CONFIG_PACKAGE, PLATFORM_CARRIER_CONFIG_FEATURE,
+                keys);
+
+        assertThat(subset.getString(CarrierConfigManager.KEY_CARRIER_NAME_STRING))
+                .isEqualTo("override");
+        assertThat(subset.getInt(CARRIER_CONFIG_EXAMPLE_KEY))
+                .isEqualTo(CARRIER_CONFIG_EXAMPLE_VALUE);
+        assertThat(subset.containsKey(CarrierConfigManager.KEY_DEFAULT_SIM_CALL_MANAGER_STRING))
+                .isFalse();
+        assertSubsetMatches(subset, merged, keys);
+    }
+
+    /**
+     * Verifies that #getConfigSubsetForSubIdWithFeature resolves the keys of a subscription
+     * without a phone to the merged no SIM config.
+     */
+    @Test
+    public void testGetConfigSubsetForSubIdWithFeature_noSim_matchesMergedConfig()
+            throws Exception {
+        doNothing().when(mContext).enforcePermission(
+                eq(android.Manifest.permission.READ_PRIVILEGED_PHONE_STATE),
+                anyInt(), anyInt(), anyString());
+        PersistableBundle noSimConfig = new PersistableBundle();
+        noSimConfig.putString(CarrierConfigManager.KEY_CARRIER_NAME_STRING, "no sim");
+        replaceInstance(CarrierConfigLoader.class, "mNoSimConfig", mCarrierConfigLoader,
+                noSimConfig);
+        String[] keys = new String[] {
+                CarrierConfigManager.KEY_CARRIER_NAME_STRING,
+                CarrierConfigManager.KEY_CARRIER_VOLTE_AVAILABLE_BOOL};
+
+        PersistableBundle merged = mCarrierConfigLoader.getConfigForSubIdWithFeature(
+                SubscriptionManager.INVALID_SUBSCRIPTION_ID, PLATFORM_CARRIER_CONFIG_PACKAGE,
+                PLATFORM_CARRIER_CONFIG_FEATURE);
+        PersistableBundle subset = mCarrierConfigLoader.getConfigSubsetForSubIdWithFeature(
+                SubscriptionManager.INVALID_SUBSCRIPTION_ID, PLATFORM_CARRIER_CONFIG_PACKAGE,
+                PLATFORM_CARRIER_CONFIG_FEATURE, keys);
+
+        assertThat(subset.getString(CarrierConfigManager.KEY_CARRIER_NAME_STRING))
+                .isEqualTo("no sim");
+        assertSubsetMatches(subset, merged, keys);
+    }
+
+    private static void assertSubsetMatches(PersistableBundle subset, PersistableBundle merged,
+            String[] keys) {
+        for (String key : keys) {
+            assertThat(subset.get(key)).isEqualTo(merged.get(key));
+        }
+        // The metadata keys are always included.
+        assertThat(subset.getString(CarrierConfigManager.KEY_CARRIER_CONFIG_VERSION_STRING))
+                .isEqualTo(merged.getString(
+                        CarrierConfigManager.KEY_CARRIER_CONFIG_VERSION_STRING));
+        assertThat(subset.getBoolean(CarrierConfigManager.KEY_CARRIER_CONFIG_APPLIED_BOOL))
+                .isEqualTo(merged.getBoolean(
+                        CarrierConfigManager.KEY_CARRIER_CONFIG_APPLIED_BOOL));
+    }
+
     /**
      * Verifies that IllegalArgumentException should throw when calling
      * #notifyConfigChangedForSubId() with invalid subId.
@@ -530,4 +668,71 @@ public class CarrierConfigLoaderTest extends TelephonyTestBase {
         verify(mTelephonyRegistryManager, never()).notifyCarrierConfigChanged(
                 anyInt(), anyInt(), anyInt(), anyInt());
     }
+
+    /**
+     * Verifies that when binding to the carrier app fails before the default app has returned
+     * its config, the config change is broadcast only once, after the default config is merged.
+     */
+    @Test
+    public void testCarrierBindFailsBeforeDefaultFetch_broadcastsOnceWithMergedConfig()
+            throws Exception {
+        replaceInstance(TelephonyManager.class, "sInstance", null, mTelephonyManager);
+        replaceInstance(CarrierConfigLoader.class, "mNeedNotifyCallback",
+                mCarrierConfigLoader, new boolean[]{true});
+        doReturn(CARRIER_CONFIG_PACKAGE).when(mTelephonyManager)
+                .getCarrierServicePackageNameForLogicalSlot(anyInt());
+        doReturn(false).when(mContext).bindServiceAsUser(
+                argThat(intent -> CARRIER_CONFIG_PACKAGE.equals(intent.getPackage())),
+                any(ServiceConnection.class), anyInt(), any(UserHandle.class));
+        ArgumentCaptor<ServiceConnection> connectionCaptor =
+                ArgumentCaptor.forClass(ServiceConnection.class);
+        doReturn(true).when(mContext).bindServiceAsUser(
+                argThat(intent -> PLATFORM_CARRIER_CONFIG_PACKAGE.equals(intent.getPackage())),
+                connectionCaptor.capture(), anyInt(), any(UserHandle.class));
+        List<PersistableBundle> broadcastConfigs = new ArrayList<>();
+        doAnswer(invocation -> {
+            broadcastConfigs.add(mCarrierConfigLoader.getConfigFromDefaultApp(DEFAULT_PHONE_ID));
+            return null;
+        }).when(mContext).sendBroadcastAsUser(any(Intent.class), any(UserHandle.class));
+        Mockito.clearInvocations(mTelephonyRegistryManager);
+
+        mHandler.sendMessage(mHandler.obtainMessage(7 /* EVENT_DO_FETCH_DEFAULT */,
+                DEFAULT_PHONE_ID, -1));
+        processAllMessages();
+
+        // The carrier bind has failed, but the default app has not returned its config yet.
+        assertThat(broadcastConfigs).isEmpty();
+        verify(mSubscriptionManagerService, never()).updateSubscriptionByCarrierConfig(
+                anyInt(), anyString(), any(PersistableBundle.class), any(Runnable.class));
+        verify(mTelephonyRegistryManager, never()).notifyCarrierConfigChanged(
+                anyInt(), anyInt(), anyInt(), anyInt());
+
+        ICarrierService defaultApp = new ICarrierService.Stub() {
+            @Override
+            public void getCarrierConfig(int phoneId, CarrierIdentifier id,
+                    ResultReceiver result) {
+                Bundle data = new Bundle();
+                data.putParcelable(KEY_CONFIG_BUNDLE, getTestConfig());
+                result.send(RESULT_OK, data);
+            }
+        };
+        connectionCaptor.getValue().onServiceConnected(
+                new ComponentName(PLATFORM_CARRIER_CONFIG_PACKAGE, TAG), defaultApp.asBinder());
+        processAllMessages();
+
+        ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mSubscriptionManagerService).updateSubscriptionByCarrierConfig(
+                eq(DEFAULT_PHONE_ID), anyString(), any(PersistableBundle.class),
+                runnableCaptor.capture());
+        runnableCaptor.getValue().run();
+        processAllMessages();
+
+        assertThat(broadcastConfigs).hasSize(1);
+        assertThat(broadcastConfigs.get(0).getInt(CARRIER_CONFIG_EXAMPLE_KEY))
+                .isEqualTo(CARRIER_CONFIG_EXAMPLE_VALUE);
+        assertThat(mCarrierConfigLoader.getConfigFromCarrierApp(DEFAULT_PHONE_ID).isEmpty())
+                .isTrue();
+        verify(mTelephonyRegistryManager, times(1)).notifyCarrierConfigChanged(
+                anyInt(), anyInt(), anyInt(), anyInt());
+    }
 }
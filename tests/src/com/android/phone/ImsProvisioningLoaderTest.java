@@ -17,6 +17,7 @@
 package com.android.phone;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -90,6 +91,7 @@ public class ImsProvisioningLoaderTest {
     public void tearDown() throws Exception {
         if (mImsProvisioningLoader != null) {
             mImsProvisioningLoader.clear();
+            mImsProvisioningLoader.destroy();
         }
         deleteXml(SUB_ID_1, mContext);
         deleteXml(SUB_ID_2, mContext);
@@ -200,6 +202,48 @@ public class ImsProvisioningLoaderTest {
         assertEquals(getXmlContents(SUB_ID_1), getInt(false), curValue);
     }
 
+    @Test
+    @SmallTest
+    public void testSetProvisioningStatus_WrittenBehind() {
+        mImsProvisioningLoader.setProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VOICE,
+                TECH_LTE, true);
+        mImsProvisioningLoader.setProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VIDEO,
+                TECH_LTE, false);
+        mImsProvisioningLoader.setProvisioningStatus(SUB_ID_1, IMS_FEATURE_RCS, CAPA_PRESENCE,
+                TECH_IWLAN, true);
+        mImsProvisioningLoader.flush();
+
+        // A new loader reads the status back from storage
+        ImsProvisioningLoader loader = new ImsProvisioningLoader(mContext);
+        assertEquals(getXmlContents(SUB_ID_1), getInt(true), loader.getProvisioningStatus(
+                SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VOICE, TECH_LTE));
+        assertEquals(getXmlContents(SUB_ID_1), getInt(false), loader.getProvisioningStatus(
+                SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VIDEO, TECH_LTE));
+        assertEquals(getXmlContents(SUB_ID_1), getInt(true), loader.getProvisioningStatus(
+                SUB_ID_1, IMS_FEATURE_RCS, CAPA_PRESENCE, TECH_IWLAN));
+        loader.destroy();
+    }
+
+    @Test
+    @SmallTest
+    public void testDestroy_WritesPendingChanges() {
+        mImsProvisioningLoader.setProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VOICE,
+                TECH_LTE, true);
+        mImsProvisioningLoader.destroy();
+
+        // A new loader reads the status back from storage
+        ImsProvisioningLoader loader = new ImsProvisioningLoader(mContext);
+        assertEquals(getXmlContents(SUB_ID_1), getInt(true), loader.getProvisioningStatus(
+                SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VOICE, TECH_LTE));
+        loader.destroy();
+
+        // Changes after destroy are kept in memory only
+        assertTrue(mImsProvisioningLoader.setProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL,
+                CAPA_VIDEO, TECH_LTE, true));
+        assertEquals(getInt(true), mImsProvisioningLoader.getProvisioningStatus(
+                SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VIDEO, TECH_LTE));
+    }
+
     private boolean getBooleanFromProvisioningStatus(int subId, int imsFeature, int capa,
             int tech) {
         // Return provisioning status to bool
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.SparseArray;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.util.IndentingPrintWriter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringWriter;
+
+@RunWith(AndroidJUnit4.class)
+public class MainThreadRequestStatsTest {
+    private static final int CMD = 66;
+    private static final int UNNAMED_CMD = 67;
+    private static final int UID = 10123;
+    private static final int OTHER_UID = 10456;
+
+    private final MainThreadRequestStats mStats = new MainThreadRequestStats(getCommandNames());
+
+    private static SparseArray<String> getCommandNames() {
+        SparseArray<String> names = new SparseArray<>();
+        names.put(CMD, "CMD_TEST");
+        return names;
+    }
+
+    @Test
+    public void testLanesAreTrackedSeparately() {
+        mStats.onEnqueued(0, CMD, UID);
+        mStats.onEnqueued(0, CMD, UID);
+        mStats.onEnqueued(1, CMD, UID);
+        mStats.onWaitStarted(0);
+
+        assertThat(mStats.getQueueDepth(0)).isEqualTo(2);
+        assertThat(mStats.getQueueDepth(1)).isEqualTo(1);
+        assertThat(mStats.getQueueDepth(MainThreadRequestStats.LANE_DEFAULT)).isEqualTo(0);
+        assertThat(mStats.getWaitingCount(0)).isEqualTo(1);
+        assertThat(mStats.getWaitingCount(1)).isEqualTo(0);
+
+        mStats.onDispatched(0, CMD, 5);
+        mStats.onWaitFinished(0, 20, false);
+
+        assertThat(mStats.getQueueDepth(0)).isEqualTo(1);
+        assertThat(mStats.getWaitingCount(0)).isEqualTo(0);
+    }
+
+    @Test
+    public void testDump() {
+        mStats.onEnqueued(MainThreadRequestStats.LANE_DEFAULT, CMD, UID);
+        mStats.onWaitStarted(MainThreadRequestStats.LANE_DEFAULT);
+        mStats.onDispatched(MainThreadRequestStats.LANE_DEFAULT, CMD, 10);
+        mStats.onWaitFinished(MainThreadRequestStats.LANE_DEFAULT, 30, true);
+        mStats.onShared(MainThreadRequestStats.LANE_DEFAULT);
+
+        StringWriter writer = new StringWriter();
+        IndentingPrintWriter pw = new IndentingPrintWriter(writer, "  ");
+        mStats.dump(pw);
+        pw.flush();
+
+        String dump = writer.toString();
+        assertThat(dump).contains("Default lane:");
+        assertThat(dump).contains("maxQueueMs=10");
+        assertThat(dump).contains("maxWaitMs=30 timedOut=1 shared=1");
+    }
+
+    @Test
+    public void testCommandHistograms() {
+        mStats.onEnqueued(MainThreadRequestStats.LANE_DEFAULT, CMD, UID);
+        mStats.onEnqueued(MainThreadRequestStats.LANE_DEFAULT, CMD, UID);
+        mStats.onEnqueued(MainThreadRequestStats.LANE_DEFAULT, CMD, OTHER_UID);
+        mStats.onDispatched(MainThreadRequestStats.LANE_DEFAULT, CMD, 0);
+        mStats.onExecuted(CMD, 3);
+        mStats.onResponded(CMD, 7000);
+        mStats.onEnqueued(MainThreadRequestStats.LANE_DEFAULT, UNNAMED_CMD, UID);
+
+        assertThat(mStats.getRequestCount(CMD, UID)).isEqualTo(2);
+        assertThat(mStats.getRequestCount(CMD, OTHER_UID)).isEqualTo(1);
+
+        StringWriter writer = new StringWriter();
+        IndentingPrintWriter pw = new IndentingPrintWriter(writer, "  ");
+        mStats.dumpCommands(pw);
+        pw.flush();
+
+        String dump = writer.toString();
+        assertThat(dump).contains("CMD_TEST:");
+        assertThat(dump).contains("Command " + UNNAMED_CMD + ":");
+        assertThat(dump).contains("queue: 1 0 0 0 0 0 0 0 0");
+        assertThat(dump).contains("execute: 0 1 0 0 0 0 0 0 0");
+        assertThat(dump).contains("response: 0 0 0 0 0 0 0 0 1");
+        assertThat(dump).contains("uids: " + UID + "=2 " + OTHER_UID + "=1");
+
+        mStats.resetCommandStats();
+        assertThat(mStats.getRequestCount(CMD, UID)).isEqualTo(0);
+    }
+}
@@ -25,6 +25,7 @@ import static android.provider.Telephony.ServiceStateTable.DUPLEX_MODE;
 import static android.provider.Telephony.ServiceStateTable.VOICE_OPERATOR_NUMERIC;
 import static android.provider.Telephony.ServiceStateTable.VOICE_REG_STATE;
 import static android.provider.Telephony.ServiceStateTable.getUriForSubscriptionId;
+import static android.provider.Telephony.ServiceStateTable.getUriForSubscriptionIdAndField;
 import static android.telephony.NetworkRegistrationInfo.REGISTRATION_STATE_HOME;
 
 import static com.android.phone.ServiceStateProvider.ENFORCE_LOCATION_PERMISSION_CHECK;
@@ -65,6 +66,7 @@ import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.test.mock.MockContentResolver;
 
+import androidx.test.InstrumentationRegistry;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.SmallTest;
 
@@ -80,6 +82,13 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Tests for simple queries of ServiceStateProvider.
  *
@@ -91,8 +100,13 @@ public class ServiceStateProviderTest {
     private static final String TAG = "ServiceStateProviderTest";
     private static final int TEST_NETWORK_ID = 123;
     private static final int TEST_SYSTEM_ID = 123;
+    private static final long NOTIFY_TIMEOUT_MILLIS = 1000;
 
     private MockContentResolver mContentResolver;
+    private ServiceStateProvider mServiceStateProvider;
+    // URIs of each notifyChange(Uri[]) call of the provider.
+    private final List<Uri[]> mNotifiedUris = new CopyOnWriteArrayList<>();
+    private final CountDownLatch mNotifyLatch = new CountDownLatch(1);
     private ServiceState mTestServiceState;
     private ServiceState mTestServiceStateForSubId1;
 
@@ -128,6 +142,12 @@ public class ServiceStateProviderTest {
                     int userHandle) {
                 throw new TestNotifierException();
             }
+            @Override
+            public void notifyChange(Uri[] uris, ContentObserver observer, int flags,
+                    int userHandle) {
+                mNotifiedUris.add(uris);
+                mNotifyLatch.countDown();
+            }
         };
         doReturn(mContentResolver).when(mContext).getContentResolver();
 
@@ -145,26 +165,19 @@ public class ServiceStateProviderTest {
         mTestServiceStateForSubId1.addNetworkRegistrationInfo(nriWwan);
         mTestServiceStateForSubId1.setChannelNumber(65536); // EutranBand.BAND_65, DUPLEX_MODE_FDD
 
-        // Mock out the actual phone state
-        ServiceStateProvider provider = new ServiceStateProvider() {
-            @Override
-            public ServiceState getServiceState(int subId) {
-                if (subId == 1) {
-                    return mTestServiceStateForSubId1;
-                } else {
-                    return mTestServiceState;
-                }
-            }
-
+        // Inject the phone state
+        mServiceStateProvider = new ServiceStateProvider() {
             @Override
             public int getDefaultSubId() {
                 return 0;
             }
         };
+        mServiceStateProvider.setServiceState(0, mTestServiceState);
+        mServiceStateProvider.setServiceState(1, mTestServiceStateForSubId1);
         ProviderInfo providerInfo = new ProviderInfo();
         providerInfo.authority = "service-state";
-        provider.attachInfoForTesting(mContext, providerInfo);
-        mContentResolver.addProvider("service-state", provider);
+        mServiceStateProvider.attachInfoForTesting(mContext, providerInfo);
+        mContentResolver.addProvider("service-state", mServiceStateProvider);
 
         // By default, test with app target R, no READ_PRIVILEGED_PHONE_STATE permission
         setTargetSdkVersion(Build.VERSION_CODES.R);
@@ -620,6 +633,57 @@ public class ServiceStateProviderTest {
         assertTrue(notifyChangeCalledForSubIdAndField(oldSS, newSS, subId));
     }
 
+    @Test
+    @SmallTest
+    public void testGetChangedFieldUris() {
+        int subId = 0;
+
+        ServiceState oldSS = new ServiceState();
+        oldSS.setStateOutOfService();
+
+        ServiceState newSS = new ServiceState();
+        newSS.setStateOutOfService();
+        newSS.setDataRegState(ServiceState.STATE_POWER_OFF);
+
+        // Only the changed field is reported
+        assertEquals(List.of(getUriForSubscriptionIdAndField(subId, DATA_REG_STATE)),
+                ServiceStateProvider.getChangedFieldUris(oldSS, newSS, subId));
+
+        // All fields are reported on the first update
+        assertEquals(5, ServiceStateProvider.getChangedFieldUris(null, newSS, subId).size());
+    }
+
+    @Test
+    @SmallTest
+    public void testInsert_updatesWithinNotifyDelay_notifiedOnce() throws Exception {
+        int subId = 0;
+        ServiceState voiceChangedSS = new ServiceState(mTestServiceState);
+        voiceChangedSS.setVoiceRegState(ServiceState.STATE_POWER_OFF);
+        ServiceState dataChangedSS = new ServiceState(voiceChangedSS);
+        dataChangedSS.setDataRegState(ServiceState.STATE_POWER_OFF);
+
+        // Insert both updates from the main thread, so the delayed notification can only run
+        // after both of them.
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            mServiceStateProvider.insert(getUriForSubscriptionId(subId),
+                    ServiceStateProvider.getContentValuesForServiceState(voiceChangedSS));
+            mServiceStateProvider.insert(getUriForSubscriptionId(subId),
+                    ServiceStateProvider.getContentValuesForServiceState(dataChangedSS));
+        });
+
+        assertTrue(mNotifyLatch.await(NOTIFY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        assertEquals(1, mNotifiedUris.size());
+
+        Set<Uri> expectedUris = new HashSet<>();
+        expectedUris.addAll(
+                ServiceStateProvider.getChangedFieldUris(mTestServiceState, voiceChangedSS, subId));
+        expectedUris.addAll(
+                ServiceStateProvider.getChangedFieldUris(voiceChangedSS, dataChangedSS, subId));
+        expectedUris.add(getUriForSubscriptionId(subId));
+        assertEquals(expectedUris, Set.of(mNotifiedUris.get(0)));
+    }
+
     // Check if notifyChange was called by notifyChangeForSubId
     private boolean notifyChangeCalledForSubId(ServiceState oldSS,
             ServiceState newSS, int subId) {
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.Data;
+import android.test.mock.MockContentResolver;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for the import of all SIM contacts by {@link SimContacts}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SimContactsTest {
+    private static final String REJECTED_NAME = "Rejected";
+
+    private FakeContactsProvider mContactsProvider;
+    private MockContentResolver mContentResolver;
+    private int mProgress;
+
+    /**
+     * Contacts provider which applies a batch as a transaction and rejects the contacts named
+     * {@link #REJECTED_NAME}. Like ContactsProvider, it commits what was applied so far at each
+     * yield point, which a later failure of the batch does not roll back.
+     */
+    private static class FakeContactsProvider extends ContentProvider {
+        final List<String> mImportedNames = new ArrayList<>();
+        final List<String> mPendingNames = new ArrayList<>();
+        int mBatchCount;
+        long mNextId = 1;
+
+        @Override
+        public ContentProviderResult[] applyBatch(String authority,
+                ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            mBatchCount++;
+            mPendingNames.clear();
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            // Names applied after the last yield point of a failed batch are never committed.
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    commitPendingNames();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            commitPendingNames();
+            return results;
+        }
+
+        private void commitPendingNames() {
+            mImportedNames.addAll(mPendingNames);
+            mPendingNames.clear();
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            if (StructuredName.CONTENT_ITEM_TYPE.equals(values.getAsString(Data.MIMETYPE))) {
+                String name = values.getAsString(StructuredName.DISPLAY_NAME);
+                if (REJECTED_NAME.equals(name)) {
+                    // Fails the operation, and so the whole batch.
+                    return null;
+                }
+                mPendingNames.add(name);
+            }
+            return ContentUris.withAppendedId(uri, mNextId++);
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mContactsProvider = new FakeContactsProvider();
+        ProviderInfo providerInfo = new ProviderInfo();
+        providerInfo.authority = ContactsContract.AUTHORITY;
+        mContactsProvider.attachInfoForTesting(InstrumentationRegistry.getTargetContext(),
+                providerInfo);
+        mContentResolver = new MockContentResolver();
+        mContentResolver.addProvider(ContactsContract.AUTHORITY, mContactsProvider);
+    }
+
+    @Test
+    @SmallTest
+    public void testImportAll_rejectedRow_retriesBatchOneContactAtATime() {
+        Cursor cursor = createSimCursor("Alice", REJECTED_NAME, "Bob");
+
+        int failedCount = SimContacts.importAllSimContacts(mContentResolver, cursor,
+                null /* account */, () -> false, count -> mProgress += count);
+
+        assertEquals(1, failedCount);
+        assertEquals(List.of("Alice", "Bob"), mContactsProvider.mImportedNames);
+        // The failed batch, then one batch per contact.
+        assertEquals(4, mContactsProvider.mBatchCount);
+        assertEquals(3, mProgress);
+        assertEquals(2, cursor.getPosition());
+    }
+
+    @Test
+    @SmallTest
+    public void testImportAll_canceled_flushesPendingBatch() {
+        Cursor cursor = createSimCursor("Alice", "Bob", "Carol");
+
+        int failedCount = SimContacts.importAllSimContacts(mContentResolver, cursor,
+                null /* account */, () -> cursor.getPosition() >= 1, count -> mProgress += count);
+
+        assertEquals(0, failedCount);
+        assertEquals(List.of("Alice", "Bob"), mContactsProvider.mImportedNames);
+        assertEquals(1, mContactsProvider.mBatchCount);
+        assertEquals(2, mProgress);
+    }
+
+    private static Cursor createSimCursor(String... names) {
+        MatrixCursor cursor = new MatrixCursor(new String[] {"name", "number", "emails"});
+        for (int i = 0; i < names.length; i++) {
+            cursor.addRow(new Object[] {names[i], "650555121" + i, null});
+        }
+        return cursor;
+    }
+}
@@ -532,6 +532,44 @@ public final class SimPhonebookProviderTest {
         }
     }
 
+    @Test
+    public void query_adnRecords_repeated_loadsRecordsFromSimOnce() throws Exception {
+        setupSimsWithSubscriptionIds(1);
+        mIccPhoneBook.addRecord(1, IccConstants.EF_ADN, "Person Adn1", "8005550101");
+        IIccPhoneBook spiedIccPhoneBook = spy(mIccPhoneBook);
+        TestableSimPhonebookProvider.setup(mResolver, mMockSubscriptionManager, spiedIccPhoneBook);
+
+        for (int i = 0; i < 3; i++) {
+            try (Cursor cursor = mResolver.query(SimRecords.getContentUri(1, EF_ADN), null, null,
+                    null)) {
+                assertThat(cursor).hasCount(1);
+            }
+        }
+
+        verify(spiedIccPhoneBook, times(1)).getAdnRecordsInEfForSubscriber(1, IccConstants.EF_ADN);
+        verify(spiedIccPhoneBook, times(1)).getAdnRecordsSizeForSubscriber(1, IccConstants.EF_ADN);
+    }
+
+    @Test
+    public void query_adnRecords_afterInsert_returnsInsertedRecord() {
+        setupSimsWithSubscriptionIds(1);
+        mIccPhoneBook.addRecord(1, IccConstants.EF_ADN, "Person Adn1", "8005550101");
+        try (Cursor cursor = mResolver.query(SimRecords.getContentUri(1, EF_ADN), null, null,
+                null)) {
+            assertThat(cursor).hasCount(1);
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(SimRecords.NAME, "Person Adn2");
+        values.put(SimRecords.PHONE_NUMBER, "8005550102");
+        mResolver.insert(SimRecords.getContentUri(1, EF_ADN), values);
+
+        try (Cursor cursor = mResolver.query(SimRecords.getContentUri(1, EF_ADN), null, null,
+                null)) {
+            assertThat(cursor).hasCount(2);
+        }
+    }
+
     @Test
     public void query_adnRecords_nonExistentSim_throwsCorrectException() {
         setupSimsWithSubscriptionIds(1);
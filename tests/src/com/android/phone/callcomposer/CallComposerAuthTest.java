@@ -17,6 +17,7 @@
 package com.android.phone.callcomposer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 import com.android.phone.callcomposer.DigestAuthUtils;
 
@@ -40,4 +41,23 @@ public class CallComposerAuthTest {
         // precomputed response value from a known-good implementation
         assertEquals("744d63d6fb11aa132dc906ec95306960", response);
     }
+
+    @Test
+    public void testResponseGenerationWithNonceCount() {
+        String username = "test1";
+        String realm = "test@test.com";
+        byte[] password = "12345678".getBytes();
+        String sNonce = "aaaabbbbcccc";
+        String cNonce = "ccccbbbbaaaa";
+        String method = "POST";
+        String uri = "/test/test1?a=b";
+        String qop = "auth";
+
+        String first = DigestAuthUtils.computeResponse(sNonce, cNonce, qop, username,
+                realm, password, method, uri, 1);
+        String second = DigestAuthUtils.computeResponse(sNonce, cNonce, qop, username,
+                realm, password, method, uri, 2);
+        assertEquals("744d63d6fb11aa132dc906ec95306960", first);
+        assertNotEquals(first, second);
+    }
 }
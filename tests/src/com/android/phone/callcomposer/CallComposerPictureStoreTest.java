@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.callcomposer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.UUID;
+
+public class CallComposerPictureStoreTest {
+    @Test
+    public void testLeastRecentlyUsedPictureEvicted() {
+        CallComposerPictureStore store = new CallComposerPictureStore(10);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+
+        store.put(first, new ImageData(new byte[4], "image/png", null));
+        store.put(second, new ImageData(new byte[4], "image/png", null));
+        // Touch the first picture so that the second one becomes the eldest.
+        assertNotNull(store.get(first));
+        store.put(third, new ImageData(new byte[4], "image/png", null));
+
+        assertNotNull(store.get(first));
+        assertNull(store.get(second));
+        assertNotNull(store.get(third));
+        assertEquals(8, store.getTotalBytes());
+    }
+
+    @Test
+    public void testEvictionDeletesBackingFile() throws Exception {
+        File imageFile = File.createTempFile("picture", null);
+        try (FileOutputStream out = new FileOutputStream(imageFile)) {
+            out.write(new byte[8]);
+        }
+        CallComposerPictureStore store = new CallComposerPictureStore(10);
+        UUID fileBacked = UUID.randomUUID();
+
+        store.put(fileBacked, new ImageData(imageFile, "image/png", null));
+        store.put(UUID.randomUUID(), new ImageData(new byte[8], "image/png", null));
+
+        assertNull(store.get(fileBacked));
+        assertFalse(imageFile.exists());
+    }
+}
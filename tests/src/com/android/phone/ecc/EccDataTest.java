@@ -23,6 +23,7 @@ import androidx.test.runner.AndroidJUnit4;
 
 import com.android.TelephonyTestBase;
 import com.android.phone.ecc.nano.ProtobufEccData;
+import com.android.phone.ecc.tool.EccDataIndex;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -31,6 +32,7 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.zip.GZIPInputStream;
@@ -42,11 +44,7 @@ import java.util.zip.GZIPInputStream;
 public class EccDataTest extends TelephonyTestBase {
     @Test
     public void testEccDataContent() throws IOException {
-        InputStream eccData = new GZIPInputStream(new BufferedInputStream(
-                InstrumentationRegistry.getTargetContext().getAssets().open("eccdata")));
-        ProtobufEccData.AllInfo allEccMessages = ProtobufEccData.AllInfo.parseFrom(
-                readInputStreamToByteArray(eccData));
-        eccData.close();
+        ProtobufEccData.AllInfo allEccMessages = readEccData();
 
         HashSet loadedIsos = new HashSet(300);
         HashSet loadedNumbers = new HashSet(5);
@@ -81,6 +79,49 @@ public class EccDataTest extends TelephonyTestBase {
         }
     }
 
+    @Test
+    public void testEccDataIndexMatchesEccData() throws IOException {
+        ProtobufEccData.AllInfo allEccMessages = readEccData();
+        EccDataIndex index;
+        try (InputStream eccDataIndex = InstrumentationRegistry.getTargetContext().getAssets()
+                .open("eccdata.idx")) {
+            index = new EccDataIndex(ByteBuffer.wrap(readInputStreamToByteArray(eccDataIndex)));
+        }
+
+        assertThat(index.getRevision()).isEqualTo(allEccMessages.revision);
+        assertThat(index.getCountryCount()).isEqualTo(allEccMessages.countries.length);
+        for (ProtobufEccData.CountryInfo countryInfo : allEccMessages.countries) {
+            ByteBuffer serialized = index.findCountry(countryInfo.isoCode);
+            assertThat(serialized).isNotNull();
+            byte[] bytes = new byte[serialized.remaining()];
+            serialized.get(bytes);
+            assertCountryInfoEquals(ProtobufEccData.CountryInfo.parseFrom(bytes), countryInfo);
+        }
+        assertThat(index.findCountry("ZZZ")).isNull();
+    }
+
+    private static void assertCountryInfoEquals(ProtobufEccData.CountryInfo actual,
+            ProtobufEccData.CountryInfo expected) {
+        assertThat(actual.isoCode).isEqualTo(expected.isoCode);
+        assertThat(actual.eccFallback).isEqualTo(expected.eccFallback);
+        assertThat(actual.ignoreModemConfig).isEqualTo(expected.ignoreModemConfig);
+        assertThat(actual.eccs.length).isEqualTo(expected.eccs.length);
+        for (int i = 0; i < expected.eccs.length; i++) {
+            assertThat(actual.eccs[i].phoneNumber).isEqualTo(expected.eccs[i].phoneNumber);
+            assertThat(actual.eccs[i].types).isEqualTo(expected.eccs[i].types);
+            assertThat(actual.eccs[i].routing).isEqualTo(expected.eccs[i].routing);
+            assertThat(actual.eccs[i].normalRoutingMncs)
+                    .isEqualTo(expected.eccs[i].normalRoutingMncs);
+        }
+    }
+
+    private static ProtobufEccData.AllInfo readEccData() throws IOException {
+        try (InputStream eccData = new GZIPInputStream(new BufferedInputStream(
+                InstrumentationRegistry.getTargetContext().getAssets().open("eccdata")))) {
+            return ProtobufEccData.AllInfo.parseFrom(readInputStreamToByteArray(eccData));
+        }
+    }
+
     /**
      * Util function to convert inputStream to byte array before parsing proto data.
      */
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyCallback;
+import android.telephony.TelephonyManager;
+import android.telephony.emergency.EmergencyNumber;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.TestContext;
+import com.android.internal.telephony.Phone;
+import com.android.internal.telephony.emergency.EmergencyNumberTracker;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+@RunWith(AndroidJUnit4.class)
+public class EmergencyNumberIndexTest {
+    private static final int PHONE_ID = 0;
+    private static final int SUB_ID = 1;
+
+    private EmergencyNumberIndex mIndex;
+    private Phone mPhone;
+    private EmergencyNumberTracker mTracker;
+
+    @Before
+    public void setUp() throws Exception {
+        mIndex = new EmergencyNumberIndex();
+        mPhone = mock(Phone.class);
+        mTracker = mock(EmergencyNumberTracker.class);
+        when(mPhone.getPhoneId()).thenReturn(PHONE_ID);
+        when(mPhone.getSubId()).thenReturn(SUB_ID);
+        when(mPhone.getEmergencyNumberTracker()).thenReturn(mTracker);
+        when(mTracker.getEmergencyNumbers(anyString())).thenReturn(new ArrayList<>());
+    }
+
+    @Test
+    public void testGet_looksUpTrackerOnce() {
+        List<EmergencyNumber> numbers = new ArrayList<>();
+        numbers.add(getEmergencyNumber("911", "us", "", EmergencyNumber.EMERGENCY_NUMBER_SOURCE_SIM,
+                EmergencyNumber.EMERGENCY_CALL_ROUTING_NORMAL));
+        when(mTracker.getEmergencyNumbers(eq("911"))).thenReturn(numbers);
+
+        assertTrue(mIndex.get(mPhone, "911").hasNormalRouting());
+        assertTrue(mIndex.get(mPhone, "9-1-1").isFromSources(
+                EmergencyNumber.EMERGENCY_NUMBER_SOURCE_SIM));
+        assertFalse(mIndex.get(mPhone, "911").isFromSources(
+                EmergencyNumber.EMERGENCY_NUMBER_SOURCE_TEST));
+
+        verify(mTracker, times(1)).getEmergencyNumbers(eq("911"));
+    }
+
+    @Test
+    public void testGet_matchesCountryAndMnc() {
+        List<EmergencyNumber> numbers = new ArrayList<>();
+        numbers.add(getEmergencyNumber("110", "us", "92",
+                EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE,
+                EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN));
+        when(mTracker.getEmergencyNumbers(eq("110"))).thenReturn(numbers);
+
+        EmergencyNumberIndex.Entry entry = mIndex.get(mPhone, "110");
+
+        assertTrue(entry.matchesCountryAndMnc("us", "92"));
+        assertTrue(entry.matchesCountryAndMnc("us", ""));
+        assertFalse(entry.matchesCountryAndMnc("us", "01"));
+        assertFalse(entry.matchesCountryAndMnc("zz", ""));
+        assertFalse(entry.hasNormalRouting());
+    }
+
+    @Test
+    public void testInvalidate_looksUpTrackerAgain() {
+        mIndex.get(mPhone, "112");
+        mIndex.invalidate(PHONE_ID);
+        mIndex.get(mPhone, "112");
+        mIndex.invalidateAll();
+        mIndex.get(mPhone, "112");
+
+        verify(mTracker, times(3)).getEmergencyNumbers(eq("112"));
+    }
+
+    @Test
+    public void testGet_noSubscription_looksUpTrackerEachTime() {
+        when(mPhone.getSubId()).thenReturn(SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+        mIndex.get(mPhone, "112");
+
+        // The list of a phone without a SIM changes without a listener being notified.
+        when(mTracker.getEmergencyNumbers(eq("112"))).thenReturn(Collections.singletonList(
+                getEmergencyNumber("112", "de", "",
+                        EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING,
+                        EmergencyNumber.EMERGENCY_CALL_ROUTING_EMERGENCY)));
+
+        assertTrue(mIndex.get(mPhone, "112").isFromSources(
+                EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING));
+        verify(mTracker, times(2)).getEmergencyNumbers(eq("112"));
+    }
+
+    @Test
+    public void testGet_newTracker_looksUpNewTracker() {
+        mIndex.get(mPhone, "112");
+
+        EmergencyNumberTracker tracker = mock(EmergencyNumberTracker.class);
+        when(tracker.getEmergencyNumbers(eq("112"))).thenReturn(Collections.singletonList(
+                getEmergencyNumber("112", "de", "",
+                        EmergencyNumber.EMERGENCY_NUMBER_SOURCE_TEST,
+                        EmergencyNumber.EMERGENCY_CALL_ROUTING_EMERGENCY)));
+        when(mPhone.getEmergencyNumberTracker()).thenReturn(tracker);
+
+        assertTrue(mIndex.get(mPhone, "112").isFromSources(
+                EmergencyNumber.EMERGENCY_NUMBER_SOURCE_TEST));
+    }
+
+    @Test
+    public void testInitialize_listensToEmergencyNumberListOfEachSubscription() {
+        TestContext context = new TestContext();
+        SubscriptionManager sm = context.getSystemService(SubscriptionManager.class);
+        TelephonyManager tm = context.getSystemService(TelephonyManager.class);
+        TelephonyManager tm1 = mock(TelephonyManager.class);
+        TelephonyManager tm2 = mock(TelephonyManager.class);
+        when(tm.createForSubscriptionId(eq(1))).thenReturn(tm1);
+        when(tm.createForSubscriptionId(eq(2))).thenReturn(tm2);
+        when(sm.getActiveSubscriptionIdList()).thenReturn(new int[] {1, 2});
+
+        mIndex.initialize(context);
+        ArgumentCaptor<SubscriptionManager.OnSubscriptionsChangedListener> listenerCaptor =
+                ArgumentCaptor.forClass(SubscriptionManager.OnSubscriptionsChangedListener.class);
+        verify(sm).addOnSubscriptionsChangedListener(any(Executor.class),
+                listenerCaptor.capture());
+        listenerCaptor.getValue().onSubscriptionsChanged();
+
+        ArgumentCaptor<TelephonyCallback> callbackCaptor =
+                ArgumentCaptor.forClass(TelephonyCallback.class);
+        verify(tm1).registerTelephonyCallback(any(Executor.class), callbackCaptor.capture());
+        verify(tm2).registerTelephonyCallback(any(Executor.class), any(TelephonyCallback.class));
+
+        // The subscription 1 is removed, the listener of the subscription 2 is kept.
+        when(sm.getActiveSubscriptionIdList()).thenReturn(new int[] {2});
+        listenerCaptor.getValue().onSubscriptionsChanged();
+
+        verify(tm).unregisterTelephonyCallback(eq(callbackCaptor.getValue()));
+        verify(tm2, times(1)).registerTelephonyCallback(any(Executor.class),
+                any(TelephonyCallback.class));
+        verify(tm, never()).registerTelephonyCallback(any(Executor.class),
+                any(TelephonyCallback.class));
+    }
+
+    private static EmergencyNumber getEmergencyNumber(String number, String iso, String mnc,
+            int source, int routing) {
+        return new EmergencyNumber(number, iso, mnc,
+                EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_UNSPECIFIED,
+                new ArrayList<String>(), source, routing);
+    }
+}
@@ -21,6 +21,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -32,6 +33,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
 import android.os.PersistableBundle;
 import android.os.UserHandle;
 import android.platform.test.flag.junit.SetFlagsRule;
@@ -64,12 +66,20 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 
+import java.util.LinkedList;
+import java.util.List;
+
 @RunWith(AndroidTestingRunner.class)
 @TestableLooper.RunWithLooper(setAsMainLooper = true)
 public class TelecomAccountRegistryTest extends TelephonyTestBase {
 
     private static final String TAG = "TelecomAccountRegistryTest";
     private static final int TEST_SUB_ID = 1;
+    private static final int OTHER_SUB_ID = 2;
+    private static final String LINE_1_NUMBER = "6505551212";
+    private static final String OTHER_LINE_1_NUMBER = "6505551213";
+    // Mirrors TelecomAccountRegistry.REGISTRATION_BATCH_DELAY_MS.
+    private static final long REGISTRATION_BATCH_DELAY_MS = 200;
 
     @Rule
     public final SetFlagsRule mSetFlagsRule = new SetFlagsRule();
@@ -237,6 +247,67 @@ public class TelecomAccountRegistryTest extends TelephonyTestBase {
                 PhoneAccount.CAPABILITY_EMERGENCY_CALLS_ONLY)).isTrue();
     }
 
+    @Test
+    public void onCarrierConfigChanged_withSubNotVoiceCapable_shouldReRegisterAccount() {
+        onUserSwitched(UserHandle.CURRENT);
+        overrideSubscriptionServiceCapabilities(
+                new int[]{SubscriptionManager.SERVICE_CAPABILITY_DATA});
+        onCarrierConfigChanged(TEST_SUB_ID);
+
+        PhoneAccount phoneAccount = verifyAndCaptureRegisteredPhoneAccount();
+
+        assertThat(phoneAccount.hasCapabilities(
+                PhoneAccount.CAPABILITY_EMERGENCY_CALLS_ONLY)).isTrue();
+    }
+
+    @Test
+    public void capabilityChangesWithinBatchDelay_shouldRegisterAccountsInOnePass()
+            throws Exception {
+        Phone otherPhone = Mockito.mock(Phone.class);
+        when(otherPhone.getPhoneType()).thenReturn(PhoneConstants.PHONE_TYPE_GSM);
+        when(otherPhone.getContext()).thenReturn(mMockedContext);
+        when(otherPhone.getSubId()).thenReturn(OTHER_SUB_ID);
+        replaceInstance(Handler.class, "mLooper", mPhone, mTestableLooper.getLooper());
+        replaceInstance(Handler.class, "mLooper", otherPhone, mTestableLooper.getLooper());
+        TelecomAccountRegistry.AccountEntry entry = mTelecomAccountRegistry.new AccountEntry(
+                mPhone, true /* isEmergency */, false /* isTest */);
+        TelecomAccountRegistry.AccountEntry otherEntry =
+                mTelecomAccountRegistry.new AccountEntry(
+                        otherPhone, true /* isEmergency */, false /* isTest */);
+        replaceInstance(TelecomAccountRegistry.class, "mAccounts", mTelecomAccountRegistry,
+                new LinkedList<>(List.of(entry, otherEntry)));
+        Mockito.clearInvocations(mTelecomManager);
+        when(mPhone.getLine1Number()).thenReturn(LINE_1_NUMBER);
+        when(otherPhone.getLine1Number()).thenReturn(OTHER_LINE_1_NUMBER);
+
+        // Dirty both accounts, the first one twice, within the batch delay.
+        entry.onVideoCapabilitiesChanged(true);
+        mTestableLooper.moveTimeForward(REGISTRATION_BATCH_DELAY_MS / 2);
+        otherEntry.onVideoCapabilitiesChanged(true);
+        entry.onVideoCapabilitiesChanged(true);
+        mTestableLooper.processAllMessages();
+
+        verify(mTelecomManager, never()).registerPhoneAccount(any());
+
+        mTestableLooper.moveTimeForward(REGISTRATION_BATCH_DELAY_MS / 2);
+        mTestableLooper.processAllMessages();
+
+        ArgumentCaptor<PhoneAccount> phoneAccountArgumentCaptor =
+                ArgumentCaptor.forClass(PhoneAccount.class);
+        verify(mTelecomManager, times(2)).registerPhoneAccount(
+                phoneAccountArgumentCaptor.capture());
+        List<PhoneAccount> phoneAccounts = phoneAccountArgumentCaptor.getAllValues();
+        assertThat(phoneAccounts.get(0).getSubscriptionAddress().getSchemeSpecificPart())
+                .isEqualTo(LINE_1_NUMBER);
+        assertThat(phoneAccounts.get(1).getSubscriptionAddress().getSchemeSpecificPart())
+                .isEqualTo(OTHER_LINE_1_NUMBER);
+
+        // No further pass once the batch has been registered.
+        mTestableLooper.moveTimeForward(REGISTRATION_BATCH_DELAY_MS);
+        mTestableLooper.processAllMessages();
+        verify(mTelecomManager, times(2)).registerPhoneAccount(any());
+    }
+
     private PhoneAccount verifyAndCaptureRegisteredPhoneAccount() {
         ArgumentCaptor<PhoneAccount> phoneAccountArgumentCaptor =
                 ArgumentCaptor.forClass(PhoneAccount.class);
@@ -129,7 +129,6 @@ import org.mockito.Mockito;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -1434,13 +1433,6 @@ public class TelephonyConnectionServiceTest extends TelephonyTestBase {
         setupDeviceConfig(testPhone0, testPhone1, 0);
         doReturn(true).when(mTelephonyManagerProxy).isCurrentEmergencyNumber(
                 eq(NORMAL_ROUTED_EMERGENCY_NUMBER));
-        HashMap<Integer, List<EmergencyNumber>> emergencyNumbers = new HashMap<>(1);
-        List<EmergencyNumber> numbers = new ArrayList<>();
-        numbers.add(MOCK_EMERGENCY_NUMBER);
-        numbers.add(MOCK_NORMAL_NUMBER);
-        numbers.add(MOCK_NORMAL_NUMBER_WITH_UNKNOWN_ROUTING);
-        emergencyNumbers.put(0 /*subId*/, numbers);
-        doReturn(emergencyNumbers).when(mTelephonyManagerProxy).getCurrentEmergencyNumberList();
         doReturn(2).when(mTelephonyManagerProxy).getPhoneCount();
 
         // All of that for... this.
@@ -4792,11 +4784,6 @@ public class TelephonyConnectionServiceTest extends TelephonyTestBase {
         setupDeviceConfig(testPhone0, testPhone1, 1);
         doReturn(true).when(mTelephonyManagerProxy).isCurrentEmergencyNumber(
                 TEST_ADDRESS.getSchemeSpecificPart());
-        HashMap<Integer, List<EmergencyNumber>> emergencyNumbers = new HashMap<>(1);
-        List<EmergencyNumber> numbers = new ArrayList<>();
-        numbers.add(setupEmergencyNumber(TEST_ADDRESS));
-        emergencyNumbers.put(0 /*subId*/, numbers);
-        doReturn(emergencyNumbers).when(mTelephonyManagerProxy).getCurrentEmergencyNumberList();
         doReturn(2).when(mTelephonyManagerProxy).getPhoneCount();
         testPhone0.getServiceState().setRoaming(isRoaming);
         if (setOperatorName) {
@@ -4834,11 +4821,6 @@ public class TelephonyConnectionServiceTest extends TelephonyTestBase {
         setupDeviceConfig(testPhone0, testPhone1, 0);
         doReturn(true).when(mTelephonyManagerProxy).isCurrentEmergencyNumber(
                 TEST_ADDRESS.getSchemeSpecificPart());
-        HashMap<Integer, List<EmergencyNumber>> emergencyNumbers = new HashMap<>(1);
-        List<EmergencyNumber> numbers = new ArrayList<>();
-        numbers.add(setupEmergencyNumber(TEST_ADDRESS));
-        emergencyNumbers.put(0 /*subId*/, numbers);
-        doReturn(emergencyNumbers).when(mTelephonyManagerProxy).getCurrentEmergencyNumberList();
         doReturn(2).when(mTelephonyManagerProxy).getPhoneCount();
 
         mConnection = mTestConnectionService.onCreateOutgoingConnection(
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.PersistableBundle;
+import android.telephony.CarrierConfigManager;
+import android.telephony.ServiceState;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Unit tests for DomainSelectionContext.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DomainSelectionContextTest {
+    private static final String TAG = DomainSelectionContextTest.class.getSimpleName();
+    private static final int SLOT_0 = 0;
+    private static final int SLOT_1 = 1;
+    private static final int SUB_1 = 1;
+    private static final int SUB_2 = 2;
+    private static final String KEY = CarrierConfigManager.KEY_SUPPORT_WPS_OVER_IMS_BOOL;
+
+    @Mock private ImsStateTracker mImsStateTracker;
+
+    private Context mContext;
+    private CarrierConfigManager mCarrierConfigManager;
+    private PersistableBundle mCarrierConfig;
+    private Looper mLooper;
+    private DomainSelectionContext mSelectionContext;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mContext = new TestContext();
+
+        HandlerThread handlerThread = new HandlerThread(TAG);
+        handlerThread.start();
+        mLooper = handlerThread.getLooper();
+
+        mCarrierConfigManager = mContext.getSystemService(CarrierConfigManager.class);
+        mCarrierConfig = new PersistableBundle();
+        mCarrierConfig.putBoolean(KEY, true);
+        when(mCarrierConfigManager.getConfigForSubId(anyInt(), eq(KEY)))
+                .thenReturn(mCarrierConfig);
+
+        mSelectionContext = new DomainSelectionContext(mContext, SLOT_0, mImsStateTracker,
+                mLooper);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mSelectionContext != null) {
+            mSelectionContext.destroy();
+            mSelectionContext = null;
+        }
+
+        if (mLooper != null) {
+            mLooper.quit();
+            mLooper = null;
+        }
+
+        mImsStateTracker = null;
+        mContext = null;
+    }
+
+    @Test
+    @SmallTest
+    public void testGetCarrierConfig_queriedOnce() {
+        assertTrue(mSelectionContext.getCarrierConfigBoolean(SUB_1, KEY));
+        assertTrue(mSelectionContext.getCarrierConfigBoolean(SUB_1, KEY));
+
+        verify(mCarrierConfigManager, times(1)).getConfigForSubId(eq(SUB_1), eq(KEY));
+    }
+
+    @Test
+    @SmallTest
+    public void testGetCarrierConfig_subscriptionChanged() {
+        mSelectionContext.getCarrierConfig(SUB_1, KEY);
+        mSelectionContext.getCarrierConfig(SUB_2, KEY);
+        mSelectionContext.getCarrierConfig(SUB_1, KEY);
+
+        verify(mCarrierConfigManager, times(2)).getConfigForSubId(eq(SUB_1), eq(KEY));
+        verify(mCarrierConfigManager, times(1)).getConfigForSubId(eq(SUB_2), eq(KEY));
+    }
+
+    @Test
+    @SmallTest
+    public void testGetCarrierConfig_nullNotCached() {
+        when(mCarrierConfigManager.getConfigForSubId(anyInt(), eq(KEY))).thenReturn(null);
+
+        assertFalse(mSelectionContext.getCarrierConfigBoolean(SUB_1, KEY));
+        assertNull(mSelectionContext.getCarrierConfig(SUB_1, KEY));
+
+        verify(mCarrierConfigManager, times(2)).getConfigForSubId(eq(SUB_1), eq(KEY));
+    }
+
+    @Test
+    @SmallTest
+    public void testCarrierConfigChanged_dropsCachedConfig() {
+        mSelectionContext.start();
+        ArgumentCaptor<CarrierConfigManager.CarrierConfigChangeListener> listenerCaptor =
+                ArgumentCaptor.forClass(CarrierConfigManager.CarrierConfigChangeListener.class);
+        verify(mCarrierConfigManager).registerCarrierConfigChangeListener(any(Executor.class),
+                listenerCaptor.capture());
+        CarrierConfigManager.CarrierConfigChangeListener listener = listenerCaptor.getValue();
+
+        mSelectionContext.getCarrierConfig(SUB_1, KEY);
+        listener.onCarrierConfigChanged(SLOT_1, SUB_2, 0, 0);
+        mSelectionContext.getCarrierConfig(SUB_1, KEY);
+
+        verify(mCarrierConfigManager, times(1)).getConfigForSubId(eq(SUB_1), eq(KEY));
+
+        listener.onCarrierConfigChanged(SLOT_0, SUB_1, 0, 0);
+        mSelectionContext.getCarrierConfig(SUB_1, KEY);
+
+        verify(mCarrierConfigManager, times(2)).getConfigForSubId(eq(SUB_1), eq(KEY));
+    }
+
+    @Test
+    @SmallTest
+    public void testServiceState() {
+        mSelectionContext.start();
+        verify(mImsStateTracker).addServiceStateListener(eq(mSelectionContext));
+
+        ServiceState ss = new ServiceState();
+        mSelectionContext.onServiceStateUpdated(ss);
+
+        assertEquals(ss, mSelectionContext.getServiceState());
+
+        mSelectionContext.destroy();
+
+        verify(mImsStateTracker).removeServiceStateListener(eq(mSelectionContext));
+        verify(mCarrierConfigManager).unregisterCarrierConfigChangeListener(any());
+        assertNull(mSelectionContext.getServiceState());
+    }
+}
@@ -0,0 +1,554 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.EUTRAN;
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.GERAN;
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.UNKNOWN;
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.UTRAN;
+import static android.telephony.CarrierConfigManager.KEY_CARRIER_VOLTE_TTY_SUPPORTED_BOOL;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_CROSS_STACK_REDIAL_TIMER_SEC_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_CALL_SETUP_TIMER_ON_CURRENT_NETWORK_SEC_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_CDMA_PREFERRED_NUMBERS_STRING_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_DOMAIN_PREFERENCE_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_DOMAIN_PREFERENCE_ROAMING_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_NETWORK_SCAN_TYPE_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_CS_ROAMING_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_CS_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_IMS_ROAMING_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_IMS_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_SCAN_TIMER_SEC_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_VOWIFI_REQUIRES_CONDITION_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_MAXIMUM_CELLULAR_SEARCH_TIMER_SEC_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_MAXIMUM_NUMBER_OF_EMERGENCY_TRIES_OVER_VOWIFI_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_QUICK_CROSS_STACK_REDIAL_TIMER_SEC_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_START_QUICK_CROSS_STACK_REDIAL_TIMER_WHEN_REGISTERED_BOOL;
+import static android.telephony.CarrierConfigManager.ImsEmergency.REDIAL_TIMER_DISABLED;
+import static android.telephony.CarrierConfigManager.ImsEmergency.SCAN_TYPE_NO_PREFERENCE;
+import static android.telephony.CarrierConfigManager.ImsEmergency.VOWIFI_REQUIRES_NONE;
+import static android.telephony.DomainSelectionService.SELECTOR_TYPE_CALLING;
+import static android.telephony.NetworkRegistrationInfo.DOMAIN_CS;
+import static android.telephony.NetworkRegistrationInfo.DOMAIN_PS;
+import static android.telephony.NetworkRegistrationInfo.REGISTRATION_STATE_HOME;
+import static android.telephony.NetworkRegistrationInfo.REGISTRATION_STATE_UNKNOWN;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.PersistableBundle;
+import android.telecom.PhoneAccount;
+import android.telephony.BarringInfo;
+import android.telephony.CarrierConfigManager;
+import android.telephony.CellIdentityLte;
+import android.telephony.DisconnectCause;
+import android.telephony.DomainSelectionService.SelectionAttributes;
+import android.telephony.EmergencyRegistrationResult;
+import android.testing.TestableLooper;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Simulates emergency domain selection against virtual time and reports the time from
+ * {@code selectDomain} to the first decision, per carrier profile.
+ *
+ * Each run replays a scripted radio environment (the initial registration result, the results
+ * and latency of the network scans, and when the IMS state is reported) against the real
+ * {@link EmergencyCallDomainSelector} and {@link CrossSimRedialingController}. Time only moves
+ * when the simulator advances the {@link TestableLooper}, so the results do not depend on the
+ * speed of the host and every timer of the selector is exercised with its configured value.
+ */
+public class EmergencyCallDomainSelectionSimulatorTest
+        extends EmergencyCallDomainSelectorTestBase {
+    private static final String TAG = "EmergencyCallDomainSelectionSimulatorTest";
+    private static final int SLOT_0 = 0;
+    private static final int SLOT_0_SUB_ID = 1;
+    private static final String TELECOM_CALL_ID = "TC1";
+    private static final Uri TEST_URI = Uri.fromParts(PhoneAccount.SCHEME_TEL, "911", null);
+
+    // Resolution of the virtual clock.
+    private static final long TICK_MS = 100;
+    // A run without any decision until then is reported as undecided.
+    private static final long HORIZON_MS = 180 * 1000;
+
+    private static final int NO_IMS_STATE = -1;
+    private static final int[] SCAN_LATENCIES_MS = { 500, 1000, 2000, 4000 };
+    private static final long SLOWEST_SCAN_MS = SCAN_LATENCIES_MS[SCAN_LATENCIES_MS.length - 1];
+
+    private static final String DECISION_CS = "CS";
+    private static final String DECISION_PS = "PS";
+    private static final String DECISION_WLAN = "WLAN";
+    private static final String DECISION_TERMINATED = "TERMINATED";
+    private static final String DECISION_NONE = "UNDECIDED";
+
+    /**
+     * A carrier configuration and the setup latencies it shall not exceed.
+     *
+     * The budgets are a recorded baseline of the timers the profile was written with, and are not
+     * read back from the configuration, so a change of the timers which makes the setup slower
+     * fails the run until the baseline is updated.
+     */
+    private static final class CarrierProfile {
+        final String mName;
+        final PersistableBundle mConfig;
+        // Budget of the scenarios without another slot to redial on.
+        final long mMaxSingleSimSetupLatencyMs;
+        // Budget of the scenarios which end with a redial on the other slot.
+        final long mMaxCrossSimSetupLatencyMs;
+
+        CarrierProfile(String name, PersistableBundle config, long maxSingleSimSetupLatencyMs,
+                long maxCrossSimSetupLatencyMs) {
+            mName = name;
+            mConfig = config;
+            mMaxSingleSimSetupLatencyMs = maxSingleSimSetupLatencyMs;
+            mMaxCrossSimSetupLatencyMs = maxCrossSimSetupLatencyMs;
+        }
+
+        long getMaxSetupLatencyMs(Scenario scenario) {
+            return scenario.mModemCount > 1
+                    ? mMaxCrossSimSetupLatencyMs : mMaxSingleSimSetupLatencyMs;
+        }
+    }
+
+    /** A scripted radio environment. */
+    private static final class Scenario {
+        final String mName;
+        final int mModemCount;
+        final EmergencyRegistrationResult mRegResult;
+        // Returned by every network scan.
+        final EmergencyRegistrationResult mScanResult;
+        final int mImsStateDelayMs;
+        final boolean mImsRegistered;
+        final boolean mImsOverWlan;
+
+        Scenario(String name, int modemCount, EmergencyRegistrationResult regResult,
+                EmergencyRegistrationResult scanResult, int imsStateDelayMs,
+                boolean imsRegistered, boolean imsOverWlan) {
+            mName = name;
+            mModemCount = modemCount;
+            mRegResult = regResult;
+            mScanResult = scanResult;
+            mImsStateDelayMs = imsStateDelayMs;
+            mImsRegistered = imsRegistered;
+            mImsOverWlan = imsOverWlan;
+        }
+    }
+
+    /** The first decision of a run. */
+    private static final class Outcome {
+        final String mDecision;
+        final long mLatencyMs;
+
+        Outcome(String decision, long latencyMs) {
+            mDecision = decision;
+            mLatencyMs = latencyMs;
+        }
+
+        @Override
+        public String toString() {
+            return mDecision + "@" + mLatencyMs + "ms";
+        }
+    }
+
+    private static final class ScheduledEvent implements Comparable<ScheduledEvent> {
+        final long mTimeMs;
+        final long mSequence;
+        final Runnable mAction;
+
+        ScheduledEvent(long timeMs, long sequence, Runnable action) {
+            mTimeMs = timeMs;
+            mSequence = sequence;
+            mAction = action;
+        }
+
+        @Override
+        public int compareTo(ScheduledEvent other) {
+            if (mTimeMs != other.mTimeMs) return Long.compare(mTimeMs, other.mTimeMs);
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    @Mock private CrossSimRedialingController.EmergencyNumberHelper mEmergencyNumberHelper;
+
+    private EmergencyCallDomainSelector mDomainSelector;
+    private CrossSimRedialingController mCsrdCtrl;
+
+    private final PriorityQueue<ScheduledEvent> mEvents = new PriorityQueue<>();
+    private long mEventSequence;
+    private long mNowMs;
+    private Scenario mScenario;
+    private int mScanLatencyMs;
+    private Outcome mOutcome;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        doReturn(true).when(mEmergencyNumberHelper).isEmergencyNumber(anyInt(), anyString());
+
+        doAnswer(invocation -> {
+            onDecision(DECISION_WLAN);
+            return null;
+        }).when(mTransportSelectorCallback).onWlanSelected(anyBoolean());
+        doAnswer(invocation -> {
+            int cause = (int) invocation.getArguments()[0];
+            onDecision(DECISION_TERMINATED + "(" + cause + ")");
+            return null;
+        }).when(mTransportSelectorCallback).onSelectionTerminated(anyInt());
+        doAnswer(invocation -> {
+            int domain = (int) invocation.getArguments()[0];
+            onDecision(domain == DOMAIN_PS ? DECISION_PS : DECISION_CS);
+            return null;
+        }).when(mWwanSelectorCallback).onDomainSelected(anyInt(), anyBoolean());
+        doAnswer(invocation -> {
+            CancellationSignal signal = (CancellationSignal) invocation.getArguments()[3];
+            Consumer<EmergencyRegistrationResult> consumer =
+                    (Consumer<EmergencyRegistrationResult>) invocation.getArguments()[4];
+            EmergencyRegistrationResult result = mScenario.mScanResult;
+            schedule(mNowMs + mScanLatencyMs, () -> {
+                if (signal == null || !signal.isCanceled()) {
+                    consumer.accept(result);
+                }
+            });
+            return null;
+        }).when(mWwanSelectorCallback).onRequestEmergencyNetworkScan(
+                any(), anyInt(), anyBoolean(), any(), any());
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        destroySelector();
+
+        super.tearDown();
+    }
+
+    @Test
+    public void testSimulationIsDeterministic() throws Exception {
+        CarrierProfile profile = getDefaultProfile();
+
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        for (Scenario scenario : getScenarios()) {
+            first.add(simulate(profile, scenario, SCAN_LATENCIES_MS[1]).toString());
+        }
+        for (Scenario scenario : getScenarios()) {
+            second.add(simulate(profile, scenario, SCAN_LATENCIES_MS[1]).toString());
+        }
+
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void testSetupLatencyPerCarrierProfile() throws Exception {
+        for (CarrierProfile profile : getCarrierProfiles()) {
+            List<Long> latencies = new ArrayList<>();
+            for (Scenario scenario : getScenarios()) {
+                long maxSetupLatencyMs = profile.getMaxSetupLatencyMs(scenario);
+                for (int scanLatencyMs : SCAN_LATENCIES_MS) {
+                    Outcome outcome = simulate(profile, scenario, scanLatencyMs);
+                    logi(profile.mName + " " + scenario.mName + " scan=" + scanLatencyMs
+                            + "ms: " + outcome);
+                    assertTrue(profile.mName + " " + scenario.mName + " undecided",
+                            !DECISION_NONE.equals(outcome.mDecision));
+                    assertTrue(profile.mName + " " + scenario.mName + " scan=" + scanLatencyMs
+                            + "ms setup latency " + outcome.mLatencyMs + "ms exceeds "
+                            + maxSetupLatencyMs + "ms",
+                            outcome.mLatencyMs <= maxSetupLatencyMs);
+                    latencies.add(outcome.mLatencyMs);
+                }
+            }
+
+            Collections.sort(latencies);
+            logi(profile.mName + " setup latency: min=" + latencies.get(0)
+                    + "ms, p50=" + getPercentile(latencies, 50)
+                    + "ms, p90=" + getPercentile(latencies, 90)
+                    + "ms, max=" + latencies.get(latencies.size() - 1) + "ms");
+        }
+    }
+
+    @Test
+    public void testScanTimerBoundsVoWifiSetupLatency() throws Exception {
+        Scenario scenario = getVoWifiOnlyScenario();
+
+        Outcome outcome = simulate(getDefaultProfile(), scenario, SCAN_LATENCIES_MS[0]);
+        assertEquals(DECISION_WLAN, outcome.mDecision);
+        assertLatencyAround(10 * 1000, outcome);
+
+        outcome = simulate(getShortScanTimerProfile(), scenario, SCAN_LATENCIES_MS[0]);
+        assertEquals(DECISION_WLAN, outcome.mDecision);
+        assertLatencyAround(5 * 1000, outcome);
+    }
+
+    @Test
+    public void testQuickCrossStackTimerBoundsNoCoverageSetupLatency() throws Exception {
+        Scenario scenario = getNoCoverageWithOtherSlotScenario();
+        String crossSimRedial =
+                DECISION_TERMINATED + "(" + DisconnectCause.EMERGENCY_TEMP_FAILURE + ")";
+
+        Outcome outcome = simulate(getDefaultProfile(), scenario, SCAN_LATENCIES_MS[1]);
+        assertEquals(crossSimRedial, outcome.mDecision);
+        assertLatencyAround(120 * 1000, outcome);
+
+        outcome = simulate(getQuickCrossStackProfile(), scenario, SCAN_LATENCIES_MS[1]);
+        assertEquals(crossSimRedial, outcome.mDecision);
+        assertLatencyAround(3 * 1000, outcome);
+    }
+
+    /**
+     * Runs a scenario until the selector decides or {@link #HORIZON_MS} elapses.
+     *
+     * @return The first decision and its latency in virtual time.
+     */
+    private Outcome simulate(CarrierProfile profile, Scenario scenario, int scanLatencyMs)
+            throws Exception {
+        mEvents.clear();
+        mEventSequence = 0;
+        mNowMs = 0;
+        mOutcome = null;
+        mScenario = scenario;
+        mScanLatencyMs = scanLatencyMs;
+
+        doReturn(profile.mConfig).when(mCarrierConfigManager)
+                .getConfigForSubId(anyInt(), ArgumentMatchers.<String>any());
+        doReturn(scenario.mModemCount).when(mTelephonyManager).getActiveModemCount();
+        doReturn(scenario.mImsRegistered).when(mImsStateTracker).isImsRegistered();
+        doReturn(scenario.mImsRegistered).when(mImsStateTracker).isImsVoiceCapable();
+        doReturn(scenario.mImsOverWlan).when(mImsStateTracker).isImsRegisteredOverWlan();
+
+        createSelector();
+
+        SelectionAttributes attr = new SelectionAttributes.Builder(
+                SLOT_0, SLOT_0_SUB_ID, SELECTOR_TYPE_CALLING)
+                .setAddress(TEST_URI)
+                .setCallId(TELECOM_CALL_ID)
+                .setEmergency(true)
+                .setEmergencyRegistrationResult(scenario.mRegResult)
+                .build();
+        schedule(0, () -> mDomainSelector.onBarringInfoUpdated(
+                new BarringInfo(new CellIdentityLte(), new SparseArray<>())));
+        schedule(0, () -> mDomainSelector.selectDomain(attr, mTransportSelectorCallback));
+        if (scenario.mImsStateDelayMs != NO_IMS_STATE) {
+            schedule(scenario.mImsStateDelayMs, () -> {
+                mDomainSelector.onImsRegistrationStateChanged();
+                mDomainSelector.onImsMmTelCapabilitiesChanged();
+            });
+        }
+
+        while (mOutcome == null && mNowMs <= HORIZON_MS) {
+            runDueEvents();
+            if (mOutcome != null) break;
+            mNowMs += TICK_MS;
+            mLooper.moveTimeForward(TICK_MS);
+            processAllMessages();
+        }
+
+        destroySelector();
+        return mOutcome != null ? mOutcome : new Outcome(DECISION_NONE, HORIZON_MS);
+    }
+
+    private void createSelector() throws Exception {
+        mCsrdCtrl = new CrossSimRedialingController(mContext, mHandlerThread.getLooper(),
+                mEmergencyNumberHelper);
+        mDomainSelector = new EmergencyCallDomainSelector(
+                mContext, SLOT_0, SLOT_0_SUB_ID, mHandlerThread.getLooper(),
+                mImsStateTracker, mDestroyListener, mCsrdCtrl, mEpdnHelper);
+        mDomainSelector.clearResourceConfiguration();
+        replaceInstance(EmergencyCallDomainSelector.class, "mImsEmergencyRegistrationHelper",
+                mDomainSelector, mImsEmergencyRegistrationHelper);
+    }
+
+    private void destroySelector() {
+        if (mDomainSelector != null) {
+            mDomainSelector.destroy();
+            mDomainSelector = null;
+        }
+        if (mCsrdCtrl != null) {
+            mCsrdCtrl.destroy();
+            mCsrdCtrl = null;
+        }
+        if (mLooper != null) {
+            processAllMessages();
+        }
+    }
+
+    private void schedule(long timeMs, Runnable action) {
+        mEvents.add(new ScheduledEvent(timeMs, mEventSequence++, action));
+    }
+
+    private void runDueEvents() {
+        processAllMessages();
+        while (mOutcome == null && !mEvents.isEmpty() && mEvents.peek().mTimeMs <= mNowMs) {
+            mEvents.poll().mAction.run();
+            processAllMessages();
+        }
+    }
+
+    private void onDecision(String decision) {
+        if (mOutcome == null) {
+            mOutcome = new Outcome(decision, mNowMs);
+        }
+    }
+
+    private static void assertLatencyAround(long expectedMs, Outcome outcome) {
+        assertTrue("expected " + expectedMs + "ms, was " + outcome,
+                outcome.mLatencyMs >= expectedMs && outcome.mLatencyMs <= expectedMs + TICK_MS);
+    }
+
+    /** Returns the nearest-rank percentile of the sorted latencies. */
+    private static long getPercentile(List<Long> sortedLatencies, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedLatencies.size());
+        return sortedLatencies.get(Math.max(rank, 1) - 1);
+    }
+
+    private static List<Scenario> getScenarios() {
+        List<Scenario> scenarios = new ArrayList<>();
+        scenarios.add(new Scenario("lteImsRegistered", 1,
+                getEmergencyRegResult(EUTRAN, REGISTRATION_STATE_HOME, DOMAIN_CS | DOMAIN_PS),
+                getNoServiceRegResult(), 0, true, false));
+        scenarios.add(new Scenario("lteImsStateMissing", 1,
+                getEmergencyRegResult(EUTRAN, REGISTRATION_STATE_HOME, DOMAIN_CS | DOMAIN_PS),
+                getNoServiceRegResult(), NO_IMS_STATE, false, false));
+        scenarios.add(new Scenario("utranCsOnly", 1,
+                getEmergencyRegResult(UTRAN, REGISTRATION_STATE_HOME, DOMAIN_CS),
+                getNoServiceRegResult(), 0, false, false));
+        scenarios.add(new Scenario("limitedServiceScanFindsLte", 1,
+                getNoServiceRegResult(),
+                getEmergencyRegResult(EUTRAN, REGISTRATION_STATE_UNKNOWN, DOMAIN_PS),
+                0, false, false));
+        scenarios.add(getVoWifiOnlyScenario());
+        scenarios.add(getNoCoverageWithOtherSlotScenario());
+        return scenarios;
+    }
+
+    private static Scenario getVoWifiOnlyScenario() {
+        return new Scenario("voWifiOnly", 1, getNoServiceRegResult(), getNoServiceRegResult(),
+                0, true, true);
+    }
+
+    private static Scenario getNoCoverageWithOtherSlotScenario() {
+        return new Scenario("noCoverageWithOtherSlot", 2, getNoServiceRegResult(),
+                getNoServiceRegResult(), 0, false, false);
+    }
+
+    private static List<CarrierProfile> getCarrierProfiles() {
+        List<CarrierProfile> profiles = new ArrayList<>();
+        profiles.add(getDefaultProfile());
+        profiles.add(getShortScanTimerProfile());
+        profiles.add(getQuickCrossStackProfile());
+
+        PersistableBundle config = getDefaultCarrierConfig();
+        config.putIntArray(KEY_EMERGENCY_DOMAIN_PREFERENCE_INT_ARRAY, new int[] {
+                CarrierConfigManager.ImsEmergency.DOMAIN_CS,
+                CarrierConfigManager.ImsEmergency.DOMAIN_PS_3GPP,
+                CarrierConfigManager.ImsEmergency.DOMAIN_PS_NON_3GPP });
+        // 10 s scan timer, 120 s cross stack redial timer.
+        profiles.add(new CarrierProfile("csPreferred", config,
+                10 * 1000 + SLOWEST_SCAN_MS + TICK_MS, 120 * 1000 + TICK_MS));
+        return profiles;
+    }
+
+    private static CarrierProfile getDefaultProfile() {
+        // 10 s scan timer, 120 s cross stack redial timer.
+        return new CarrierProfile("default", getDefaultCarrierConfig(),
+                10 * 1000 + SLOWEST_SCAN_MS + TICK_MS, 120 * 1000 + TICK_MS);
+    }
+
+    private static CarrierProfile getShortScanTimerProfile() {
+        PersistableBundle config = getDefaultCarrierConfig();
+        config.putInt(KEY_EMERGENCY_SCAN_TIMER_SEC_INT, 5);
+        // 5 s scan timer, 120 s cross stack redial timer.
+        return new CarrierProfile("shortScanTimer", config,
+                5 * 1000 + SLOWEST_SCAN_MS + TICK_MS, 120 * 1000 + TICK_MS);
+    }
+
+    private static CarrierProfile getQuickCrossStackProfile() {
+        PersistableBundle config = getDefaultCarrierConfig();
+        config.putInt(KEY_QUICK_CROSS_STACK_REDIAL_TIMER_SEC_INT, 3);
+        config.putBoolean(KEY_START_QUICK_CROSS_STACK_REDIAL_TIMER_WHEN_REGISTERED_BOOL, false);
+        // 10 s scan timer, 3 s quick cross stack redial timer started with the selection.
+        return new CarrierProfile("quickCrossStack", config,
+                10 * 1000 + SLOWEST_SCAN_MS + TICK_MS, 3 * 1000 + TICK_MS);
+    }
+
+    private static PersistableBundle getDefaultCarrierConfig() {
+        int[] domainPreference = new int[] {
+                CarrierConfigManager.ImsEmergency.DOMAIN_PS_3GPP,
+                CarrierConfigManager.ImsEmergency.DOMAIN_CS,
+                CarrierConfigManager.ImsEmergency.DOMAIN_PS_NON_3GPP
+                };
+
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putIntArray(KEY_EMERGENCY_OVER_IMS_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY,
+                new int[] { EUTRAN });
+        bundle.putIntArray(KEY_EMERGENCY_OVER_IMS_ROAMING_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY,
+                new int[] { EUTRAN });
+        bundle.putIntArray(KEY_EMERGENCY_OVER_CS_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY,
+                new int[] { UTRAN, GERAN });
+        bundle.putIntArray(KEY_EMERGENCY_OVER_CS_ROAMING_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY,
+                new int[] { UTRAN, GERAN });
+        bundle.putIntArray(KEY_EMERGENCY_DOMAIN_PREFERENCE_INT_ARRAY, domainPreference);
+        bundle.putIntArray(KEY_EMERGENCY_DOMAIN_PREFERENCE_ROAMING_INT_ARRAY, domainPreference);
+        bundle.putInt(KEY_EMERGENCY_VOWIFI_REQUIRES_CONDITION_INT, VOWIFI_REQUIRES_NONE);
+        bundle.putInt(KEY_MAXIMUM_NUMBER_OF_EMERGENCY_TRIES_OVER_VOWIFI_INT, 1);
+        bundle.putInt(KEY_EMERGENCY_SCAN_TIMER_SEC_INT, 10);
+        bundle.putInt(KEY_MAXIMUM_CELLULAR_SEARCH_TIMER_SEC_INT, 0);
+        bundle.putInt(KEY_EMERGENCY_NETWORK_SCAN_TYPE_INT, SCAN_TYPE_NO_PREFERENCE);
+        bundle.putInt(KEY_EMERGENCY_CALL_SETUP_TIMER_ON_CURRENT_NETWORK_SEC_INT, 0);
+        bundle.putStringArray(KEY_EMERGENCY_CDMA_PREFERRED_NUMBERS_STRING_ARRAY, new String[0]);
+        bundle.putBoolean(KEY_CARRIER_VOLTE_TTY_SUPPORTED_BOOL, false);
+        bundle.putInt(KEY_CROSS_STACK_REDIAL_TIMER_SEC_INT, 120);
+        bundle.putInt(KEY_QUICK_CROSS_STACK_REDIAL_TIMER_SEC_INT, REDIAL_TIMER_DISABLED);
+        bundle.putBoolean(KEY_START_QUICK_CROSS_STACK_REDIAL_TIMER_WHEN_REGISTERED_BOOL, true);
+        return bundle;
+    }
+
+    private static EmergencyRegistrationResult getNoServiceRegResult() {
+        return getEmergencyRegResult(UNKNOWN, REGISTRATION_STATE_UNKNOWN, 0);
+    }
+
+    private static EmergencyRegistrationResult getEmergencyRegResult(
+            int accessNetwork, int regState, int domain) {
+        return new EmergencyRegistrationResult(accessNetwork, regState, domain,
+                accessNetwork == EUTRAN, accessNetwork == EUTRAN, 0, 0, "", "", "");
+    }
+
+    private static void logi(String str) {
+        Log.i(TAG, str);
+    }
+}
@@ -88,20 +88,12 @@ import static org.mockito.Mockito.when;
 
 import android.annotation.NonNull;
 import android.annotation.Nullable;
-import android.content.Context;
-import android.content.res.Resources;
 import android.net.ConnectivityManager;
 import android.net.Network;
 import android.net.NetworkRequest;
 import android.net.Uri;
 import android.os.CancellationSignal;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.IPowerManager;
-import android.os.IThermalService;
-import android.os.Looper;
 import android.os.PersistableBundle;
-import android.os.PowerManager;
 import android.telecom.PhoneAccount;
 import android.telecom.TelecomManager;
 import android.telephony.AccessNetworkConstants;
@@ -116,20 +108,12 @@ import android.telephony.NetworkRegistrationInfo;
 import android.telephony.PreciseDisconnectCause;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
-import android.telephony.TransportSelectorCallback;
 import android.telephony.WwanSelectorCallback;
-import android.telephony.ims.ImsManager;
-import android.telephony.ims.ImsMmTelManager;
 import android.telephony.ims.ImsReasonInfo;
-import android.telephony.ims.ProvisioningManager;
-import android.testing.TestableLooper;
-import android.util.Log;
 import android.util.SparseArray;
-import android.view.Display;
 
 import androidx.test.filters.SmallTest;
 
-import com.android.TestContext;
 import com.android.phone.R;
 
 import org.junit.After;
@@ -137,129 +121,36 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
-import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
-import java.lang.reflect.Field;
 import java.util.List;
 import java.util.function.Consumer;
 
 /**
  * Unit tests for EmergencyCallDomainSelector
 */
-public class EmergencyCallDomainSelectorTest {
-    private static final String TAG = "EmergencyCallDomainSelectorTest";
+public class EmergencyCallDomainSelectorTest extends EmergencyCallDomainSelectorTestBase {
     private static final int SLOT_0 = 0;
     private static final int SLOT_0_SUB_ID = 1;
     private static final Uri TEST_URI = Uri.fromParts(PhoneAccount.SCHEME_TEL, "911", null);
 
-    @Mock private CarrierConfigManager mCarrierConfigManager;
-    @Mock private ConnectivityManager mConnectivityManager;
-    @Mock private TelephonyManager mTelephonyManager;
-    @Mock private WwanSelectorCallback mWwanSelectorCallback;
-    @Mock private TransportSelectorCallback mTransportSelectorCallback;
-    @Mock private ImsMmTelManager mMmTelManager;
-    @Mock private ImsStateTracker mImsStateTracker;
-    @Mock private DomainSelectorBase.DestroyListener mDestroyListener;
-    @Mock private ProvisioningManager mProvisioningManager;
     @Mock private CrossSimRedialingController mCsrdCtrl;
-    @Mock private DataConnectionStateHelper mEpdnHelper;
-    @Mock private Resources mResources;
-    @Mock private ImsEmergencyRegistrationStateHelper mImsEmergencyRegistrationHelper;
 
-    private TelecomManager mTelecomManager;
-
-    private Context mContext;
-
-    private HandlerThread mHandlerThread;
-    private TestableLooper mLooper;
     private EmergencyCallDomainSelector mDomainSelector;
     private SelectionAttributes mSelectionAttributes;
     private @AccessNetworkConstants.RadioAccessNetworkType List<Integer> mAccessNetwork;
-    private PowerManager mPowerManager;
     private ConnectivityManager.NetworkCallback mNetworkCallback;
     private Consumer<EmergencyRegistrationResult> mResultConsumer;
 
     @Before
+    @Override
     public void setUp() throws Exception {
-        MockitoAnnotations.initMocks(this);
-        mContext = new TestContext() {
-            @Override
-            public String getSystemServiceName(Class<?> serviceClass) {
-                if (serviceClass == ImsManager.class) {
-                    return Context.TELEPHONY_IMS_SERVICE;
-                } else if (serviceClass == TelecomManager.class) {
-                    return Context.TELECOM_SERVICE;
-                } else if (serviceClass == TelephonyManager.class) {
-                    return Context.TELEPHONY_SERVICE;
-                } else if (serviceClass == CarrierConfigManager.class) {
-                    return Context.CARRIER_CONFIG_SERVICE;
-                } else if (serviceClass == PowerManager.class) {
-                    return Context.POWER_SERVICE;
-                } else if (serviceClass == ConnectivityManager.class) {
-                    return Context.CONNECTIVITY_SERVICE;
-                }
-                return super.getSystemServiceName(serviceClass);
-            }
-
-            @Override
-            public Object getSystemService(String name) {
-                switch (name) {
-                    case (Context.POWER_SERVICE) : {
-                        return mPowerManager;
-                    }
-                    case (Context.CONNECTIVITY_SERVICE) : {
-                        return mConnectivityManager;
-                    }
-                }
-                return super.getSystemService(name);
-            }
-
-            @Override
-            public String getOpPackageName() {
-                return "";
-            }
-
-            @Override
-            public Resources getResources() {
-                return mResources;
-            }
-
-            @Override
-            public int getDisplayId() {
-                return Display.DEFAULT_DISPLAY;
-            }
-        };
-
-        if (Looper.myLooper() == null) {
-            Looper.prepare();
-        }
-
-        mHandlerThread = new HandlerThread("EmergencyCallDomainSelectorTest");
-        mHandlerThread.start();
-
-        try {
-            mLooper = new TestableLooper(mHandlerThread.getLooper());
-        } catch (Exception e) {
-            logd("Unable to create looper from handler.");
-        }
-
-        mTelephonyManager = mContext.getSystemService(TelephonyManager.class);
-        when(mTelephonyManager.createForSubscriptionId(anyInt()))
-                .thenReturn(mTelephonyManager);
-        when(mTelephonyManager.getNetworkCountryIso()).thenReturn("");
-        when(mTelephonyManager.getSimState(anyInt())).thenReturn(TelephonyManager.SIM_STATE_READY);
-        when(mTelephonyManager.getActiveModemCount()).thenReturn(1);
+        super.setUp();
 
-        mTelecomManager = mContext.getSystemService(TelecomManager.class);
-        when(mTelecomManager.getCurrentTtyMode()).thenReturn(TelecomManager.TTY_MODE_OFF);
-
-        mCarrierConfigManager = mContext.getSystemService(CarrierConfigManager.class);
         when(mCarrierConfigManager.getConfigForSubId(anyInt(), any()))
             .thenReturn(getDefaultPersistableBundle());
 
-        mConnectivityManager = mContext.getSystemService(ConnectivityManager.class);
         doAnswer(new Answer<Void>() {
             @Override
             public Void answer(InvocationOnMock invocation) throws Throwable {
@@ -270,26 +161,6 @@ public class EmergencyCallDomainSelectorTest {
         }).when(mConnectivityManager).registerNetworkCallback(
                 any(NetworkRequest.class), any(ConnectivityManager.NetworkCallback.class));
 
-        IPowerManager powerManager = mock(IPowerManager.class);
-        mPowerManager = new PowerManager(mContext, powerManager, mock(IThermalService.class),
-                new Handler(mHandlerThread.getLooper()));
-
-        ImsManager imsManager = mContext.getSystemService(ImsManager.class);
-        when(imsManager.getImsMmTelManager(anyInt())).thenReturn(mMmTelManager);
-        when(mMmTelManager.isAdvancedCallingSettingEnabled()).thenReturn(true);
-        doReturn(mProvisioningManager).when(imsManager).getProvisioningManager(anyInt());
-        doReturn(null).when(mProvisioningManager).getProvisioningStringValue(anyInt());
-
-        doAnswer(new Answer<Void>() {
-            @Override
-            public Void answer(InvocationOnMock invocation) throws Throwable {
-                Consumer<WwanSelectorCallback> consumer =
-                        (Consumer<WwanSelectorCallback>) invocation.getArguments()[0];
-                consumer.accept(mWwanSelectorCallback);
-                return null;
-            }
-        }).when(mTransportSelectorCallback).onWwanSelected(any());
-
         doAnswer(new Answer<Void>() {
             @Override
             public Void answer(InvocationOnMock invocation) throws Throwable {
@@ -301,22 +172,18 @@ public class EmergencyCallDomainSelectorTest {
         }).when(mWwanSelectorCallback).onRequestEmergencyNetworkScan(
                 any(), anyInt(), anyBoolean(), any(), any());
 
-        when(mResources.getStringArray(anyInt())).thenReturn(null);
-
         doReturn(false).when(mCsrdCtrl).isThereOtherSlot();
     }
 
     @After
+    @Override
     public void tearDown() throws Exception {
         if (mDomainSelector != null) {
             mDomainSelector.destroy();
             mDomainSelector = null;
         }
 
-        if (mLooper != null) {
-            mLooper.destroy();
-            mLooper = null;
-        }
+        super.tearDown();
     }
 
     @SmallTest
@@ -4904,21 +4771,4 @@ public class EmergencyCallDomainSelectorTest {
                 .setEmergencyRegistrationResult(regResult);
         return builder.build();
     }
-
-    private static void replaceInstance(final Class c,
-            final String instanceName, final Object obj, final Object newValue) throws Exception {
-        Field field = c.getDeclaredField(instanceName);
-        field.setAccessible(true);
-        field.set(obj, newValue);
-    }
-
-    private void processAllMessages() {
-        while (!mLooper.getLooper().getQueue().isIdle()) {
-            mLooper.processAllMessages();
-        }
-    }
-
-    private static void logd(String str) {
-        Log.d(TAG, str);
-    }
 }
@@ -25,6 +25,10 @@ import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import android.annotation.NonNull;
 import android.content.Context;
@@ -814,6 +818,118 @@ public class NormalCallDomainSelectorTest {
                 NormalCallDomainSelector.MSG_WAIT_FOR_IMS_STATE_TIMEOUT));
     }
 
+    @Test
+    public void testPooledSelectorReusedWithoutImsStateTimeout() {
+        final TestTransportSelectorCallback transportSelectorCallback1 =
+                new TestTransportSelectorCallback(mNormalCallDomainSelector);
+        final TestTransportSelectorCallback transportSelectorCallback2 =
+                new TestTransportSelectorCallback(mNormalCallDomainSelector);
+        final ServiceState serviceState = new ServiceState();
+        serviceState.setState(ServiceState.STATE_IN_SERVICE);
+        mNormalCallDomainSelector.setPooled();
+        initialize(serviceState, true, false, true, false);
+
+        DomainSelector selection1 = mNormalCallDomainSelector.newSelection();
+        mNormalCallDomainSelector.selectDomain(getSelectionAttributes(),
+                transportSelectorCallback1);
+        processAllMessages();
+        assertEquals(NetworkRegistrationInfo.DOMAIN_PS, transportSelectorCallback1.mSelectedDomain);
+        selection1.finishSelection();
+
+        verify(mMockDestroyListener).onDomainSelectorReleased(eq(mNormalCallDomainSelector));
+
+        // The IMS state received for the previous selection is used without waiting for it.
+        DomainSelectionService.SelectionAttributes attributes = getSelectionAttributes();
+        mNormalCallDomainSelector.reset(attributes);
+        DomainSelector selection2 = mNormalCallDomainSelector.newSelection();
+        mNormalCallDomainSelector.selectDomain(attributes, transportSelectorCallback2);
+        assertFalse(mNormalCallDomainSelector.hasMessages(
+                NormalCallDomainSelector.MSG_WAIT_FOR_IMS_STATE_TIMEOUT));
+
+        // The late calls of the previous owner do not act on the new selection.
+        selection1.finishSelection();
+        selection1.reselectDomain(attributes);
+        assertEquals(NormalCallDomainSelector.SelectorState.ACTIVE,
+                mNormalCallDomainSelector.getSelectorState());
+
+        processAllMessages();
+
+        assertEquals(NetworkRegistrationInfo.DOMAIN_PS, transportSelectorCallback2.mSelectedDomain);
+        assertFalse(transportSelectorCallback2.mSelectionTerminated);
+
+        selection2.finishSelection();
+        selection2.finishSelection();
+
+        verify(mMockDestroyListener, times(2))
+                .onDomainSelectorReleased(eq(mNormalCallDomainSelector));
+    }
+
+    @Test
+    public void testPooledSelectorIgnoresStateChangesWhenIdle() {
+        final TestTransportSelectorCallback transportSelectorCallback =
+                new TestTransportSelectorCallback(mNormalCallDomainSelector);
+        final ServiceState serviceState = new ServiceState();
+        serviceState.setState(ServiceState.STATE_IN_SERVICE);
+        mNormalCallDomainSelector.setPooled();
+        initialize(serviceState, true, false, true, false);
+
+        mNormalCallDomainSelector.selectDomain(getSelectionAttributes(),
+                transportSelectorCallback);
+        processAllMessages();
+        mNormalCallDomainSelector.finishSelection();
+        transportSelectorCallback.reset();
+
+        // The listeners are kept registered while the selector is idle in the pool.
+        initialize(serviceState, false, false, false, false);
+        mNormalCallDomainSelector.onImsMmTelFeatureAvailableChanged();
+        processAllMessages();
+
+        assertFalse(transportSelectorCallback.mWlanSelected);
+        assertFalse(transportSelectorCallback.mWwanSelected);
+        assertFalse(transportSelectorCallback.mDomainSelected);
+        assertFalse(transportSelectorCallback.mSelectionTerminated);
+        assertEquals(NormalCallDomainSelector.SelectorState.INACTIVE,
+                mNormalCallDomainSelector.getSelectorState());
+        verify(mMockDestroyListener, never()).onDomainSelectorDestroyed(any());
+    }
+
+    @Test
+    public void testPooledSelectorDestroyedUnregistersListeners() {
+        final TestTransportSelectorCallback transportSelectorCallback =
+                new TestTransportSelectorCallback(mNormalCallDomainSelector);
+        final ServiceState serviceState = new ServiceState();
+        serviceState.setState(ServiceState.STATE_IN_SERVICE);
+        mNormalCallDomainSelector.setPooled();
+        initialize(serviceState, true, false, true, false);
+
+        mNormalCallDomainSelector.selectDomain(getSelectionAttributes(),
+                transportSelectorCallback);
+        processAllMessages();
+        mNormalCallDomainSelector.finishSelection();
+
+        verify(mMockImsStateTracker, never()).removeServiceStateListener(any());
+        verify(mMockImsStateTracker, never()).removeImsStateListener(any());
+
+        mNormalCallDomainSelector.destroy();
+
+        verify(mMockImsStateTracker).removeServiceStateListener(eq(mNormalCallDomainSelector));
+        verify(mMockImsStateTracker).removeImsStateListener(eq(mNormalCallDomainSelector));
+        verify(mMockDestroyListener).onDomainSelectorDestroyed(eq(mNormalCallDomainSelector));
+        assertEquals(NormalCallDomainSelector.SelectorState.DESTROYED,
+                mNormalCallDomainSelector.getSelectorState());
+    }
+
+    private static DomainSelectionService.SelectionAttributes getSelectionAttributes() {
+        return new DomainSelectionService.SelectionAttributes.Builder(
+                SLOT_ID, SUB_ID_1, SELECTOR_TYPE_CALLING)
+                .setAddress(TEST_URI)
+                .setCallId(TEST_CALLID)
+                .setEmergency(false)
+                .setVideoCall(false)
+                .setExitedFromAirplaneMode(false)
+                .build();
+    }
+
     static class TestTransportSelectorCallback implements TransportSelectorCallback,
             WwanSelectorCallback {
         public boolean mCreated;
@@ -25,6 +25,7 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -34,6 +35,7 @@ import android.os.Looper;
 import android.telephony.AccessNetworkConstants.AccessNetworkType;
 import android.telephony.AccessNetworkConstants.RadioAccessNetworkType;
 import android.telephony.DomainSelectionService.SelectionAttributes;
+import android.telephony.DomainSelector;
 import android.telephony.NetworkRegistrationInfo;
 import android.telephony.TransportSelectorCallback;
 import android.telephony.WwanSelectorCallback;
@@ -203,6 +205,66 @@ public class SmsDomainSelectorTest {
         verify(mDomainSelectorDestroyListener).onDomainSelectorDestroyed(eq(mDomainSelector));
     }
 
+    @Test
+    @SmallTest
+    public void testFinishSelectionWhenPooled() {
+        setUpImsStateTracker(AccessNetworkType.EUTRAN);
+        setUpWwanSelectorCallback();
+
+        mDomainSelector.setPooled();
+
+        verify(mImsStateTracker).addImsStateListener(eq(mDomainSelector));
+
+        mDomainSelector.selectDomain(mSelectionAttributes, mTransportSelectorCallback);
+        processAllMessages();
+        mDomainSelector.finishSelection();
+
+        assertFalse(mDomainSelector.isDomainSelectionRequested());
+        verify(mDomainSelectorDestroyListener).onDomainSelectorReleased(eq(mDomainSelector));
+        verify(mDomainSelectorDestroyListener, never()).onDomainSelectorDestroyed(any());
+
+        // The released domain selector is reused without registering the listener again.
+        mDomainSelector.reset(mSelectionAttributes);
+        mDomainSelector.selectDomain(mSelectionAttributes, mTransportSelectorCallback);
+        processAllMessages();
+
+        verify(mImsStateTracker).addImsStateListener(eq(mDomainSelector));
+        verify(mWwanSelectorCallback, times(2)).onDomainSelected(
+                eq(NetworkRegistrationInfo.DOMAIN_PS), eq(false));
+        assertFalse(mDomainSelector.isDomainSelectionRequested());
+    }
+
+    @Test
+    @SmallTest
+    public void testFinishSelectionOfPreviousOwnerIgnoredWhenReused() {
+        setUpImsStateTracker(AccessNetworkType.EUTRAN);
+        setUpWwanSelectorCallback();
+
+        mDomainSelector.setPooled();
+        DomainSelector selection1 = mDomainSelector.newSelection();
+        mDomainSelector.selectDomain(mSelectionAttributes, mTransportSelectorCallback);
+        processAllMessages();
+        selection1.finishSelection();
+        selection1.finishSelection();
+
+        verify(mDomainSelectorDestroyListener, times(1))
+                .onDomainSelectorReleased(eq(mDomainSelector));
+
+        mDomainSelector.reset(mSelectionAttributes);
+        mDomainSelector.newSelection();
+        mDomainSelector.selectDomain(mSelectionAttributes, mTransportSelectorCallback);
+        selection1.finishSelection();
+
+        assertTrue(mDomainSelector.isDomainSelectionRequested());
+
+        processAllMessages();
+
+        verify(mWwanSelectorCallback, times(2)).onDomainSelected(
+                eq(NetworkRegistrationInfo.DOMAIN_PS), eq(false));
+        verify(mDomainSelectorDestroyListener, times(1))
+                .onDomainSelectorReleased(eq(mDomainSelector));
+    }
+
     @Test
     @SmallTest
     public void testReselectDomain() {
@@ -16,12 +16,17 @@
 
 package com.android.services.telephony.domainselection;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -35,6 +40,7 @@ import android.telephony.BarringInfo;
 import android.telephony.DomainSelectionService;
 import android.telephony.DomainSelectionService.SelectionAttributes;
 import android.telephony.DomainSelectionService.SelectorType;
+import android.telephony.DomainSelector;
 import android.telephony.ServiceState;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
@@ -80,6 +86,7 @@ public class TelephonyDomainSelectionServiceTest {
                 public DomainSelectorBase create(Context context, int slotId, int subId,
                         @SelectorType int selectorType, boolean isEmergency,
                         @NonNull Looper looper, @NonNull ImsStateTracker imsStateTracker,
+                        @NonNull DomainSelectionContext selectionContext,
                         @NonNull DomainSelectorBase.DestroyListener listener,
                         @NonNull CrossSimRedialingController crossSimRedialingController,
                         @NonNull DataConnectionStateHelper dataConnectionStateHelper) {
@@ -265,6 +272,142 @@ public class TelephonyDomainSelectionServiceTest {
         verify(mDomainSelectorBase2).selectDomain(eq(attr2), eq(mSelectorCallback2));
     }
 
+    @Test
+    @SmallTest
+    public void testOnDomainSelectionReusesReleasedDomainSelector() {
+        when(mDomainSelectorBase1.isReusable()).thenReturn(true);
+        when(mDomainSelectorBase1.getSubId()).thenReturn(SUB_1);
+        SelectionAttributes attr1 = new SelectionAttributes.Builder(
+                SLOT_0, SUB_1, TEST_SELECTOR_TYPE)
+                .setCallId(CALL_ID)
+                .build();
+        mDomainSelectionService.onDomainSelection(attr1, mSelectorCallback1);
+        processAllMessages();
+
+        verify(mDomainSelectorBase1).setPooled();
+        verify(mDomainSelectorBase1).selectDomain(eq(attr1), eq(mSelectorCallback1));
+
+        // Notify the domain selection service that this domain selector is released.
+        mDomainSelectorDestroyListener.onDomainSelectorReleased(mDomainSelectorBase1);
+        mDomainSelectorDestroyListener = null;
+
+        SelectionAttributes attr2 = new SelectionAttributes.Builder(
+                SLOT_0, SUB_1, TEST_SELECTOR_TYPE)
+                .setCallId(CALL_ID)
+                .build();
+        mDomainSelectionService.onDomainSelection(attr2, mSelectorCallback2);
+        processAllMessages();
+
+        // The domain selector factory is not called again.
+        assertNull(mDomainSelectorDestroyListener);
+        verify(mDomainSelectorBase1).reset(eq(attr2));
+        verify(mSelectorCallback2).onCreated(eq(mDomainSelectorBase1));
+        verify(mDomainSelectorBase1).selectDomain(eq(attr2), eq(mSelectorCallback2));
+        verify(mDomainSelectorBase1, times(1)).setPooled();
+        verify(mDomainSelectorBase1, never()).destroy();
+    }
+
+    @Test
+    @SmallTest
+    public void testOnDomainSelectionPassesSelectionOfPooledDomainSelector() {
+        DomainSelector selection = Mockito.mock(DomainSelector.class);
+        when(mDomainSelectorBase1.isReusable()).thenReturn(true);
+        when(mDomainSelectorBase1.isPooled()).thenReturn(true);
+        when(mDomainSelectorBase1.newSelection()).thenReturn(selection);
+        SelectionAttributes attr1 = new SelectionAttributes.Builder(
+                SLOT_0, SUB_1, TEST_SELECTOR_TYPE)
+                .setCallId(CALL_ID)
+                .build();
+        mDomainSelectionService.onDomainSelection(attr1, mSelectorCallback1);
+        processAllMessages();
+
+        verify(mSelectorCallback1).onCreated(eq(selection));
+        verify(mDomainSelectorBase1).selectDomain(eq(attr1), eq(mSelectorCallback1));
+    }
+
+    @Test
+    @SmallTest
+    public void testOnDomainSelectorReleasedTwiceKeepsReleasedDomainSelector() {
+        when(mDomainSelectorBase1.isReusable()).thenReturn(true);
+        when(mDomainSelectorBase1.getSubId()).thenReturn(SUB_1);
+        SelectionAttributes attr1 = new SelectionAttributes.Builder(
+                SLOT_0, SUB_1, TEST_SELECTOR_TYPE)
+                .setCallId(CALL_ID)
+                .build();
+        mDomainSelectionService.onDomainSelection(attr1, mSelectorCallback1);
+        processAllMessages();
+
+        // The second release of the idle domain selector is ignored.
+        mDomainSelectorDestroyListener.onDomainSelectorReleased(mDomainSelectorBase1);
+        mDomainSelectorDestroyListener.onDomainSelectorReleased(mDomainSelectorBase1);
+
+        verify(mDomainSelectorBase1, never()).destroy();
+
+        SelectionAttributes attr2 = new SelectionAttributes.Builder(
+                SLOT_0, SUB_1, TEST_SELECTOR_TYPE)
+                .setCallId(CALL_ID)
+                .build();
+        mDomainSelectionService.onDomainSelection(attr2, mSelectorCallback2);
+        processAllMessages();
+
+        verify(mDomainSelectorBase1).reset(eq(attr2));
+        verify(mDomainSelectorBase1).selectDomain(eq(attr2), eq(mSelectorCallback2));
+    }
+
+    @Test
+    @SmallTest
+    public void testOnDomainSelectionEvictsReleasedDomainSelectorOfOtherSubscription() {
+        when(mDomainSelectorBase1.isReusable()).thenReturn(true);
+        when(mDomainSelectorBase1.getSubId()).thenReturn(SUB_1);
+        SelectionAttributes attr1 = new SelectionAttributes.Builder(
+                SLOT_0, SUB_1, TEST_SELECTOR_TYPE)
+                .setCallId(CALL_ID)
+                .build();
+        mDomainSelectionService.onDomainSelection(attr1, mSelectorCallback1);
+        processAllMessages();
+
+        mDomainSelectorDestroyListener.onDomainSelectorReleased(mDomainSelectorBase1);
+
+        SelectionAttributes attr2 = new SelectionAttributes.Builder(
+                SLOT_0, SUB_2, TEST_SELECTOR_TYPE)
+                .setCallId(CALL_ID)
+                .build();
+        mDomainSelectionService.onDomainSelection(attr2, mSelectorCallback2);
+        processAllMessages();
+
+        verify(mDomainSelectorBase1).destroy();
+        verify(mDomainSelectorBase1, never()).reset(any());
+        verify(mSelectorCallback2).onCreated(eq(mDomainSelectorBase2));
+        verify(mDomainSelectorBase2).selectDomain(eq(attr2), eq(mSelectorCallback2));
+    }
+
+    @Test
+    @SmallTest
+    public void testDomainSelectorPoolKeepsReleasedDomainSelectorsOfSameSubscription() {
+        when(mDomainSelectorBase1.isReusable()).thenReturn(true);
+        when(mDomainSelectorBase1.getSubId()).thenReturn(SUB_1);
+        when(mDomainSelectorBase2.isReusable()).thenReturn(true);
+        when(mDomainSelectorBase2.getSubId()).thenReturn(SUB_1);
+        TelephonyDomainSelectionService.DomainSelectorPool pool =
+                new TelephonyDomainSelectionService.DomainSelectorPool(SLOT_0);
+        List<DomainSelectorBase> evicted = new ArrayList<>();
+        pool.release(new TelephonyDomainSelectionService.DomainSelectorContainer(
+                SLOT_0, TEST_SELECTOR_TYPE, false, mDomainSelectorBase1), evicted);
+        pool.release(new TelephonyDomainSelectionService.DomainSelectorContainer(
+                SLOT_0, TEST_SELECTOR_TYPE, false, mDomainSelectorBase2), evicted);
+
+        DomainSelectorBase selector = pool.acquire(SUB_1, TEST_SELECTOR_TYPE, false, evicted);
+
+        // The other released domain selector of the subscription stays for the next selection.
+        assertEquals(mDomainSelectorBase2, selector);
+        assertFalse(pool.contains(mDomainSelectorBase2));
+        assertTrue(pool.contains(mDomainSelectorBase1));
+        assertTrue(evicted.isEmpty());
+        assertEquals(mDomainSelectorBase1,
+                pool.acquire(SUB_1, TEST_SELECTOR_TYPE, false, evicted));
+        assertTrue(evicted.isEmpty());
+    }
+
     @Test
     @SmallTest
     public void testOnDomainSelectionTwiceWithoutDestroy() {